@@ -0,0 +1,11 @@
+#!/bin/bash
+
+# Benchmark the affine math on the development machine. Pass --check to compare
+# it against java.awt.geom.AffineTransform instead.
+
+CLASSES="bin/tools"
+
+mkdir -p $CLASSES
+javac -d $CLASSES src/android/com/abb/Affine.java \
+    tools/AffineBenchmark.java || exit 1
+java -cp $CLASSES AffineBenchmark $1
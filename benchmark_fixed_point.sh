@@ -0,0 +1,12 @@
+#!/bin/bash
+
+# Benchmark the fixed point tile placement against the float path on the
+# development machine. Pass --check to compare the fixed point drawing math
+# against the float path instead.
+
+CLASSES="bin/tools"
+
+mkdir -p $CLASSES
+javac -d $CLASSES src/android/com/abb/Fixed.java \
+    tools/FixedPointBenchmark.java || exit 1
+java -cp $CLASSES FixedPointBenchmark $1
@@ -0,0 +1,17 @@
+#!/bin/bash
+
+# Benchmark the software rasterizer on the development machine. Pass --check to
+# compare its output against the golden image instead, or --write-golden to
+# update the golden image after an intended change in behavior.
+
+CLASSES="bin/tools"
+GOLDEN="tools/golden/rasterizer_scene.png"
+
+mkdir -p $CLASSES
+javac -d $CLASSES src/android/com/abb/SoftwareRasterizer.java \
+    tools/RasterizerBenchmark.java || exit 1
+if [ -n "$1" ]; then
+  java -Djava.awt.headless=true -cp $CLASSES RasterizerBenchmark $1 $GOLDEN
+else
+  java -Djava.awt.headless=true -cp $CLASSES RasterizerBenchmark
+fi
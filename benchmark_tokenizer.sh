@@ -0,0 +1,12 @@
+#!/bin/bash
+
+# Benchmark loading level and animation files through the Tokenizer against
+# the reader it replaced on the development machine. Pass --check to compare
+# the tokens and parsed numbers instead.
+
+CLASSES="bin/tools"
+
+mkdir -p $CLASSES
+javac -d $CLASSES src/android/com/abb/Tokenizer.java \
+    tools/TokenizerBenchmark.java || exit 1
+java -cp $CLASSES TokenizerBenchmark $1
@@ -0,0 +1,13 @@
+#!/bin/bash
+
+# Compile the entity, animation, enemy and weapon definitions beneath assets/
+# to the binary format their loaders read, writing a .bin file next to each.
+# Pass --check to verify the existing .bin files instead.
+
+CLASSES="bin/tools"
+
+mkdir -p $CLASSES
+javac -d $CLASSES src/android/com/abb/Tokenizer.java \
+    src/android/com/abb/LevelFile.java src/android/com/abb/DefinitionFile.java \
+    tools/CompileDefinitions.java || exit 1
+java -cp $CLASSES CompileDefinitions $@ assets
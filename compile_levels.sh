@@ -0,0 +1,12 @@
+#!/bin/bash
+
+# Compile every level beneath assets/ to the binary format Map loads, writing a
+# level_N.bin file next to each level_N.txt. Pass --check to verify the
+# existing .bin files instead.
+
+CLASSES="bin/tools"
+
+mkdir -p $CLASSES
+javac -d $CLASSES src/android/com/abb/Tokenizer.java \
+    src/android/com/abb/LevelFile.java tools/CompileLevels.java || exit 1
+java -cp $CLASSES CompileLevels $@ assets
@@ -0,0 +1,10 @@
+#!/bin/bash
+
+# Compress every opaque PNG beneath assets/ to ETC1, writing a .pkm file next
+# to each. Pass --check to verify the existing .pkm files instead.
+
+CLASSES="bin/tools"
+
+mkdir -p $CLASSES
+javac -d $CLASSES src/android/com/abb/Etc1.java tools/CompressTextures.java || exit 1
+java -Djava.awt.headless=true -cp $CLASSES CompressTextures $@ assets
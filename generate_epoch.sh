@@ -1,10 +1,15 @@
 #!/bin/bash
 
-./create_demo.sh
-
 EPOCH="assets/epoch.txt"
-
-ALL_FILES=`find -L assets | grep -v \~ | grep -v \.svn | grep -v \.drop`
-
-rm $EPOCH
-cat $ALL_FILES | sha1sum > $EPOCH
+MANIFEST="assets/manifest.txt"
+
+rm -f $EPOCH $MANIFEST
+ALL_FILES=`cd assets && find -L . -type f | sed 's|^\./||' | \
+  grep -v \~ | grep -v \.svn | grep -v \.drop | sort`
+
+# One "<sha1> <path>" line per asset, see Content.prepare(). The epoch covers
+# the paths and contents of every asset.
+for FILE in $ALL_FILES; do
+  echo "`sha1sum < assets/$FILE | cut -d' ' -f1` $FILE" >> $MANIFEST
+done
+sha1sum < $MANIFEST > $EPOCH
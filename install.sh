@@ -1,5 +1,14 @@
 #!/bin/bash
 
+echo "Compressing opaque textures..."
+./compress_textures.sh || exit 1
+
+echo "Compiling levels..."
+./compile_levels.sh || exit 1
+
+echo "Compiling definitions..."
+./compile_definitions.sh || exit 1
+
 echo "Generating the content epoch..."
 ./generate_epoch.sh
 
@@ -0,0 +1,202 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+
+/** A 2D affine transformation mapping (x, y) to
+ *
+ *   x' = a * x + b * y + tx
+ *   y' = c * x + d * y + ty
+ *
+ * This is a pure Java replacement for android.graphics.Matrix in the drawing
+ * paths, where every Matrix operation involves a native call. The operations
+ * follow the Matrix naming: pre* operations apply the new transformation
+ * before this one, that is to points in the local coordinate space. Angles are
+ * in degrees, positive angles rotating from the x axis towards the y axis.
+ *
+ * Static forms of the operations act on 6 floats at an offset within an array,
+ * laid out a, b, tx, c, d, ty as the first two rows of Matrix.getValues(...),
+ * for packing many transformations into a single table. */
+public class Affine {
+  public float a  = 1.0f;
+  public float b  = 0.0f;
+  public float tx = 0.0f;
+  public float c  = 0.0f;
+  public float d  = 1.0f;
+  public float ty = 0.0f;
+
+  public void setIdentity() {
+    a = d = 1.0f;
+    b = c = tx = ty = 0.0f;
+  }
+
+  public void set(Affine other) {
+    a = other.a;
+    b = other.b;
+    tx = other.tx;
+    c = other.c;
+    d = other.d;
+    ty = other.ty;
+  }
+
+  /** Set from 6 floats at the specified offset, see the class comment. */
+  public void set(float[] values, int offset) {
+    a = values[offset + 0];
+    b = values[offset + 1];
+    tx = values[offset + 2];
+    c = values[offset + 3];
+    d = values[offset + 4];
+    ty = values[offset + 5];
+  }
+
+  public void get(float[] values, int offset) {
+    values[offset + 0] = a;
+    values[offset + 1] = b;
+    values[offset + 2] = tx;
+    values[offset + 3] = c;
+    values[offset + 4] = d;
+    values[offset + 5] = ty;
+  }
+
+  public void setTranslate(float x, float y) {
+    a = d = 1.0f;
+    b = c = 0.0f;
+    tx = x;
+    ty = y;
+  }
+
+  /** Fused equivalent of setTranslate(x, y), preRotate(degrees) and
+   * preScale(scale_x, scale_y). */
+  public void setTranslateRotateScale(float x, float y, float degrees,
+                                      float scale_x, float scale_y) {
+    double radians = Math.toRadians(degrees);
+    float cos = (float)Math.cos(radians);
+    float sin = (float)Math.sin(radians);
+    a = cos * scale_x;
+    b = -sin * scale_y;
+    c = sin * scale_x;
+    d = cos * scale_y;
+    tx = x;
+    ty = y;
+  }
+
+  public void preTranslate(float x, float y) {
+    tx += a * x + b * y;
+    ty += c * x + d * y;
+  }
+
+  public void preRotate(float degrees) {
+    double radians = Math.toRadians(degrees);
+    float cos = (float)Math.cos(radians);
+    float sin = (float)Math.sin(radians);
+    float old_a = a;
+    float old_c = c;
+    a = old_a * cos + b * sin;
+    b = b * cos - old_a * sin;
+    c = old_c * cos + d * sin;
+    d = d * cos - old_c * sin;
+  }
+
+  public void preScale(float scale_x, float scale_y) {
+    a *= scale_x;
+    c *= scale_x;
+    b *= scale_y;
+    d *= scale_y;
+  }
+
+  /** Fused equivalent of preTranslate(x, y) and preScale(scale_x, scale_y). */
+  public void preTranslateScale(float x, float y,
+                                float scale_x, float scale_y) {
+    tx += a * x + b * y;
+    ty += c * x + d * y;
+    a *= scale_x;
+    c *= scale_x;
+    b *= scale_y;
+    d *= scale_y;
+  }
+
+  /** Set this transformation to lhs * rhs, that is rhs applied first. Either
+   * argument may be this transformation. */
+  public void setConcat(Affine lhs, Affine rhs) {
+    float new_a = lhs.a * rhs.a + lhs.b * rhs.c;
+    float new_b = lhs.a * rhs.b + lhs.b * rhs.d;
+    float new_tx = lhs.a * rhs.tx + lhs.b * rhs.ty + lhs.tx;
+    float new_c = lhs.c * rhs.a + lhs.d * rhs.c;
+    float new_d = lhs.c * rhs.b + lhs.d * rhs.d;
+    float new_ty = lhs.c * rhs.tx + lhs.d * rhs.ty + lhs.ty;
+    a = new_a;
+    b = new_b;
+    tx = new_tx;
+    c = new_c;
+    d = new_d;
+    ty = new_ty;
+  }
+
+  public float mapX(float x, float y) {
+    return a * x + b * y + tx;
+  }
+
+  public float mapY(float x, float y) {
+    return c * x + d * y + ty;
+  }
+
+  /** Write the transformation as the column-major 4x4 matrix OpenGL expects,
+   * mapping from the y-down screen coordinates used throughout the game to the
+   * y-up OpenGL coordinates of a surface of the specified height. Only the
+   * affine elements are written, the remaining elements of the array must
+   * hold those of the identity. */
+  public void getGlMatrix(float[] matrix4x4, float surface_height) {
+    matrix4x4[0] = a;
+    matrix4x4[1] = -c;
+    matrix4x4[4] = b;
+    matrix4x4[5] = -d;
+    matrix4x4[12] = tx;
+    matrix4x4[13] = surface_height - ty;
+  }
+
+  public static void setIdentity(float[] values, int offset) {
+    values[offset + 0] = 1.0f;
+    values[offset + 1] = 0.0f;
+    values[offset + 2] = 0.0f;
+    values[offset + 3] = 0.0f;
+    values[offset + 4] = 1.0f;
+    values[offset + 5] = 0.0f;
+  }
+
+  public static void preTranslate(float[] values, int offset,
+                                  float x, float y) {
+    values[offset + 2] += values[offset + 0] * x + values[offset + 1] * y;
+    values[offset + 5] += values[offset + 3] * x + values[offset + 4] * y;
+  }
+
+  public static void preRotate(float[] values, int offset, float degrees) {
+    double radians = Math.toRadians(degrees);
+    float cos = (float)Math.cos(radians);
+    float sin = (float)Math.sin(radians);
+    float a = values[offset + 0];
+    float b = values[offset + 1];
+    float c = values[offset + 3];
+    float d = values[offset + 4];
+    values[offset + 0] = a * cos + b * sin;
+    values[offset + 1] = b * cos - a * sin;
+    values[offset + 3] = c * cos + d * sin;
+    values[offset + 4] = d * cos - c * sin;
+  }
+
+  public static void preScale(float[] values, int offset,
+                              float scale_x, float scale_y) {
+    values[offset + 0] *= scale_x;
+    values[offset + 1] *= scale_y;
+    values[offset + 3] *= scale_x;
+    values[offset + 4] *= scale_y;
+  }
+}
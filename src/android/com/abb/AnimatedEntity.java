@@ -11,8 +11,6 @@
 
 package android.com.abb;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.util.Log;
 import java.util.TreeMap;
@@ -46,31 +44,30 @@ public class AnimatedEntity extends Entity {
     // entity.png
     // stand  0  0   64  64  1  1
     // run    0  64  64  64  3  20
-    String file_path = Content.getFilePath(uri);
-    String[] tokens = Content.readFileTokens(file_path);
-
-    final int kLineTokenCount = 7;
-    Assert.assertTrue("Animated entity file empty.", tokens.length > 1);
-    Assert.assertEquals("Animated entity file improperly formatted.",
-                        (tokens.length - 1) % kLineTokenCount, 0);
+    //
+    // The file may also be compiled to a binary definition, see DefinitionFile.
+    DefinitionFile definition =
+        Content.readDefinition(uri, DefinitionFile.kKindAnimatedEntity);
+    Assert.assertTrue("Animated entity file empty.",
+                      definition.sequence_names.length > 0);
 
     // Path names are expected to be relative to the path specified for the
     // animation definition file.
     String uri_string = uri.toString();
     Log.d("AnimatedEntity::loadFromUri", "Found uri= " + uri_string);
     String base_uri_string = uri_string.substring(0, uri_string.lastIndexOf("/"));
-    mImageUri = Uri.parse(base_uri_string + "/" + tokens[0]);
+    mImageUri = Uri.parse(base_uri_string + "/" + definition.image);
 
-    for (int index = 1; index < tokens.length; index += kLineTokenCount) {
+    int[] frames = definition.sequence_frames;
+    for (int index = 0; index < definition.sequence_names.length; ++index) {
       Animation animation = new Animation();
-      animation.start_x = Integer.parseInt(tokens[index + 1]);
-      animation.start_y = Integer.parseInt(tokens[index + 2]);
-      animation.frame_width = Integer.parseInt(tokens[index + 3]);
-      animation.frame_height = Integer.parseInt(tokens[index + 4]);
-      animation.frame_count = Integer.parseInt(tokens[index + 5]);
-      animation.frame_rate = Float.parseFloat(tokens[index + 6]);
-      String animation_name = tokens[index];
-      mAnimations.put(animation_name, animation);
+      animation.start_x = frames[5 * index];
+      animation.start_y = frames[5 * index + 1];
+      animation.frame_width = frames[5 * index + 2];
+      animation.frame_height = frames[5 * index + 3];
+      animation.frame_count = frames[5 * index + 4];
+      animation.frame_rate = definition.sequence_rates[index];
+      mAnimations.put(definition.sequence_names[index], animation);
     }
   }
 
@@ -101,11 +98,10 @@ public class AnimatedEntity extends Entity {
                    float zoom) {
     // Load part image if it hasn't yet been loaded. This is necessary since the
     // graphics class must only be interacted with from the main thread. This is
-    // a product of the lack of thread safety in OpenGL.
+    // a product of the lack of thread safety in OpenGL. The image itself is
+    // decoded in the background and streamed in over the following frames.
     if (mImageUri != null) {
-      String image_path = Content.getFilePath(mImageUri);
-      Bitmap image_bitmap = BitmapFactory.decodeFile(image_path);
-      sprite_image = graphics.loadImageFromBitmap(image_bitmap);
+      sprite_image = graphics.loadImageFromUriAsync(mImageUri);
       mImageUri = null;
     }
 
@@ -13,8 +13,6 @@ package android.com.abb;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.net.Uri;
 import android.util.Log;
@@ -49,38 +47,46 @@ public class ArticulatedEntity extends Entity {
     // entity.png
     // thigh  root   0   0  30  10
     // leg    thigh  10  0  30  20
-
-    String file_path = Content.getFilePath(uri);
-    String[] tokens = Content.readFileTokens(file_path);
-
-    final int kLineTokenCount = 6;
-    Assert.assertTrue("Articulated entity file empty.", tokens.length > 1);
-    Assert.assertEquals("Articulated entity file improperly formatted.",
-                        (tokens.length - 1) % kLineTokenCount, 0);
+    //
+    // The file may also be compiled to a binary definition, which lists the
+    // parts already flattened, see DefinitionFile.
+    DefinitionFile definition =
+        Content.readDefinition(uri, DefinitionFile.kKindArticulatedEntity);
+    int part_count = definition.part_names.length;
+    Assert.assertTrue("Articulated entity file empty.", part_count > 1);
 
     // Path names are expected to be relative to the path specified for the
     // entity definition file.
     String uri_string = uri.toString();
     Log.d("ArtifulatedEntity::loadFromUri", "Found uri= " + uri_string);
     String base_uri_string = uri_string.substring(0, uri_string.lastIndexOf("/"));
-    mImageUri = Uri.parse(base_uri_string + "/" + tokens[0]);
-
-    for (int index = 1; index < tokens.length; index += kLineTokenCount) {
-      Part part = new Part();
-      part.name = tokens[index];
-      part.image_rect = new Rect(Integer.parseInt(tokens[index + 2]),
-                                 Integer.parseInt(tokens[index + 3]),
-                                 Integer.parseInt(tokens[index + 4]),
-                                 Integer.parseInt(tokens[index + 5]));
-
-      String root_part_name = tokens[index + 1];
-      Part root_part = findPartByName(root_part_name);
-      Assert.assertNotNull(
-          "Illegal unknown root specification: " + root_part_name, root_part);
-      root_part.children.add(part);
+    mImageUri = Uri.parse(base_uri_string + "/" + definition.image);
+    mImagePath = Content.getFilePath(mImageUri);
+
+    // The parts are listed in drawing order, parents preceding their children,
+    // so that baking and drawing need not recurse. The first is the root.
+    mParts.clear();
+    mPartParents = definition.part_parents;
+    mRoot.children.clear();
+    int[] rects = definition.part_rects;
+    for (int part_index = 0; part_index < part_count; ++part_index) {
+      Part part = part_index == 0 ? mRoot : new Part();
+      part.name = definition.part_names[part_index];
+      part.image_rect = new Rect(rects[4 * part_index],
+                                 rects[4 * part_index + 1],
+                                 rects[4 * part_index + 2],
+                                 rects[4 * part_index + 3]);
+      int parent_index = mPartParents[part_index];
+      if (parent_index != -1) {
+        mParts.get(parent_index).children.add(part);
+      }
+      mParts.add(part);
     }
   }
 
+  /** Load an animation, sharing it with any other entity which loaded the
+   * same animation. The animation is baked against the parts of this entity,
+   * see Animation.bake(...), so the entity must be loaded first. */
   public void loadAnimationFromUri(String uri_string) {
     Animation animation = mAnimationCache.get(uri_string);
     if (animation != null) {
@@ -88,12 +94,23 @@ public class ArticulatedEntity extends Entity {
     } else {
       mAnimation = new Animation();
       mAnimation.loadFromUri(uri_string);
+      mAnimation.bake(mParts, mPartParents);
+      mAnimation.buildImpostor(loadPartTexture(), getPartRects());
       mAnimationCache.put(uri_string, mAnimation);
     }
+    mAnimationTime = 0.0f;
   }
 
+  /** The animation time is kept per entity rather than within the shared
+   * animation so that clones animate independently. */
   public void stepAnimation(float time_step) {
-    mAnimation.step(time_step);
+    float length = mAnimation.getLength();
+    if (length > 0.0f) {
+      mAnimationTime += time_step;
+      while (mAnimationTime >= length) {
+        mAnimationTime -= length;
+      }
+    }
   }
 
   /** The drawing scale of the entire articulated sprite may be altered in order
@@ -108,37 +125,114 @@ public class ArticulatedEntity extends Entity {
                    float zoom) {
     // Load part image if it hasn't yet been loaded. This is necessary since the
     // graphics class must only be interacted with from the main thread. This is
-    // a product of the lack of thread safety in OpenGL.
+    // a product of the lack of thread safety in OpenGL. The image itself is
+    // decoded in the background and streamed in over the following frames.
     if (mImageUri != null) {
-      String image_path = Content.getFilePath(mImageUri);
-      Bitmap image_bitmap = BitmapFactory.decodeFile(image_path);
-      mImageHandle = graphics.loadImageFromBitmap(image_bitmap);
+      mImageHandle = graphics.loadImageFromUriAsync(mImageUri);
       mImageUri = null;
     }
 
+    if (!mAnimation.isBaked(mParts.size())) {
+      // Either the default, unanimated pose or an animation loaded before the
+      // entity itself.
+      mAnimation.bake(mParts, mPartParents);
+    }
+    updateRootTransformation(graphics, center_x, center_y, zoom);
+
+    // Entities which appear small enough are drawn as a single image from the
+    // pre-rendered impostor sheet rather than part by part.
+    Impostor impostor = mAnimation.getImpostor();
+    if (impostor != null &&
+        impostor.getSize() * mDrawingScale * zoom < kImpostorSize) {
+      impostor.draw(graphics, mAnimationTime,
+                    mRootTransformation.tx, mRootTransformation.ty,
+                    mRootTransformation.a, mRootTransformation.d);
+      return;
+    }
+
+    if (mImageHandle == -1) {
+      return;
+    }
+
+    // Each part is drawn with its baked pose, interpolated between the two
+    // nearest baked frames, and concatenated with the root transformation.
+    float[] draw_matrices = mAnimation.getDrawMatrices();
+    int part_count = mParts.size();
+    float frame_position = mAnimationTime / mAnimation.getFrameDuration();
+    int frame_a = (int)frame_position;
+    float interpolation = frame_position - frame_a;
+    frame_a %= mAnimation.getFrameCount();
+    int frame_b = (frame_a + 1) % mAnimation.getFrameCount();
+    if (!kInterpolateBakedFrames) {
+      interpolation = 0.0f;
+    }
+
+    for (int part_index = 0; part_index < part_count; ++part_index) {
+      Rect image_rect = mParts.get(part_index).image_rect;
+      if (image_rect.isEmpty()) {
+        continue;  // The root has no image.
+      }
+      int offset_a = kMatrixSize * (part_count * frame_a + part_index);
+      int offset_b = kMatrixSize * (part_count * frame_b + part_index);
+      for (int n = 0; n < kMatrixSize; ++n) {
+        float value_a = draw_matrices[offset_a + n];
+        mPartMatrix[n] =
+            value_a + (draw_matrices[offset_b + n] - value_a) * interpolation;
+      }
+      mPartTransformation.set(mPartMatrix, 0);
+      mPartTransformation.setConcat(mRootTransformation, mPartTransformation);
+      graphics.drawImage(
+          mImageHandle, image_rect, mPartTransformation, false, false, 1);
+    }
+  }
+
+  private void updateRootTransformation(Graphics graphics, float center_x,
+                                        float center_y, float zoom) {
     float horizontal_flip = 1.0f;
     if (sprite_flipped_horizontal) {
       horizontal_flip = -1.0f;
     }
-
-    mRootTransformation.reset();
-    mRootTransformation.preTranslate(
+    mRootTransformation.setTranslate(
         graphics.getWidth() / 2 + (x - center_x) * zoom,
         graphics.getHeight() / 2 + (y - center_y) * zoom);
     mRootTransformation.preScale(
         mDrawingScale * zoom * horizontal_flip, mDrawingScale * zoom);
-    mRoot.draw(graphics, mImageHandle, mRootTransformation, mAnimation);
   }
 
-  /** Return the 3x3 transformation matrix used to draw child parts. In other
-   * words, the returned matrix transforms points into *screen coordinates* with
-   * the origin at the tip / end of the part. For example, multiplying by the
-   * vector (0, 0, 1)^T will yield (x, y, w) screen coordinates at the tip of
-   * the part. */
-  public Matrix getPartTransformation(String part_name) {
-    Part part = findPartByName(part_name);
-    Assert.assertNotNull(part);
-    return part.transformation;
+  private Rect[] getPartRects() {
+    Rect[] part_rects = new Rect[mParts.size()];
+    for (int part_index = 0; part_index < part_rects.length; ++part_index) {
+      part_rects[part_index] = mParts.get(part_index).image_rect;
+    }
+    return part_rects;
+  }
+
+  /** Decode the part image for rendering impostors on the CPU. The decoded
+   * image is kept and shared by every animation and entity using the same
+   * image. Null is returned if the entity has not been loaded or the image can
+   * not be decoded. */
+  private SoftwareRasterizer.Texture loadPartTexture() {
+    if (mImagePath == null) {
+      return null;
+    }
+    SoftwareRasterizer.Texture texture = mPartTextureCache.get(mImagePath);
+    if (texture != null) {
+      return texture;
+    }
+    Bitmap bitmap = BitmapFactory.decodeFile(mImagePath);
+    if (bitmap == null) {
+      Log.e("ArticulatedEntity::loadPartTexture",
+            "Cannot find/load: " + mImagePath);
+      return null;
+    }
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    int[] pixels = new int[width * height];
+    bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+    bitmap.recycle();
+    texture = new SoftwareRasterizer.Texture(pixels, width, height);
+    mPartTextureCache.put(mImagePath, texture);
+    return texture;
   }
 
   private Part findPartByName(String part_name) {
@@ -160,40 +254,6 @@ public class ArticulatedEntity extends Entity {
     public ArrayList<Part> children = new ArrayList<Part>();
     public String name;
     public Rect image_rect = new Rect();
-    public Matrix transformation = new Matrix();
-
-    public void draw(Graphics graphics, int image_handle,
-                     Matrix base_transformation, Animation animation) {
-      int joint_size = image_rect.width() / 4;
-      float joint_angle = animation.getPartAngle(name);
-
-      // Draw self.
-      if (image_handle != -1) {
-        transformation.set(base_transformation);
-        transformation.preRotate(joint_angle);
-        transformation.preTranslate(-image_rect.width() / 2, 0.0f);
-        transformation.preScale(image_rect.width(), image_rect.height());
-        graphics.drawImage(
-            image_handle, image_rect, transformation, false, false, 1);
-      }
-
-      // Draw children. The root node transformation is handled specially to
-      // rotate *around* the offset coordinates specified in the animation file
-      // instead of the origin.
-      transformation.set(base_transformation);
-      if (name.equals("root")) {
-        transformation.preRotate(joint_angle);
-        transformation.preTranslate(
-            -animation.getCenterX(), -animation.getCenterY());
-      } else {
-        transformation.preRotate(joint_angle);
-      }
-      transformation.preTranslate(0.0f, image_rect.height() - joint_size);
-      for (int child_index = 0; child_index < children.size(); ++child_index) {
-        children.get(child_index).draw(
-            graphics, image_handle, transformation, animation);
-      }
-    }
 
     public Part findPartByName(String part_name) {
       if (part_name.equals(name)) {
@@ -207,12 +267,13 @@ public class ArticulatedEntity extends Entity {
       }
       return null;
     }
-
-    private float[] mTransformationData = new float[9];
   }  // class Part
 
   /** The Animation class stores and provides access to a independent, time
-   * varying set of values called tracks. */
+   * varying set of values called tracks. Once loaded, an animation is baked by
+   * sampling every track at a fixed rate and composing the part hierarchy,
+   * yielding a table of part transformations for each frame. Drawing then
+   * involves no key frame searches, track lookups or hierarchy traversal. */
   private class Animation {
     public void loadFromUri(String uri_string) {
       Uri uri = Uri.parse(uri_string);
@@ -232,78 +293,145 @@ public class ArticulatedEntity extends Entity {
       // thigh     0.5  60
       // leg       0.0  180
       // leg       0.5  170
+      //
+      // The file may also be compiled to a binary definition, which holds the
+      // key frames of each track sorted and flattened, see DefinitionFile.
+      DefinitionFile definition =
+          Content.readDefinition(uri, DefinitionFile.kKindAnimation);
+      mCenterX = definition.center_x;
+      mCenterY = definition.center_y;
+      mLength = definition.length;
+      mTrackNames = definition.track_names;
+      mTrackStarts = definition.track_starts;
+      mKeyTimes = definition.key_times;
+      mKeyAngles = definition.key_angles;
+      Assert.assertTrue("Animation must be more than 0s.", mLength > 0.0f);
+    }
 
-      String file_path = Content.getFilePath(uri);
-      String[] tokens = Content.readFileTokens(file_path);
-
-      final int kLineTokenCount = 3;
-      Assert.assertTrue("Animation file empty.", tokens.length > 4);
-      Assert.assertEquals("Animation improperly formatted: " + uri.toString(),
-                          (tokens.length - 4) % kLineTokenCount, 0);
-      Assert.assertEquals("Expected offset_x specification in animation file.",
-                          tokens[0], "center_x");
-      Assert.assertEquals("Expected offset_y specification in animation file.",
-                          tokens[2], "center_y");
-
-      mCenterX = Float.parseFloat(tokens[1]);
-      mCenterY = Float.parseFloat(tokens[3]);
-
-      mLength = 0.0f;
-      for (int index = 4; index < tokens.length; index += kLineTokenCount) {
-        KeyFrame key_frame = new KeyFrame();
-        key_frame.time = Float.parseFloat(tokens[index + 1]);
-        key_frame.angle = Float.parseFloat(tokens[index + 2]);
-        mLength = Math.max(mLength, key_frame.time);
-
-        String part_name = tokens[index];
-        ArrayList<KeyFrame> track = mKeyFrames.get(part_name);
-        if (track == null) {
-          track = new ArrayList<KeyFrame>();
-          mKeyFrames.put(part_name, track);
+    /** Return the index of the track animating the named part, or -1 if
+     * there is none. */
+    private int findTrack(String part_name) {
+      for (int track = 0; track < mTrackNames.length; ++track) {
+        if (mTrackNames[track].equals(part_name)) {
+          return track;
         }
-        track.add(key_frame);
       }
-      Assert.assertTrue("Animation must be more than 0s.", mLength > 0.0f);
+      return -1;
     }
 
-    public void step(float time_step) {
-      mTime += time_step;
-      while (mTime > mLength) {
-        mTime -= mLength;
+    /** Sample the animation for the specified parts, flattened such that
+     * parents precede children. A 2x3 affine matrix, stored as described in
+     * Affine, is baked per part per frame, mapping the unit square onto the
+     * part image. It is relative to the entity origin and must be concatenated
+     * with the entity position, scale and orientation before drawing. The
+     * matrices mapping onto the tip of each part, the origin of its children,
+     * are only needed while baking. */
+    public void bake(ArrayList<Part> parts, int[] part_parents) {
+      int part_count = parts.size();
+      mPartCount = part_count;
+      mFrameCount = Math.max(1, (int)Math.ceil(mLength * kBakingRate));
+      mFrameDuration = mLength > 0.0f ? mLength / mFrameCount : 1.0f;
+      mDrawMatrices = new float[kMatrixSize * part_count * mFrameCount];
+      float[] tip_matrices = new float[kMatrixSize * part_count];
+
+      // Resolve the track for each part once up front.
+      int[] part_tracks = new int[part_count];
+      for (int part_index = 0; part_index < part_count; ++part_index) {
+        part_tracks[part_index] = findTrack(parts.get(part_index).name);
       }
+
+      for (int frame = 0; frame < mFrameCount; ++frame) {
+        float time = frame * mFrameDuration;
+        for (int part_index = 0; part_index < part_count; ++part_index) {
+          Part part = parts.get(part_index);
+          int width = part.image_rect.width();
+          int height = part.image_rect.height();
+          int joint_size = width / 4;
+          float joint_angle = getTrackAngle(part_tracks[part_index], time);
+          int offset = kMatrixSize * (part_count * frame + part_index);
+          int parent_index = part_parents[part_index];
+          if (parent_index == -1) {
+            Affine.setIdentity(mDrawMatrices, offset);
+          } else {
+            System.arraycopy(tip_matrices, kMatrixSize * parent_index,
+                             mDrawMatrices, offset, kMatrixSize);
+          }
+          Affine.preRotate(mDrawMatrices, offset, joint_angle);
+          int tip_offset = kMatrixSize * part_index;
+          System.arraycopy(mDrawMatrices, offset,
+                           tip_matrices, tip_offset, kMatrixSize);
+
+          // Image placement.
+          Affine.preTranslate(mDrawMatrices, offset, -width / 2, 0.0f);
+          Affine.preScale(mDrawMatrices, offset, width, height);
+
+          // Child origin. The root is handled specially to rotate *around* the
+          // offset coordinates specified in the animation file instead of the
+          // origin.
+          if (parent_index == -1) {
+            Affine.preTranslate(tip_matrices, tip_offset, -mCenterX,
+                                -mCenterY);
+          }
+          Affine.preTranslate(tip_matrices, tip_offset, 0.0f,
+                              height - joint_size);
+        }
+      }
+    }
+
+    /** Pre-render the baked frames into an impostor sheet. Must be called
+     * after bake(...). */
+    public void buildImpostor(SoftwareRasterizer.Texture part_texture,
+                              Rect[] part_rects) {
+      if (part_texture != null) {
+        mImpostor = new Impostor(part_texture, part_rects, mDrawMatrices,
+                                 mFrameCount, mFrameDuration, kImpostorSize);
+      }
+    }
+
+    public Impostor getImpostor() {
+      return mImpostor;
+    }
+
+    public boolean isBaked(int part_count) {
+      return mFrameCount > 0 && mPartCount == part_count;
+    }
+
+    public float getLength() {
+      return mLength;
     }
 
-    public float getCenterX() {
-      return mCenterX;
+    public int getFrameCount() {
+      return mFrameCount;
     }
 
-    public float getCenterY() {
-      return mCenterY;
+    public float getFrameDuration() {
+      return mFrameDuration;
     }
 
-    public float getPartAngle(String part_name) {
-      ArrayList<KeyFrame> part_keyframes = mKeyFrames.get(part_name);
-      if (part_keyframes == null) {
+    public float[] getDrawMatrices() {
+      return mDrawMatrices;
+    }
+
+    private float getTrackAngle(int track, float time) {
+      if (track == -1) {
         return 0.0f;  // No animation track for this part exists.
       }
 
       // We need to find the two nearest key frames and interpolate between
-      // them. The following assumes the key frames are sorted within each track
-      // prior to this call.
+      // them. Key frames are sorted by time within each track.
       float time_a = 0.0f;
       float angle_a = 0.0f;
       float time_b = 0.0f;
       float angle_b = 0.0f;
 
-      for (int index = 0; index < part_keyframes.size(); ++index) {
-        KeyFrame keyframe_a = part_keyframes.get(index);
-        if (keyframe_a.time <= mTime) {
-          time_b = time_a = keyframe_a.time;
-          angle_b = angle_a = keyframe_a.angle;
-          if (index < part_keyframes.size() - 1) {
-            KeyFrame keyframe_b = part_keyframes.get(index + 1);
-            time_b = keyframe_b.time;
-            angle_b = keyframe_b.angle;
+      int track_end = mTrackStarts[track + 1];
+      for (int index = mTrackStarts[track]; index < track_end; ++index) {
+        if (mKeyTimes[index] <= time) {
+          time_b = time_a = mKeyTimes[index];
+          angle_b = angle_a = mKeyAngles[index];
+          if (index < track_end - 1) {
+            time_b = mKeyTimes[index + 1];
+            angle_b = mKeyAngles[index + 1];
           }
         } else {
           break;
@@ -313,32 +441,48 @@ public class ArticulatedEntity extends Entity {
       if (time_b <= time_a) {
         return angle_a;
       } else {
-        float interpolation = (mTime - time_a) / (time_b - time_a);
+        float interpolation = (time - time_a) / (time_b - time_a);
         return (angle_b * interpolation + angle_a * (1.0f - interpolation));
       }
     }
 
-    /** The KeyFrame class structure represents a single key frame within a
-     * single animation track. */
-    private class KeyFrame {
-      public float time;
-      public float angle;
-    }
-
-    private float mCenterX;
-    private float mCenterY;
-    private float mLength;
-    private float mTime;
-    private TreeMap<String, ArrayList<KeyFrame>> mKeyFrames =
-        new TreeMap<String, ArrayList<KeyFrame>>();
+    private float    mCenterX;
+    private float    mCenterY;
+    private float[]  mDrawMatrices;
+    private int      mFrameCount;
+    private float    mFrameDuration;
+    private Impostor mImpostor;
+    private float[]  mKeyAngles   = new float[0];
+    private float[]  mKeyTimes    = new float[0];
+    private float    mLength;
+    private int      mPartCount;
+    private String[] mTrackNames  = new String[0];
+    private int[]    mTrackStarts = new int[] { 0 };
   }  // class Animation
 
-  private Animation mAnimation = new Animation();
+  private Animation          mAnimation = new Animation();
   private TreeMap<String, Animation> mAnimationCache =
       new TreeMap<String, Animation>();
-  private float mDrawingScale = 1.0f;
-  private int mImageHandle = -1;
-  private Uri mImageUri;
-  private Part mRoot = new Part();
-  private Matrix mRootTransformation = new Matrix();
+  private float              mAnimationTime;
+  private float              mDrawingScale = 1.0f;
+  private int                mImageHandle = -1;
+  private String             mImagePath;
+  private Uri                mImageUri;
+  private int[]              mPartParents = new int[0];
+  private ArrayList<Part>    mParts = new ArrayList<Part>();
+  private Part               mRoot = new Part();
+  private Affine             mRootTransformation = new Affine();
+
+  private static TreeMap<String, SoftwareRasterizer.Texture> mPartTextureCache =
+      new TreeMap<String, SoftwareRasterizer.Texture>();
+
+  // The following are used to avoid any allocations within draw(...). Clones
+  // share them, which is harmless since they hold nothing between calls.
+  private float[]            mPartMatrix = new float[kMatrixSize];
+  private Affine             mPartTransformation = new Affine();
+
+  private static final float   kBakingRate             = 30.0f;  // Frames/second.
+  private static final float   kImpostorSize           = 48.0f;  // Pixels.
+  private static final boolean kInterpolateBakedFrames = true;
+  private static final int     kMatrixSize             = 6;  // Floats.
 }
@@ -18,21 +18,25 @@ import android.net.Uri;
 import android.util.Log;
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import junit.framework.Assert;
 
 /** Class to abstract the details of extracting and accessing files from the ABB
- * content zip file in the same was files on disk are accessed. TODO: This class
- * is not thread-safe. Extracted files are not cached. */
+ * content zip file in the same was files on disk are accessed. Assets are
+ * extracted to the cache directory lazily, the first time getFilePath(...) is
+ * asked for each, and are kept across launches until the content hash listed
+ * for them in the APK manifest changes, see generate_epoch.sh. */
 public class Content {
   public static void initialize(Context context) {
     mAssets = context.getAssets();
@@ -41,102 +45,276 @@ public class Content {
     prepare();
   }
 
+  /** Load the asset manifests and, if the APK content has changed since the
+   * last launch, delete the extracted assets which are no longer current.
+   * Preparation is done once per process, however many activities initialize
+   * the content system. */
   synchronized private static void prepare() {
-    if (cacheIsState()) {
-      for (String cache_item : (new File(mCacheDir)).list()) {
-        deleteRecursively(cache_item);
+    if (mEpoch != null) {
+      return;  // Already prepared.
+    }
+
+    String epoch = "";
+    try {
+      InputStream asset_input_stream = mAssets.open(kEpochFile);
+      try {
+        mTokenizer.open(asset_input_stream);
+      } finally {
+        asset_input_stream.close();
       }
-      extractAssets("");
+      mTokenizer.nextLine();
+      epoch = mTokenizer.getToken();
+    } catch (IOException ex) {
+      Assert.fail("Could not read assets epoch: " + ex.toString());
     }
-  }
 
-  private static boolean cacheIsState() {
-    if (!new File(mCacheDir + "epoch.txt").exists()) {
-      return true;
+    // An APK built without a manifest is treated as a single item versioned by
+    // its epoch, so any change invalidates every extracted asset.
+    mAssetHashes = new TreeMap<String, String>();
+    try {
+      InputStream asset_input_stream = mAssets.open(kManifestFile);
+      try {
+        readManifest(asset_input_stream, mAssetHashes);
+      } finally {
+        asset_input_stream.close();
+      }
+      mHasManifest = true;
+    } catch (IOException ex) {
+      Log.d("Content::prepare", "No asset manifest, using the epoch.");
+      mHasManifest = false;
+    }
+
+    // Earlier versions extracted every asset up front and kept no manifest of
+    // them. Anything found in the cache without a manifest, whether of that
+    // layout or not, is unaccounted for and removed, which happens once.
+    if (!new File(mCacheDir + kManifestFile).exists()) {
+      Log.d("Content::prepare", "Removing unmanaged cache contents.");
+      String[] cache_items = new File(mCacheDir).list();
+      if (cache_items != null) {
+        for (String cache_item : cache_items) {
+          deleteRecursively(new File(mCacheDir + cache_item));
+        }
+      }
     }
 
+    mExtractedHashes = new TreeMap<String, String>();
+    String cached_epoch = "";
     try {
-      InputStream asset_input_stream = mAssets.open("epoch.txt");
-      writeStreamToFile(asset_input_stream, mCacheDir + "real_epoch.txt");
-      asset_input_stream.close();
+      FileInputStream input_stream =
+          new FileInputStream(mCacheDir + kManifestFile);
+      try {
+        readManifest(input_stream, mExtractedHashes);
+      } finally {
+        input_stream.close();
+      }
+      mTokenizer.open(mCacheDir + kEpochFile);
+      if (mTokenizer.nextLine()) {
+        cached_epoch = mTokenizer.getToken();
+      }
     } catch (IOException ex) {
-      Assert.fail("Could not compute assets epoch: " + ex.toString());
+      // Nothing has been extracted yet, or the cache was cleared.
     }
 
-    String[] epoch = readFileLines(mCacheDir + "epoch.txt");
-    String[] real_epoch = readFileLines(mCacheDir + "real_epoch.txt");
+    mEpoch = epoch;
+    if (epoch.equals(cached_epoch)) {
+      return;
+    }
 
-    if (epoch.length != real_epoch.length) {
-      return true;
+    Log.d("Content::prepare", "Assets changed, epoch: " + epoch);
+    ArrayList<String> stale_assets = new ArrayList<String>();
+    for (String asset : mExtractedHashes.keySet()) {
+      if (!mExtractedHashes.get(asset).equals(getAssetHash(asset))) {
+        stale_assets.add(asset);
+      }
     }
-    for (int line = 0; line < epoch.length; ++line) {
-      if (!epoch[line].equals(real_epoch[line])) {
-        return true;
+    String texture_cache_dir = mCacheDir + kTextureCacheDir;
+    String[] texture_cache_files = new File(texture_cache_dir).list();
+    for (String asset : stale_assets) {
+      Log.d("Content::prepare", "Removing stale asset: " + asset);
+      mExtractedHashes.remove(asset);
+      new File(mCacheDir + asset).delete();
+      if (texture_cache_files != null) {
+        String texture_cache_prefix =
+            getTextureCachePath(asset).substring(texture_cache_dir.length());
+        for (String texture_cache_file : texture_cache_files) {
+          if (texture_cache_file.startsWith(texture_cache_prefix)) {
+            new File(texture_cache_dir + texture_cache_file).delete();
+          }
+        }
+      }
+    }
+
+    // New content may perform differently, see DeviceProfile.
+    new File(getDeviceProfilePath()).delete();
+
+    // The manifest is rewritten before the epoch, so that an interrupted
+    // update is retried on the next launch.
+    try {
+      FileOutputStream output_stream =
+          new FileOutputStream(mCacheDir + kManifestFile);
+      try {
+        for (String asset : mExtractedHashes.keySet()) {
+          writeManifestEntry(output_stream, asset, mExtractedHashes.get(asset));
+        }
+      } finally {
+        output_stream.close();
       }
+      output_stream = new FileOutputStream(mCacheDir + kEpochFile);
+      try {
+        output_stream.write((epoch + "\n").getBytes());
+      } finally {
+        output_stream.close();
+      }
+    } catch (IOException ex) {
+      Log.d("Content::prepare", "Could not write manifest: " + ex.toString());
     }
-    return false;
   }
 
-  private static void extractAssets(String path) {
-    String[] assets = null;
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  /** Read "<hash> <path>" lines, as written by generate_epoch.sh, into the
+   * map from path to hash. */
+  private static void readManifest(InputStream input_stream,
+                                   TreeMap<String, String> hashes)
+      throws IOException {
+    mTokenizer.open(input_stream);
+    while (mTokenizer.nextToken()) {
+      String hash = mTokenizer.getToken();
+      if (mTokenizer.nextToken()) {
+        hashes.put(mTokenizer.getToken(), hash);
+      }
+    }
+  }
+
+  private static void writeManifestEntry(OutputStream output_stream,
+                                         String asset, String hash)
+      throws IOException {
+    output_stream.write((hash + " " + asset + "\n").getBytes());
+  }
+
+  /** Return the content hash of the asset in the APK, or null if there is no
+   * such asset. */
+  private static String getAssetHash(String asset) {
+    if (mHasManifest) {
+      return mAssetHashes.get(asset);
+    }
     try {
-      assets = mAssets.list(path);
+      mAssets.open(asset).close();
+      return mEpoch;
     } catch (IOException ex) {
-      // The path is most likely not a directory. No work to do.
+      return null;
     }
+  }
 
-    if (assets != null) {
-      for (String asset : assets) {
-        String full_path = path + (path.length() > 0 ? "/" : "") + asset;
-        String target_path = mCacheDir + full_path;
-        try {
-          // Skip android SDK specific assets.
-          boolean skip = false;
-          for (String ignore_asset : kIgnoreAssets) {
-            if (full_path.indexOf(ignore_asset) != -1) {
-              skip = true;
-              break;
-            }
-          }
-          if (skip) {
-            continue;
-          }
+  /** Extract the asset to the cache directory unless the current version of it
+   * is there already. Returns false if there is no such asset. */
+  synchronized private static boolean extractAsset(String asset) {
+    String hash = getAssetHash(asset);
+    if (hash == null) {
+      return false;
+    }
+    String target_path = mCacheDir + asset;
+    if (hash.equals(mExtractedHashes.get(asset)) &&
+        new File(target_path).exists()) {
+      return true;
+    }
 
-          // Create the parent directory.
-          Log.d("Content::prepare", "Extracting asset: " + full_path);
-          (new File((new File(target_path)).getParent())).mkdir();
-
-          // Write the file.
-          InputStream asset_input_stream = mAssets.open(full_path);
-          writeStreamToFile(asset_input_stream, target_path);
-          asset_input_stream.close();
-        } catch (IOException ex) {
-          Log.d("Content::extractAssets",
-                "Failed extracting asset: " + full_path + " to " + target_path);
-        }
-        extractAssets(full_path);  // Recurse.
+    Log.d("Content::extractAsset", "Extracting asset: " + asset);
+    try {
+      new File(target_path).getParentFile().mkdirs();
+      InputStream asset_input_stream = mAssets.open(asset);
+      try {
+        writeStreamToFile(asset_input_stream, target_path);
+      } finally {
+        asset_input_stream.close();
+      }
+      mExtractedHashes.put(asset, hash);
+      FileOutputStream output_stream =
+          new FileOutputStream(mCacheDir + kManifestFile, true);
+      try {
+        writeManifestEntry(output_stream, asset, hash);
+      } finally {
+        output_stream.close();
       }
+    } catch (IOException ex) {
+      Log.d("Content::extractAsset",
+            "Failed extracting asset: " + asset + " to " + target_path);
+      new File(target_path).delete();
+      return false;
     }
+    return true;
   }
 
-  private static void deleteRecursively(String path) {
-    File path_file = new File(path);
-    if (path_file.isDirectory()) {
-      for (String child : path_file.list()) {
-        deleteRecursively(path + child);
+  /** Return true if the file exists, first extracting it if it is the cache
+   * path of an asset which has not been extracted yet. Used for optional files
+   * found alongside others, see TextureImage.loadFile(...). */
+  public static boolean fileExists(String file_path) {
+    if (mCacheDir != null && file_path.startsWith(mCacheDir) &&
+        extractAsset(file_path.substring(mCacheDir.length()))) {
+      return true;
+    }
+    return new File(file_path).exists();
+  }
+
+  /** Return true if the asset is a file or a directory holding files. Answered
+   * from the manifest without touching the APK when there is one. */
+  synchronized private static boolean assetExists(String asset) {
+    if (!mHasManifest) {
+      if (getAssetHash(asset) != null) {
+        return true;
       }
+      String[] children = listAssets(asset);
+      return children != null && children.length > 0;
+    }
+    if (mAssetHashes.containsKey(asset)) {
+      return true;
     }
-    path_file.delete();
+    String prefix = asset + "/";
+    SortedMap<String, String> tail = mAssetHashes.tailMap(prefix);
+    return !tail.isEmpty() && tail.firstKey().startsWith(prefix);
+  }
+
+  /** Return the names of the files and directories directly within the asset
+   * directory, or null if there is no such directory. */
+  synchronized private static String[] listAssets(String asset) {
+    if (!mHasManifest) {
+      try {
+        return mAssets.list(asset);
+      } catch (IOException ex) {
+        return null;
+      }
+    }
+    String prefix = asset.length() > 0 ? asset + "/" : "";
+    ArrayList<String> children = new ArrayList<String>();
+    for (String path : mAssetHashes.tailMap(prefix).keySet()) {
+      if (!path.startsWith(prefix)) {
+        break;
+      }
+      int end = path.indexOf('/', prefix.length());
+      String child = path.substring(prefix.length(),
+                                    end == -1 ? path.length() : end);
+      if (children.isEmpty() ||
+          !children.get(children.size() - 1).equals(child)) {
+        children.add(child);
+      }
+    }
+    return children.isEmpty() ? null : children.toArray(new String[0]);
   }
 
   public static boolean exists(Uri uri) {
     Log.d("Content::exists", uri.toString());
 
     // Handle "file:///android_asset" scheme.
-    if (uri.toString().indexOf("file:///android_asset/") == 0) {
-      return exists(
-          Uri.parse(uri.toString().replaceFirst(
-                        "file:///android_asset/", "file://" + mCacheDir)));
+    if (uri.toString().indexOf(kAssetUriPrefix) == 0) {
+      return assetExists(uri.toString().substring(kAssetUriPrefix.length()));
     }
 
     // Handle "file://" scheme.
@@ -155,10 +333,8 @@ public class Content {
     Log.d("Content::list", uri.toString());
 
     // Handle "file:///android_asset" scheme.
-    if (uri.toString().indexOf("file:///android_asset/") == 0) {
-      return list(
-          Uri.parse(uri.toString().replaceFirst(
-                        "file:///android_asset/", "file://" + mCacheDir)));
+    if (uri.toString().indexOf(kAssetUriPrefix) == 0) {
+      return listAssets(uri.toString().substring(kAssetUriPrefix.length()));
     }
 
     // Handle "file://" scheme.
@@ -173,12 +349,16 @@ public class Content {
     }
   }
 
+  /** Return the path on disk of the file, extracting it first if it is an
+   * asset. */
   synchronized public static String getFilePath(Uri uri) {
     Log.d("Content::getFilePath", uri.toString());
 
     // Handle "file:///android_asset" scheme.
-    if (uri.toString().indexOf("file:///android_asset/") == 0) {
-      return uri.toString().replaceFirst("file:///android_asset/", mCacheDir);
+    if (uri.toString().indexOf(kAssetUriPrefix) == 0) {
+      String asset = uri.toString().substring(kAssetUriPrefix.length());
+      extractAsset(asset);
+      return mCacheDir + asset;
     }
 
     // Handle "file://" scheme.
@@ -194,37 +374,72 @@ public class Content {
     }
   }
 
-  static public String[] readFileAndSplit(String file_path, String split) {
+  /** Return the content hash of the file: for assets, the hash listed in the
+   * manifest when there is one, otherwise the hash of the file itself, see
+   * LevelFile.hashFile(...). Returns null if the file cannot be read. */
+  synchronized public static String getHash(Uri uri) {
+    if (mHasManifest && uri.toString().indexOf(kAssetUriPrefix) == 0) {
+      return mAssetHashes.get(
+          uri.toString().substring(kAssetUriPrefix.length()));
+    }
     try {
-      FileReader file_reader = new FileReader(new File(file_path));
-      ArrayList<Character> data_array = new ArrayList<Character>();
-      while (file_reader.ready()) {
-        data_array.add(new Character((char)file_reader.read()));
-      }
-      String[] raw_tokens = (new String(toPrimative(data_array))).split(split);
-      ArrayList<String> tokens = new ArrayList<String>();
-      for (String token : raw_tokens) {
-        if (token.length() > 0) {
-          tokens.add(token);
-        }
+      return LevelFile.hashFile(getFilePath(uri));
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  /** Return the path of the stored DeviceProfile, or null if the content
+   * system has not been initialized. */
+  public static String getDeviceProfilePath() {
+    if (mCacheDir == null) {
+      return null;
+    }
+    return mCacheDir + kDeviceProfileFile;
+  }
+
+  /** Return the path within the cache directory at which the raw texture data
+   * for the specified image file is stored. See TextureImage.readRawFile(...).
+   * Null is returned if the cache directory has not yet been initialized. */
+  public static String getTextureCachePath(String file_path) {
+    if (mCacheDir == null) {
+      return null;
+    }
+    String cache_name = file_path;
+    if (cache_name.startsWith(mCacheDir)) {
+      cache_name = cache_name.substring(mCacheDir.length());
+    }
+    return mCacheDir + kTextureCacheDir + cache_name.replace('/', '_') + ".tex";
+  }
+
+  /** Read an ASCII text file and split it into lines or white space separated
+   * tokens, see Tokenizer. Empty lines and tokens are dropped. Callers parsing
+   * large files should use a Tokenizer of their own instead, which avoids
+   * creating a String per token. */
+  synchronized static private String[] readFileAndSplit(String file_path,
+                                                        boolean lines) {
+    ArrayList<String> tokens = new ArrayList<String>();
+    try {
+      mTokenizer.open(file_path);
+      while (lines ? mTokenizer.nextLine() : mTokenizer.nextToken()) {
+        tokens.add(mTokenizer.getToken());
       }
-      return tokens.toArray(new String[0]);
     } catch (IOException ex) {
       Assert.fail("Could not read file: " + file_path + ": " + ex.toString());
     }
-    return new String[0];
+    return tokens.toArray(new String[tokens.size()]);
   }
 
   /** This method reads a splits an ASCII text file along any new line
    * boundaries. */
   static public String[] readFileLines(String file_path) {
-    return readFileAndSplit(file_path, "\\n");
+    return readFileAndSplit(file_path, true);
   }
 
   /** This method reads a splits an ASCII text file along any white space
    * boundaries. */
   static public String[] readFileTokens(String file_path) {
-    return readFileAndSplit(file_path, "\\s");
+    return readFileAndSplit(file_path, false);
   }
 
   static public String[] readUriLines(Uri uri) {
@@ -232,6 +447,31 @@ public class Content {
     return readFileLines(file_path);
   }
 
+  /** Read a definition of the specified kind from the binary file compiled
+   * from it, when there is one, otherwise from the text file itself. See
+   * DefinitionFile. */
+  static public DefinitionFile readDefinition(Uri uri, byte kind) {
+    Uri binary_uri = Uri.parse(uri.toString() + kDefinitionBinarySuffix);
+    if (exists(binary_uri)) {
+      String binary_path = getFilePath(binary_uri);
+      try {
+        return DefinitionFile.readBinary(binary_path, kind);
+      } catch (IOException ex) {
+        Log.d("Content::readDefinition",
+              "Ignoring binary definition: " + binary_path + ": " +
+              ex.toString());
+      }
+    }
+    String file_path = getFilePath(uri);
+    try {
+      return DefinitionFile.readText(file_path, kind);
+    } catch (IOException ex) {
+      Assert.fail("Could not read definition: " + file_path + ": " +
+                  ex.toString());
+      return null;
+    }
+  }
+
   /** Utility method to parse a set of key value tokens (as generated by
    * readFileTokens(...) for example) and to insert the key value pairs into a
    * map. Only values with keys already present in the map are accepted and
@@ -271,24 +511,16 @@ public class Content {
     return map;
   }
 
-  static void assertStringNotNone(TreeMap<String, Object> parameters,
-                                  String parameter) {
-    Assert.assertTrue("Parameter " + parameter + " must be specified.",
-                      !((String)parameters.get(parameter)).equals("none"));
-  }
-
-  static void assertIntegerNotNone(TreeMap<String, Object> parameters,
-                                   String parameter) {
-    Assert.assertTrue("Parameter " + parameter + " must be specified.",
-                      ((Integer)parameters.get(parameter)).intValue() != -1);
-  }
-
-  static private char[] toPrimative(ArrayList<Character> array_list) {
-    char[] result = new char[array_list.size()];
-    for (int index = 0; index < array_list.size(); ++index) {
-      result[index] = array_list.get(index).charValue();
+  /** Assert that the definition has all of the specified parameters and no
+   * others beyond those known. */
+  static void assertParameters(DefinitionFile definition, String[] known_keys,
+                               String[] required_keys) {
+    String unknown_key = definition.findUnknownKey(known_keys);
+    Assert.assertNull("Unknown key name: " + unknown_key, unknown_key);
+    for (String key : required_keys) {
+      Assert.assertTrue("Parameter " + key + " must be specified.",
+                        definition.findKey(key) != -1);
     }
-    return result;
   }
 
   private static String uriToContentEntry(Uri uri) {
@@ -314,10 +546,19 @@ public class Content {
     output_stream.close();
   }
 
-  private static String       mCacheDir;
-  private static AssetManager mAssets;
-  private static Resources    mResources;
-
-  private static final String[] kIgnoreAssets = {
-    "images/", "sounds/", "webkit/" };
+  private static TreeMap<String, String> mAssetHashes;
+  private static String                  mCacheDir;
+  private static AssetManager            mAssets;
+  private static String                  mEpoch;
+  private static TreeMap<String, String> mExtractedHashes;
+  private static boolean                 mHasManifest;
+  private static Resources               mResources;
+  private static Tokenizer               mTokenizer = new Tokenizer();
+
+  private static final String kAssetUriPrefix = "file:///android_asset/";
+  private static final String kDefinitionBinarySuffix = ".bin";
+  private static final String kDeviceProfileFile = "device_profile.txt";
+  private static final String kEpochFile = "epoch.txt";
+  private static final String kManifestFile = "manifest.txt";
+  private static final String kTextureCacheDir = "textures/";
 }
@@ -0,0 +1,234 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/** A DecalLayer accumulates blood splats over the map, so gore piles up over a
+ * level while the particles which caused it are released on impact. The world
+ * is divided into square chunks, each composited on the CPU into an ARGB pixel
+ * array at kDecalScale world pixels per texel. Chunks are only allocated where
+ * decals land and each keeps the band of rows changed since it was last
+ * drawn, which alone is uploaded, see Graphics.updateImageRows(...). The
+ * per-frame cost is therefore bounded by the visible chunks and the splats
+ * stamped that frame, regardless of how many have accumulated.
+ *
+ * At most kMaxChunks chunks exist at once. Once reached, the chunk stamped
+ * least recently is cleared and reused. */
+public class DecalLayer {
+  public DecalLayer() {
+    // Splats are stamped from a set of precomputed, roughly circular blots
+    // with ragged edges, one of which is chosen at random for each impact.
+    Random random = new Random(kStampSeed);
+    int center = kStampSize / 2;
+    for (int stamp = 0; stamp < kStampCount; ++stamp) {
+      int[] pixels = new int[kStampSize * kStampSize];
+      for (int y = 0; y < kStampSize; ++y) {
+        for (int x = 0; x < kStampSize; ++x) {
+          float distance = (float)Math.sqrt(
+              (x - center) * (x - center) + (y - center) * (y - center));
+          float edge = center * (0.55f + 0.45f * random.nextFloat());
+          if (distance < edge) {
+            int alpha = (int)(kStampAlpha * (1.0f - 0.5f * distance / edge));
+            pixels[kStampSize * y + x] = (alpha << 24) | kStampColor;
+          }
+        }
+      }
+      mStamps[stamp] = pixels;
+    }
+  }
+
+  /** Release all decals, to be called when the level is reset. The chunks
+   * and their images are kept for reuse. */
+  public void clear() {
+    for (int index = 0; index < mChunks.size(); ++index) {
+      Chunk chunk = mChunks.get(index);
+      if (chunk.chunk_x != -1) {
+        clearChunk(chunk);
+        chunk.chunk_x = chunk.chunk_y = -1;
+        chunk.last_stamp = 0;  // Reused before any other, see obtainChunk().
+      }
+    }
+  }
+
+  /** Stamp a splat centered at the specified world coordinates. */
+  public void stamp(float x, float y) {
+    if (x < 0.0f || y < 0.0f) {
+      return;  // Outside of the map.
+    }
+    int texel_x = (int)(x / kDecalScale);
+    int texel_y = (int)(y / kDecalScale);
+    int[] stamp = mStamps[mRandom.nextInt(kStampCount)];
+    int half_stamp = kStampSize / 2;
+
+    // A splat may straddle up to four chunks.
+    int first_chunk_x = Math.max(0, texel_x - half_stamp) / kChunkSize;
+    int last_chunk_x = (texel_x + half_stamp) / kChunkSize;
+    int first_chunk_y = Math.max(0, texel_y - half_stamp) / kChunkSize;
+    int last_chunk_y = (texel_y + half_stamp) / kChunkSize;
+    for (int chunk_y = first_chunk_y; chunk_y <= last_chunk_y; ++chunk_y) {
+      for (int chunk_x = first_chunk_x; chunk_x <= last_chunk_x; ++chunk_x) {
+        Chunk chunk = obtainChunk(chunk_x, chunk_y);
+        compositeStamp(chunk, stamp,
+                       texel_x - half_stamp - chunk_x * kChunkSize,
+                       texel_y - half_stamp - chunk_y * kChunkSize);
+      }
+    }
+  }
+
+  /** Draw the decals such that the specified world coordinates are centered,
+   * as Map.draw(...) does. Chunk images are created and updated here, in the
+   * rendering thread. */
+  public void draw(Graphics graphics, float center_x, float center_y,
+                   float zoom) {
+    float half_canvas_width = graphics.getWidth() / 2.0f;
+    float half_canvas_height = graphics.getHeight() / 2.0f;
+    float chunk_world_size = kChunkSize * kDecalScale;
+    mRectSource.set(0, 0, kChunkSize, kChunkSize);
+    for (int index = 0; index < mChunks.size(); ++index) {
+      Chunk chunk = mChunks.get(index);
+      if (chunk.chunk_x == -1) {
+        continue;
+      }
+      mRectDest.left =
+          (chunk.chunk_x * chunk_world_size - center_x) * zoom +
+          half_canvas_width;
+      mRectDest.top =
+          (chunk.chunk_y * chunk_world_size - center_y) * zoom +
+          half_canvas_height;
+      mRectDest.right = mRectDest.left + chunk_world_size * zoom;
+      mRectDest.bottom = mRectDest.top + chunk_world_size * zoom;
+      if (mRectDest.right < 0.0f || mRectDest.bottom < 0.0f ||
+          mRectDest.left > 2.0f * half_canvas_width ||
+          mRectDest.top > 2.0f * half_canvas_height) {
+        continue;  // Not visible, leave any changes pending.
+      }
+
+      if (chunk.image == -1) {
+        // Images take ownership of their pixels, so a blank array is handed
+        // over and the contents uploaded as a dirty region below.
+        chunk.image = graphics.loadImageFromPixels(
+            new int[kChunkSize * kChunkSize], kChunkSize, kChunkSize,
+            true /*updatable*/);
+      }
+      if (chunk.dirty_top < chunk.dirty_bottom) {
+        graphics.updateImageRows(chunk.image, chunk.pixels,
+                                 chunk.dirty_top, chunk.dirty_bottom);
+        chunk.dirty_top = kChunkSize;
+        chunk.dirty_bottom = 0;
+      }
+      graphics.drawImage(chunk.image, mRectSource, mRectDest, false, false,
+                         1 /*block count*/);
+    }
+  }
+
+  private Chunk obtainChunk(int chunk_x, int chunk_y) {
+    Chunk least_recent = null;
+    for (int index = 0; index < mChunks.size(); ++index) {
+      Chunk chunk = mChunks.get(index);
+      if (chunk.chunk_x == chunk_x && chunk.chunk_y == chunk_y) {
+        chunk.last_stamp = ++mStampCount;
+        return chunk;
+      }
+      if (least_recent == null || chunk.last_stamp < least_recent.last_stamp) {
+        least_recent = chunk;
+      }
+    }
+
+    Chunk chunk;
+    if (least_recent != null &&
+        (least_recent.chunk_x == -1 || mChunks.size() >= kMaxChunks)) {
+      chunk = least_recent;
+      clearChunk(chunk);
+    } else {
+      chunk = new Chunk();
+      mChunks.add(chunk);
+    }
+    chunk.chunk_x = chunk_x;
+    chunk.chunk_y = chunk_y;
+    chunk.last_stamp = ++mStampCount;
+    return chunk;
+  }
+
+  private void clearChunk(Chunk chunk) {
+    Arrays.fill(chunk.pixels, 0);
+    chunk.dirty_top = 0;
+    chunk.dirty_bottom = kChunkSize;
+  }
+
+  /** Composite the stamp over the chunk with its top left corner at the
+   * specified texel, clipping it to the chunk. */
+  private void compositeStamp(Chunk chunk, int[] stamp,
+                              int left, int top) {
+    int first_x = Math.max(0, -left);
+    int last_x = Math.min(kStampSize, kChunkSize - left);
+    int first_y = Math.max(0, -top);
+    int last_y = Math.min(kStampSize, kChunkSize - top);
+    if (first_x >= last_x || first_y >= last_y) {
+      return;
+    }
+    int[] pixels = chunk.pixels;
+    for (int y = first_y; y < last_y; ++y) {
+      int stamp_offset = kStampSize * y;
+      int chunk_offset = kChunkSize * (top + y) + left;
+      for (int x = first_x; x < last_x; ++x) {
+        int source = stamp[stamp_offset + x];
+        int source_alpha = source >>> 24;
+        if (source_alpha == 0) {
+          continue;
+        }
+        // The stamps are all of a single color, so only the coverage is
+        // accumulated, saturating at kMaxAlpha so splats darken as they pile
+        // up without becoming solid.
+        int destination_alpha = pixels[chunk_offset + x] >>> 24;
+        int alpha = destination_alpha +
+            (source_alpha * (255 - destination_alpha)) / 255;
+        pixels[chunk_offset + x] =
+            (Math.min(alpha, kMaxAlpha) << 24) | (source & 0xFFFFFF);
+      }
+    }
+    chunk.dirty_top = Math.min(chunk.dirty_top, top + first_y);
+    chunk.dirty_bottom = Math.max(chunk.dirty_bottom, top + last_y);
+  }
+
+  private class Chunk {
+    public int   chunk_x = -1;  // Chunk coordinates, -1 while unused.
+    public int   chunk_y = -1;
+    public int   dirty_bottom;  // Exclusive.
+    public int   dirty_top = kChunkSize;
+    public int   image = -1;
+    public long  last_stamp;
+    public int[] pixels = new int[kChunkSize * kChunkSize];  // ARGB.
+  }  // class Chunk
+
+  private ArrayList<Chunk> mChunks = new ArrayList<Chunk>();
+  private Random           mRandom = new Random();
+  private Rect             mRectSource = new Rect();
+  private RectF            mRectDest = new RectF();
+  private long             mStampCount;
+  private int[][]          mStamps = new int[kStampCount][];
+
+  private static final int   kChunkSize  = 128;   // Texels.
+  private static final float kDecalScale = 2.0f;  // World pixels per texel.
+  private static final int   kMaxAlpha   = 0xE0;
+  private static final int   kMaxChunks  = 32;
+  private static final int   kStampAlpha = 0xC0;
+  private static final int   kStampColor = 0x7A0606;  // RGB.
+  private static final int   kStampCount = 4;
+  private static final long  kStampSeed  = 0x0B100D;
+  private static final int   kStampSize  = 12;    // Texels.
+}
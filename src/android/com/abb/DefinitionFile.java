@@ -0,0 +1,586 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+
+/** The contents of a definition file, of one of the kinds below, read either
+ * from the text formats documented by their loaders, such as
+ * ArticulatedEntity.loadFromUri(...), or from the binary file compiled from
+ * them offline by tools/CompileDefinitions.java. The binary file is named as
+ * the text file with ".bin" appended, see Content.readDefinition(...), and is
+ * memory mapped and copied straight into the arrays below.
+ *
+ * The binary format is big-endian, beginning with an int kMagic, an int
+ * kVersion and a byte kind, followed by the fields of the kind in the order
+ * they are declared below. Each array is an int length followed by its
+ * elements, and each string an unsigned short length followed by as many ASCII
+ * bytes.
+ *
+ * Parameter values are typed when read from text: a value which parses as an
+ * int is an int, one which parses as a float is a float and any other is a
+ * string. Ints may be read as floats but not the reverse. */
+public class DefinitionFile {
+  public static final byte kKindArticulatedEntity = 1;
+  public static final byte kKindAnimation         = 2;
+  public static final byte kKindAnimatedEntity    = 3;
+  public static final byte kKindParameters        = 4;
+
+  public static final byte kTypeInt    = 1;
+  public static final byte kTypeFloat  = 2;
+  public static final byte kTypeString = 3;
+
+  public byte kind;
+
+  // kKindArticulatedEntity and kKindAnimatedEntity: the image file name.
+  public String image;
+
+  // kKindArticulatedEntity: the parts, ordered such that parents precede their
+  // children as they are drawn. The first part is the root.
+  public String[] part_names;
+  public int[]    part_parents;  // Part index, -1 for the root.
+  public int[]    part_rects;    // Left, top, right and bottom of each part.
+
+  // kKindAnimation: the tracks, sorted by part name, and the key frames of
+  // each, sorted by time. The key frames of track n are those from
+  // track_starts[n] up to track_starts[n + 1]. Angles are degrees.
+  public float    center_x;
+  public float    center_y;
+  public float    length;        // Seconds.
+  public String[] track_names;
+  public int[]    track_starts;
+  public float[]  key_times;
+  public float[]  key_angles;
+
+  // kKindAnimatedEntity: the named frame sequences.
+  public String[] sequence_names;
+  public int[]    sequence_frames;  // Start x, start y, frame width, frame
+                                    // height and frame count of each.
+  public float[]  sequence_rates;   // Frames per second.
+
+  // kKindParameters: the key value pairs. Only the array of the type of each
+  // value is set for it.
+  public String[] keys;
+  public byte[]   types;
+  public int[]    int_values;
+  public float[]  float_values;
+  public String[] string_values;
+
+  /** Return the index of the key, or -1 if it is not present. */
+  public int findKey(String key) {
+    for (int index = 0; index < keys.length; ++index) {
+      if (keys[index].equals(key)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  /** Return the first key which is not one of those specified, or null if
+   * all are known. */
+  public String findUnknownKey(String[] known_keys) {
+    for (String key : keys) {
+      boolean known = false;
+      for (String known_key : known_keys) {
+        if (key.equals(known_key)) {
+          known = true;
+          break;
+        }
+      }
+      if (!known) {
+        return key;
+      }
+    }
+    return null;
+  }
+
+  public int getInt(String key, int default_value) {
+    int index = findKey(key);
+    if (index == -1) {
+      return default_value;
+    }
+    if (types[index] != kTypeInt) {
+      throw new IllegalArgumentException("Expected Integer: " + key);
+    }
+    return int_values[index];
+  }
+
+  public float getFloat(String key, float default_value) {
+    int index = findKey(key);
+    if (index == -1) {
+      return default_value;
+    }
+    if (types[index] == kTypeInt) {
+      return int_values[index];
+    } else if (types[index] != kTypeFloat) {
+      throw new IllegalArgumentException("Expected Float: " + key);
+    }
+    return float_values[index];
+  }
+
+  public String getString(String key, String default_value) {
+    int index = findKey(key);
+    if (index == -1) {
+      return default_value;
+    }
+    if (types[index] != kTypeString) {
+      throw new IllegalArgumentException("Expected String: " + key);
+    }
+    return string_values[index];
+  }
+
+  /** Parse a text definition of the specified kind. Throws an IOException if
+   * the file is unreadable or improperly formatted. */
+  synchronized public static DefinitionFile readText(String file_path,
+                                                     byte kind)
+      throws IOException {
+    mTokenizer.open(file_path);
+    DefinitionFile definition = new DefinitionFile();
+    definition.kind = kind;
+    switch (kind) {
+      case kKindArticulatedEntity:
+        definition.parseArticulatedEntity(mTokenizer, file_path);
+        break;
+      case kKindAnimation:
+        definition.parseAnimation(mTokenizer, file_path);
+        break;
+      case kKindAnimatedEntity:
+        definition.parseAnimatedEntity(mTokenizer, file_path);
+        break;
+      case kKindParameters:
+        definition.parseParameters(mTokenizer, file_path);
+        break;
+      default:
+        throw new IOException("Unknown definition kind: " + kind);
+    }
+    return definition;
+  }
+
+  /** "<image>" followed by "<part> <parent part> <left> <top> <right>
+   * <bottom>" for each part, where the parent is either "root" or a part
+   * specified earlier. */
+  private void parseArticulatedEntity(Tokenizer tokenizer, String file_path)
+      throws IOException {
+    if (!tokenizer.nextToken()) {
+      throw new IOException("Articulated entity file empty: " + file_path);
+    }
+    image = tokenizer.getToken();
+
+    // Parts in file order, the root first, and the children of each.
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<int[]> rects = new ArrayList<int[]>();
+    ArrayList<ArrayList<Integer>> children =
+        new ArrayList<ArrayList<Integer>>();
+    names.add("root");
+    rects.add(new int[4]);
+    children.add(new ArrayList<Integer>());
+    while (tokenizer.nextToken()) {
+      String name = tokenizer.getToken();
+      if (!tokenizer.nextToken()) {
+        throw new IOException("Articulated entity file improperly formatted: " +
+                              file_path);
+      }
+      int parent = names.indexOf(tokenizer.getToken());
+      if (parent == -1) {
+        throw new IOException("Illegal unknown root specification: " +
+                              tokenizer.getToken());
+      }
+      int[] rect = new int[4];
+      for (int side = 0; side < 4; ++side) {
+        if (!tokenizer.nextToken()) {
+          throw new IOException(
+              "Articulated entity file improperly formatted: " + file_path);
+        }
+        rect[side] = tokenizer.parseInt();
+      }
+      children.get(parent).add(Integer.valueOf(names.size()));
+      names.add(name);
+      rects.add(rect);
+      children.add(new ArrayList<Integer>());
+    }
+
+    int part_count = names.size();
+    part_names = new String[part_count];
+    part_parents = new int[part_count];
+    part_rects = new int[4 * part_count];
+    flattenParts(names, rects, children, 0, -1, 0);
+  }
+
+  /** Store the part and its descendants in drawing order from the specified
+   * index. Returns the index following them. */
+  private int flattenParts(ArrayList<String> names, ArrayList<int[]> rects,
+                           ArrayList<ArrayList<Integer>> children, int part,
+                           int parent_index, int index) {
+    part_names[index] = names.get(part);
+    part_parents[index] = parent_index;
+    System.arraycopy(rects.get(part), 0, part_rects, 4 * index, 4);
+    int next_index = index + 1;
+    for (Integer child : children.get(part)) {
+      next_index = flattenParts(names, rects, children, child.intValue(),
+                                index, next_index);
+    }
+    return next_index;
+  }
+
+  /** "center_x <x>" and "center_y <y>" followed by "<part> <time> <angle>"
+   * for each key frame. */
+  private void parseAnimation(Tokenizer tokenizer, String file_path)
+      throws IOException {
+    if (!tokenizer.nextToken() || !tokenizer.tokenEquals("center_x")) {
+      throw new IOException("Expected center_x in animation: " + file_path);
+    }
+    center_x = tokenizer.nextFloat();
+    if (!tokenizer.nextToken() || !tokenizer.tokenEquals("center_y")) {
+      throw new IOException("Expected center_y in animation: " + file_path);
+    }
+    center_y = tokenizer.nextFloat();
+
+    // Key frames are gathered per track as time and angle pairs.
+    TreeMap<String, ArrayList<float[]>> tracks =
+        new TreeMap<String, ArrayList<float[]>>();
+    int key_count = 0;
+    length = 0.0f;
+    while (tokenizer.nextToken()) {
+      String part_name = tokenizer.getToken();
+      float[] key_frame = new float[2];
+      for (int value = 0; value < 2; ++value) {
+        if (!tokenizer.nextToken()) {
+          throw new IOException("Animation improperly formatted: " +
+                                file_path);
+        }
+        key_frame[value] = tokenizer.parseFloat();
+      }
+      length = Math.max(length, key_frame[0]);
+      ArrayList<float[]> track = tracks.get(part_name);
+      if (track == null) {
+        track = new ArrayList<float[]>();
+        tracks.put(part_name, track);
+      }
+      track.add(key_frame);
+      ++key_count;
+    }
+    if (!(length > 0.0f)) {
+      throw new IOException("Animation must be more than 0s: " + file_path);
+    }
+
+    track_names = new String[tracks.size()];
+    track_starts = new int[tracks.size() + 1];
+    key_times = new float[key_count];
+    key_angles = new float[key_count];
+    int track_index = 0;
+    int key_index = 0;
+    for (String part_name : tracks.keySet()) {
+      track_names[track_index] = part_name;
+      track_starts[track_index] = key_index;
+      for (float[] key_frame : tracks.get(part_name)) {
+        // Insertion sort, stable and cheap for the usual sorted tracks.
+        int position = key_index++;
+        while (position > track_starts[track_index] &&
+               key_times[position - 1] > key_frame[0]) {
+          key_times[position] = key_times[position - 1];
+          key_angles[position] = key_angles[position - 1];
+          --position;
+        }
+        key_times[position] = key_frame[0];
+        key_angles[position] = key_frame[1];
+      }
+      ++track_index;
+    }
+    track_starts[track_index] = key_index;
+  }
+
+  /** "<image>" followed by "<sequence> <start x> <start y> <frame width>
+   * <frame height> <frame count> <frame rate>" for each sequence. */
+  private void parseAnimatedEntity(Tokenizer tokenizer, String file_path)
+      throws IOException {
+    if (!tokenizer.nextToken()) {
+      throw new IOException("Animated entity file empty: " + file_path);
+    }
+    image = tokenizer.getToken();
+
+    ArrayList<String> names = new ArrayList<String>();
+    ArrayList<int[]> frames = new ArrayList<int[]>();
+    ArrayList<Float> rates = new ArrayList<Float>();
+    while (tokenizer.nextToken()) {
+      names.add(tokenizer.getToken());
+      int[] sequence_frame = new int[kSequenceFrameSize];
+      for (int value = 0; value <= kSequenceFrameSize; ++value) {
+        if (!tokenizer.nextToken()) {
+          throw new IOException("Animated entity file improperly formatted: " +
+                                file_path);
+        }
+        if (value < kSequenceFrameSize) {
+          sequence_frame[value] = tokenizer.parseInt();
+        } else {
+          rates.add(Float.valueOf(tokenizer.parseFloat()));
+        }
+      }
+      frames.add(sequence_frame);
+    }
+
+    sequence_names = names.toArray(new String[names.size()]);
+    sequence_frames = new int[kSequenceFrameSize * names.size()];
+    sequence_rates = new float[names.size()];
+    for (int index = 0; index < names.size(); ++index) {
+      System.arraycopy(frames.get(index), 0, sequence_frames,
+                       kSequenceFrameSize * index, kSequenceFrameSize);
+      sequence_rates[index] = rates.get(index).floatValue();
+    }
+  }
+
+  /** "<key> <value>" pairs. */
+  private void parseParameters(Tokenizer tokenizer, String file_path)
+      throws IOException {
+    ArrayList<String> key_list = new ArrayList<String>();
+    ArrayList<String> value_list = new ArrayList<String>();
+    while (tokenizer.nextToken()) {
+      key_list.add(tokenizer.getToken());
+      if (!tokenizer.nextToken()) {
+        throw new IOException("Expected an even number of key-values in: " +
+                              file_path);
+      }
+      value_list.add(tokenizer.getToken());
+    }
+
+    int count = key_list.size();
+    keys = key_list.toArray(new String[count]);
+    types = new byte[count];
+    int_values = new int[count];
+    float_values = new float[count];
+    string_values = new String[count];
+    for (int index = 0; index < count; ++index) {
+      String value = value_list.get(index);
+      try {
+        int_values[index] = Integer.parseInt(value);
+        types[index] = kTypeInt;
+        continue;
+      } catch (NumberFormatException ex) {
+        // Not an int.
+      }
+      try {
+        float_values[index] = Float.parseFloat(value);
+        types[index] = kTypeFloat;
+        continue;
+      } catch (NumberFormatException ex) {
+        // Not a float.
+      }
+      string_values[index] = value;
+      types[index] = kTypeString;
+    }
+  }
+
+  /** Read a binary definition, which must be of the specified kind. Throws an
+   * IOException if the file is unreadable, truncated, of another version or of
+   * another kind. */
+  public static DefinitionFile readBinary(String file_path, byte kind)
+      throws IOException {
+    RandomAccessFile file = new RandomAccessFile(file_path, "r");
+    MappedByteBuffer data;
+    try {
+      FileChannel channel = file.getChannel();
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      file.close();  // The mapping remains valid after closing.
+    }
+
+    DefinitionFile definition = new DefinitionFile();
+    try {
+      if (data.getInt() != kMagic || data.getInt() != kVersion) {
+        throw new IOException("Not a definition of this version: " +
+                              file_path);
+      }
+      definition.kind = data.get();
+      if (definition.kind != kind) {
+        throw new IOException("Expected a definition of kind " + kind + ": " +
+                              file_path);
+      }
+      switch (kind) {
+        case kKindArticulatedEntity:
+          definition.image = readString(data);
+          definition.part_names = readStrings(data);
+          definition.part_parents = readInts(data);
+          definition.part_rects = readInts(data);
+          break;
+        case kKindAnimation:
+          definition.center_x = data.getFloat();
+          definition.center_y = data.getFloat();
+          definition.length = data.getFloat();
+          definition.track_names = readStrings(data);
+          definition.track_starts = readInts(data);
+          definition.key_times = readFloats(data);
+          definition.key_angles = readFloats(data);
+          break;
+        case kKindAnimatedEntity:
+          definition.image = readString(data);
+          definition.sequence_names = readStrings(data);
+          definition.sequence_frames = readInts(data);
+          definition.sequence_rates = readFloats(data);
+          break;
+        case kKindParameters:
+          definition.keys = readStrings(data);
+          definition.types = new byte[readLength(data)];
+          data.get(definition.types);
+          definition.int_values = readInts(data);
+          definition.float_values = readFloats(data);
+          definition.string_values = readStrings(data);
+          break;
+        default:
+          throw new IOException("Unknown definition kind: " + kind);
+      }
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("Truncated definition: " + file_path);
+    }
+    return definition;
+  }
+
+  /** Write the definition in the binary format, see readBinary(...). */
+  public void writeBinary(String file_path) throws IOException {
+    DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file_path)));
+    try {
+      output.writeInt(kMagic);
+      output.writeInt(kVersion);
+      output.writeByte(kind);
+      switch (kind) {
+        case kKindArticulatedEntity:
+          writeString(output, image);
+          writeStrings(output, part_names);
+          writeInts(output, part_parents);
+          writeInts(output, part_rects);
+          break;
+        case kKindAnimation:
+          output.writeFloat(center_x);
+          output.writeFloat(center_y);
+          output.writeFloat(length);
+          writeStrings(output, track_names);
+          writeInts(output, track_starts);
+          writeFloats(output, key_times);
+          writeFloats(output, key_angles);
+          break;
+        case kKindAnimatedEntity:
+          writeString(output, image);
+          writeStrings(output, sequence_names);
+          writeInts(output, sequence_frames);
+          writeFloats(output, sequence_rates);
+          break;
+        case kKindParameters:
+          writeStrings(output, keys);
+          output.writeInt(types.length);
+          output.write(types);
+          writeInts(output, int_values);
+          writeFloats(output, float_values);
+          writeStrings(output, string_values);
+          break;
+        default:
+          throw new IOException("Unknown definition kind: " + kind);
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  private static int readLength(MappedByteBuffer data) throws IOException {
+    int length = data.getInt();
+    if (length < 0 || length > data.remaining()) {
+      throw new IOException("Invalid array length: " + length);
+    }
+    return length;
+  }
+
+  private static int[] readInts(MappedByteBuffer data) throws IOException {
+    int[] values = new int[readLength(data)];
+    data.asIntBuffer().get(values);
+    data.position(data.position() + 4 * values.length);
+    return values;
+  }
+
+  private static float[] readFloats(MappedByteBuffer data)
+      throws IOException {
+    float[] values = new float[readLength(data)];
+    data.asFloatBuffer().get(values);
+    data.position(data.position() + 4 * values.length);
+    return values;
+  }
+
+  /** Read a string, where a length of 0xFFFF stands for null. */
+  private static String readString(MappedByteBuffer data) {
+    int length = data.getShort() & 0xFFFF;
+    if (length == kNullString) {
+      return null;
+    }
+    char[] chars = new char[length];
+    for (int index = 0; index < length; ++index) {
+      chars[index] = (char)(data.get() & 0xFF);
+    }
+    return new String(chars);
+  }
+
+  private static String[] readStrings(MappedByteBuffer data)
+      throws IOException {
+    String[] values = new String[readLength(data)];
+    for (int index = 0; index < values.length; ++index) {
+      values[index] = readString(data);
+    }
+    return values;
+  }
+
+  private static void writeInts(DataOutputStream output, int[] values)
+      throws IOException {
+    output.writeInt(values.length);
+    for (int value : values) {
+      output.writeInt(value);
+    }
+  }
+
+  private static void writeFloats(DataOutputStream output, float[] values)
+      throws IOException {
+    output.writeInt(values.length);
+    for (float value : values) {
+      output.writeFloat(value);
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value)
+      throws IOException {
+    if (value == null) {
+      output.writeShort(kNullString);
+      return;
+    }
+    output.writeShort(value.length());
+    output.writeBytes(value);
+  }
+
+  private static void writeStrings(DataOutputStream output, String[] values)
+      throws IOException {
+    output.writeInt(values.length);
+    for (String value : values) {
+      writeString(output, value);
+    }
+  }
+
+  private static Tokenizer mTokenizer = new Tokenizer();
+
+  private static final int kMagic             = 0x41424446;  // "ABDF"
+  private static final int kNullString        = 0xFFFF;
+  private static final int kSequenceFrameSize = 5;
+  private static final int kVersion           = 1;
+}
@@ -0,0 +1,141 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import android.util.Log;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/** The rendering setup found fastest on this device by the first run
+ * benchmark, see Graphics.benchmarkDeviceOpenGL(...). The EGL configuration is
+ * recorded by its identifier along with its buffer sizes, since identifiers are
+ * only meaningful to the driver which assigned them. Profiles are stored as key
+ * value tokens, in the format read by Content.mergeKeyValueTokensWithMap(...),
+ * within the cache directory so a new release of the game, which clears the
+ * cache, runs the benchmark again. */
+public class DeviceProfile {
+  public int     config_id = -1;
+  public int     red_size;
+  public int     green_size;
+  public int     blue_size;
+  public int     alpha_size;
+  public int     depth_size;
+  public int     stencil_size;
+  public boolean batching = true;
+  public boolean fixed_point;  // 16.16 vertices and matrices, see Fixed.
+  public float   frame_time;  // Milliseconds per benchmark frame.
+
+  /** Load the profile stored at the specified path. Returns null if there is
+   * none or it was written by an incompatible version. */
+  public static DeviceProfile load(String path) {
+    if (path == null || !(new File(path)).exists()) {
+      return null;
+    }
+    TreeMap<String, Object> parameters = new TreeMap<String, Object>();
+    parameters.put("version", new Integer(-1));
+    parameters.put("config_id", new Integer(-1));
+    parameters.put("red_size", new Integer(0));
+    parameters.put("green_size", new Integer(0));
+    parameters.put("blue_size", new Integer(0));
+    parameters.put("alpha_size", new Integer(0));
+    parameters.put("depth_size", new Integer(0));
+    parameters.put("stencil_size", new Integer(0));
+    parameters.put("batching", new Integer(1));
+    parameters.put("fixed_point", new Integer(0));
+    parameters.put("frame_time", new Float(0.0f));
+    Content.mergeKeyValueTokensWithMap(
+        Content.readFileTokens(path), parameters);
+    if (((Integer)parameters.get("version")).intValue() != kVersion) {
+      Log.d("DeviceProfile::load", "Ignoring outdated profile: " + path);
+      return null;
+    }
+
+    DeviceProfile profile = new DeviceProfile();
+    profile.config_id = ((Integer)parameters.get("config_id")).intValue();
+    profile.red_size = ((Integer)parameters.get("red_size")).intValue();
+    profile.green_size = ((Integer)parameters.get("green_size")).intValue();
+    profile.blue_size = ((Integer)parameters.get("blue_size")).intValue();
+    profile.alpha_size = ((Integer)parameters.get("alpha_size")).intValue();
+    profile.depth_size = ((Integer)parameters.get("depth_size")).intValue();
+    profile.stencil_size =
+        ((Integer)parameters.get("stencil_size")).intValue();
+    profile.batching = ((Integer)parameters.get("batching")).intValue() != 0;
+    profile.fixed_point =
+        ((Integer)parameters.get("fixed_point")).intValue() != 0;
+    profile.frame_time = ((Float)parameters.get("frame_time")).floatValue();
+    return profile;
+  }
+
+  /** Store the profile at the specified path. The profile is written to a
+   * temporary file first and renamed into place, so an interrupted write never
+   * leaves a partial profile behind. Returns false on failure, in which case
+   * the benchmark simply runs again on the next start. */
+  public boolean save(String path) {
+    if (path == null) {
+      return false;
+    }
+    TreeMap<String, Object> parameters = new TreeMap<String, Object>();
+    parameters.put("version", new Integer(kVersion));
+    parameters.put("config_id", new Integer(config_id));
+    parameters.put("red_size", new Integer(red_size));
+    parameters.put("green_size", new Integer(green_size));
+    parameters.put("blue_size", new Integer(blue_size));
+    parameters.put("alpha_size", new Integer(alpha_size));
+    parameters.put("depth_size", new Integer(depth_size));
+    parameters.put("stencil_size", new Integer(stencil_size));
+    parameters.put("batching", new Integer(batching ? 1 : 0));
+    parameters.put("fixed_point", new Integer(fixed_point ? 1 : 0));
+    parameters.put("frame_time", new Float(frame_time));
+
+    File temporary_file = new File(path + ".tmp");
+    try {
+      FileWriter writer = new FileWriter(temporary_file);
+      for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+        writer.write(parameter.getKey() + " " + parameter.getValue() + "\n");
+      }
+      writer.close();
+    } catch (IOException ex) {
+      Log.e("DeviceProfile::save", "Failed writing profile: " + ex.toString());
+      temporary_file.delete();
+      return false;
+    }
+    File profile_file = new File(path);
+    profile_file.delete();
+    return temporary_file.renameTo(profile_file);
+  }
+
+  /** Return the fraction of the surface resolution at which the scene should
+   * be rendered for the benchmark frame to fit within kFrameBudget, see
+   * Graphics.setRenderScale(...). The benchmark is bound by fill rate, whose
+   * cost follows the pixel count, that is the square of the scale. */
+  public float getRenderScale() {
+    if (frame_time <= kFrameBudget) {
+      return 1.0f;
+    }
+    return (float)Math.sqrt(kFrameBudget / frame_time);
+  }
+
+  public String toString() {
+    return ("config " + config_id + " (" + red_size + green_size + blue_size +
+            alpha_size + " depth " + depth_size + " stencil " + stencil_size +
+            "), " + (batching ? "batched" : "unbatched") + ", " +
+            (fixed_point ? "fixed point" : "float") + ", " +
+            frame_time + "ms per frame");
+  }
+
+  private static final float kFrameBudget = 1000.0f / 30.0f;  // Milliseconds.
+  private static final int   kVersion     = 2;
+}
@@ -16,7 +16,6 @@ import android.net.Uri;
 import android.util.Log;
 import android.view.KeyEvent;
 import java.lang.Math;
-import java.util.TreeMap;
 import junit.framework.Assert;
 
 
@@ -57,42 +56,25 @@ public class Enemy extends ArticulatedEntity {
   }
 
   public void loadFromUri(Uri uri) {
-    // The following map defines all of the accepted enemy parameters. The
-    // parameters map is expected to populated with default values letting the
-    // user override only a subset if desired within the text resource at the
-    // specified uri.
-    TreeMap<String, Object> parameters = new TreeMap<String, Object>();
-    parameters.put(kParameterAcceleration, new Float(kDefaultAcceleration));
-    parameters.put(kParameterDamage, new Float(kDefaultDamage));
-    parameters.put(kParameterDrawingScale, new Float(kDefaultDrawingScale));
-    parameters.put(kParameterAnimation, "none");
-    parameters.put(kParameterEntity, "none");
-    parameters.put(kParameterJumpVelocity, new Float(kDefaultJumpVelocity));
-    parameters.put(kParameterGravity, new Float(kDefaultGravity));
-    parameters.put(kParameterLife, new Float(kDefaultLife));
-    parameters.put(kParameterRadius, new Float(kDefaultRadius));
+    // The enemy parameters, any of which not specified within the definition
+    // at the specified uri take the default values below. Unknown parameters
+    // are rejected.
+    DefinitionFile definition =
+        Content.readDefinition(uri, DefinitionFile.kKindParameters);
+    Content.assertParameters(definition, kParameters, kRequiredParameters);
 
-    // Given a fully-specified default enemy parameters map, we can parse and
-    // merge in the user defined values. Note that the following method rejects
-    // all keys provided by the user which were not defined above.
-    String file_path = Content.getFilePath(uri);
-    String[] tokens = Content.readFileTokens(file_path);
-    Content.mergeKeyValueTokensWithMap(tokens, parameters);
-    Content.assertStringNotNone(parameters, kParameterEntity);
-    Content.assertStringNotNone(parameters, kParameterAnimation);
-
-    // Now that the user defined enemy parameters have been parsed and merged,
-    // we can initialize the enemy instance state accordingly.
-    mAcceleration = ((Float)parameters.get(kParameterAcceleration)).floatValue();
-    damage = ((Float)parameters.get(kParameterDamage)).floatValue();
-    setDrawingScale(((Float)parameters.get(kParameterDrawingScale)).floatValue());
-    mGravity = ((Float)parameters.get(kParameterGravity)).floatValue();
-    life = ((Float)parameters.get(kParameterLife)).floatValue();
-    radius = ((Float)parameters.get(kParameterRadius)).floatValue();
+    mAcceleration =
+        definition.getFloat(kParameterAcceleration, kDefaultAcceleration);
+    damage = definition.getFloat(kParameterDamage, kDefaultDamage);
+    setDrawingScale(
+        definition.getFloat(kParameterDrawingScale, kDefaultDrawingScale));
+    mGravity = definition.getFloat(kParameterGravity, kDefaultGravity);
+    life = definition.getFloat(kParameterLife, kDefaultLife);
+    radius = definition.getFloat(kParameterRadius, kDefaultRadius);
     String uri_string = uri.toString();
     String base_uri_string = uri_string.substring(0, uri_string.lastIndexOf("/"));
-    String entity = (String)parameters.get(kParameterEntity);
-    String animation = (String)parameters.get(kParameterAnimation);
+    String entity = definition.getString(kParameterEntity, null);
+    String animation = definition.getString(kParameterAnimation, null);
     super.loadFromUri(Uri.parse(base_uri_string + "/" + entity));
     super.loadAnimationFromUri(base_uri_string + "/" + animation);
   }
@@ -127,4 +109,11 @@ public class Enemy extends ArticulatedEntity {
   private static final String kParameterGravity      = "gravity";
   private static final String kParameterLife         = "life";
   private static final String kParameterRadius       = "radius";
+
+  private static final String[] kParameters = {
+    kParameterAcceleration, kParameterAnimation, kParameterDamage,
+    kParameterDrawingScale, kParameterEntity, kParameterJumpVelocity,
+    kParameterGravity, kParameterLife, kParameterRadius };
+  private static final String[] kRequiredParameters = {
+    kParameterAnimation, kParameterEntity };
 }
\ No newline at end of file
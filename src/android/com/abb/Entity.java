@@ -87,6 +87,24 @@ public class Entity implements Cloneable {
       int canvas_width = graphics.getWidth();
       int canvas_height = graphics.getHeight();
 
+      if (graphics.isFixedPoint()) {
+        // The position remains float, as the physics are, and is converted
+        // once per axis here. Only the placement relative to the canvas and
+        // everything downstream of it is fixed point.
+        int zoom_fixed = Fixed.fromFloat(zoom);
+        int width = Fixed.spriteSize(sprite_rect.width(), zoom_fixed);
+        int height = Fixed.spriteSize(sprite_rect.height(), zoom_fixed);
+        int left = Fixed.spriteEdge(Fixed.fromFloat(x - center_x), zoom_fixed,
+                                    width, canvas_width);
+        int top = Fixed.spriteEdge(Fixed.fromFloat(y - center_y), zoom_fixed,
+                                   height, canvas_height);
+        graphics.drawImageFixed(
+            sprite_image, sprite_rect, left, top, left + width, top + height,
+            sprite_flipped_horizontal, sprite_flipped_vertical,
+            1 /*block count*/);
+        return;
+      }
+
       mRectF.left = (x - center_x) * zoom +
           (canvas_width - sprite_rect.width() * zoom) / 2.0f;
       mRectF.top = (y - center_y) * zoom +
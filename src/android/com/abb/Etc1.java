@@ -0,0 +1,309 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+
+/** Encoder and decoder for the ETC1 compressed texture format, along with the
+ * PKM container used to store it on disk. ETC1 stores each 4x4 pixel block in
+ * 8 bytes, an eighth of the size of RGBA8888 and a sixth of RGB888, but
+ * carries no alpha channel. This class deliberately depends on nothing but the
+ * core Java libraries so that it may be shared with the offline texture
+ * compressor, see tools/CompressTextures.java. Pixels are passed as ARGB
+ * integers, as returned by Bitmap.getPixels(...). */
+public class Etc1 {
+  /** The OpenGL internal format for ETC1 data, from the
+   * GL_OES_compressed_ETC1_RGB8_texture extension. */
+  public static final int    kGlFormat      = 0x8D64;
+  public static final String kGlExtension   = "GL_OES_compressed_ETC1_RGB8_texture";
+  public static final int    kPkmHeaderSize = 16;  // Bytes.
+
+  /** Return the size in bytes of the encoded data for an image of the specified
+   * dimensions, excluding the PKM header. */
+  public static int getEncodedSize(int width, int height) {
+    return ((width + 3) / 4) * ((height + 3) / 4) * 8;
+  }
+
+  /** Encode an image, returning the encoded blocks in row order. Images with
+   * dimensions which are not multiples of 4 are padded by repeating the last
+   * row and column. */
+  public static byte[] encodeImage(int[] pixels, int width, int height) {
+    byte[] result = new byte[getEncodedSize(width, height)];
+    int[] block = new int[16];
+    int offset = 0;
+    for (int block_y = 0; block_y < height; block_y += 4) {
+      for (int block_x = 0; block_x < width; block_x += 4) {
+        for (int y = 0; y < 4; ++y) {
+          for (int x = 0; x < 4; ++x) {
+            int source_x = Math.min(block_x + x, width - 1);
+            int source_y = Math.min(block_y + y, height - 1);
+            block[4 * y + x] = pixels[width * source_y + source_x];
+          }
+        }
+        encodeBlock(block, result, offset);
+        offset += 8;
+      }
+    }
+    return result;
+  }
+
+  /** Decode an image previously encoded with encodeImage(...). The returned
+   * pixels are fully opaque ARGB integers. */
+  public static int[] decodeImage(byte[] data, int offset,
+                                  int width, int height) {
+    int[] result = new int[width * height];
+    int[] block = new int[16];
+    for (int block_y = 0; block_y < height; block_y += 4) {
+      for (int block_x = 0; block_x < width; block_x += 4) {
+        decodeBlock(data, offset, block);
+        offset += 8;
+        for (int y = 0; y < 4 && block_y + y < height; ++y) {
+          for (int x = 0; x < 4 && block_x + x < width; ++x) {
+            result[width * (block_y + y) + block_x + x] = block[4 * y + x];
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /** Write a PKM header describing ETC1 data of the specified dimensions. */
+  public static void writePkmHeader(byte[] header, int width, int height) {
+    int encoded_width = (width + 3) & ~3;
+    int encoded_height = (height + 3) & ~3;
+    header[0] = 'P';
+    header[1] = 'K';
+    header[2] = 'M';
+    header[3] = ' ';
+    header[4] = '1';
+    header[5] = '0';
+    header[6] = 0;  // Format, ETC1_RGB_NO_MIPMAPS.
+    header[7] = 0;
+    header[8] = (byte)(encoded_width >> 8);
+    header[9] = (byte)encoded_width;
+    header[10] = (byte)(encoded_height >> 8);
+    header[11] = (byte)encoded_height;
+    header[12] = (byte)(width >> 8);
+    header[13] = (byte)width;
+    header[14] = (byte)(height >> 8);
+    header[15] = (byte)height;
+  }
+
+  /** Return true if the 16 bytes at the start of the header describe ETC1
+   * data. */
+  public static boolean isValidPkmHeader(byte[] header) {
+    return (header[0] == 'P' && header[1] == 'K' && header[2] == 'M' &&
+            header[3] == ' ' && header[4] == '1' && header[5] == '0' &&
+            header[6] == 0 && header[7] == 0);
+  }
+
+  public static int getPkmWidth(byte[] header) {
+    return ((header[12] & 0xFF) << 8) | (header[13] & 0xFF);
+  }
+
+  public static int getPkmHeight(byte[] header) {
+    return ((header[14] & 0xFF) << 8) | (header[15] & 0xFF);
+  }
+
+  /** Encode a single 4x4 block of ARGB pixels, stored in row order, into 8
+   * bytes at the specified offset. Both sub-block orientations and both the
+   * individual and differential base color modes are tried, keeping the
+   * combination with the smallest squared error. */
+  public static void encodeBlock(int[] block, byte[] output, int offset) {
+    long best_error = Long.MAX_VALUE;
+    long best_high = 0;
+    long best_low = 0;
+
+    for (int flip = 0; flip < 2; ++flip) {
+      // Average the color of each sub-block.
+      int[] sum = mSum;
+      sum[0] = sum[1] = sum[2] = sum[3] = sum[4] = sum[5] = 0;
+      for (int pixel = 0; pixel < 16; ++pixel) {
+        int sub_block = getSubBlock(flip, pixel & 3, pixel >> 2);
+        sum[3 * sub_block + 0] += (block[pixel] >> 16) & 0xFF;
+        sum[3 * sub_block + 1] += (block[pixel] >> 8) & 0xFF;
+        sum[3 * sub_block + 2] += block[pixel] & 0xFF;
+      }
+
+      for (int differential = 0; differential < 2; ++differential) {
+        int[] base = mBase;
+        long high = (long)differential << 33 | (long)flip << 32;
+        boolean representable = true;
+        for (int channel = 0; channel < 3; ++channel) {
+          int average_1 = (sum[channel] + 4) / 8;
+          int average_2 = (sum[3 + channel] + 4) / 8;
+          int shift = 60 - 8 * channel;
+          if (differential == 0) {
+            int quantized_1 = (average_1 * 15 + 127) / 255;
+            int quantized_2 = (average_2 * 15 + 127) / 255;
+            base[channel] = quantized_1 << 4 | quantized_1;
+            base[3 + channel] = quantized_2 << 4 | quantized_2;
+            high |= (long)quantized_1 << shift;
+            high |= (long)quantized_2 << (shift - 4);
+          } else {
+            int quantized_1 = (average_1 * 31 + 127) / 255;
+            int quantized_2 = (average_2 * 31 + 127) / 255;
+            int delta = quantized_2 - quantized_1;
+            if (delta < -4 || delta > 3) {
+              representable = false;
+              break;
+            }
+            base[channel] = quantized_1 << 3 | quantized_1 >> 2;
+            base[3 + channel] = quantized_2 << 3 | quantized_2 >> 2;
+            high |= (long)quantized_1 << (shift - 1);
+            high |= (long)(delta & 7) << (shift - 4);
+          }
+        }
+        if (!representable) {
+          continue;
+        }
+
+        // Choose the best modifier table and per-pixel modifiers for each
+        // sub-block independently.
+        long error = 0;
+        long low = 0;
+        for (int sub_block = 0; sub_block < 2; ++sub_block) {
+          long best_table_error = Long.MAX_VALUE;
+          int best_table = 0;
+          long best_table_low = 0;
+          for (int table = 0; table < 8; ++table) {
+            long table_error = 0;
+            long table_low = 0;
+            for (int pixel = 0; pixel < 16; ++pixel) {
+              int x = pixel & 3;
+              int y = pixel >> 2;
+              if (getSubBlock(flip, x, y) != sub_block) {
+                continue;
+              }
+              int best_index = 0;
+              int best_pixel_error = Integer.MAX_VALUE;
+              for (int index = 0; index < 4; ++index) {
+                int modifier = kModifierTable[4 * table + index];
+                int pixel_error = colorError(
+                    block[pixel],
+                    clamp(base[3 * sub_block + 0] + modifier),
+                    clamp(base[3 * sub_block + 1] + modifier),
+                    clamp(base[3 * sub_block + 2] + modifier));
+                if (pixel_error < best_pixel_error) {
+                  best_pixel_error = pixel_error;
+                  best_index = index;
+                }
+              }
+              table_error += best_pixel_error;
+              int bit = 4 * x + y;
+              table_low |= (long)(best_index >> 1) << (16 + bit);
+              table_low |= (long)(best_index & 1) << bit;
+            }
+            if (table_error < best_table_error) {
+              best_table_error = table_error;
+              best_table = table;
+              best_table_low = table_low;
+            }
+          }
+          error += best_table_error;
+          low |= best_table_low;
+          high |= (long)best_table << (37 - 3 * sub_block);
+        }
+
+        if (error < best_error) {
+          best_error = error;
+          best_high = high;
+          best_low = low;
+        }
+      }
+    }
+
+    writeBlock(best_high | best_low, output, offset);
+  }
+
+  /** Decode the 8 byte block at the specified offset into 16 ARGB pixels,
+   * stored in row order. */
+  public static void decodeBlock(byte[] input, int offset, int[] block) {
+    long data = 0;
+    for (int n = 0; n < 8; ++n) {
+      data = (data << 8) | (input[offset + n] & 0xFF);
+    }
+
+    int flip = (int)(data >> 32) & 1;
+    boolean differential = ((data >> 33) & 1) != 0;
+    int[] base = mBase;
+    for (int channel = 0; channel < 3; ++channel) {
+      int shift = 60 - 8 * channel;
+      if (differential) {
+        int color_1 = (int)(data >> (shift - 1)) & 0x1F;
+        int delta = ((int)(data >> (shift - 4)) & 7) << 29 >> 29;
+        int color_2 = color_1 + delta;
+        base[channel] = color_1 << 3 | color_1 >> 2;
+        base[3 + channel] = (color_2 << 3 | color_2 >> 2) & 0xFF;
+      } else {
+        int color_1 = (int)(data >> shift) & 0xF;
+        int color_2 = (int)(data >> (shift - 4)) & 0xF;
+        base[channel] = color_1 << 4 | color_1;
+        base[3 + channel] = color_2 << 4 | color_2;
+      }
+    }
+    int table_1 = (int)(data >> 37) & 7;
+    int table_2 = (int)(data >> 34) & 7;
+
+    for (int pixel = 0; pixel < 16; ++pixel) {
+      int x = pixel & 3;
+      int y = pixel >> 2;
+      int bit = 4 * x + y;
+      int index = (int)(((data >> (16 + bit)) & 1) << 1 | ((data >> bit) & 1));
+      int sub_block = getSubBlock(flip, x, y);
+      int table = sub_block == 0 ? table_1 : table_2;
+      int modifier = kModifierTable[4 * table + index];
+      block[pixel] = (0xFF000000 |
+                      clamp(base[3 * sub_block + 0] + modifier) << 16 |
+                      clamp(base[3 * sub_block + 1] + modifier) << 8 |
+                      clamp(base[3 * sub_block + 2] + modifier));
+    }
+  }
+
+  /** Sub-blocks are either two 2x4 blocks side by side, or when flipped, two
+   * 4x2 blocks one above the other. */
+  private static int getSubBlock(int flip, int x, int y) {
+    return flip == 0 ? x >> 1 : y >> 1;
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+  }
+
+  private static int colorError(int pixel, int red, int green, int blue) {
+    int delta_red = ((pixel >> 16) & 0xFF) - red;
+    int delta_green = ((pixel >> 8) & 0xFF) - green;
+    int delta_blue = (pixel & 0xFF) - blue;
+    return (delta_red * delta_red + delta_green * delta_green +
+            delta_blue * delta_blue);
+  }
+
+  private static void writeBlock(long data, byte[] output, int offset) {
+    for (int n = 7; n >= 0; --n) {
+      output[offset + n] = (byte)data;
+      data >>>= 8;
+    }
+  }
+
+  // Scratch space, the encoder and decoder are therefore not thread-safe.
+  private static int[] mBase = new int[6];
+  private static int[] mSum  = new int[6];
+
+  private static final int[] kModifierTable = {
+    2, 8, -2, -8,
+    5, 17, -5, -17,
+    9, 29, -9, -29,
+    13, 42, -13, -42,
+    18, 60, -18, -60,
+    24, 80, -24, -80,
+    33, 106, -33, -106,
+    47, 183, -47, -183 };
+}
@@ -0,0 +1,102 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+
+/** Fixed point math in the signed 16.16 format of the OpenGL GL_FIXED type,
+ * for devices whose processors lack floating point hardware, such as the HTC
+ * Dream, where every float operation is emulated in software. Values hold 15
+ * integer bits, enough for any screen or world coordinate of the game, and a
+ * precision of 1/65536. Results outside of that range overflow silently, as
+ * with any int arithmetic. See Graphics.isFixedPoint() and
+ * tools/FixedPointBenchmark.java. */
+public class Fixed {
+  public static final int kShift = 16;
+  public static final int kOne   = 1 << kShift;
+  public static final int kHalf  = kOne >> 1;
+
+  public static int fromInt(int value) {
+    return value << kShift;
+  }
+
+  public static int fromFloat(float value) {
+    return (int)(value * kOne);
+  }
+
+  public static float toFloat(int value) {
+    return value * (1.0f / kOne);
+  }
+
+  /** Return the nearest integer, rounding halves up. */
+  public static int round(int value) {
+    return (value + kHalf) >> kShift;
+  }
+
+  public static int mul(int a, int b) {
+    return (int)(((long)a * b) >> kShift);
+  }
+
+  public static int div(int a, int b) {
+    return (int)(((long)a << kShift) / b);
+  }
+
+  /** Return the ratio of two integers, such as a texel coordinate over the
+   * texture size, in fixed point. */
+  public static int ratio(int numerator, int denominator) {
+    return (numerator << kShift) / denominator;
+  }
+
+  /** Return the screen position of the leading edge of tile zero along one
+   * axis, such that the world coordinate center is drawn at the middle of the
+   * canvas. Tile world coordinates are those of their centers. With
+   * tileStep(...) and tileEdge(...), this is how Map.draw(...) places tiles,
+   * converting from float once per frame. The result is fixed point. */
+  public static int tileOrigin(float center, float zoom, int tile_size,
+                               int half_canvas) {
+    return fromFloat(-center * zoom + half_canvas - tile_size / 2 * zoom);
+  }
+
+  /** Return the size of a tile on the screen, in fixed point. */
+  public static int tileStep(float zoom, int tile_size) {
+    return fromFloat(tile_size * zoom);
+  }
+
+  /** Return the screen position of the leading edge of the tile of the
+   * specified index, see tileOrigin(...). */
+  public static int tileEdge(int origin, int step, int index) {
+    return origin + index * step;
+  }
+
+  /** Return the size on the screen of a sprite dimension in pixels, as
+   * Entity.draw(...) scales sprites. The zoom and result are fixed point. */
+  public static int spriteSize(int pixels, int zoom) {
+    return pixels * zoom;
+  }
+
+  /** Return the screen position of the leading edge of a sprite centered on
+   * the world coordinate offset from the middle of the canvas, as
+   * Entity.draw(...) places sprites. The offset, zoom, size and result are
+   * fixed point, the canvas size in pixels. */
+  public static int spriteEdge(int offset, int zoom, int size, int canvas) {
+    return mul(offset, zoom) + (fromInt(canvas) - size) / 2;
+  }
+
+  /** Convert a run of float values to fixed point. */
+  public static void fromFloats(float[] source, int source_offset,
+                                int[] destination, int destination_offset,
+                                int count) {
+    for (int index = 0; index < count; ++index) {
+      destination[destination_offset + index] =
+          (int)(source[source_offset + index] * kOne);
+    }
+  }
+}
@@ -0,0 +1,278 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+
+
+/** A GLStateCache shadows the OpenGL state the game changes while drawing and
+ * suppresses any call which would leave the driver state as it is. Each call
+ * crosses into native code and may be costly within the driver, while
+ * consecutive images, for example tiles from the same sheet, commonly set the
+ * same texture, matrices and modes.
+ *
+ * The shadowed state is the matrix mode, the model view and texture matrices,
+ * the bound texture, the enabled capabilities and client arrays, the blend
+ * function and the current color. State starts out unknown, so the first call
+ * setting each piece is always issued, and must be invalidated whenever it is
+ * changed other than through the cache. The number of issued and suppressed
+ * calls is counted per frame. */
+public class GLStateCache {
+  public GLStateCache() {
+    reset(null);
+  }
+
+  /** Forget all shadowed state, to be called whenever a context is made
+   * current since none of its state is known. */
+  public void reset(GL10 gl) {
+    mGl = gl;
+    mMatrixMode = kUnknown;
+    mMatrixKnown[0] = mMatrixKnown[1] = mMatrixKnown[2] = false;
+    mBoundTexture = kUnknown;
+    for (int index = 0; index < kCapabilities.length; ++index) {
+      mCapabilityStates[index] = kUnknown;
+    }
+    for (int index = 0; index < kClientStates.length; ++index) {
+      mClientStates[index] = kUnknown;
+    }
+    mBlendSource = mBlendDestination = kUnknown;
+    mColorKnown = false;
+  }
+
+  public GL10 getGl() {
+    return mGl;
+  }
+
+  /** Start counting calls for a new frame. The counts of the previous frame
+   * remain available through getIssuedCalls() and getSuppressedCalls(). */
+  public void beginFrame() {
+    mLastIssuedCalls = mIssuedCalls;
+    mLastSuppressedCalls = mSuppressedCalls;
+    mIssuedCalls = mSuppressedCalls = 0;
+  }
+
+  /** Return the number of calls passed on to the driver during the last
+   * complete frame. */
+  public int getIssuedCalls() {
+    return mLastIssuedCalls;
+  }
+
+  /** Return the number of redundant calls suppressed during the last complete
+   * frame. */
+  public int getSuppressedCalls() {
+    return mLastSuppressedCalls;
+  }
+
+  public void matrixMode(int mode) {
+    if (mode == mMatrixMode) {
+      ++mSuppressedCalls;
+    } else {
+      mMatrixMode = mode;
+      mGl.glMatrixMode(mode);
+      ++mIssuedCalls;
+    }
+  }
+
+  /** Load the 4x4 column-major matrix for the specified mode. Both the load
+   * and the mode change are suppressed when the matrix is already loaded. Only
+   * the model view and texture matrices are shadowed. */
+  public void loadMatrix(int mode, float[] matrix4x4) {
+    int index = mode - GL10.GL_MODELVIEW;
+    float[] shadow = mMatrices[index];
+    if (mMatrixKnown[index] && !mMatrixFixed[index] &&
+        mode != GL10.GL_PROJECTION) {
+      boolean equal = true;
+      for (int n = 0; n < 16; ++n) {
+        if (shadow[n] != matrix4x4[n]) {
+          equal = false;
+          break;
+        }
+      }
+      if (equal) {
+        ++mSuppressedCalls;
+        return;
+      }
+    }
+    matrixMode(mode);
+    mGl.glLoadMatrixf(matrix4x4, 0);
+    ++mIssuedCalls;
+    System.arraycopy(matrix4x4, 0, shadow, 0, 16);
+    mMatrixKnown[index] = mode != GL10.GL_PROJECTION;
+    mMatrixFixed[index] = false;
+  }
+
+  /** Load the 4x4 column-major matrix for the specified mode, in 16.16 fixed
+   * point, see Fixed. Redundant loads are suppressed as with the float form,
+   * although a matrix last loaded as floats is always loaded again. */
+  public void loadMatrix(int mode, int[] matrix4x4) {
+    int index = mode - GL10.GL_MODELVIEW;
+    int[] shadow = mMatricesFixed[index];
+    if (mMatrixKnown[index] && mMatrixFixed[index] &&
+        mode != GL10.GL_PROJECTION) {
+      boolean equal = true;
+      for (int n = 0; n < 16; ++n) {
+        if (shadow[n] != matrix4x4[n]) {
+          equal = false;
+          break;
+        }
+      }
+      if (equal) {
+        ++mSuppressedCalls;
+        return;
+      }
+    }
+    matrixMode(mode);
+    mGl.glLoadMatrixx(matrix4x4, 0);
+    ++mIssuedCalls;
+    System.arraycopy(matrix4x4, 0, shadow, 0, 16);
+    mMatrixKnown[index] = mode != GL10.GL_PROJECTION;
+    mMatrixFixed[index] = true;
+  }
+
+  public void loadIdentity(int mode) {
+    loadMatrix(mode, kIdentity);
+  }
+
+  /** Mark the matrix of the specified mode as unknown, to be called after it
+   * is changed directly, for example by glPushMatrix() or glRotatef(...). */
+  public void invalidateMatrix(int mode) {
+    mMatrixKnown[mode - GL10.GL_MODELVIEW] = false;
+  }
+
+  public int getBoundTexture() {
+    return mBoundTexture;
+  }
+
+  public void bindTexture(int texture_name) {
+    if (texture_name == mBoundTexture) {
+      ++mSuppressedCalls;
+    } else {
+      mBoundTexture = texture_name;
+      mGl.glBindTexture(GL10.GL_TEXTURE_2D, texture_name);
+      ++mIssuedCalls;
+    }
+  }
+
+  /** Forget the bound texture if it is the one deleted, to be called after
+   * every glDeleteTextures(...). The driver unbinds a deleted texture and may
+   * hand its name out again, so the next bind must always be issued. */
+  public void textureDeleted(int texture_name) {
+    if (texture_name == mBoundTexture) {
+      mBoundTexture = kUnknown;
+    }
+  }
+
+  /** Return whether one of the capabilities listed in kCapabilities is known
+   * to be enabled. */
+  public boolean isEnabled(int capability) {
+    return mCapabilityStates[findIndex(kCapabilities, capability)] == 1;
+  }
+
+  /** Enable or disable one of the capabilities listed in kCapabilities. */
+  public void setEnabled(int capability, boolean enabled) {
+    int index = findIndex(kCapabilities, capability);
+    int state = enabled ? 1 : 0;
+    if (mCapabilityStates[index] == state) {
+      ++mSuppressedCalls;
+      return;
+    }
+    mCapabilityStates[index] = state;
+    if (enabled) {
+      mGl.glEnable(capability);
+    } else {
+      mGl.glDisable(capability);
+    }
+    ++mIssuedCalls;
+  }
+
+  /** Enable or disable one of the client arrays listed in kClientStates. */
+  public void setClientStateEnabled(int array, boolean enabled) {
+    int index = findIndex(kClientStates, array);
+    int state = enabled ? 1 : 0;
+    if (mClientStates[index] == state) {
+      ++mSuppressedCalls;
+      return;
+    }
+    mClientStates[index] = state;
+    if (enabled) {
+      mGl.glEnableClientState(array);
+    } else {
+      mGl.glDisableClientState(array);
+    }
+    ++mIssuedCalls;
+  }
+
+  public void blendFunc(int source_factor, int destination_factor) {
+    if (source_factor == mBlendSource &&
+        destination_factor == mBlendDestination) {
+      ++mSuppressedCalls;
+      return;
+    }
+    mBlendSource = source_factor;
+    mBlendDestination = destination_factor;
+    mGl.glBlendFunc(source_factor, destination_factor);
+    ++mIssuedCalls;
+  }
+
+  /** Set the current color from an ARGB integer. */
+  public void color(int argb) {
+    if (mColorKnown && argb == mColor) {
+      ++mSuppressedCalls;
+      return;
+    }
+    mColor = argb;
+    mColorKnown = true;
+    mGl.glColor4f(((argb >> 16) & 0xFF) / 255.0f,
+                  ((argb >> 8) & 0xFF) / 255.0f,
+                  (argb & 0xFF) / 255.0f,
+                  (argb >>> 24) / 255.0f);
+    ++mIssuedCalls;
+  }
+
+  private static int findIndex(int[] values, int value) {
+    for (int index = 0; index < values.length; ++index) {
+      if (values[index] == value) {
+        return index;
+      }
+    }
+    throw new IllegalArgumentException("State not shadowed: " + value);
+  }
+
+  private int       mBlendDestination = kUnknown;
+  private int       mBlendSource = kUnknown;
+  private int       mBoundTexture = kUnknown;
+  private int[]     mCapabilityStates = new int[kCapabilities.length];
+  private int[]     mClientStates = new int[kClientStates.length];
+  private int       mColor;
+  private boolean   mColorKnown;
+  private GL10      mGl;
+  private int       mIssuedCalls;
+  private int       mLastIssuedCalls;
+  private int       mLastSuppressedCalls;
+  private boolean[] mMatrixFixed = new boolean[3];  // Last loaded as fixed.
+  private boolean[] mMatrixKnown = new boolean[3];  // Indexed by mode.
+  private int       mMatrixMode = kUnknown;
+  private float[][] mMatrices = new float[3][16];
+  private int[][]   mMatricesFixed = new int[3][16];
+  private int       mSuppressedCalls;
+
+  private static final int[] kCapabilities = {
+    GL10.GL_ALPHA_TEST, GL10.GL_BLEND, GL10.GL_CULL_FACE, GL10.GL_DEPTH_TEST,
+    GL10.GL_TEXTURE_2D };
+  private static final int[] kClientStates = {
+    GL10.GL_COLOR_ARRAY, GL10.GL_TEXTURE_COORD_ARRAY, GL10.GL_VERTEX_ARRAY,
+    GL11.GL_POINT_SIZE_ARRAY_OES };
+  private static final float[] kIdentity = {
+    1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+  private static final int kUnknown = -1;
+}
@@ -14,8 +14,6 @@ package android.com.abb;
 import android.app.Activity;
 import android.content.Context;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Rect;
 import android.media.AudioManager;
@@ -36,6 +34,7 @@ import java.util.TreeMap;
 
 public class GameState implements Game {
   public Avatar            avatar      = new Avatar(this);
+  public DecalLayer        decals      = new DecalLayer();
   public ArrayList<Enemy>  enemies     = new ArrayList<Enemy>();
   public Map               map         = new Map(this);
   public int               misc_sprites;
@@ -57,10 +56,8 @@ public class GameState implements Game {
 
   public void initializeGraphics(Graphics graphics) {
     avatar.loadFromUri(Uri.parse("file:///android_asset/avatar.animated"));
-    String misc_sprites_path =
-        Content.getFilePath(Uri.parse("file:///android_asset/misc.png"));
-    Bitmap misc_sprites_bitmap = BitmapFactory.decodeFile(misc_sprites_path);
-    misc_sprites = graphics.loadImageFromBitmap(misc_sprites_bitmap);
+    misc_sprites =
+        graphics.loadImageFromUri(Uri.parse("file:///android_asset/misc.png"));
   }
 
   public void finish() {
@@ -74,6 +71,7 @@ public class GameState implements Game {
       particle.release();
     }
     particles.clear();
+    decals.clear();
     for (Entity projectile : projectiles) {
       projectile.release();
     }
@@ -112,6 +110,7 @@ public class GameState implements Game {
   //private long mDrawTime;
 
   public boolean onFrame(Graphics graphics, float time_step) {
+    mFrameTime += (time_step - mFrameTime) * kFrameTimeSmoothing;
     //long time_0 = System.nanoTime();
     stepGame(time_step);
     //long time_1 = System.nanoTime();
@@ -277,11 +276,16 @@ public class GameState implements Game {
       }
     }
 
-    // Step the particles.
+    // Step the particles. Particles hitting a solid tile leave a splat in the
+    // decal layer and are released immediately.
     for (int index = 0; index < particles.size(); ++index) {
       Entity particle = particles.get(index);
       particle.life -= time_step;
       particle.step(time_step);
+      if (map.isSolidAt(particle.x, particle.y)) {
+        decals.stamp(particle.x, particle.y);
+        particle.life = 0.0f;
+      }
       if (particle.life <= 0.0f) {
         particle.release();
         particles.remove(index);
@@ -295,6 +299,9 @@ public class GameState implements Game {
     // Draw the map tiles.
     map.draw(graphics, mViewX, mViewY, mZoom);
 
+    // Draw the blood which has accumulated over the tiles.
+    decals.draw(graphics, mViewX, mViewY, mZoom);
+
     // Draw the enemies.
     for (int index = 0; index < enemies.size(); ++index) {
       enemies.get(index).draw(graphics, mViewX, mViewY, mZoom);
@@ -309,12 +316,73 @@ public class GameState implements Game {
     }
 
     // Draw the particles.
-    for (int index = 0; index < particles.size(); ++index) {
-      particles.get(index).draw(graphics, mViewX, mViewY, mZoom);
-    }
+    drawParticles(graphics);
 
-    // Draw the user interface and avatar statistics meters.
+    // Draw the user interface and avatar statistics meters. These are drawn at
+    // the native resolution regardless of the scene, see
+    // Graphics.setRenderScale(...).
+    graphics.endScene();
     avatar.drawHud(graphics);
+    drawStats(graphics);
+  }
+
+  /** Draw the kill count, level timer and frame time below the avatar meters,
+   * and the image streaming statistics and the issued and suppressed OpenGL
+   * state calls of the last frame on a second line. The text is formatted into
+   * a reusable buffer and drawn a line at a time, so nothing is allocated per
+   * frame, see Graphics.drawText(...). */
+  private void drawStats(Graphics graphics) {
+    int tenths = (int)(mTimer * 10.0f);
+    mStatsText.clear();
+    mStatsText.append("KILLS ").append(mKills);
+    mStatsText.append("  TIME ").append(tenths / 600).append(':');
+    mStatsText.appendPadded(tenths / 10 % 60, 2).append('.');
+    mStatsText.append(tenths % 10);
+    mStatsText.append("  FRAME ").append(mFrameTime * 1000.0f, 1);
+    mStatsText.append("ms");
+    graphics.drawText(mStatsText, kStatsX, kStatsY, kStatsScale);
+
+    mStatsText.clear();
+    mStatsText.append("STREAM ").append(graphics.getUploadQueueDepth());
+    mStatsText.append("  WAIT ");
+    mStatsText.append(graphics.getAverageUploadWait() * 1000.0f, 1);
+    mStatsText.append('/');
+    mStatsText.append(graphics.getMaxUploadWait() * 1000.0f, 1);
+    mStatsText.append("ms  GL ").append(graphics.getIssuedStateCalls());
+    mStatsText.append('/').append(graphics.getSuppressedStateCalls());
+    graphics.drawText(mStatsText, kStatsX,
+                      kStatsY + graphics.getTextHeight() * kStatsScale,
+                      kStatsScale);
+  }
+
+  /** Draw the blood particles as point sprites. The particles share a single
+   * square frame, see createBloodParticle(...), so they are drawn in a call
+   * for each orientation rather than one per particle. */
+  private void drawParticles(Graphics graphics) {
+    if (mParticlePoints.length < 3 * particles.size()) {
+      mParticlePoints = new float[3 * particles.size()];
+    }
+    float half_width = graphics.getWidth() / 2.0f;
+    float half_height = graphics.getHeight() / 2.0f;
+    for (int flipped = 0; flipped < 2; ++flipped) {
+      int point_count = 0;
+      for (int index = 0; index < particles.size(); ++index) {
+        Entity particle = particles.get(index);
+        if (particle.sprite_flipped_horizontal != (flipped == 1)) {
+          continue;
+        }
+        mParticlePoints[3 * point_count] =
+            (particle.x - mViewX) * mZoom + half_width;
+        mParticlePoints[3 * point_count + 1] =
+            (particle.y - mViewY) * mZoom + half_height;
+        mParticlePoints[3 * point_count + 2] = kBloodRect.width() * mZoom;
+        ++point_count;
+      }
+      if (point_count > 0) {
+        graphics.drawPointSprites(misc_sprites, kBloodRect, flipped == 1,
+                                  mParticlePoints, point_count);
+      }
+    }
   }
 
   synchronized public void addNotification(String notification) {
@@ -344,7 +412,9 @@ public class GameState implements Game {
     final float kTimeRemaining = 0.75f;  // Seconds.
 
     Entity blood = Entity.obtain();
-    blood.sprite_rect.set(12, 49, 54, 97);
+    // The frame is padded with transparent columns to a square so that the
+    // particles may be drawn as point sprites, see drawParticles(...).
+    blood.sprite_rect.set(kBloodRect);
     blood.sprite_flipped_horizontal = mRandom.nextBoolean();
     blood.sprite_image = misc_sprites;
     blood.life = kTimeRemaining;
@@ -484,12 +554,15 @@ public class GameState implements Game {
   private float                 mDeathTimer           = kDeathTimer;
   private TreeMap<Uri, Enemy>   mEnemyCache           = new TreeMap<Uri, Enemy>();
   private float                 mGameSpeed            = 0.75f;
+  private float                 mFrameTime;  // Smoothed, in seconds.
   private boolean               mHasWon;
   private int                   mKills;
   private LinkedList<String>    mPendingNotifications = new LinkedList<String>();
+  private float[]               mParticlePoints       = new float[0];
   private Random                mRandom               = new Random();
   private TreeMap<Uri, Integer> mSoundMap             = new TreeMap<Uri, Integer>();
   private SoundPool             mSoundPool;
+  private TextBuilder           mStatsText            = new TextBuilder(64);
   private float                 mTargetViewX          = 0.0f;
   private float                 mTargetViewY          = 0.0f;
   private float                 mTargetZoom           = kGroundZoom;
@@ -505,10 +578,13 @@ public class GameState implements Game {
   private static final long  kAvatarDeathVibrateLength = 250;  // Milliseconds.
   private static final int   kBloodBathSize            = 20;   // Particle count.
   private static final float kBloodBathVelocity        = 60.0f;
+  private static final Rect  kBloodRect                =
+      new Rect(9, 49, 57, 97);
   private static final float kDeathTimer               = 2.0f;
   private static final float kDeathZoom                = 1.5f;
   private static final long  kEnemyAttackVibrateLength = 50;   // Milliseconds.
   private static final long  kEnemyDeathVibrateLength  = 30;   // Milliseconds.
+  private static final float kFrameTimeSmoothing       = 0.1f;
   private static final float kGravity                  = 200.0f;
   private static final float kGroundZoom               = 0.85f;
   private static final int   kMaxSounds                = 10;
@@ -520,6 +596,9 @@ public class GameState implements Game {
       Uri.parse("file:///android_asset/avatar_win.mp3");
   private static final Uri   kSoundEnemyDeath          =
       Uri.parse("file:///android_asset/enemy_death.mp3");
+  private static final float kStatsScale               = 0.75f;
+  private static final float kStatsX                   = 4.0f;   // Pixels.
+  private static final float kStatsY                   = 16.0f;  // Pixels.
   private static final float kViewLead                 = 1.0f;
   private static final float kViewSpeed                = 2.0f;
   private static final float kWinTimer                 = 3.0f;
@@ -37,8 +37,10 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
   class GameThread extends Thread {
     public GameThread(Context context,
                       Handler handler,
-                      SurfaceHolder surface_holder) {
+                      SurfaceHolder surface_holder,
+                      Graphics graphics) {
       mContext = context;
+      mGraphics = graphics;
       mHandler = handler;
       mPaused = false;
       mRunning = true;
@@ -57,11 +59,15 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
           }
         }
 
-        Assert.assertEquals(
-            "GameView thread must only be run once.", mGraphics, null);
-        mGraphics = new Graphics();
+        // The graphics instance outlives the thread, and with it every loaded
+        // image, so the game only loads its images once. Any images lost with
+        // the previous surface are restored by the graphics system itself.
         mGraphics.initialize(mSurfaceHolder);
-        mGame.initializeGraphics(mGraphics);
+        mGraphicsInitialized = true;
+        if (mGame != mGraphicsGame) {
+          mGame.initializeGraphics(mGraphics);
+          mGraphicsGame = mGame;
+        }
       }
 
       // Since our target platform is a mobile device, we should do what we can
@@ -150,7 +156,9 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
         }
       }
       Log.d("GameThread::run", "Freeing graphics resources...");
-      mGraphics.destroy();
+      if (mGraphicsInitialized) {
+        mGraphics.destroy();
+      }
       Log.d("GameThread::run", "Finished game thread.");
     }
 
@@ -166,7 +174,7 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
 
     synchronized public void surfaceChanged(SurfaceHolder surface_holder,
                                             int width, int height) {
-      if (mGraphics != null) {
+      if (mGraphicsInitialized) {
         mGraphics.surfaceChanged(surface_holder, width, height);
       }
     }
@@ -179,6 +187,7 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
     private Context mContext;
     private Game mGame;
     private Graphics mGraphics;
+    private boolean mGraphicsInitialized;
     private Handler mHandler;
     private boolean mPaused;
     private boolean mRunning;
@@ -284,7 +293,7 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
     getHolder().setType(SurfaceHolder.SURFACE_TYPE_GPU);
 
     Assert.assertTrue(mGameThread == null);
-    mGameThread = new GameThread(mContext, mHandler, holder);
+    mGameThread = new GameThread(mContext, mHandler, holder, mGraphics);
     mGameThread.setGame(mGame);
     mGameThread.start();
     mGameThreadStarted = true;
@@ -328,6 +337,8 @@ public class GameView extends SurfaceView implements SurfaceHolder.Callback {
   private Context        mContext;
   private Game           mGame;
   private GameThread     mGameThread;
+  private Graphics       mGraphics = new Graphics();
+  private Game           mGraphicsGame;  // The game which loaded its images.
   private boolean        mGameThreadStarted;
   private Handler        mHandler;
   private ProgressDialog mLoadingDialog;
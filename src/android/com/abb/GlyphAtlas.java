@@ -0,0 +1,136 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+import android.util.Log;
+
+
+/** A GlyphAtlas holds the printable ASCII characters of a font rendered once,
+ * in white, into a grid of equally sized cells within a single image, along
+ * with the advance of each character. Text is drawn from the atlas as one
+ * quad per character, see Graphics.drawText(...), so a whole string shares a
+ * single texture and is drawn as a single batch by the batched back end.
+ * Characters outside of the atlas are drawn as spaces. */
+public class GlyphAtlas {
+  public GlyphAtlas(float text_size) {
+    Paint paint = new Paint();
+    paint.setAntiAlias(true);
+    paint.setColor(0xFFFFFFFF);
+    paint.setTextSize(text_size);
+    paint.setTypeface(Typeface.DEFAULT_BOLD);
+    Paint.FontMetrics metrics = paint.getFontMetrics();
+
+    char[] glyphs = new char[kGlyphCount];
+    for (int glyph = 0; glyph < kGlyphCount; ++glyph) {
+      glyphs[glyph] = (char)(kFirstGlyph + glyph);
+    }
+    paint.getTextWidths(glyphs, 0, kGlyphCount, mAdvances);
+    float max_advance = 0.0f;
+    for (int glyph = 0; glyph < kGlyphCount; ++glyph) {
+      max_advance = Math.max(max_advance, mAdvances[glyph]);
+    }
+
+    // Cells are padded by a texel on every side so filtering, when the text
+    // is scaled, never samples a neighboring glyph.
+    mLineHeight = (int)Math.ceil(metrics.descent - metrics.ascent);
+    mCellWidth = (int)Math.ceil(max_advance) + 2;
+    mCellHeight = mLineHeight + 2;
+    mWidth = nextPowerOfTwo(mCellWidth * kColumns);
+    mHeight = nextPowerOfTwo(
+        mCellHeight * ((kGlyphCount + kColumns - 1) / kColumns));
+
+    Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight,
+                                        Bitmap.Config.ARGB_8888);
+    Canvas canvas = new Canvas(bitmap);
+    for (int glyph = 0; glyph < kGlyphCount; ++glyph) {
+      canvas.drawText(glyphs, glyph, 1,
+                      (glyph % kColumns) * mCellWidth + 1,
+                      (glyph / kColumns) * mCellHeight + 1 - metrics.ascent,
+                      paint);
+    }
+    mPixels = new int[mWidth * mHeight];
+    bitmap.getPixels(mPixels, 0, mWidth, 0, 0, mWidth, mHeight);
+    bitmap.recycle();
+    Log.d("GlyphAtlas::GlyphAtlas",
+          "Rendered " + kGlyphCount + " glyphs into " + mWidth + "x" +
+          mHeight + " at " + mCellWidth + "x" + mCellHeight + " per cell.");
+  }
+
+  /** Return the ARGB pixels of the atlas, to be loaded as an image. The
+   * reference is released, since images take ownership of their pixels. */
+  public int[] takePixels() {
+    int[] pixels = mPixels;
+    mPixels = null;
+    return pixels;
+  }
+
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  /** Return the height of a line of text in pixels, at a scale of one. */
+  public int getLineHeight() {
+    return mLineHeight;
+  }
+
+  /** Return the horizontal advance of a character in pixels, at a scale of
+   * one. */
+  public float getAdvance(char c) {
+    return mAdvances[glyphIndex(c)];
+  }
+
+  /** Set the rectangle to the area of the atlas a character occupies. The
+   * rectangle spans the full advance of the character and the line height. */
+  public void getGlyphRect(char c, Rect rect) {
+    int glyph = glyphIndex(c);
+    rect.left = (glyph % kColumns) * mCellWidth + 1;
+    rect.top = (glyph / kColumns) * mCellHeight + 1;
+    rect.right = rect.left + (int)Math.ceil(mAdvances[glyph]);
+    rect.bottom = rect.top + mLineHeight;
+  }
+
+  private static int glyphIndex(char c) {
+    if (c < kFirstGlyph || c >= kFirstGlyph + kGlyphCount) {
+      return 0;  // Space.
+    }
+    return c - kFirstGlyph;
+  }
+
+  private static int nextPowerOfTwo(int value) {
+    int result = 1;
+    while (result < value) {
+      result <<= 1;
+    }
+    return result;
+  }
+
+  private float[] mAdvances = new float[kGlyphCount];
+  private int     mCellHeight;
+  private int     mCellWidth;
+  private int     mHeight;
+  private int     mLineHeight;
+  private int[]   mPixels;  // Null once taken.
+  private int     mWidth;
+
+  private static final int kColumns    = 16;
+  private static final int kFirstGlyph = ' ';
+  private static final int kGlyphCount = '~' - ' ' + 1;
+}
@@ -18,6 +18,7 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.net.Uri;
 import android.opengl.GLDebugHelper;
 import android.opengl.GLU;
 import android.opengl.GLUtils;
@@ -26,9 +27,10 @@ import android.view.SurfaceHolder;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.IntBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.TreeMap;
 import java.util.Vector;
 import javax.microedition.khronos.egl.EGL10;
@@ -39,6 +41,8 @@ import javax.microedition.khronos.egl.EGLDisplay;
 import javax.microedition.khronos.egl.EGLSurface;
 import javax.microedition.khronos.opengles.GL;
 import javax.microedition.khronos.opengles.GL10;
+import javax.microedition.khronos.opengles.GL11;
+import javax.microedition.khronos.opengles.GL11Ext;
 import javax.microedition.khronos.opengles.GL11ExtensionPack;
 import junit.framework.Assert;
 
@@ -64,7 +68,12 @@ public class Graphics {
         Log.d("Graphics::Initialize", "Initializing Android2D rendering.");
         initializeAndroid2D();
         break;
+      case SOFTWARE:
+        Log.d("Graphics::Initialize", "Initializing software rendering.");
+        initializeSoftware();
+        break;
       case OPENGL:
+      case OPENGL_BATCHED:
         Log.d("Graphics::Initialize", "Initializing OpenGL rendering.");
         initializeOpenGL();
         break;
@@ -82,17 +91,29 @@ public class Graphics {
     switch (mBackendType) {
       case ANDROID2D:
         break;  // Don't care.
+      case SOFTWARE:
+        surfaceChangedSoftware();
+        break;
       case OPENGL:
+      case OPENGL_BATCHED:
         mGlSurfaceInitialized = false;
         break;
     }
   }
 
+  /** Release the rendering resources, to be called when the surface is
+   * destroyed. Loaded images remain registered, and their handles valid, so
+   * the same instance may be initialized again with a new surface. The OpenGL
+   * back ends then restore the images in the background, see
+   * restoreTexturesOpenGL(). */
   public void destroy() {
+    mTextureStreamer.shutdown();
     switch (mBackendType) {
       case ANDROID2D:
+      case SOFTWARE:
         break;  // Don't care.
       case OPENGL:
+      case OPENGL_BATCHED:
         destroyOpenGL();
         break;
     }
@@ -102,7 +123,10 @@ public class Graphics {
     switch (mBackendType) {
       case ANDROID2D:
         return getWidthAndroid2D();
+      case SOFTWARE:
+        return getWidthSoftware();
       case OPENGL:
+      case OPENGL_BATCHED:
         return getWidthOpenGL();
     }
     return 0;
@@ -112,7 +136,10 @@ public class Graphics {
     switch (mBackendType) {
       case ANDROID2D:
         return getHeightAndroid2D();
+      case SOFTWARE:
+        return getHeightSoftware();
       case OPENGL:
+      case OPENGL_BATCHED:
         return getHeightOpenGL();
     }
     return 0;
@@ -135,7 +162,11 @@ public class Graphics {
         case ANDROID2D:
           image_handle = loadImageFromBitmapAndroid2D(bitmap);
           break;
+        case SOFTWARE:
+          image_handle = loadImageFromBitmapSoftware(bitmap);
+          break;
         case OPENGL:
+        case OPENGL_BATCHED:
           image_handle = loadImageFromBitmapOpenGL(bitmap);
           break;
       }
@@ -144,17 +175,221 @@ public class Graphics {
     }
   }
 
+  /** Load an image from ARGB pixels, as returned by Bitmap.getPixels(...), and
+   * return its handle. This is intended for images generated at runtime, see
+   * Impostor. The pixel array is owned by the graphics system afterwards and
+   * must not be modified, though it is left unchanged. Unlike the other load
+   * methods, the result is not cached. */
+  public int loadImageFromPixels(int[] pixels, int width, int height) {
+    return loadImageFromPixels(pixels, width, height, false);
+  }
+
+  /** Load an image from ARGB pixels as above. Images which are to be changed
+   * with updateImageRows(...) must be loaded as updatable, which keeps them at
+   * 32 bits regardless of the texture quality tier, since rows changed later
+   * may have any alpha. */
+  public int loadImageFromPixels(int[] pixels, int width, int height,
+                                 boolean updatable) {
+    Assert.assertNotNull(
+        "Null pixels specified in loadImageFromPixels", pixels);
+
+    int image_handle = -1;
+    switch (mBackendType) {
+      case ANDROID2D:
+        image_handle = loadImageFromBitmapAndroid2D(Bitmap.createBitmap(
+            pixels, width, height, Bitmap.Config.ARGB_8888));
+        break;
+      case SOFTWARE:
+        mImagesSoftware.add(
+            new SoftwareRasterizer.Texture(pixels, width, height));
+        image_handle = mImagesSoftware.size() - 1;
+        break;
+      case OPENGL:
+      case OPENGL_BATCHED:
+        image_handle = allocateTextureOpenGL();
+        // Generated images are converted to the 16 bit formats of the lower
+        // quality tiers, but never sampled down.
+        TextureImage image;
+        if (mTextureQuality.usesPackedFormats() && !updatable) {
+          image = TextureImage.fromPixelsPacked(pixels, width, height);
+        } else {
+          image = TextureImage.fromPixels(pixels, width, height);
+        }
+        uploadTextureImageOpenGL(image_handle, image);
+        mTextureData.get(image_handle).source_image = image;
+        break;
+    }
+    return image_handle;
+  }
+
+  /** Load an image from a file on disk and return its handle. Images are
+   * cached by path and the cache is consulted before any file access or
+   * decoding takes place, so every caller asking for the same file shares a
+   * single handle. A handle of -1 is returned if the file cannot be loaded. */
+  public int loadImageFromFile(String file_path) {
+    Assert.assertNotNull(
+        "Null path specified in loadImageFromFile", file_path);
+
+    Integer cached_image_handle = mImagePathCache.get(file_path);
+    if (cached_image_handle != null) {
+      return cached_image_handle.intValue();
+    }
+
+    int image_handle = -1;
+    switch (mBackendType) {
+      case ANDROID2D:
+      case SOFTWARE:
+        Bitmap bitmap = BitmapFactory.decodeFile(file_path);
+        if (bitmap == null) {
+          Log.e("Graphics::loadImageFromFile", "Cannot find/load: " + file_path);
+          return -1;
+        }
+        if (mBackendType == BackendType.SOFTWARE) {
+          image_handle = loadImageFromBitmapSoftware(bitmap);
+          bitmap.recycle();
+        } else {
+          image_handle = loadImageFromBitmapAndroid2D(bitmap);
+        }
+        break;
+      case OPENGL:
+      case OPENGL_BATCHED:
+        // The OpenGL back end loads through the raw texture cache, avoiding the
+        // image decoding altogether for images loaded in a previous run.
+        TextureImage image = TextureImage.loadFile(
+            file_path, mHasEtc1, mTextureQuality);
+        if (image == null) {
+          return -1;
+        }
+        image_handle = allocateTextureOpenGL();
+        uploadTextureImageOpenGL(image_handle, image);
+        mTextureData.get(image_handle).source_path = file_path;
+        break;
+    }
+    mImagePathCache.put(file_path, new Integer(image_handle));
+    return image_handle;
+  }
+
+  /** Load an image from a content uri and return its handle. See
+   * loadImageFromFile(...). */
+  public int loadImageFromUri(Uri uri) {
+    return loadImageFromFile(Content.getFilePath(uri));
+  }
+
+  /** Asynchronous version of loadImageFromFile(...). The returned handle is
+   * valid immediately, but the image is decoded on a background thread and
+   * uploaded over the following frames. Until it is ready, drawing the handle
+   * draws a place holder instead. */
+  public int loadImageFromFileAsync(String file_path) {
+    Assert.assertNotNull(
+        "Null path specified in loadImageFromFileAsync", file_path);
+
+    Integer cached_image_handle = mImagePathCache.get(file_path);
+    if (cached_image_handle != null) {
+      return cached_image_handle.intValue();
+    }
+
+    int image_handle = -1;
+    switch (mBackendType) {
+      case ANDROID2D:
+      case SOFTWARE:
+        return loadImageFromFile(file_path);  // No streaming support.
+      case OPENGL:
+      case OPENGL_BATCHED:
+        image_handle = allocateTextureOpenGL();
+        mTextureData.get(image_handle).source_path = file_path;
+        mTextureStreamer.request(
+            image_handle, file_path, mHasEtc1, mTextureQuality);
+        break;
+    }
+    mImagePathCache.put(file_path, new Integer(image_handle));
+    return image_handle;
+  }
+
+  /** Asynchronous version of loadImageFromUri(...). See
+   * loadImageFromFileAsync(...). */
+  public int loadImageFromUriAsync(Uri uri) {
+    return loadImageFromFileAsync(Content.getFilePath(uri));
+  }
+
+  /** Return the number of streamed images which have been requested but not
+   * yet uploaded. */
+  public int getUploadQueueDepth() {
+    return mTextureStreamer.getQueueDepth();
+  }
+
+  /** Return the average time, in seconds, streamed images waited between being
+   * requested and being uploaded. */
+  public float getAverageUploadWait() {
+    if (mUploadCount == 0) {
+      return 0.0f;
+    }
+    return (float)(mUploadWaitTotal / mUploadCount) * 1.0e-9f;
+  }
+
+  /** Return the longest time, in seconds, a streamed image waited between being
+   * requested and being uploaded. */
+  public float getMaxUploadWait() {
+    return (float)mUploadWaitMax * 1.0e-9f;
+  }
+
+  /** Return the number of OpenGL state changes passed on to the driver during
+   * the last frame, see GLStateCache. Zero for the other back ends. */
+  public int getIssuedStateCalls() {
+    return mGlState.getIssuedCalls();
+  }
+
+  /** Return the number of redundant OpenGL state changes suppressed during the
+   * last frame, see GLStateCache. */
+  public int getSuppressedStateCalls() {
+    return mGlState.getSuppressedCalls();
+  }
+
   public void freeImage(int image_handle) {
+    if (image_handle < 0) {
+      return;
+    }
+
+    // Any cache entries referring to the freed image must be dropped so that
+    // subsequent loads of the same image do not return a stale handle.
+    Integer handle = new Integer(image_handle);
+    mImageCache.values().removeAll(Collections.singleton(handle));
+    mImagePathCache.values().removeAll(Collections.singleton(handle));
+
     switch (mBackendType) {
       case ANDROID2D:
         freeImageAndroid2D(image_handle);
         break;
+      case SOFTWARE:
+        freeImageSoftware(image_handle);
+        break;
       case OPENGL:
+      case OPENGL_BATCHED:
         freeImageOpenGL(image_handle);
         break;
     }
   }
 
+  /** Replace the rows from top, inclusive, to bottom, exclusive, of an image
+   * loaded with loadImageFromPixels(...) as updatable. The ARGB pixels cover
+   * the whole image and remain owned by the caller. Only the specified rows
+   * are converted and uploaded, so an image may be changed a little at a time
+   * at little cost, see DecalLayer. */
+  public void updateImageRows(int image_handle, int[] pixels,
+                              int top, int bottom) {
+    switch (mBackendType) {
+      case ANDROID2D:
+        updateImageRowsAndroid2D(image_handle, pixels, top, bottom);
+        break;
+      case SOFTWARE:
+        updateImageRowsSoftware(image_handle, pixels, top, bottom);
+        break;
+      case OPENGL:
+      case OPENGL_BATCHED:
+        updateImageRowsOpenGL(image_handle, pixels, top, bottom);
+        break;
+    }
+  }
+
   public void drawImage(int image_handle, Rect source_rect, RectF dest_rect,
                         boolean flipped_horizontal, boolean flipped_vertical,
                         int block_count) {
@@ -164,24 +399,51 @@ public class Graphics {
     // reasons. TODO: Inline the 2D API implementation here.
     Assert.assertEquals(mBackendType, BackendType.OPENGL);
     */
-
-    if (image_handle >= mTextureData.size()) {
-      Log.d("Graphics::drawImage", "Unknown image handle encountered. " +
-            "Assuming OpenGL context has been lost. Exiting.");
-      mContextLost = true;
+    if (mBackendType == BackendType.SOFTWARE) {
+      drawImageSoftware(image_handle, source_rect, dest_rect,
+                        flipped_horizontal, flipped_vertical, block_count);
       return;
     }
 
-    if (image_handle != mCurrentTexture) {
-      mCurrentTexture = image_handle;
-      mGl.glBindTexture(GL10.GL_TEXTURE_2D, image_handle);
+    TextureData texture_data = bindTextureOpenGL(image_handle);
+    if (texture_data == null) {
+      return;
+    }
+    setDrawStateOpenGL(texture_data, source_rect,
+                       block_count == 1 && mRotationDepth == 0 &&
+                       dest_rect.left <= 0.0f && dest_rect.top <= 0.0f &&
+                       dest_rect.right >= mSurfaceWidth &&
+                       dest_rect.bottom >= mSurfaceHeight);
+    if (mBackendType == BackendType.OPENGL_BATCHED) {
+      float dest_height = dest_rect.top - dest_rect.bottom;
+      addQuadOpenGL(texture_data, source_rect,
+                    flipped_horizontal, flipped_vertical, block_count,
+                    dest_rect.left, mSurfaceHeight - dest_rect.top,
+                    dest_rect.right - dest_rect.left, 0.0f,
+                    0.0f, dest_height);
+      return;
+    }
+    if (mHasDrawTexture && !flipped_horizontal && block_count == 1 &&
+        mRotationDepth == 0 && dest_rect.right > dest_rect.left &&
+        dest_rect.bottom > dest_rect.top) {
+      drawTextureOpenGL(texture_data, source_rect, dest_rect,
+                        flipped_vertical);
+      return;
+    }
+    if (mFixedPoint) {
+      drawQuadFixedOpenGL(texture_data, source_rect,
+                          flipped_horizontal, flipped_vertical, block_count,
+                          Fixed.fromFloat(dest_rect.left),
+                          Fixed.fromFloat(mSurfaceHeight - dest_rect.top),
+                          Fixed.fromFloat(dest_rect.right - dest_rect.left),
+                          Fixed.fromFloat(dest_rect.top - dest_rect.bottom));
+      return;
     }
 
     // The vertex and texture coordinate arrays have already been initialized.
     // All that is left is to set up the texture and model view transformation
     // matrices and render. Note that the OpenGL API expects matrices with a
     // column-major layout.
-    TextureData texture_data = mTextureData.get(image_handle);
     float texture_width = texture_data.width;
     float texture_height = texture_data.height;
 
@@ -202,22 +464,35 @@ public class Graphics {
       mMatrix4x4[12] = source_rect.left / texture_width;
     }
 
-    mGl.glMatrixMode(GL10.GL_TEXTURE);
-    mGl.glLoadMatrixf(mMatrix4x4, 0);
+    mGlState.loadMatrix(GL10.GL_TEXTURE, mMatrix4x4);
 
     mMatrix4x4[0] = dest_rect.right - dest_rect.left;
     mMatrix4x4[5] = dest_rect.top - dest_rect.bottom;
     mMatrix4x4[12] = dest_rect.left;
     mMatrix4x4[13] = mSurfaceHeight - dest_rect.top;
-    mGl.glMatrixMode(GL10.GL_MODELVIEW);
-    mGl.glLoadMatrixf(mMatrix4x4, 0);
+    mGlState.loadMatrix(GL10.GL_MODELVIEW, mMatrix4x4);
 
     mGl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 2 * block_count + 2);
   }
 
+  /** Draw an image through an android.graphics.Matrix transformation. See the
+   * Affine form of drawImage(...), which should be preferred since reading the
+   * Matrix requires a native call. */
   public void drawImage(int image_handle, Rect source_rect, Matrix dest_matrix,
                         boolean flipped_horizontal, boolean flipped_vertical,
                         int block_count) {
+    dest_matrix.getValues(mMatrix3x3);
+    mMatrixTransformation.set(mMatrix3x3, 0);
+    drawImage(image_handle, source_rect, mMatrixTransformation,
+              flipped_horizontal, flipped_vertical, block_count);
+  }
+
+  /** Draw an image through an affine transformation which maps the unit
+   * square onto the destination, in screen coordinates. */
+  public void drawImage(int image_handle, Rect source_rect,
+                        Affine dest_transformation,
+                        boolean flipped_horizontal, boolean flipped_vertical,
+                        int block_count) {
     /* DEBUGGING ONLY
     Assert.assertTrue("Invalid image handle in drawImage", image_handle >= 0);
     // The drawImageOpenGL implementation has been inlined here for performance
@@ -227,24 +502,46 @@ public class Graphics {
     if (mBackendType == BackendType.ANDROID2D) {
       return;
     }
-
-    if (image_handle >= mTextureData.size()) {
-      Log.d("Graphics::drawImage", "Unknown image handle encountered. " +
-            "Assuming OpenGL context has been lost. Exiting.");
-      mContextLost = true;
+    if (mBackendType == BackendType.SOFTWARE) {
+      drawImageSoftware(image_handle, source_rect, dest_transformation,
+                        flipped_horizontal, flipped_vertical, block_count);
       return;
     }
 
-    if (image_handle != mCurrentTexture) {
-      mCurrentTexture = image_handle;
-      mGl.glBindTexture(GL10.GL_TEXTURE_2D, image_handle);
+    TextureData texture_data = bindTextureOpenGL(image_handle);
+    if (texture_data == null) {
+      return;
+    }
+    setDrawStateOpenGL(texture_data, source_rect, false);
+    if (mBackendType == BackendType.OPENGL_BATCHED) {
+      // Flip into the y-up OpenGL screen coordinates.
+      addQuadOpenGL(texture_data, source_rect,
+                    flipped_horizontal, flipped_vertical, block_count,
+                    dest_transformation.tx,
+                    mSurfaceHeight - dest_transformation.ty,
+                    dest_transformation.a, -dest_transformation.c,
+                    dest_transformation.b, -dest_transformation.d);
+      return;
+    }
+    if (mFixedPoint) {
+      loadTextureMatrixFixedOpenGL(texture_data, source_rect,
+                                   flipped_horizontal, flipped_vertical);
+      mMatrix4x4Fixed[0] = Fixed.fromFloat(dest_transformation.a);
+      mMatrix4x4Fixed[1] = Fixed.fromFloat(-dest_transformation.c);
+      mMatrix4x4Fixed[4] = Fixed.fromFloat(dest_transformation.b);
+      mMatrix4x4Fixed[5] = Fixed.fromFloat(-dest_transformation.d);
+      mMatrix4x4Fixed[12] = Fixed.fromFloat(dest_transformation.tx);
+      mMatrix4x4Fixed[13] =
+          Fixed.fromFloat(mSurfaceHeight - dest_transformation.ty);
+      mGlState.loadMatrix(GL10.GL_MODELVIEW, mMatrix4x4Fixed);
+      mGl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 2 * block_count + 2);
+      return;
     }
 
     // The vertex and texture coordinate arrays have already been initialized.
     // All that is left is to set up the texture and model view transformation
     // matrices and render. Note that the OpenGL API expects matrices with a
     // column-major layout.
-    TextureData texture_data = mTextureData.get(image_handle);
     float texture_width = texture_data.width;
     float texture_height = texture_data.height;
 
@@ -265,28 +562,147 @@ public class Graphics {
       mMatrix4x4[12] = source_rect.left / texture_width;
     }
 
-    mGl.glMatrixMode(GL10.GL_TEXTURE);
-    mGl.glLoadMatrixf(mMatrix4x4, 0);
-
-    mScreenMatrix.reset();
-    mScreenMatrix.preTranslate(0.0f, mSurfaceHeight);
-    mScreenMatrix.preScale(1.0f, -1.0f);
-    mScreenMatrix.preConcat(dest_matrix);
-    mScreenMatrix.getValues(mMatrix3x3);
-    mMatrix4x4[0] = mMatrix3x3[0];
-    mMatrix4x4[1] = mMatrix3x3[3];
-    mMatrix4x4[2] = mMatrix3x3[6];
-    mMatrix4x4[4] = mMatrix3x3[1];
-    mMatrix4x4[5] = mMatrix3x3[4];
-    mMatrix4x4[6] = mMatrix3x3[6];
-    mMatrix4x4[12] = mMatrix3x3[2];
-    mMatrix4x4[13] = mMatrix3x3[5];
-    mGl.glMatrixMode(GL10.GL_MODELVIEW);
-    mGl.glLoadMatrixf(mMatrix4x4, 0);
+    mGlState.loadMatrix(GL10.GL_TEXTURE, mMatrix4x4);
+
+    dest_transformation.getGlMatrix(mMatrix4x4, mSurfaceHeight);
+    mGlState.loadMatrix(GL10.GL_MODELVIEW, mMatrix4x4);
 
     mGl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 2 * block_count + 2);
   }
 
+  /** Draw an image to a destination rectangle given in 16.16 fixed point
+   * screen coordinates, see Fixed. Where fixed point vertices are in use, see
+   * isFixedPoint(), the image is drawn without any float math, otherwise this
+   * is equivalent to the RectF form of drawImage(...). */
+  public void drawImageFixed(int image_handle, Rect source_rect,
+                             int left, int top, int right, int bottom,
+                             boolean flipped_horizontal,
+                             boolean flipped_vertical, int block_count) {
+    if (!mFixedPoint) {
+      mRectFixed.left = Fixed.toFloat(left);
+      mRectFixed.top = Fixed.toFloat(top);
+      mRectFixed.right = Fixed.toFloat(right);
+      mRectFixed.bottom = Fixed.toFloat(bottom);
+      drawImage(image_handle, source_rect, mRectFixed,
+                flipped_horizontal, flipped_vertical, block_count);
+      return;
+    }
+
+    TextureData texture_data = bindTextureOpenGL(image_handle);
+    if (texture_data == null) {
+      return;
+    }
+    int surface_width = Fixed.fromInt(mSurfaceWidth);
+    int surface_height = Fixed.fromInt(mSurfaceHeight);
+    setDrawStateOpenGL(texture_data, source_rect,
+                       block_count == 1 && mRotationDepth == 0 &&
+                       left <= 0 && top <= 0 &&
+                       right >= surface_width && bottom >= surface_height);
+    if (mBackendType == BackendType.OPENGL_BATCHED) {
+      addQuadFixedOpenGL(texture_data, source_rect,
+                         flipped_horizontal, flipped_vertical, block_count,
+                         left, surface_height - top,
+                         right - left, top - bottom);
+      return;
+    }
+    if (mHasDrawTexture && !flipped_horizontal && block_count == 1 &&
+        mRotationDepth == 0 && right > left && bottom > top &&
+        mViewportScale == 1.0f) {
+      setCropRectOpenGL(texture_data, source_rect, flipped_vertical);
+      ((GL11Ext)mGl).glDrawTexxOES(left, surface_height - bottom, 0,
+                                    right - left, bottom - top);
+      return;
+    }
+    drawQuadFixedOpenGL(texture_data, source_rect,
+                        flipped_horizontal, flipped_vertical, block_count,
+                        left, surface_height - top, right - left, top - bottom);
+  }
+
+  /** Return true if the OpenGL back ends were set up with 16.16 fixed point
+   * vertices and matrices, as chosen by the first run benchmark for devices
+   * where floating point is slow. Callers which can compute their geometry in
+   * fixed point should then draw through drawImageFixed(...). */
+  public boolean isFixedPoint() {
+    return mFixedPoint;
+  }
+
+  /** Draw a square region of an image centered at each of a set of points, as
+   * for particle effects. The points are packed as x, y and size triples in
+   * screen coordinates, the size being the side of the square drawn. Where
+   * OpenGL point sprites are supported every point is drawn by a single call,
+   * otherwise each is drawn as by drawImage(...). The source rectangle should
+   * be square, since point sprites are. */
+  public void drawPointSprites(int image_handle, Rect source_rect,
+                               boolean flipped_horizontal,
+                               float[] points, int point_count) {
+    if (mHasPointSprites && mRotationDepth == 0) {
+      drawPointSpritesOpenGL(image_handle, source_rect, flipped_horizontal,
+                             points, point_count);
+      return;
+    }
+    for (int point = 0; point < point_count; ++point) {
+      drawPointSpriteAsQuad(image_handle, source_rect, flipped_horizontal,
+                            points, point);
+    }
+  }
+
+  /** Draw a line of text with its top left corner at the specified screen
+   * coordinates, scaled from the native size of the glyph atlas. Text is drawn
+   * in white multiplied by the current tint, see setTint(...). Each character
+   * is drawn as by drawImage(...) from a single image, so the batched back end
+   * draws the whole line in one call, and nothing is allocated once the atlas
+   * has been built on first use. */
+  public void drawText(char[] text, int offset, int count,
+                       float x, float y, float scale) {
+    loadGlyphAtlas();
+    mGlyphRectDest.top = y;
+    mGlyphRectDest.bottom = y + mGlyphAtlas.getLineHeight() * scale;
+    for (int index = offset; index < offset + count; ++index) {
+      char c = text[index];
+      float advance = mGlyphAtlas.getAdvance(c) * scale;
+      if (c != ' ') {
+        mGlyphAtlas.getGlyphRect(c, mGlyphRectSource);
+        mGlyphRectDest.left = x;
+        mGlyphRectDest.right = x + mGlyphRectSource.width() * scale;
+        drawImage(mGlyphAtlasImage, mGlyphRectSource, mGlyphRectDest,
+                  false, false, 1 /*block count*/);
+      }
+      x += advance;
+    }
+  }
+
+  public void drawText(TextBuilder text, float x, float y, float scale) {
+    drawText(text.getChars(), 0, text.length(), x, y, scale);
+  }
+
+  /** Return the width in pixels of a line of text drawn at a scale of one, as
+   * for aligning text. */
+  public float measureText(char[] text, int offset, int count) {
+    loadGlyphAtlas();
+    float width = 0.0f;
+    for (int index = offset; index < offset + count; ++index) {
+      width += mGlyphAtlas.getAdvance(text[index]);
+    }
+    return width;
+  }
+
+  /** Return the height in pixels of a line of text drawn at a scale of one. */
+  public float getTextHeight() {
+    loadGlyphAtlas();
+    return mGlyphAtlas.getLineHeight();
+  }
+
+  /** Build the glyph atlas used to draw text and load its image, if not
+   * already done. */
+  private void loadGlyphAtlas() {
+    if (mGlyphAtlas == null) {
+      mGlyphAtlas = new GlyphAtlas(kGlyphAtlasTextSize);
+      mGlyphAtlasImage = loadImageFromPixels(mGlyphAtlas.takePixels(),
+                                             mGlyphAtlas.getWidth(),
+                                             mGlyphAtlas.getHeight());
+    }
+  }
+
   /**
    * Begin the start of the frame drawing operations. All drawing methods must
    * be called between a call to beginFrame() and endFrame(). The beginFrame()
@@ -297,7 +713,10 @@ public class Graphics {
     switch (mBackendType) {
       case ANDROID2D:
         return beginFrameAndroid2D();
+      case SOFTWARE:
+        return beginFrameSoftware();
       case OPENGL:
+      case OPENGL_BATCHED:
         return beginFrameOpenGL();
     }
     return false;
@@ -308,12 +727,93 @@ public class Graphics {
       case ANDROID2D:
         endFrameAndroid2D();
         break;
+      case SOFTWARE:
+        endFrameSoftware();
+        break;
       case OPENGL:
+      case OPENGL_BATCHED:
         endFrameOpenGL();
         break;
     }
   }
 
+  /** Set the color which subsequently drawn images are multiplied by, as an
+   * ARGB integer. The default is opaque white, leaving images unchanged. */
+  public void setTint(int color) {
+    if (color == mTint) {
+      return;
+    }
+    mTint = color;
+    switch (mBackendType) {
+      case ANDROID2D:
+      case SOFTWARE:
+        break;  // Not supported.
+      case OPENGL:
+        if (mGl == null) {
+          break;  // Applied once the client state is initialized.
+        }
+        mGlState.color(color);
+        break;
+      case OPENGL_BATCHED:
+        mTintArray[0] = color;
+        TextureImage.convertArgbToRgba(mTintArray, 1);
+        mTintRgba = mTintArray[0];
+        break;
+    }
+  }
+
+  /** Set the fraction of the surface resolution at which the scene, that is
+   * everything drawn before endScene(), is rendered. The scene is upscaled to
+   * the full surface afterwards, trading sharpness for fill rate. A scale of
+   * one renders at the native resolution. Only supported by the OpenGL back
+   * ends where frame buffer objects are available, and takes effect from the
+   * next frame. The scale starts out as the first run benchmark suggests, see
+   * DeviceProfile.getRenderScale(). */
+  public void setRenderScale(float scale) {
+    mRenderScale = Math.max(kMinRenderScale, Math.min(1.0f, scale));
+  }
+
+  public float getRenderScale() {
+    return mRenderScale;
+  }
+
+  /** Mark the end of the scene within the current frame. Anything drawn
+   * afterwards, such as the user interface, is drawn at the native resolution
+   * on top of the scene, see setRenderScale(...). Calling this is optional,
+   * the scene otherwise ends with the frame. */
+  public void endScene() {
+    switch (mBackendType) {
+      case ANDROID2D:
+      case SOFTWARE:
+        break;  // Always rendered at native resolution.
+      case OPENGL:
+      case OPENGL_BATCHED:
+        if (mInScene) {
+          endSceneOpenGL();
+        }
+        break;
+    }
+  }
+
+
+  /** Return true if the specified region of an image is known to be fully
+   * opaque. Opaque images are drawn without blending, and callers drawing a
+   * mix of opaque and translucent images may draw the opaque ones first so
+   * that blending is toggled as rarely as possible. Always false for the non
+   * OpenGL back ends. */
+  public boolean isOpaque(int image_handle, Rect source_rect) {
+    if (mBackendType != BackendType.OPENGL &&
+        mBackendType != BackendType.OPENGL_BATCHED) {
+      return false;
+    }
+    if (image_handle < 0 || image_handle >= mTextureData.size()) {
+      return false;
+    }
+    TextureData texture_data = mTextureData.get(image_handle);
+    return texture_data != null && texture_data.resident &&
+        isOpaqueOpenGL(texture_data, source_rect);
+  }
+
   public boolean hasHardwareAcceleration() {
     return mHasHardwareAcceleration;
   }
@@ -330,7 +830,34 @@ public class Graphics {
     // graphics API so it should be preferred in nearly all situations. However,
     // when using either software back-end, pixel fill rate has been
     // experimentally been shown to be a bottleneck.
-    mBackendType = BackendType.OPENGL;
+    //
+    // The batched OpenGL back end only relies on vertex, texture coordinate
+    // and color arrays, which are core to OpenGL ES 1.0, so it is available
+    // wherever the plain OpenGL back end is. The plain back end is kept as a
+    // fall back for drivers which handle the larger vertex arrays poorly.
+    //
+    // The software back end is intended for profiling the rendering path and
+    // is never chosen automatically.
+    //
+    // Where the first run benchmark has stored a profile, its choice between
+    // the batched and plain OpenGL back ends is taken instead, along with its
+    // choice between float and fixed point vertices and the scene resolution
+    // its frame time allows for, see benchmarkDeviceOpenGL(...).
+    final boolean kEnableSoftwareRendering = false;
+    final boolean kEnableBatching = true;
+    mDeviceProfile = DeviceProfile.load(Content.getDeviceProfilePath());
+    if (kEnableSoftwareRendering) {
+      mBackendType = BackendType.SOFTWARE;
+    } else if (mDeviceProfile != null) {
+      mBackendType = (mDeviceProfile.batching ? BackendType.OPENGL_BATCHED :
+                      BackendType.OPENGL);
+      mFixedPoint = mDeviceProfile.fixed_point;
+      setRenderScale(mDeviceProfile.getRenderScale());
+    } else if (kEnableBatching) {
+      mBackendType = BackendType.OPENGL_BATCHED;
+    } else {
+      mBackendType = BackendType.OPENGL;
+    }
   }
 
   /** Determine a (generally) unique hash code from a Bitmap reference. This is
@@ -348,12 +875,24 @@ public class Graphics {
     return hash_result;
   }
 
-  private enum BackendType { ANDROID2D, OPENGL }
+  private enum BackendType { ANDROID2D, OPENGL, OPENGL_BATCHED, SOFTWARE }
   private BackendType               mBackendType;
+  private DeviceProfile             mDeviceProfile;  // Null until benchmarked.
+  private GlyphAtlas                mGlyphAtlas;  // Null until text is drawn.
+  private int                       mGlyphAtlasImage = -1;
+  private Rect                      mGlyphRectSource = new Rect();
+  private RectF                     mGlyphRectDest = new RectF();
   private TreeMap<Integer, Integer> mImageCache = new TreeMap<Integer, Integer>();
+  private TreeMap<String, Integer>  mImagePathCache = new TreeMap<String, Integer>();
+  private float                     mRenderScale = 1.0f;
+  private TextureQuality            mTextureQuality = TextureQuality.FULL;
   private SurfaceHolder             mSurfaceHolder;
   private int                       mSurfaceHeight;
   private int                       mSurfaceWidth;
+  private int                       mTint = 0xFFFFFFFF;  // ARGB.
+
+  private static final float kGlyphAtlasTextSize = 16.0f;  // Pixels.
+  private static final float kMinRenderScale     = 0.25f;
 
   /**
    * Private Android 2D backend methods and state.
@@ -368,6 +907,15 @@ public class Graphics {
     return mImagesAndroid2D.size();
   }
 
+  private void updateImageRowsAndroid2D(int image_handle, int[] pixels,
+                                        int top, int bottom) {
+    // Bitmaps created from pixels are immutable, so the image is replaced.
+    Bitmap bitmap = mImagesAndroid2D.get(image_handle - 1);
+    mImagesAndroid2D.set(image_handle - 1, Bitmap.createBitmap(
+        pixels, bitmap.getWidth(), bitmap.getHeight(),
+        Bitmap.Config.ARGB_8888));
+  }
+
   private void freeImageAndroid2D(int image_handle) {
     if (image_handle >= 1) {
       mImagesAndroid2D.set(image_handle - 1, null);
@@ -425,6 +973,120 @@ public class Graphics {
   private Paint             mPaintAndroid2D = new Paint();
   private Matrix            mTransformationAndroid2D = new Matrix();
 
+  /**
+   * Private software backend methods and state.
+   */
+
+  private void initializeSoftware() {
+    mSurfaceHolder.setType(SurfaceHolder.SURFACE_TYPE_NORMAL);
+    surfaceChangedSoftware();
+  }
+
+  private void surfaceChangedSoftware() {
+    if (mRasterizer == null) {
+      mRasterizer = new SoftwareRasterizer(mSurfaceWidth, mSurfaceHeight);
+    } else {
+      mRasterizer.resize(mSurfaceWidth, mSurfaceHeight);
+    }
+  }
+
+  private int loadImageFromBitmapSoftware(Bitmap bitmap) {
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    int[] pixels = new int[width * height];
+    bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+    mImagesSoftware.add(new SoftwareRasterizer.Texture(pixels, width, height));
+    return mImagesSoftware.size() - 1;
+  }
+
+  private void updateImageRowsSoftware(int image_handle, int[] pixels,
+                                       int top, int bottom) {
+    SoftwareRasterizer.Texture texture = getTextureSoftware(image_handle);
+    if (texture != null && texture.pixels != pixels) {
+      System.arraycopy(pixels, top * texture.width, texture.pixels,
+                       top * texture.width, (bottom - top) * texture.width);
+    }
+  }
+
+  /** Return the texture of the specified image handle, or null if the handle
+   * is unknown or has been freed. */
+  private SoftwareRasterizer.Texture getTextureSoftware(int image_handle) {
+    SoftwareRasterizer.Texture texture = null;
+    if (image_handle >= 0 && image_handle < mImagesSoftware.size()) {
+      texture = mImagesSoftware.get(image_handle);
+    }
+    if (texture == null) {
+      Log.d("Graphics::drawImage",
+            "Unknown image handle encountered: " + image_handle);
+    }
+    return texture;
+  }
+
+  private void freeImageSoftware(int image_handle) {
+    if (image_handle < mImagesSoftware.size()) {
+      mImagesSoftware.set(image_handle, null);
+    }
+  }
+
+  private int getWidthSoftware() {
+    return mSurfaceWidth;
+  }
+
+  private int getHeightSoftware() {
+    return mSurfaceHeight;
+  }
+
+  private boolean beginFrameSoftware() {
+    mRasterizer.clear(kClearColorSoftware);
+    return true;
+  }
+
+  private void endFrameSoftware() {
+    Canvas canvas = mSurfaceHolder.lockCanvas(null);
+    if (canvas == null) {
+      return;  // Surface not yet available.
+    }
+    canvas.drawBitmap(mRasterizer.getPixels(), 0, mRasterizer.getWidth(),
+                      0, 0, mRasterizer.getWidth(), mRasterizer.getHeight(),
+                      false, null);
+    mSurfaceHolder.unlockCanvasAndPost(canvas);
+  }
+
+  private void drawImageSoftware(int image_handle,
+                                 Rect source_rect, RectF dest_rect,
+                                 boolean flipped_horizontal,
+                                 boolean flipped_vertical, int block_count) {
+    SoftwareRasterizer.Texture texture = getTextureSoftware(image_handle);
+    if (texture != null) {
+      mRasterizer.drawImage(texture, source_rect.left, source_rect.top,
+                            source_rect.right, source_rect.bottom,
+                            dest_rect.left, dest_rect.top,
+                            dest_rect.right, dest_rect.bottom,
+                            flipped_horizontal, flipped_vertical, block_count);
+    }
+  }
+
+  private void drawImageSoftware(int image_handle,
+                                 Rect source_rect, Affine transformation,
+                                 boolean flipped_horizontal,
+                                 boolean flipped_vertical, int block_count) {
+    SoftwareRasterizer.Texture texture = getTextureSoftware(image_handle);
+    if (texture != null) {
+      mRasterizer.drawImage(texture, source_rect.left, source_rect.top,
+                            source_rect.right, source_rect.bottom,
+                            transformation.a, transformation.b,
+                            transformation.tx, transformation.c,
+                            transformation.d, transformation.ty,
+                            flipped_horizontal, flipped_vertical, block_count);
+    }
+  }
+
+  private ArrayList<SoftwareRasterizer.Texture> mImagesSoftware =
+      new ArrayList<SoftwareRasterizer.Texture>();
+  private SoftwareRasterizer mRasterizer;
+
+  private static final int kClearColorSoftware = 0x333333;  // RGB.
+
   /**
    * Private OpenGL backend methods and state.
    */
@@ -443,17 +1105,47 @@ public class Graphics {
     Log.d("Graphics::initializeOpenGL",
           "Found version: " + version[0] + "." + version[1]);
 
-    int attrib_list[] = {  // Use default bit depths.
-      EGL11.EGL_NONE
-    };
+    // The configuration is taken from the stored device profile, which the
+    // first run benchmark creates when there is none.
+    EGLConfig[] configs = rankConfigsOpenGL();
+    final boolean kEnableDeviceBenchmark = true;
+    if (kEnableDeviceBenchmark && mDeviceProfile == null &&
+        configs.length > 0) {
+      mDeviceProfile = benchmarkDeviceOpenGL(configs);
+      if (mDeviceProfile != null) {
+        mBackendType = (mDeviceProfile.batching ? BackendType.OPENGL_BATCHED :
+                        BackendType.OPENGL);
+        mFixedPoint = mDeviceProfile.fixed_point;
+        setRenderScale(mDeviceProfile.getRenderScale());
+        mDeviceProfile.save(Content.getDeviceProfilePath());
+      }
+    }
+    mEglConfig = findConfigOpenGL(configs, mDeviceProfile);
+    if (mEglConfig == null) {
+      int attrib_list[] = {  // Use default bit depths.
+        EGL11.EGL_NONE
+      };
+      EGLConfig[] default_configs = new EGLConfig[1];
+      int[] num_config = new int[1];
+      mEgl.eglChooseConfig(
+          mEglDisplay, attrib_list, default_configs, 1, num_config);
+      mEglConfig = default_configs[0];
+    }
+    Log.d("Graphics::initializeOpenGL",
+          "Using config " +
+          getConfigAttribOpenGL(mEglConfig, EGL10.EGL_CONFIG_ID) + ", " +
+          mBackendType + " back end, render scale " + mRenderScale + ".");
 
-    EGLConfig[] configs = new EGLConfig[1];
-    int[] num_config = new int[1];
-    mEgl.eglChooseConfig(mEglDisplay, attrib_list, configs, 1, num_config);
-    mEglConfig = configs[0];
-    mEglContext = mEgl.eglCreateContext(
-        mEglDisplay, mEglConfig, EGL11.EGL_NO_CONTEXT, null);
-    mGl = (GL10)mEglContext.getGL();
+    if (!createContextOpenGL()) {
+      Log.e("Graphics::initializeOpenGL", "Failed creating context.");
+      mContextLost = true;
+      return;
+    }
+    mContextLost = false;
+
+    // Any images registered with a previous context must be restored, see
+    // initializeOpenGLClientState().
+    mRestorePending = true;
 
     final boolean kEnableOpenGLDebugging = false;
     if (kEnableOpenGLDebugging) {
@@ -472,6 +1164,124 @@ public class Graphics {
     initializeOpenGLSurface();
   }
 
+  /** Create a context for mEglConfig, returning false on failure. */
+  private boolean createContextOpenGL() {
+    mEglContext = mEgl.eglCreateContext(
+        mEglDisplay, mEglConfig, EGL11.EGL_NO_CONTEXT, null);
+    if (mEglContext == null || mEglContext == EGL10.EGL_NO_CONTEXT) {
+      mEglContext = null;
+      return false;
+    }
+    mGl = (GL10)mEglContext.getGL();
+    return true;
+  }
+
+  private int getConfigAttribOpenGL(EGLConfig config, int attribute) {
+    mEgl.eglGetConfigAttrib(mEglDisplay, config, attribute, mConfigAttrib);
+    return mConfigAttrib[0];
+  }
+
+  /** Return the window configurations suited to 2D rendering, best first. Only
+   * RGB 565 and RGB(A) 888(8) color buffers are considered. The game draws
+   * back to front without depth or stencil tests and without multisampling,
+   * so configurations with any of those buffers are ranked below those
+   * without, since they only add memory and bandwidth. Configurations the
+   * driver marks as slow are ranked last. Of otherwise equal configurations,
+   * RGB 565 comes first for its lower fill cost, and opaque before
+   * translucent color buffers, which are never composited. */
+  private EGLConfig[] rankConfigsOpenGL() {
+    int[] config_count = new int[1];
+    mEgl.eglGetConfigs(mEglDisplay, null, 0, config_count);
+    EGLConfig[] configs = new EGLConfig[config_count[0]];
+    mEgl.eglGetConfigs(mEglDisplay, configs, configs.length, config_count);
+
+    ArrayList<EGLConfig> ranked_configs = new ArrayList<EGLConfig>();
+    ArrayList<Integer> ranked_penalties = new ArrayList<Integer>();
+    for (int index = 0; index < config_count[0]; ++index) {
+      EGLConfig config = configs[index];
+      int surface_type = getConfigAttribOpenGL(config, EGL10.EGL_SURFACE_TYPE);
+      if ((surface_type & EGL10.EGL_WINDOW_BIT) == 0) {
+        continue;
+      }
+      int red_size = getConfigAttribOpenGL(config, EGL10.EGL_RED_SIZE);
+      int green_size = getConfigAttribOpenGL(config, EGL10.EGL_GREEN_SIZE);
+      int blue_size = getConfigAttribOpenGL(config, EGL10.EGL_BLUE_SIZE);
+      int alpha_size = getConfigAttribOpenGL(config, EGL10.EGL_ALPHA_SIZE);
+      int penalty;
+      if (red_size == 5 && green_size == 6 && blue_size == 5 &&
+          alpha_size == 0) {
+        penalty = 0;
+      } else if (red_size == 8 && green_size == 8 && blue_size == 8) {
+        penalty = alpha_size == 0 ? 1 : 2;
+      } else {
+        continue;
+      }
+      if (getConfigAttribOpenGL(config, EGL10.EGL_DEPTH_SIZE) > 0) {
+        penalty += 4;
+      }
+      if (getConfigAttribOpenGL(config, EGL10.EGL_STENCIL_SIZE) > 0) {
+        penalty += 4;
+      }
+      if (getConfigAttribOpenGL(config, EGL10.EGL_SAMPLE_BUFFERS) > 0) {
+        penalty += 8;
+      }
+      if (getConfigAttribOpenGL(config, EGL10.EGL_CONFIG_CAVEAT) ==
+          EGL10.EGL_SLOW_CONFIG) {
+        penalty += 64;
+      }
+
+      // Insert after any configurations of equal rank, keeping the order of
+      // the driver between them.
+      int position = ranked_penalties.size();
+      while (position > 0 && ranked_penalties.get(position - 1) > penalty) {
+        --position;
+      }
+      ranked_configs.add(position, config);
+      ranked_penalties.add(position, new Integer(penalty));
+    }
+    Log.d("Graphics::rankConfigsOpenGL", "Found " + ranked_configs.size() +
+          " suitable of " + config_count[0] + " configs.");
+    return ranked_configs.toArray(new EGLConfig[0]);
+  }
+
+  /** Return the configuration recorded in the specified profile, which may be
+   * null, or the best ranked configuration should it no longer be offered.
+   * Returns null if no configuration is suitable. */
+  private EGLConfig findConfigOpenGL(EGLConfig[] configs,
+                                     DeviceProfile profile) {
+    if (profile != null) {
+      EGLConfig matching_config = null;
+      for (EGLConfig config : configs) {
+        if (getConfigAttribOpenGL(config, EGL10.EGL_RED_SIZE) ==
+            profile.red_size &&
+            getConfigAttribOpenGL(config, EGL10.EGL_GREEN_SIZE) ==
+            profile.green_size &&
+            getConfigAttribOpenGL(config, EGL10.EGL_BLUE_SIZE) ==
+            profile.blue_size &&
+            getConfigAttribOpenGL(config, EGL10.EGL_ALPHA_SIZE) ==
+            profile.alpha_size &&
+            getConfigAttribOpenGL(config, EGL10.EGL_DEPTH_SIZE) ==
+            profile.depth_size &&
+            getConfigAttribOpenGL(config, EGL10.EGL_STENCIL_SIZE) ==
+            profile.stencil_size) {
+          if (getConfigAttribOpenGL(config, EGL10.EGL_CONFIG_ID) ==
+              profile.config_id) {
+            return config;
+          }
+          if (matching_config == null) {
+            matching_config = config;
+          }
+        }
+      }
+      if (matching_config != null) {
+        return matching_config;
+      }
+      Log.d("Graphics::findConfigOpenGL",
+            "Profiled config no longer offered: " + profile);
+    }
+    return configs.length > 0 ? configs[0] : null;
+  }
+
   /** Create a new rendering surface. This is indented to be called whenever the
    * window size changes, for example. */
   private void initializeOpenGLSurface() {
@@ -523,11 +1333,79 @@ public class Graphics {
       mHasHardwareAcceleration = false;
     }
 
+    String gl_extensions = mGl.glGetString(GL10.GL_EXTENSIONS);
+
+    // Unrotated images are drawn with glDrawTexfOES(...) where available, see
+    // drawTextureOpenGL(...). The batched back end draws everything in as few
+    // calls as possible instead.
+    mHasDrawTexture = (mBackendType == BackendType.OPENGL &&
+                       gl_extensions != null &&
+                       gl_extensions.indexOf("GL_OES_draw_texture") != -1 &&
+                       mGl instanceof GL11 && mGl instanceof GL11Ext);
+    Log.d("Graphics::initializeOpenGLClientState",
+          "Draw texture extension: " + mHasDrawTexture);
+
+    // The scene may be rendered at a reduced resolution into a frame buffer
+    // object, see setRenderScale(...).
+    mHasFramebufferObject = (
+        gl_extensions != null &&
+        gl_extensions.indexOf("GL_OES_framebuffer_object") != -1 &&
+        mGl instanceof GL11ExtensionPack);
+    Log.d("Graphics::initializeOpenGLClientState",
+          "Frame buffer object extension: " + mHasFramebufferObject);
+
+    // Particles are drawn as point sprites where supported, see
+    // drawPointSprites(...). Texture coordinates are replaced across each
+    // point only while point sprites are enabled, so the environment is set
+    // once here.
+    mHasPointSprites = (
+        gl_extensions != null &&
+        gl_extensions.indexOf("GL_OES_point_sprite") != -1 &&
+        gl_extensions.indexOf("GL_OES_point_size_array") != -1 &&
+        mGl instanceof GL11);
+    if (mHasPointSprites) {
+      int[] point_size_range = new int[2];
+      mGl.glGetIntegerv(GL10.GL_ALIASED_POINT_SIZE_RANGE, point_size_range, 0);
+      mMaxPointSize = point_size_range[1];
+      ((GL11)mGl).glTexEnvi(GL11.GL_POINT_SPRITE_OES,
+                            GL11.GL_COORD_REPLACE_OES, GL10.GL_TRUE);
+      if (mPointBuffer == null) {
+        ByteBuffer point_byte_buffer =
+            ByteBuffer.allocateDirect(4 * mPointArray.length);
+        point_byte_buffer.order(ByteOrder.nativeOrder());
+        mPointBuffer = point_byte_buffer.asFloatBuffer();
+        mPointSizeBuffer = mPointBuffer.duplicate();
+        mPointSizeBuffer.position(2);
+      }
+    }
+    Log.d("Graphics::initializeOpenGLClientState",
+          "Point sprite extension: " + mHasPointSprites +
+          ", maximum size " + mMaxPointSize + ".");
+
+    // Images are loaded at the quality tier the device can handle.
+    mTextureQuality = TextureQuality.choose(Runtime.getRuntime().maxMemory(),
+                                            mHasHardwareAcceleration);
+    Log.d("Graphics::initializeOpenGLClientState",
+          "Texture quality: " + mTextureQuality);
+
+    // Opaque images with an ETC1 version are loaded compressed when the
+    // hardware supports it, see TextureImage.loadFile(...).
+    mHasEtc1 = (gl_extensions != null &&
+                gl_extensions.indexOf(Etc1.kGlExtension) != -1);
+    Log.d("Graphics::initializeOpenGLClientState",
+          "ETC1 texture compression: " + mHasEtc1);
+
+    // None of the state of a newly current context is known.
+    mGlState.reset(mGl);
+
+    // TextureImage rows are tightly packed, without padding. The default
+    // alignment of four bytes would skew 16 bit images of odd width.
+    mGl.glPixelStorei(GL10.GL_UNPACK_ALIGNMENT, 1);
+
     // Initialize the orthographic projection within our surface. This must
     // happen whenever the surface size changes.
     mGl.glViewport(0, 0, getWidthOpenGL(), getHeightOpenGL());
-    mGl.glMatrixMode(GL10.GL_PROJECTION);
-    mGl.glLoadIdentity();
+    mGlState.loadIdentity(GL10.GL_PROJECTION);
     mGl.glOrthof(0, getWidthOpenGL(), 0, getHeightOpenGL(), -1, 1);
 
     // Since we will only be rendering triangle strips, set up a shared vertex
@@ -551,28 +1429,86 @@ public class Graphics {
     ByteBuffer corner_byte_buffer =
         ByteBuffer.allocateDirect(4 * corner_array.length);
     corner_byte_buffer.order(ByteOrder.nativeOrder());
-    FloatBuffer corner_float_buffer = corner_byte_buffer.asFloatBuffer();
-    corner_float_buffer.put(corner_array);
-    corner_float_buffer.position(0);
+    if (mFixedPoint) {
+      int[] corner_array_fixed = new int[corner_array.length];
+      Fixed.fromFloats(corner_array, 0, corner_array_fixed, 0,
+                       corner_array.length);
+      mCornerBufferFixed = corner_byte_buffer.asIntBuffer();
+      mCornerBufferFixed.put(corner_array_fixed);
+      mCornerBufferFixed.position(0);
+    } else {
+      mCornerBuffer = corner_byte_buffer.asFloatBuffer();
+      mCornerBuffer.put(corner_array);
+      mCornerBuffer.position(0);
+    }
+    if (mSpriteBatch == null || mSpriteBatch.isFixedPoint() != mFixedPoint) {
+      mSpriteBatch = new SpriteBatch(kBatchCapacity, mFixedPoint);
+    }
+    Log.d("Graphics::initializeOpenGLClientState",
+          "Fixed point vertices: " + mFixedPoint);
 
-    mGl.glVertexPointer(2, GL10.GL_FLOAT, 0, corner_float_buffer);
-    mGl.glEnableClientState(GL10.GL_VERTEX_ARRAY);
-    mGl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, corner_float_buffer);
-    mGl.glEnableClientState(GL10.GL_TEXTURE_COORD_ARRAY);
+    if (mBackendType == BackendType.OPENGL_BATCHED) {
+      // The batched back end transforms vertices itself, so the model view and
+      // texture matrices are left as the identity.
+      mGlState.loadIdentity(GL10.GL_TEXTURE);
+      mGlState.loadIdentity(GL10.GL_MODELVIEW);
+    } else {
+      mGlState.color(mTint);
+    }
+    bindArraysOpenGL();
 
     // OpenGL rendering state configuration.
-    mGl.glEnable(GL10.GL_TEXTURE_2D);
-    mGl.glDisable(GL10.GL_CULL_FACE);
-    mGl.glDisable(GL10.GL_DEPTH_TEST);
-    mGl.glEnable(GL10.GL_BLEND);
+    mGlState.setEnabled(GL10.GL_TEXTURE_2D, true);
+    mGlState.setEnabled(GL10.GL_CULL_FACE, false);
+    mGlState.setEnabled(GL10.GL_DEPTH_TEST, false);
+    mGlState.setEnabled(GL10.GL_BLEND, true);
     mGl.glClearColor(0.2f, 0.2f, 0.2f, 1.0f);
-    mGl.glBlendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
-    mGl.glDisable(GL10.GL_ALPHA_TEST);
+    mGlState.blendFunc(GL10.GL_SRC_ALPHA, GL10.GL_ONE_MINUS_SRC_ALPHA);
+    mGlState.setEnabled(GL10.GL_ALPHA_TEST, false);
+
+    // The place holder is drawn in place of streamed images which have not yet
+    // been uploaded. Since the texture is a single pixel, it is sampled the
+    // same regardless of the texture coordinates used.
+    if (mPlaceholderTexture == -1) {
+      mPlaceholderTexture = allocateTextureOpenGL();
+    }
+    if (!mTextureData.get(mPlaceholderTexture).resident) {
+      TextureImage placeholder = new TextureImage();
+      placeholder.width = placeholder.height = 1;
+      placeholder.pixels = ByteBuffer.allocateDirect(4);
+      placeholder.pixels.put((byte)(kPlaceholderColor >> 16));  // Red.
+      placeholder.pixels.put((byte)(kPlaceholderColor >> 8));   // Green.
+      placeholder.pixels.put((byte)(kPlaceholderColor));        // Blue.
+      placeholder.pixels.put((byte)(kPlaceholderColor >> 24));  // Alpha.
+      placeholder.pixels.position(0);
+      uploadTextureImageOpenGL(mPlaceholderTexture, placeholder);
+    }
+
+    // Images registered with a previous context are restored in the
+    // background, now that the supported formats are known.
+    if (mRestorePending) {
+      mRestorePending = false;
+      restoreTexturesOpenGL();
+    }
+
+    final boolean kEnableDrawTextureBenchmark = false;
+    if (kEnableDrawTextureBenchmark && mBackendType == BackendType.OPENGL) {
+      benchmarkDrawTextureOpenGL();
+    }
   }
 
   private void destroyOpenGL() {
     Log.d("Graphics::destroyOpenGL", "Destroying open gl.");
 
+    destroyContextOpenGL();
+    if (mEglDisplay != null) {
+      mEgl.eglTerminate(mEglDisplay);
+      mEglDisplay = null;
+    }
+  }
+
+  /** Release the surface and context, keeping the display initialized. */
+  private void destroyContextOpenGL() {
     if (mEglSurface != null) {
       mEgl.eglMakeCurrent(mEglDisplay,
                           EGL10.EGL_NO_SURFACE,
@@ -585,57 +1521,176 @@ public class Graphics {
       mEgl.eglDestroyContext(mEglDisplay, mEglContext);
       mEglContext = null;
     }
-    if (mEglDisplay != null) {
-      mEgl.eglTerminate(mEglDisplay);
-      mEglDisplay = null;
+    invalidateTexturesOpenGL();
+  }
+
+  /** Forget the OpenGL objects of every registered texture, which are lost
+   * along with the context. The registry entries, and so the image handles,
+   * remain valid. */
+  private void invalidateTexturesOpenGL() {
+    if (mSceneTexture != -1) {
+      mTextureData.set(mSceneTexture, null);  // Recreated on demand.
+      mSceneTexture = -1;
+    }
+    mSceneFramebuffer = 0;
+    mSceneWidth = mSceneHeight = 0;
+    mSceneActive = mInScene = false;
+    mViewportScale = 1.0f;
+    mRestoreQueue.clear();
+    for (int image_handle = 0; image_handle < mTextureData.size();
+         ++image_handle) {
+      TextureData texture_data = mTextureData.get(image_handle);
+      if (texture_data != null) {
+        texture_data.name = -1;
+        texture_data.resident = false;
+        for (int n = 0; n < 4; ++n) {
+          texture_data.crop_rect[n] = 0;  // The initial texture state.
+        }
+      }
     }
   }
 
+  /** Restore the images of every registered texture after a new context has
+   * been created. Images loaded from files are requested again from the
+   * streaming thread, while generated images, which are retained for this
+   * purpose, are queued. Both are uploaded over the following frames within
+   * the per-frame upload budget, see uploadStreamedImagesOpenGL(), so the game
+   * resumes immediately with place holders standing in for images not yet
+   * restored. */
+  private void restoreTexturesOpenGL() {
+    int requested_count = 0;
+    for (int image_handle = 0; image_handle < mTextureData.size();
+         ++image_handle) {
+      TextureData texture_data = mTextureData.get(image_handle);
+      if (texture_data == null || texture_data.resident ||
+          image_handle == mPlaceholderTexture) {
+        continue;
+      }
+      if (texture_data.source_path != null) {
+        mTextureStreamer.request(image_handle, texture_data.source_path,
+                                 mHasEtc1, mTextureQuality);
+        ++requested_count;
+      } else if (texture_data.source_image != null) {
+        mRestoreQueue.add(image_handle);
+        ++requested_count;
+      }
+    }
+    Log.d("Graphics::restoreTexturesOpenGL",
+          "Restoring " + requested_count + " images.");
+  }
+
   public void pushRotationMatrixOpenGL(float angle) {
-    mGl.glMatrixMode(GL10.GL_MODELVIEW);
+    flushBatchOpenGL();
+    mGlState.matrixMode(GL10.GL_MODELVIEW);
     mGl.glPushMatrix();
     mGl.glTranslatef(mSurfaceWidth / 2.0f, mSurfaceHeight / 2.0f, 0.0f);
     mGl.glRotatef(angle, 0, 0, 1);
     mGl.glTranslatef(-mSurfaceWidth / 2.0f, -mSurfaceHeight / 2.0f, 0.0f);
+    mGlState.invalidateMatrix(GL10.GL_MODELVIEW);
+    ++mRotationDepth;
   }
 
   public void popMatrixOpenGL() {
-    mGl.glMatrixMode(GL10.GL_MODELVIEW);
+    flushBatchOpenGL();
+    mGlState.matrixMode(GL10.GL_MODELVIEW);
     mGl.glPopMatrix();
+    mGlState.invalidateMatrix(GL10.GL_MODELVIEW);
+    --mRotationDepth;
   }
 
   private int loadImageFromBitmapOpenGL(Bitmap bitmap) {
-    // Allocate a texture handle within the OpenGL context.
-    int[] texture_names = new int[1];
-    mGl.glGenTextures(1, texture_names, 0);
-    int texture_name = texture_names[0];
-    Log.d("Graphics::loadImageFromBitmapOpenGL",
-          "Allocated texture handle: " + texture_name);
-
-    // Bind the pixel data to the texture handle. The Android Bitmap class gives
-    // us data in an ARGB pixel format, but we must convert this to an RGBA
-    // pixel format for OpenGL. Additionally, we need to flip the byte ordering.
-    int[] bitmap_data = new int[bitmap.getWidth() * bitmap.getHeight()];
-    bitmap.getPixels(bitmap_data, 0, bitmap.getWidth(), 0, 0,
-                     bitmap.getWidth(), bitmap.getHeight());
-    for (int n = 0; n < bitmap.getWidth() * bitmap.getHeight(); ++n) {
-      int pixel = bitmap_data[n];
-      bitmap_data[n] = (((0xFF000000 & pixel)) |        // Alpha.
-                        ((0x00FF0000 & pixel) >> 16) |  // Red.
-                        ((0x0000FF00 & pixel)) |        // Green.
-                        ((0x000000FF & pixel) << 16));  // Blue.
-    }
-    IntBuffer bitmap_data_buffer = IntBuffer.wrap(bitmap_data);
-    mGl.glBindTexture(GL10.GL_TEXTURE_2D, texture_name);
-    mGl.glTexImage2D(GL10.GL_TEXTURE_2D,
-                     0,                      // Mipmap level.
-                     GL10.GL_RGBA,           // Internal format.
-                     bitmap.getWidth(),
-                     bitmap.getHeight(),
-                     0,                      // Border.
-                     GL10.GL_RGBA,           // Format.
-                     GL10.GL_UNSIGNED_BYTE,
-                     bitmap_data_buffer);
+    int image_handle = allocateTextureOpenGL();
+    TextureImage image = TextureImage.fromBitmap(bitmap);
+    uploadTextureImageOpenGL(image_handle, image);
+    mTextureData.get(image_handle).source_image = image;
+    return image_handle;
+  }
+
+  /** Register a new texture and return its image handle. Handles index the
+   * texture registry, mTextureData, and are independent of the OpenGL texture
+   * names, which are only generated when an image is uploaded. Handles thus
+   * remain valid across the loss of the context, see restoreTexturesOpenGL().
+   * The texture is not resident, and will be drawn as the place holder, until
+   * an image is uploaded to it. */
+  private int allocateTextureOpenGL() {
+    mTextureData.add(new TextureData());
+    int image_handle = mTextureData.size() - 1;
+    Log.d("Graphics::allocateTextureOpenGL",
+          "Allocated image handle: " + image_handle);
+    return image_handle;
+  }
+
+  /** Update the retained image of a generated texture, so that it is restored
+   * as changed, and upload the changed rows with glTexSubImage2D(...) if the
+   * texture is resident. Since OpenGL ES has no way to specify the row length
+   * of the source, whole rows are uploaded. */
+  private void updateImageRowsOpenGL(int image_handle, int[] pixels,
+                                     int top, int bottom) {
+    TextureData texture_data = null;
+    if (image_handle >= 0 && image_handle < mTextureData.size()) {
+      texture_data = mTextureData.get(image_handle);
+    }
+    if (texture_data == null) {
+      Log.d("Graphics::updateImageRows",
+            "Unknown image handle encountered: " + image_handle);
+      return;
+    }
+    TextureImage image = texture_data.source_image;
+    if (image == null || image.isCompressed() || top >= bottom) {
+      return;
+    }
+    image.setRows(pixels, top, bottom);
+    texture_data.translucent_rows = null;  // Treated as translucent.
+    if (!texture_data.resident) {
+      return;  // Uploaded in full once restored.
+    }
+
+    flushBatchOpenGL();  // The texture may be drawn by the pending batch.
+    mGlState.bindTexture(texture_data.name);
+    int bytes_per_pixel =
+        TextureImage.getBytesPerPixel(image.format, image.type);
+    image.pixels.position(bytes_per_pixel * image.width * top);
+    mGl.glTexSubImage2D(GL10.GL_TEXTURE_2D,
+                        0,                      // Mipmap level.
+                        0,                      // X offset.
+                        top,                    // Y offset.
+                        image.width,
+                        bottom - top,
+                        image.format,
+                        image.type,
+                        image.pixels);
+    image.pixels.position(0);
+  }
+
+  private void uploadTextureImageOpenGL(int image_handle, TextureImage image) {
+    flushBatchOpenGL();  // Images may be loaded mid frame.
+    TextureData texture_data = mTextureData.get(image_handle);
+    if (texture_data.name == -1) {
+      int[] texture_names = new int[1];
+      mGl.glGenTextures(1, texture_names, 0);
+      texture_data.name = texture_names[0];
+    }
+    mGlState.bindTexture(texture_data.name);
+    if (image.isCompressed()) {
+      mGl.glCompressedTexImage2D(GL10.GL_TEXTURE_2D,
+                                 0,                      // Mipmap level.
+                                 image.format,           // Internal format.
+                                 image.width,
+                                 image.height,
+                                 0,                      // Border.
+                                 image.getByteCount(),
+                                 image.pixels);
+    } else {
+      mGl.glTexImage2D(GL10.GL_TEXTURE_2D,
+                       0,                      // Mipmap level.
+                       image.format,           // Internal format.
+                       image.width,
+                       image.height,
+                       0,                      // Border.
+                       image.format,           // Format.
+                       image.type,
+                       image.pixels);
+    }
     mGl.glTexParameterf(GL10.GL_TEXTURE_2D,
                         GL10.GL_TEXTURE_MIN_FILTER,
                         GL10.GL_NEAREST);
@@ -649,21 +1704,595 @@ public class Graphics {
                         GL10.GL_TEXTURE_WRAP_T,
                         GL10.GL_REPEAT);
 
-    // The size must be manually stored for retrieval during the rendering
-    // process since the texture coordinate scheme under OpenGL is normalized
-    // where as under the Android2D back end, texture coordinates are absolute.
-    if (mTextureData.size() <= texture_name) {
-      mTextureData.setSize(texture_name + 1);
+    texture_data.width = image.width * image.sample_size;
+    texture_data.height = image.height * image.sample_size;
+    texture_data.sample_size = image.sample_size;
+    texture_data.translucent_rows = image.computeTranslucentRowCounts();
+    texture_data.resident = true;
+  }
+
+  /** Bind the texture for the specified image handle, substituting the place
+   * holder texture for images which have not yet been uploaded. Null is
+   * returned if the handle is unknown. */
+  private TextureData bindTextureOpenGL(int image_handle) {
+    TextureData texture_data = null;
+    if (image_handle >= 0 && image_handle < mTextureData.size()) {
+      texture_data = mTextureData.get(image_handle);
+    }
+    if (texture_data == null) {
+      Log.d("Graphics::drawImage",
+            "Unknown image handle encountered: " + image_handle);
+      return null;
+    }
+    if (!texture_data.resident) {
+      texture_data = mTextureData.get(mPlaceholderTexture);
+    }
+
+    if (texture_data.name != mGlState.getBoundTexture()) {
+      flushBatchOpenGL();
+    }
+    mGlState.bindTexture(texture_data.name);
+    return texture_data;
+  }
+
+  /** Upload images decoded by the streaming thread. The uploads are limited to
+   * a per-frame byte and time budget so that a burst of new images, such as a
+   * wave of new enemy types, is spread over several frames. At least one image
+   * is always uploaded if one is available. */
+  private void uploadStreamedImagesOpenGL() {
+    long start_time = System.nanoTime();
+    int uploaded_bytes = 0;
+    while (uploaded_bytes < kUploadBytesPerFrame &&
+           System.nanoTime() - start_time < kUploadTimePerFrame) {
+      TextureStreamer.Request request = mTextureStreamer.pollDecoded();
+      if (request == null) {
+        // Generated images being restored after the loss of the context share
+        // the same budget, see restoreTexturesOpenGL().
+        if (mRestoreQueue.isEmpty()) {
+          break;
+        }
+        int image_handle = mRestoreQueue.remove(mRestoreQueue.size() - 1);
+        TextureData texture_data = mTextureData.get(image_handle);
+        if (texture_data != null && !texture_data.resident) {
+          uploadTextureImageOpenGL(image_handle, texture_data.source_image);
+          uploaded_bytes += texture_data.source_image.getByteCount();
+        }
+        continue;
+      }
+      if (request.image == null) {
+        continue;  // Failed decoding, the place holder remains.
+      }
+      if (mTextureData.get(request.image_handle) == null) {
+        continue;  // Freed while being decoded.
+      }
+      uploadTextureImageOpenGL(request.image_handle, request.image);
+      uploaded_bytes += request.image.getByteCount();
+
+      long wait_time = System.nanoTime() - request.request_time;
+      mUploadWaitTotal += wait_time;
+      mUploadWaitMax = Math.max(mUploadWaitMax, wait_time);
+      ++mUploadCount;
+      Log.d("Graphics::uploadStreamedImagesOpenGL",
+            "Uploaded " + request.file_path + " after " +
+            (wait_time / 1000000) + "ms.");
+    }
+  }
+
+  /** Add an image to the sprite batch, flushing it first if full. The
+   * destination is given as a parallelogram in OpenGL screen coordinates, see
+   * SpriteBatch.addQuad(...), spanning a single block along the x axis. Runs of
+   * blocks extend the quad and rely on the texture wrapping to repeat the
+   * source, exactly as the shared corner array does for the plain back
+   * end. */
+  private void addQuadOpenGL(TextureData texture_data, Rect source_rect,
+                             boolean flipped_horizontal,
+                             boolean flipped_vertical, int block_count,
+                             float origin_x, float origin_y,
+                             float x_axis_x, float x_axis_y,
+                             float y_axis_x, float y_axis_y) {
+    float texture_width = texture_data.width;
+    float texture_height = texture_data.height;
+    float u0, u1, v0, v1;
+    if (flipped_horizontal) {
+      u0 = source_rect.right / texture_width;
+      u1 = u0 + block_count *
+          (source_rect.left - source_rect.right) / texture_width;
+    } else {
+      u0 = source_rect.left / texture_width;
+      u1 = u0 + block_count *
+          (source_rect.right - source_rect.left) / texture_width;
+    }
+    if (flipped_vertical) {
+      v0 = source_rect.bottom / texture_height;
+      v1 = source_rect.top / texture_height;
+    } else {
+      v0 = source_rect.top / texture_height;
+      v1 = source_rect.bottom / texture_height;
+    }
+
+    if (mSpriteBatch.isFull()) {
+      flushBatchOpenGL();
+    }
+    mSpriteBatch.addQuad(origin_x, origin_y,
+                         block_count * x_axis_x, block_count * x_axis_y,
+                         y_axis_x, y_axis_y,
+                         u0, v0, u1, v1, mTintRgba);
+  }
+
+  /** Draw an axis aligned image through the GL_OES_draw_texture extension,
+   * which maps a crop rectangle of the bound texture directly to the screen
+   * and bypasses the matrices and vertex arrays entirely. Images are uploaded
+   * top row first, so the crop rectangle takes a negative height in the
+   * unflipped case, as is common practice with the extension. Horizontal
+   * flips would also need a negative width and are left to the regular
+   * path. The crop rectangle is texture state, so it is only set when it
+   * differs from the last one used with the texture. */
+  private void drawTextureOpenGL(TextureData texture_data, Rect source_rect,
+                                 RectF dest_rect, boolean flipped_vertical) {
+    setCropRectOpenGL(texture_data, source_rect, flipped_vertical);
+    // Unlike everything else, the destination is in window coordinates and
+    // is not scaled by the viewport, see beginSceneOpenGL().
+    ((GL11Ext)mGl).glDrawTexfOES(
+        mViewportScale * dest_rect.left,
+        mViewportScale * (mSurfaceHeight - dest_rect.bottom),
+        0.0f,
+        mViewportScale * (dest_rect.right - dest_rect.left),
+        mViewportScale * (dest_rect.bottom - dest_rect.top));
+  }
+
+  /** Set the crop rectangle of the bound texture for the draw texture path,
+   * see drawTextureOpenGL(...). */
+  private void setCropRectOpenGL(TextureData texture_data, Rect source_rect,
+                                 boolean flipped_vertical) {
+    // The crop rectangle is in texels, see TextureQuality.
+    int sample_size = texture_data.sample_size;
+    int[] crop_rect = texture_data.crop_rect;
+    int crop_left = source_rect.left / sample_size;
+    int crop_bottom =
+        (flipped_vertical ? source_rect.top : source_rect.bottom) / sample_size;
+    int crop_width = source_rect.width() / sample_size;
+    int crop_height = (flipped_vertical ? source_rect.height() :
+                       -source_rect.height()) / sample_size;
+    if (crop_rect[0] != crop_left || crop_rect[1] != crop_bottom ||
+        crop_rect[2] != crop_width || crop_rect[3] != crop_height) {
+      crop_rect[0] = crop_left;
+      crop_rect[1] = crop_bottom;
+      crop_rect[2] = crop_width;
+      crop_rect[3] = crop_height;
+      ((GL11)mGl).glTexParameteriv(GL10.GL_TEXTURE_2D,
+                                   GL11Ext.GL_TEXTURE_CROP_RECT_OES,
+                                   crop_rect, 0);
     }
-    TextureData texture_data = new TextureData();
-    texture_data.width = bitmap.getWidth();
-    texture_data.height = bitmap.getHeight();
-    mTextureData.set(texture_name, texture_data);
-    return texture_name;
   }
 
+  /** Add a quad to the fixed point sprite batch, as addQuadOpenGL(...) with
+   * the origin and size in 16.16 fixed point OpenGL screen coordinates. */
+  private void addQuadFixedOpenGL(TextureData texture_data, Rect source_rect,
+                                  boolean flipped_horizontal,
+                                  boolean flipped_vertical, int block_count,
+                                  int origin_x, int origin_y,
+                                  int width, int height) {
+    int texture_width = texture_data.width;
+    int texture_height = texture_data.height;
+    int u0, u1, v0, v1;
+    if (flipped_horizontal) {
+      u0 = Fixed.ratio(source_rect.right, texture_width);
+      u1 = u0 + Fixed.ratio(
+          block_count * (source_rect.left - source_rect.right), texture_width);
+    } else {
+      u0 = Fixed.ratio(source_rect.left, texture_width);
+      u1 = u0 + Fixed.ratio(
+          block_count * (source_rect.right - source_rect.left), texture_width);
+    }
+    if (flipped_vertical) {
+      v0 = Fixed.ratio(source_rect.bottom, texture_height);
+      v1 = Fixed.ratio(source_rect.top, texture_height);
+    } else {
+      v0 = Fixed.ratio(source_rect.top, texture_height);
+      v1 = Fixed.ratio(source_rect.bottom, texture_height);
+    }
+
+    if (mSpriteBatch.isFull()) {
+      flushBatchOpenGL();
+    }
+    mSpriteBatch.addQuadFixed(origin_x, origin_y, block_count * width, 0,
+                              0, height, u0, v0, u1, v1, mTintRgba);
+  }
+
+  /** Load the texture matrix mapping the shared corner array onto the source
+   * rectangle, in fixed point, as the float path of drawImage(...) does. */
+  private void loadTextureMatrixFixedOpenGL(TextureData texture_data,
+                                            Rect source_rect,
+                                            boolean flipped_horizontal,
+                                            boolean flipped_vertical) {
+    int texture_width = texture_data.width;
+    int texture_height = texture_data.height;
+    int[] matrix = mMatrix4x4Fixed;
+    matrix[1] = matrix[2] = matrix[4] = matrix[6] = matrix[8] = matrix[9] = 0;
+    if (flipped_vertical) {
+      matrix[5] = Fixed.ratio(source_rect.top - source_rect.bottom,
+                              texture_height);
+      matrix[13] = Fixed.ratio(source_rect.bottom, texture_height);
+    } else {
+      matrix[5] = Fixed.ratio(source_rect.bottom - source_rect.top,
+                              texture_height);
+      matrix[13] = Fixed.ratio(source_rect.top, texture_height);
+    }
+    if (flipped_horizontal) {
+      matrix[0] = Fixed.ratio(source_rect.left - source_rect.right,
+                              texture_width);
+      matrix[12] = Fixed.ratio(source_rect.right, texture_width);
+    } else {
+      matrix[0] = Fixed.ratio(source_rect.right - source_rect.left,
+                              texture_width);
+      matrix[12] = Fixed.ratio(source_rect.left, texture_width);
+    }
+    mGlState.loadMatrix(GL10.GL_TEXTURE, matrix);
+  }
+
+  /** Draw through the shared corner array with fixed point matrices, the
+   * origin and size being in 16.16 fixed point OpenGL screen coordinates. */
+  private void drawQuadFixedOpenGL(TextureData texture_data, Rect source_rect,
+                                   boolean flipped_horizontal,
+                                   boolean flipped_vertical, int block_count,
+                                   int origin_x, int origin_y,
+                                   int width, int height) {
+    loadTextureMatrixFixedOpenGL(texture_data, source_rect,
+                                 flipped_horizontal, flipped_vertical);
+    mMatrix4x4Fixed[0] = width;
+    mMatrix4x4Fixed[5] = height;
+    mMatrix4x4Fixed[12] = origin_x;
+    mMatrix4x4Fixed[13] = origin_y;
+    mGlState.loadMatrix(GL10.GL_MODELVIEW, mMatrix4x4Fixed);
+    mGl.glDrawArrays(GL10.GL_TRIANGLE_STRIP, 0, 2 * block_count + 2);
+  }
+
+  private void drawPointSpriteAsQuad(int image_handle, Rect source_rect,
+                                     boolean flipped_horizontal,
+                                     float[] points, int point) {
+    float x = points[3 * point];
+    float y = points[3 * point + 1];
+    float half_size = points[3 * point + 2] / 2.0f;
+    mPointRect.set(x - half_size, y - half_size, x + half_size, y + half_size);
+    drawImage(image_handle, source_rect, mPointRect, flipped_horizontal, false,
+              1 /*block count*/);
+  }
+
+  /** Draw the points with GL_OES_point_sprite, streaming positions and sizes
+   * from a shared array in chunks of kPointSpriteCapacity. Point sprites span
+   * texture coordinates 0 to 1 across each point, so the texture matrix maps
+   * that range onto the source rectangle. Points larger than the driver
+   * allows are drawn as quads instead. The arrays and matrices of the back end
+   * are restored afterwards. */
+  private void drawPointSpritesOpenGL(int image_handle, Rect source_rect,
+                                      boolean flipped_horizontal,
+                                      float[] points, int point_count) {
+    TextureData texture_data = bindTextureOpenGL(image_handle);
+    if (texture_data == null || point_count == 0) {
+      return;
+    }
+    flushBatchOpenGL();
+    setDrawStateOpenGL(texture_data, source_rect, false);
+
+    float texture_width = texture_data.width;
+    float texture_height = texture_data.height;
+    mMatrix4x4[1] = mMatrix4x4[2] = mMatrix4x4[4] =
+        mMatrix4x4[6] = mMatrix4x4[8] = mMatrix4x4[9] = 0.0f;
+    mMatrix4x4[5] = (source_rect.bottom - source_rect.top) / texture_height;
+    mMatrix4x4[13] = source_rect.top / texture_height;
+    if (flipped_horizontal) {
+      mMatrix4x4[0] = (source_rect.left - source_rect.right) / texture_width;
+      mMatrix4x4[12] = source_rect.right / texture_width;
+    } else {
+      mMatrix4x4[0] = (source_rect.right - source_rect.left) / texture_width;
+      mMatrix4x4[12] = source_rect.left / texture_width;
+    }
+    mGlState.loadMatrix(GL10.GL_TEXTURE, mMatrix4x4);
+    mGlState.loadIdentity(GL10.GL_MODELVIEW);
+
+    // Point sizes are in window pixels, which differ from the surface pixels
+    // the game draws in when the scene is rendered at a reduced resolution.
+    GL11 gl = (GL11)mGl;
+    mGl.glVertexPointer(2, GL10.GL_FLOAT, 3 * 4, mPointBuffer);
+    mGlState.setClientStateEnabled(GL10.GL_VERTEX_ARRAY, true);
+    gl.glPointSizePointerOES(GL10.GL_FLOAT, 3 * 4, mPointSizeBuffer);
+    mGlState.setClientStateEnabled(GL11.GL_POINT_SIZE_ARRAY_OES, true);
+    mGlState.setClientStateEnabled(GL10.GL_TEXTURE_COORD_ARRAY, false);
+    mGlState.setClientStateEnabled(GL10.GL_COLOR_ARRAY, false);
+    mGlState.color(mTint);
+    mGl.glEnable(GL11.GL_POINT_SPRITE_OES);
+
+    int chunk_count = 0;
+    for (int point = 0; point < point_count; ++point) {
+      float size = points[3 * point + 2] * mViewportScale;
+      if (size > mMaxPointSize) {
+        continue;  // Drawn below.
+      }
+      mPointArray[3 * chunk_count] = points[3 * point];
+      mPointArray[3 * chunk_count + 1] = mSurfaceHeight - points[3 * point + 1];
+      mPointArray[3 * chunk_count + 2] = size;
+      if (++chunk_count == kPointSpriteCapacity) {
+        mPointBuffer.put(mPointArray, 0, 3 * chunk_count);
+        mPointBuffer.position(0);
+        mGl.glDrawArrays(GL10.GL_POINTS, 0, chunk_count);
+        chunk_count = 0;
+      }
+    }
+    if (chunk_count > 0) {
+      mPointBuffer.put(mPointArray, 0, 3 * chunk_count);
+      mPointBuffer.position(0);
+      mGl.glDrawArrays(GL10.GL_POINTS, 0, chunk_count);
+    }
+
+    mGl.glDisable(GL11.GL_POINT_SPRITE_OES);
+    mGlState.setClientStateEnabled(GL11.GL_POINT_SIZE_ARRAY_OES, false);
+    if (mBackendType == BackendType.OPENGL_BATCHED) {
+      mGlState.loadIdentity(GL10.GL_TEXTURE);
+    }
+    bindArraysOpenGL();
+
+    for (int point = 0; point < point_count; ++point) {
+      if (points[3 * point + 2] * mViewportScale > mMaxPointSize) {
+        drawPointSpriteAsQuad(image_handle, source_rect, flipped_horizontal,
+                              points, point);
+      }
+    }
+  }
+
+  /** Point the vertex arrays at those the back end draws from, the sprite
+   * batch or the shared corner array, see initializeOpenGLClientState(). */
+  private void bindArraysOpenGL() {
+    if (mBackendType == BackendType.OPENGL_BATCHED) {
+      mSpriteBatch.bind(mGlState);
+    } else if (mFixedPoint) {
+      mGl.glVertexPointer(2, GL10.GL_FIXED, 0, mCornerBufferFixed);
+      mGlState.setClientStateEnabled(GL10.GL_VERTEX_ARRAY, true);
+      mGl.glTexCoordPointer(2, GL10.GL_FIXED, 0, mCornerBufferFixed);
+      mGlState.setClientStateEnabled(GL10.GL_TEXTURE_COORD_ARRAY, true);
+    } else {
+      mGl.glVertexPointer(2, GL10.GL_FLOAT, 0, mCornerBuffer);
+      mGlState.setClientStateEnabled(GL10.GL_VERTEX_ARRAY, true);
+      mGl.glTexCoordPointer(2, GL10.GL_FLOAT, 0, mCornerBuffer);
+      mGlState.setClientStateEnabled(GL10.GL_TEXTURE_COORD_ARRAY, true);
+    }
+  }
+
+  /** Time a synthetic frame for the best ranked configuration of each color
+   * depth, with both the batched and plain OpenGL back ends and with both
+   * float and fixed point vertices, and return the profile of the fastest
+   * combination. Each combination is given its own context and surface,
+   * destroyed again afterwards, so this must run before the context used for
+   * the game is created. Returns null if no context could be created, leaving
+   * the back end as it was. */
+  private DeviceProfile benchmarkDeviceOpenGL(EGLConfig[] configs) {
+    BackendType backend_type = mBackendType;
+    DeviceProfile fastest = null;
+    boolean tested_16_bit = false;
+    boolean tested_32_bit = false;
+    mRestorePending = false;  // Nothing is restored into benchmark contexts.
+    for (EGLConfig config : configs) {
+      int red_size = getConfigAttribOpenGL(config, EGL10.EGL_RED_SIZE);
+      if (red_size == 5 ? tested_16_bit : tested_32_bit) {
+        continue;
+      }
+      tested_16_bit |= red_size == 5;
+      tested_32_bit |= red_size != 5;
+
+      mEglConfig = config;
+      for (int variant = 0; variant < 4; ++variant) {
+        boolean batching = (variant & 1) == 1;
+        mBackendType = (batching ? BackendType.OPENGL_BATCHED :
+                        BackendType.OPENGL);
+        mFixedPoint = (variant & 2) == 2;
+        if (!createContextOpenGL()) {
+          break;
+        }
+        initializeOpenGLSurface();
+        float frame_time = timeBenchmarkFramesOpenGL();
+        destroyContextOpenGL();
+
+        DeviceProfile profile = new DeviceProfile();
+        profile.config_id = getConfigAttribOpenGL(config, EGL10.EGL_CONFIG_ID);
+        profile.red_size = red_size;
+        profile.green_size =
+            getConfigAttribOpenGL(config, EGL10.EGL_GREEN_SIZE);
+        profile.blue_size = getConfigAttribOpenGL(config, EGL10.EGL_BLUE_SIZE);
+        profile.alpha_size =
+            getConfigAttribOpenGL(config, EGL10.EGL_ALPHA_SIZE);
+        profile.depth_size =
+            getConfigAttribOpenGL(config, EGL10.EGL_DEPTH_SIZE);
+        profile.stencil_size =
+            getConfigAttribOpenGL(config, EGL10.EGL_STENCIL_SIZE);
+        profile.batching = batching;
+        profile.fixed_point = mFixedPoint;
+        profile.frame_time = frame_time;
+        Log.d("Graphics::benchmarkDeviceOpenGL", profile.toString());
+        if (fastest == null || frame_time < fastest.frame_time) {
+          fastest = profile;
+        }
+      }
+    }
+    mBackendType = backend_type;
+    mFixedPoint = false;
+    Log.d("Graphics::benchmarkDeviceOpenGL", "Fastest: " + fastest);
+    return fastest;
+  }
+
+  /** Return the average time in milliseconds to draw a frame resembling a
+   * busy game frame: an opaque background covering the surface followed by
+   * many partly translucent sprites. Frames are finished rather than swapped,
+   * so the time is not bound by the display refresh. */
+  private float timeBenchmarkFramesOpenGL() {
+    final int kSpriteSize = 32;  // Pixels.
+    final int kSpriteCount = 256;
+    final int kFrameCount = 8;
+    int[] background_pixels = new int[kSpriteSize * kSpriteSize];
+    int[] sprite_pixels = new int[kSpriteSize * kSpriteSize];
+    for (int index = 0; index < sprite_pixels.length; ++index) {
+      background_pixels[index] = 0xFF404040;  // ARGB.
+      sprite_pixels[index] = ((index % kSpriteSize) < kSpriteSize / 2 ?
+                              0xFFC0C0C0 : 0x80C0C0C0);
+    }
+    int background_handle = loadImageFromPixels(
+        background_pixels, kSpriteSize, kSpriteSize);
+    int sprite_handle = loadImageFromPixels(
+        sprite_pixels, kSpriteSize, kSpriteSize);
+    Rect source_rect = new Rect(0, 0, kSpriteSize, kSpriteSize);
+    RectF surface_rect = new RectF(0, 0, mSurfaceWidth, mSurfaceHeight);
+    RectF dest_rect = new RectF();
+
+    // The first frame is not timed, leaving out any work the driver defers
+    // until the textures are first used.
+    long start_time = 0;
+    for (int frame = -1; frame < kFrameCount; ++frame) {
+      if (frame == 0) {
+        mGl.glFinish();
+        start_time = System.nanoTime();
+      }
+      mGlState.beginFrame();
+      mClearPending = true;
+      drawImage(background_handle, source_rect, surface_rect, false, false, 1);
+      for (int sprite = 0; sprite < kSpriteCount; ++sprite) {
+        float x = (sprite * 37) % Math.max(1, mSurfaceWidth - kSpriteSize);
+        float y = (sprite * 23) % Math.max(1, mSurfaceHeight - kSpriteSize);
+        if (mFixedPoint) {
+          // As the game draws entities and tiles when fixed point is chosen.
+          int left = Fixed.fromFloat(x);
+          int top = Fixed.fromFloat(y);
+          int size = Fixed.fromInt(kSpriteSize);
+          drawImageFixed(sprite_handle, source_rect,
+                         left, top, left + size, top + size,
+                         (sprite & 1) == 1, false, 1);
+        } else {
+          dest_rect.set(x, y, x + kSpriteSize, y + kSpriteSize);
+          drawImage(sprite_handle, source_rect, dest_rect,
+                    (sprite & 1) == 1, false, 1);
+        }
+      }
+      flushBatchOpenGL();
+      clearIfPendingOpenGL();
+    }
+    mGl.glFinish();
+    float frame_time = (System.nanoTime() - start_time) / 1e6f / kFrameCount;
+
+    // The textures are deleted along with the context.
+    mTextureData.set(background_handle, null);
+    mTextureData.set(sprite_handle, null);
+    return frame_time;
+  }
+
+  /** Time the draw texture path against the regular path by drawing the same
+   * sprites through each and waiting for the hardware to finish. The results
+   * are logged. Only meaningful for the plain OpenGL back end, and only run
+   * when enabled in initializeOpenGLClientState(). */
+  private void benchmarkDrawTextureOpenGL() {
+    final int kSpriteSize = 32;  // Pixels.
+    final int kDrawCount = 2000;
+    int image_handle = loadImageFromPixels(
+        new int[kSpriteSize * kSpriteSize], kSpriteSize, kSpriteSize);
+    Rect source_rect = new Rect(0, 0, kSpriteSize, kSpriteSize);
+    RectF dest_rect = new RectF();
+    boolean has_draw_texture = mHasDrawTexture;
+    for (int pass = 0; pass < 2; ++pass) {
+      mHasDrawTexture = has_draw_texture && pass == 1;
+      mGl.glFinish();
+      long start_time = System.nanoTime();
+      for (int draw = 0; draw < kDrawCount; ++draw) {
+        float x = (draw * 7) % Math.max(1, mSurfaceWidth - kSpriteSize);
+        float y = (draw * 13) % Math.max(1, mSurfaceHeight - kSpriteSize);
+        dest_rect.set(x, y, x + kSpriteSize, y + kSpriteSize);
+        drawImage(image_handle, source_rect, dest_rect, false, false, 1);
+      }
+      mGl.glFinish();
+      Log.d("Graphics::benchmarkDrawTextureOpenGL",
+            (mHasDrawTexture ? "Draw texture: " : "Regular: ") +
+            (System.nanoTime() - start_time) / kDrawCount + "ns per sprite.");
+    }
+    mHasDrawTexture = has_draw_texture;
+    deleteTextureOpenGL(mTextureData.get(image_handle).name);
+    mTextureData.set(image_handle, null);
+    mGl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+  }
+
+  private boolean isOpaqueOpenGL(TextureData texture_data, Rect source_rect) {
+    int[] counts = texture_data.translucent_rows;
+    if (counts == null) {
+      return false;
+    }
+    // The counts are per texel row, which differ from image rows for images
+    // sampled down, see TextureQuality.
+    int sample_size = texture_data.sample_size;
+    int top = Math.max(
+        0, Math.min(source_rect.top, source_rect.bottom) / sample_size);
+    int bottom = Math.min(
+        counts.length - 1,
+        (Math.max(source_rect.top, source_rect.bottom) + sample_size - 1) /
+        sample_size);
+    return top < bottom && counts[top] == counts[bottom];
+  }
+
+  /** Disable blending for opaque images, and enable it for everything else,
+   * flushing the batch whenever the state changes. Also performs the clear
+   * deferred from the start of the frame unless this image is opaque and
+   * covers the whole surface, as the map background usually does. */
+  private void setDrawStateOpenGL(TextureData texture_data, Rect source_rect,
+                                  boolean covers_surface) {
+    boolean opaque = ((mTint >>> 24) == 0xFF &&
+                      isOpaqueOpenGL(texture_data, source_rect));
+    if (mClearPending) {
+      mClearPending = false;
+      if (!opaque || !covers_surface) {
+        mGl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+      }
+    }
+    if (mGlState.isEnabled(GL10.GL_BLEND) == opaque) {
+      flushBatchOpenGL();
+      mGlState.setEnabled(GL10.GL_BLEND, !opaque);
+    }
+  }
+
+  /** Perform the clear deferred from the start of the frame or scene if
+   * nothing has been drawn since. */
+  private void clearIfPendingOpenGL() {
+    if (mClearPending) {
+      mClearPending = false;
+      mGl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+    }
+  }
+
+  private void flushBatchOpenGL() {
+    if (!mSpriteBatch.isEmpty()) {
+      mSpriteBatch.flush(mGl);
+    }
+  }
+
+  /** Delete an OpenGL texture, first drawing any batched images which may
+   * still refer to it, and forget it if it is the bound texture. */
+  private void deleteTextureOpenGL(int texture_name) {
+    flushBatchOpenGL();
+    mGl.glDeleteTextures(1, new int[] { texture_name }, 0);
+    mGlState.textureDeleted(texture_name);
+  }
+
+  /** Delete the texture of an image and drop its registry entry, so that the
+   * image is neither retained nor restored after the loss of the context. Any
+   * pending upload of the image is dropped as well. */
   private void freeImageOpenGL(int image_handle) {
-    // TODO(burkhart): Implement.
+    if (image_handle >= mTextureData.size() ||
+        image_handle == mPlaceholderTexture ||
+        image_handle == mSceneTexture) {
+      return;
+    }
+    TextureData texture_data = mTextureData.get(image_handle);
+    if (texture_data == null) {
+      return;  // Already freed.
+    }
+    if (texture_data.name != -1) {
+      deleteTextureOpenGL(texture_data.name);
+    }
+    mTextureData.set(image_handle, null);
+    mTextureStreamer.cancel(image_handle);
+    mRestoreQueue.remove(new Integer(image_handle));
   }
 
   private int getWidthOpenGL() {
@@ -675,6 +2304,9 @@ public class Graphics {
   }
 
   private boolean beginFrameOpenGL() {
+    if (mContextLost) {
+      return false;  // The context could not be recreated.
+    }
     if (!mGlSurfaceInitialized) {
       initializeOpenGLSurface();
       mGlSurfaceInitialized = true;
@@ -683,45 +2315,236 @@ public class Graphics {
       initializeOpenGLClientState();
       mGlStateInitialized = true;
     }
-    mGl.glClear(GL10.GL_COLOR_BUFFER_BIT);
+    mGlState.beginFrame();
+    uploadStreamedImagesOpenGL();
+    beginSceneOpenGL();
+
+    // The clear is deferred until the first image is drawn since it is
+    // unnecessary if that image is opaque and covers the whole surface, see
+    // setDrawStateOpenGL(...).
+    mClearPending = true;
     return !mContextLost;
   }
 
+  /** Redirect drawing into the scene target when rendering at a reduced
+   * resolution. Only the viewport shrinks, the projection continues to span
+   * the surface dimensions, so everything is drawn in the usual coordinates
+   * and scaled down by the hardware. */
+  private void beginSceneOpenGL() {
+    mInScene = true;
+    if (mRenderScale >= 1.0f || !mHasFramebufferObject) {
+      releaseSceneTargetOpenGL();  // No longer needed at full resolution.
+      return;
+    }
+    int scene_width = Math.max(1, (int)(mRenderScale * mSurfaceWidth));
+    int scene_height = Math.max(1, (int)(mRenderScale * mSurfaceHeight));
+    if (scene_width != mSceneWidth || scene_height != mSceneHeight) {
+      if (!createSceneTargetOpenGL(scene_width, scene_height)) {
+        mHasFramebufferObject = false;
+        return;
+      }
+    }
+    flushBatchOpenGL();
+    ((GL11ExtensionPack)mGl).glBindFramebufferOES(
+        GL11ExtensionPack.GL_FRAMEBUFFER_OES, mSceneFramebuffer);
+    mGl.glViewport(0, 0, mSceneWidth, mSceneHeight);
+    mViewportScale = (float)mSceneWidth / mSurfaceWidth;
+    mSceneActive = true;
+  }
+
+  /** (Re)create the texture and frame buffer object the scene is rendered into
+   * at a reduced resolution. Returns false if the frame buffer is not
+   * supported in this configuration. */
+  private boolean createSceneTargetOpenGL(int width, int height) {
+    GL11ExtensionPack gl = (GL11ExtensionPack)mGl;
+    releaseSceneTargetOpenGL();
+
+    // The texture dimensions must be powers of two, the scene occupies the
+    // lower left corner. There is no need for an alpha channel.
+    TextureImage image = new TextureImage();
+    image.width = nextPowerOfTwo(width);
+    image.height = nextPowerOfTwo(height);
+    image.format = GL10.GL_RGB;
+    image.type = GL10.GL_UNSIGNED_SHORT_5_6_5;
+    mSceneTexture = allocateTextureOpenGL();
+    uploadTextureImageOpenGL(mSceneTexture, image);
+
+    int[] framebuffers = new int[1];
+    gl.glGenFramebuffersOES(1, framebuffers, 0);
+    mSceneFramebuffer = framebuffers[0];
+    gl.glBindFramebufferOES(GL11ExtensionPack.GL_FRAMEBUFFER_OES,
+                            mSceneFramebuffer);
+    gl.glFramebufferTexture2DOES(GL11ExtensionPack.GL_FRAMEBUFFER_OES,
+                                 GL11ExtensionPack.GL_COLOR_ATTACHMENT0_OES,
+                                 GL10.GL_TEXTURE_2D,
+                                 mTextureData.get(mSceneTexture).name, 0);
+    int status = gl.glCheckFramebufferStatusOES(
+        GL11ExtensionPack.GL_FRAMEBUFFER_OES);
+    gl.glBindFramebufferOES(GL11ExtensionPack.GL_FRAMEBUFFER_OES, 0);
+    if (status != GL11ExtensionPack.GL_FRAMEBUFFER_COMPLETE_OES) {
+      Log.d("Graphics::createSceneTargetOpenGL",
+            "Incomplete frame buffer, status: " + status);
+      return false;
+    }
+    mSceneWidth = width;
+    mSceneHeight = height;
+    Log.d("Graphics::createSceneTargetOpenGL",
+          "Rendering scene at " + width + "x" + height + ".");
+    return true;
+  }
+
+  /** Delete the scene target, if any, along with the registry entry of its
+   * texture. */
+  private void releaseSceneTargetOpenGL() {
+    if (mSceneFramebuffer != 0) {
+      ((GL11ExtensionPack)mGl).glDeleteFramebuffersOES(
+          1, new int[] { mSceneFramebuffer }, 0);
+      mSceneFramebuffer = 0;
+    }
+    if (mSceneTexture != -1) {
+      deleteTextureOpenGL(mTextureData.get(mSceneTexture).name);
+      mTextureData.set(mSceneTexture, null);
+      mSceneTexture = -1;
+    }
+    mSceneWidth = mSceneHeight = 0;
+  }
+
+  /** Upscale the scene target to the surface as a single quad, with nearest
+   * filtering as for every other image. Drawing continues at the native
+   * resolution afterwards. */
+  private void endSceneOpenGL() {
+    mInScene = false;
+    if (!mSceneActive) {
+      return;
+    }
+    mSceneActive = false;
+    flushBatchOpenGL();
+    clearIfPendingOpenGL();
+    ((GL11ExtensionPack)mGl).glBindFramebufferOES(
+        GL11ExtensionPack.GL_FRAMEBUFFER_OES, 0);
+    mGl.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+    mViewportScale = 1.0f;
+    mClearPending = true;  // The scene itself covers the surface.
+
+    // The frame buffer rows are stored bottom up, hence the vertical flip.
+    int tint = mTint;
+    setTint(0xFFFFFFFF);
+    mSceneSourceRect.set(0, 0, mSceneWidth, mSceneHeight);
+    mSceneDestRect.set(0, 0, mSurfaceWidth, mSurfaceHeight);
+    drawImage(mSceneTexture, mSceneSourceRect, mSceneDestRect,
+              false, true, 1);
+    setTint(tint);
+  }
+
+  private static int nextPowerOfTwo(int value) {
+    int result = 1;
+    while (result < value) {
+      result <<= 1;
+    }
+    return result;
+  }
+
+  /** Replace a lost context with a new one. The registered images are
+   * restored in the background, see restoreTexturesOpenGL(), so the game
+   * continues in place. Should the context not be recreated, beginFrame()
+   * reports the failure. */
+  private void recreateContextOpenGL() {
+    mTextureStreamer.shutdown();  // Every image is requested again.
+    destroyOpenGL();
+    initializeOpenGL();
+  }
+
   private void endFrameOpenGL() {
+    if (mInScene) {
+      endSceneOpenGL();
+    }
+    flushBatchOpenGL();
+    clearIfPendingOpenGL();
     mEgl.eglSwapBuffers(mEglDisplay, mEglSurface);
 
     // Always check for EGL_CONTEXT_LOST, which means the context and all
     // associated data were lost (For instance because the device went to
     // sleep). We need to sleep until we get a new surface.
     if (mEgl.eglGetError() == EGL11.EGL_CONTEXT_LOST) {
-      mContextLost = true;
-      Log.d("Graphics::endFrameBufferOpenGL", "Context Lost.");
+      Log.d("Graphics::endFrameBufferOpenGL", "Context Lost. Recreating.");
+      recreateContextOpenGL();
     }
   }
 
-  private int             mCurrentTexture = -1;
+  private boolean         mClearPending;
+  private int[]           mConfigAttrib = new int[1];
+  private FloatBuffer     mCornerBuffer;       // Float vertices only.
+  private IntBuffer       mCornerBufferFixed;  // Fixed point vertices only.
   private boolean         mContextLost;
+  private boolean         mRestorePending;
   private EGL10           mEgl;
   private EGLConfig       mEglConfig;
   private EGLContext      mEglContext;
   private EGLDisplay      mEglDisplay;
   private EGLSurface      mEglSurface;
   private GL10            mGl;
+  private boolean         mFixedPoint;  // See isFixedPoint().
+  private GLStateCache    mGlState = new GLStateCache();
   private boolean         mGlStateInitialized;
   private boolean         mGlSurfaceInitialized;
+  private boolean         mHasDrawTexture;
+  private boolean         mHasFramebufferObject;
+  private boolean         mHasEtc1;
   private boolean         mHasHardwareAcceleration;
+  private boolean         mHasPointSprites;
+  private int             mMaxPointSize;  // Window pixels.
+  private float[]         mPointArray = new float[3 * kPointSpriteCapacity];
+  private FloatBuffer     mPointBuffer;      // Interleaved x, y, size.
+  private RectF           mPointRect = new RectF();
+  private FloatBuffer     mPointSizeBuffer;  // Shares mPointBuffer.
+  private int             mPlaceholderTexture = -1;
+  private int             mRotationDepth;
+  private boolean         mInScene;
+  private boolean         mSceneActive;
+  private RectF           mSceneDestRect = new RectF();
+  private int             mSceneFramebuffer;
+  private int             mSceneHeight;
+  private Rect            mSceneSourceRect = new Rect();
+  private int             mSceneTexture = -1;
+  private int             mSceneWidth;
+  private float           mViewportScale = 1.0f;
+  private SpriteBatch     mSpriteBatch;
+  private TextureStreamer mTextureStreamer = new TextureStreamer();
+  private long            mUploadCount;
+  private long            mUploadWaitMax;
+  private long            mUploadWaitTotal;
+  private int             mTintRgba = 0xFFFFFFFF;  // See setTint(...).
+  private int[]           mTintArray = new int[1];
 
   class TextureData {
-    public int height;
-    public int width;
+    public int[]        crop_rect = new int[4];  // See drawTextureOpenGL().
+    public int          height;
+    public int          name = -1;  // The OpenGL name, -1 until uploaded.
+    public boolean      resident;
+    public int          sample_size = 1;  // Image pixels per texel.
+    public TextureImage source_image;  // Generated images only.
+    public String       source_path;   // Images loaded from files only.
+    public int[]        translucent_rows;  // See isOpaqueOpenGL(...).
+    public int          width;
   }
   private Vector<TextureData> mTextureData = new Vector<TextureData>();
+  private ArrayList<Integer>  mRestoreQueue = new ArrayList<Integer>();
 
   // The following matrix definitions are used to avoid any allocations within
   // the draw methods.
-  private Matrix  mScreenMatrix = new Matrix();
+  private Affine  mMatrixTransformation = new Affine();
   private float[] mMatrix3x3 = new float[] {
     1, 0, 0, 0, 1, 0, 0, 0, 1 };
   private float[] mMatrix4x4 = new float[] {
     1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+  private int[]   mMatrix4x4Fixed = new int[] {
+    Fixed.kOne, 0, 0, 0, 0, Fixed.kOne, 0, 0,
+    0, 0, Fixed.kOne, 0, 0, 0, 0, Fixed.kOne };
+  private RectF   mRectFixed = new RectF();  // See drawImageFixed(...).
+
+  private static final int  kBatchCapacity       = 512;  // Quads.
+  private static final int  kPlaceholderColor    = 0x00000000;  // ARGB.
+  private static final int  kPointSpriteCapacity = 256;  // Points.
+  private static final int  kUploadBytesPerFrame = 256 * 1024;
+  private static final long kUploadTimePerFrame  = 4000000;  // Nanoseconds.
 }
@@ -11,7 +11,6 @@
 
 package android.com.abb;
 
-import android.graphics.Matrix;
 import android.util.Log;
 
 
@@ -103,12 +102,10 @@ public class Grappling {
     int half_canvas_height = canvas_height / 2;
 
     for (Link link : mLinks) {
-      mTransformation.reset();
-      mTransformation.preTranslate(
+      mTransformation.setTranslateRotateScale(
           (link.x - center_x) * zoom + half_canvas_width,
-          (link.y - center_y) * zoom + half_canvas_height);
-      mTransformation.preRotate(link.angle);
-      mTransformation.preScale(kLinkLength * zoom, kLinkWidth * zoom);
+          (link.y - center_y) * zoom + half_canvas_height,
+          link.angle, kLinkLength * zoom, kLinkWidth * zoom);
       graphics.drawImage(mGameState.misc_sprites, link.sprite_rect,
                          mTransformation, false, false, 1);
     }
@@ -124,7 +121,7 @@ public class Grappling {
   private GameState mGameState;
   private float mGrappleX;
   private float mGrappleY;
-  private Matrix mTransformation = new Matrix();
+  private Affine mTransformation = new Affine();
 
   private static final int   kLinkCount  = 1;
   private static final float kLinkGravity = 300.0f;
@@ -0,0 +1,194 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+
+/** An Impostor is a sprite sheet holding pre-rendered frames of a baked
+ * articulated animation, see ArticulatedEntity. When an articulated entity
+ * appears small on screen it may be drawn as a single image from the sheet
+ * rather than part by part, making it as cheap to draw as an AnimatedEntity.
+ * The sheet is rasterized on the CPU when the animation is loaded, at just
+ * enough resolution for the largest size at which the impostor is drawn. */
+public class Impostor {
+  /** Render the impostor sheet. The draw matrices are the baked 2x3 part
+   * matrices, kMatrixSize floats per part per frame, as produced by
+   * ArticulatedEntity.Animation.bake(...). Parts with empty image rectangles
+   * are skipped. The max_size specifies, in pixels, the largest dimension at
+   * which the impostor will be drawn. */
+  public Impostor(SoftwareRasterizer.Texture part_texture, Rect[] part_rects,
+                  float[] draw_matrices, int baked_frame_count,
+                  float baked_frame_duration, float max_size) {
+    int part_count = part_rects.length;
+
+    // Determine the bounds of the entity over the whole animation by
+    // transforming the corners of every part in every frame.
+    mMinX = mMinY = Float.MAX_VALUE;
+    float max_x = -Float.MAX_VALUE;
+    float max_y = -Float.MAX_VALUE;
+    for (int frame = 0; frame < baked_frame_count; ++frame) {
+      for (int part = 0; part < part_count; ++part) {
+        if (part_rects[part].isEmpty()) {
+          continue;
+        }
+        int offset = kMatrixSize * (part_count * frame + part);
+        for (int corner = 0; corner < 4; ++corner) {
+          float unit_x = corner & 1;
+          float unit_y = corner >> 1;
+          float x = (draw_matrices[offset + 0] * unit_x +
+                     draw_matrices[offset + 1] * unit_y +
+                     draw_matrices[offset + 2]);
+          float y = (draw_matrices[offset + 3] * unit_x +
+                     draw_matrices[offset + 4] * unit_y +
+                     draw_matrices[offset + 5]);
+          mMinX = Math.min(mMinX, x);
+          mMinY = Math.min(mMinY, y);
+          max_x = Math.max(max_x, x);
+          max_y = Math.max(max_y, y);
+        }
+      }
+    }
+    if (mMinX > max_x) {
+      mMinX = mMinY = max_x = max_y = 0.0f;  // No visible parts.
+    }
+    mSize = Math.max(max_x - mMinX, max_y - mMinY);
+    mScale = Math.min(1.0f, max_size / Math.max(mSize, 1.0f));
+
+    // Lay out the sheet as a grid of cells, each padded by a transparent pixel
+    // on every side to avoid bleeding between neighbors. The baked frames are
+    // decimated down to the impostor frame rate, and further if the sheet
+    // would become too large.
+    mContentWidth = Math.max(1, (int)Math.ceil((max_x - mMinX) * mScale));
+    mContentHeight = Math.max(1, (int)Math.ceil((max_y - mMinY) * mScale));
+    mCellWidth = mContentWidth + 2;
+    mCellHeight = mContentHeight + 2;
+    int frame_stride = Math.max(
+        1, Math.round(1.0f / (kFrameRate * baked_frame_duration)));
+    mFrameCount = (baked_frame_count + frame_stride - 1) / frame_stride;
+    mColumns = Math.max(1, Math.min(mFrameCount, kMaxSheetSize / mCellWidth));
+    int max_rows = Math.max(1, kMaxSheetSize / mCellHeight);
+    if (mFrameCount > mColumns * max_rows) {
+      mFrameCount = mColumns * max_rows;
+      frame_stride = (baked_frame_count + mFrameCount - 1) / mFrameCount;
+      mFrameCount = (baked_frame_count + frame_stride - 1) / frame_stride;
+    }
+    int rows = (mFrameCount + mColumns - 1) / mColumns;
+    mFrameDuration = frame_stride * baked_frame_duration;
+    mSheetWidth = nextPowerOfTwo(mColumns * mCellWidth);
+    mSheetHeight = nextPowerOfTwo(rows * mCellHeight);
+
+    SoftwareRasterizer rasterizer =
+        new SoftwareRasterizer(mSheetWidth, mSheetHeight);
+    rasterizer.clearTransparent();
+    for (int frame = 0; frame < mFrameCount; ++frame) {
+      float origin_x = (frame % mColumns) * mCellWidth + 1 - mMinX * mScale;
+      float origin_y = (frame / mColumns) * mCellHeight + 1 - mMinY * mScale;
+      int baked_frame = frame * frame_stride;
+      for (int part = 0; part < part_count; ++part) {
+        Rect rect = part_rects[part];
+        if (rect.isEmpty()) {
+          continue;
+        }
+        int offset = kMatrixSize * (part_count * baked_frame + part);
+        rasterizer.drawImage(
+            part_texture, rect.left, rect.top, rect.right, rect.bottom,
+            mScale * draw_matrices[offset + 0],
+            mScale * draw_matrices[offset + 1],
+            mScale * draw_matrices[offset + 2] + origin_x,
+            mScale * draw_matrices[offset + 3],
+            mScale * draw_matrices[offset + 4],
+            mScale * draw_matrices[offset + 5] + origin_y,
+            false, false, 1);
+      }
+    }
+    mPixels = rasterizer.getPixels();
+    Log.d("Impostor::Impostor",
+          "Rendered " + mFrameCount + " frames into " +
+          mSheetWidth + "x" + mSheetHeight + " sheet.");
+  }
+
+  /** Return the largest dimension of the entity, in the units of the baked
+   * matrices. */
+  public float getSize() {
+    return mSize;
+  }
+
+  /** Draw the frame for the specified animation time. The translation and
+   * scale map the units of the baked matrices to the screen, exactly as the
+   * root transformation does for the parts. A negative horizontal scale draws
+   * the frame flipped. */
+  public void draw(Graphics graphics, float time,
+                   float translation_x, float translation_y,
+                   float scale_x, float scale_y) {
+    // The sheet is uploaded on first use since the graphics system may only be
+    // accessed from the rendering thread.
+    if (mImageHandle == -1) {
+      mImageHandle = graphics.loadImageFromPixels(
+          mPixels, mSheetWidth, mSheetHeight);
+      mPixels = null;
+    }
+
+    int frame = ((int)(time / mFrameDuration)) % mFrameCount;
+    int left = (frame % mColumns) * mCellWidth + 1;
+    int top = (frame / mColumns) * mCellHeight + 1;
+    mSourceRect.set(left, top, left + mContentWidth, top + mContentHeight);
+
+    float min_x = translation_x + scale_x * mMinX;
+    float max_x = translation_x + scale_x * (mMinX + mContentWidth / mScale);
+    boolean flipped_horizontal = false;
+    if (min_x > max_x) {
+      float swap = min_x;
+      min_x = max_x;
+      max_x = swap;
+      flipped_horizontal = true;
+    }
+    mDestRect.set(min_x, translation_y + scale_y * mMinY,
+                  max_x, translation_y + scale_y * (mMinY + mContentHeight / mScale));
+    graphics.drawImage(mImageHandle, mSourceRect, mDestRect,
+                       flipped_horizontal, false, 1);
+  }
+
+  private static int nextPowerOfTwo(int value) {
+    int result = 1;
+    while (result < value) {
+      result <<= 1;
+    }
+    return result;
+  }
+
+  private int     mCellHeight;
+  private int     mCellWidth;
+  private int     mColumns;
+  private int     mContentHeight;
+  private int     mContentWidth;
+  private int     mFrameCount;
+  private float   mFrameDuration;
+  private int     mImageHandle = -1;
+  private float   mMinX;
+  private float   mMinY;
+  private int[]   mPixels;
+  private float   mScale;
+  private int     mSheetHeight;
+  private int     mSheetWidth;
+  private float   mSize;
+
+  // The following are used to avoid any allocations within draw(...).
+  private static RectF mDestRect   = new RectF();
+  private static Rect  mSourceRect = new Rect();
+
+  private static final float kFrameRate    = 10.0f;  // Frames per second.
+  private static final int   kMatrixSize   = 6;      // Floats.
+  private static final int   kMaxSheetSize = 512;    // Pixels.
+}
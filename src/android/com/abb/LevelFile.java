@@ -0,0 +1,346 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+/** The contents of a level: its tiles, the run lengths Map.draw(...) uses to
+ * batch them, the effects of each tile id, the triggers and the images. A
+ * level is loaded either from the text files written by editor/editor.py, which
+ * are parsed and the run lengths computed, or from the binary file compiled
+ * from them offline by tools/CompileLevels.java, which is memory mapped and
+ * copied straight into the arrays below.
+ *
+ * The binary format is big-endian:
+ *   int     kMagic, kVersion, width, height and starting_index.
+ *   string  tiles_image, then background_image.
+ *   string  the name and hash of each of the kSourceCount source files.
+ *   byte    effects, for each of kMaxTileCount tile ids.
+ *   char    tiles, then run_lengths, for each of width * height tiles.
+ *   int     trigger count, followed by an int index, a byte type and a
+ *           string value for each trigger.
+ * Strings are an unsigned short length followed by as many ASCII bytes.
+ *
+ * The source names and hashes let a loader notice a binary level which is
+ * older than its text files, see Map.loadFromUri(...). The hashes are those of
+ * the asset manifest, see hashFile(...), and are only filled in by the
+ * compiler, readText(...) leaves them null.
+ *
+ * Tiles are indexed by kMapHeight * x + y. The arrays are allocated once and
+ * reused by every subsequent load, so a Map keeps a single LevelFile. */
+public class LevelFile {
+  public static final int kMapHeight    = 100;
+  public static final int kMapWidth     = 100;
+  public static final int kMaxTileCount = 25;
+
+  public static final int kSourceLevel   = 0;  // Indices into source_names.
+  public static final int kSourceTiles   = 1;
+  public static final int kSourceEffects = 2;
+  public static final int kSourceCount   = 3;
+
+  public static final byte kEffectDeath   = 1;
+  public static final byte kEffectExplode = 2;
+  public static final byte kEffectSolid   = 4;
+
+  public static final byte kTriggerNone   = 0;
+  public static final byte kTriggerEnemy  = 1;  // Value is the enemy file.
+  public static final byte kTriggerWeapon = 2;  // Value is the weapon file.
+  public static final byte kTriggerAlert  = 3;  // Value is the message.
+  public static final byte kTriggerOther  = 4;  // Value is the whole trigger.
+
+  public String   background_image;
+  public byte[]   effects        = new byte[kMaxTileCount];
+  public char[]   run_lengths    = new char[kMapWidth * kMapHeight];
+  public String[] source_hashes  = new String[kSourceCount];
+  public String[] source_names   = new String[kSourceCount];  // No directory.
+  public int      starting_index = -1;  // Of the last starting tile, if any.
+  public String   tiles_image;
+  public char[]   tiles          = new char[kMapWidth * kMapHeight];
+  public byte[]   trigger_types  = new byte[kMapWidth * kMapHeight];
+  public String[] trigger_values = new String[kMapWidth * kMapHeight];
+
+  /** Load the level from its text files: the tiles line and trigger lines of
+   * the level file, the tile and background image names of the tiles file,
+   * and the tile id and effect pairs of the effects file. */
+  public void readText(String level_path, String tiles_path,
+                       String effects_path) throws IOException {
+    readLayout(level_path);
+    source_names[kSourceLevel] = new File(level_path).getName();
+    source_names[kSourceTiles] = new File(tiles_path).getName();
+    source_names[kSourceEffects] = new File(effects_path).getName();
+    Arrays.fill(source_hashes, null);
+
+    mTokenizer.open(tiles_path);
+    if (!mTokenizer.nextToken()) {
+      throw new IOException("Tiles file empty: " + tiles_path);
+    }
+    tiles_image = mTokenizer.getToken();
+    if (!mTokenizer.nextToken()) {
+      throw new IOException("Tiles file missing background: " + tiles_path);
+    }
+    background_image = mTokenizer.getToken();
+
+    mTokenizer.open(effects_path);
+    Arrays.fill(effects, (byte)0);
+    while (mTokenizer.nextToken()) {
+      int tile_id = mTokenizer.parseInt();
+      if (!mTokenizer.nextToken()) {
+        throw new IOException("Effects file improperly formatted: " +
+                              effects_path);
+      }
+      if (mTokenizer.tokenEquals("death")) {
+        effects[tile_id] |= kEffectDeath;
+      } else if (mTokenizer.tokenEquals("explode")) {
+        effects[tile_id] |= kEffectExplode;
+      } else if (mTokenizer.tokenEquals("solid")) {
+        effects[tile_id] |= kEffectSolid;
+      }
+    }
+
+    computeRunLengths();
+  }
+
+  /** Load only the tiles and triggers of the level file, leaving the images,
+   * effects and run lengths unset. See tools/CompileDefinitions.java. */
+  public void readLayout(String level_path) throws IOException {
+    mTokenizer.open(level_path);
+    if (!mTokenizer.nextLine() ||
+        mTokenizer.getTokenLength() != kMapWidth * kMapHeight) {
+      throw new IOException("Invalid level tile count: " + level_path);
+    }
+    char[] buffer = mTokenizer.getBuffer();
+    int start = mTokenizer.getTokenStart();
+    starting_index = -1;
+    for (int index = 0; index < tiles.length; ++index) {
+      tiles[index] = (char)(buffer[start + index] - kBaseValue);
+      if (tiles[index] == kStartingTile) {
+        starting_index = index;
+      }
+    }
+
+    Arrays.fill(trigger_types, kTriggerNone);
+    Arrays.fill(trigger_values, null);
+    while (mTokenizer.nextLine()) {
+      Matcher match = kTriggerPattern.matcher(mTokenizer.getToken());
+      if (!match.matches()) {
+        throw new IOException("Invalid level format: " + level_path);
+      }
+      int x = Integer.parseInt(match.group(1));
+      int y = Integer.parseInt(match.group(2));
+      setTrigger(kMapHeight * x + y, match.group(3));
+    }
+  }
+
+  /** Set the trigger of the tile from its text form, such as
+   * "enemy=enemy_0.txt". */
+  private void setTrigger(int index, String trigger) {
+    if (trigger.startsWith("enemy=")) {
+      trigger_types[index] = kTriggerEnemy;
+      trigger_values[index] = trigger.substring(6);
+    } else if (trigger.startsWith("weapon=")) {
+      trigger_types[index] = kTriggerWeapon;
+      trigger_values[index] = trigger.substring(7);
+    } else if (trigger.startsWith("alert=")) {
+      trigger_types[index] = kTriggerAlert;
+      trigger_values[index] = trigger.substring(6);
+    } else {
+      trigger_types[index] = kTriggerOther;
+      trigger_values[index] = trigger;
+    }
+  }
+
+  /** Compute the number of identical tiles, up to 17, starting at each tile
+   * and running along x. Exploding tiles and tiles with triggers end a run,
+   * since they are changed individually during play. */
+  private void computeRunLengths() {
+    for (int y = 0; y < kMapHeight; ++y) {
+      for (int x = 0; x < kMapWidth; ++x) {
+        char run_length = 1;
+        char tile_type = tiles[kMapWidth * x + y];
+        while (x + run_length < kMapWidth &&
+               tiles[kMapWidth * (x + run_length) + y] == tile_type &&
+               (effects[tiles[kMapWidth * (x + run_length) + y]] &
+                kEffectExplode) == 0 &&
+               trigger_types[kMapWidth * (x + run_length) + y] ==
+               kTriggerNone &&
+               run_length <= 16) {
+          ++run_length;
+        }
+        run_lengths[kMapWidth * x + y] = run_length;
+      }
+    }
+  }
+
+  /** Load the level from a binary file. Throws an IOException if the file is
+   * unreadable, truncated or of another version, in which case the level is
+   * left partially loaded and should be read again from text. */
+  public void readBinary(String file_path) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(file_path, "r");
+    MappedByteBuffer data;
+    try {
+      FileChannel channel = file.getChannel();
+      data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } finally {
+      file.close();  // The mapping remains valid after closing.
+    }
+
+    try {
+      if (data.getInt() != kMagic || data.getInt() != kVersion) {
+        throw new IOException("Not a level of this version: " + file_path);
+      }
+      if (data.getInt() != kMapWidth || data.getInt() != kMapHeight) {
+        throw new IOException("Invalid level size: " + file_path);
+      }
+      starting_index = data.getInt();
+      tiles_image = readString(data);
+      background_image = readString(data);
+      for (int source = 0; source < kSourceCount; ++source) {
+        source_names[source] = readString(data);
+        source_hashes[source] = readString(data);
+      }
+      data.get(effects);
+      data.asCharBuffer().get(tiles);
+      data.position(data.position() + 2 * tiles.length);
+      data.asCharBuffer().get(run_lengths);
+      data.position(data.position() + 2 * run_lengths.length);
+
+      Arrays.fill(trigger_types, kTriggerNone);
+      Arrays.fill(trigger_values, null);
+      int trigger_count = data.getInt();
+      for (int trigger = 0; trigger < trigger_count; ++trigger) {
+        int index = data.getInt();
+        if (index < 0 || index >= trigger_types.length) {
+          throw new IOException("Invalid trigger index: " + file_path);
+        }
+        trigger_types[index] = data.get();
+        trigger_values[index] = readString(data);
+      }
+    } catch (BufferUnderflowException ex) {
+      throw new IOException("Truncated level: " + file_path);
+    }
+  }
+
+  /** Write the level in the binary format, see readBinary(...). */
+  public void writeBinary(String file_path) throws IOException {
+    DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file_path)));
+    try {
+      output.writeInt(kMagic);
+      output.writeInt(kVersion);
+      output.writeInt(kMapWidth);
+      output.writeInt(kMapHeight);
+      output.writeInt(starting_index);
+      writeString(output, tiles_image);
+      writeString(output, background_image);
+      for (int source = 0; source < kSourceCount; ++source) {
+        writeString(output, source_names[source]);
+        writeString(output, source_hashes[source] == null ?
+                            "" : source_hashes[source]);  // Never current.
+      }
+      output.write(effects);
+      for (char tile : tiles) {
+        output.writeChar(tile);
+      }
+      for (char run_length : run_lengths) {
+        output.writeChar(run_length);
+      }
+      int trigger_count = 0;
+      for (byte type : trigger_types) {
+        if (type != kTriggerNone) {
+          ++trigger_count;
+        }
+      }
+      output.writeInt(trigger_count);
+      for (int index = 0; index < trigger_types.length; ++index) {
+        if (trigger_types[index] != kTriggerNone) {
+          output.writeInt(index);
+          output.writeByte(trigger_types[index]);
+          writeString(output, trigger_values[index]);
+        }
+      }
+    } finally {
+      output.close();
+    }
+  }
+
+  /** Return the hexadecimal SHA-1 hash of the contents of the file, as listed
+   * for each asset in the manifest written by generate_epoch.sh. */
+  public static String hashFile(String file_path) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IOException("No SHA-1 implementation: " + ex.toString());
+    }
+    FileInputStream input_stream = new FileInputStream(file_path);
+    try {
+      byte[] buffer = new byte[4096];
+      int bytes_read;
+      while ((bytes_read = input_stream.read(buffer)) >= 0) {
+        digest.update(buffer, 0, bytes_read);
+      }
+    } finally {
+      input_stream.close();
+    }
+    StringBuilder hash = new StringBuilder();
+    for (byte value : digest.digest()) {
+      hash.append(kHexDigits.charAt((value >> 4) & 0xF));
+      hash.append(kHexDigits.charAt(value & 0xF));
+    }
+    return hash.toString();
+  }
+
+  private String readString(MappedByteBuffer data) {
+    int length = data.getShort() & 0xFFFF;
+    if (mStringBytes.length < length) {
+      mStringBytes = new byte[length];
+    }
+    data.get(mStringBytes, 0, length);
+    char[] chars = new char[length];
+    for (int index = 0; index < length; ++index) {
+      chars[index] = (char)(mStringBytes[index] & 0xFF);
+    }
+    return new String(chars);
+  }
+
+  private static void writeString(DataOutputStream output, String value)
+      throws IOException {
+    output.writeShort(value.length());
+    output.writeBytes(value);
+  }
+
+  private byte[]    mStringBytes = new byte[64];
+  private Tokenizer mTokenizer   = new Tokenizer();
+
+  private static final char    kBaseValue      = 'a';
+  private static final String  kHexDigits      = "0123456789abcdef";
+  private static final int     kMagic          = 0x41424C56;  // "ABLV"
+  private static final int     kStartingTile   = 10;
+  private static final Pattern kTriggerPattern =
+      Pattern.compile("(\\d+),(\\d+),\"([^\"]+)\"");
+  private static final int     kVersion        = 2;
+}
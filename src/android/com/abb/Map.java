@@ -11,8 +11,6 @@
 
 package android.com.abb;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Rect;
@@ -20,15 +18,9 @@ import android.graphics.RectF;
 import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.lang.Math;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import junit.framework.Assert;
 
 
@@ -57,142 +49,112 @@ public class Map {
     // Maps are organized into package where each package is its own set of
     // (ordered) levels, tiles, and tile definitions.
 
-    // Load level layout.
-    Uri level_uri =
-        Uri.withAppendedPath(mBaseUri, "level_" + mLevelOffset + ".txt");
-    String level_path = Content.getFilePath(level_uri);
-    loadLevelFromFile(level_path);
+    // Load the compiled level when there is one, see LevelFile, otherwise
+    // parse the text files. A compiled level is only used if it was compiled
+    // from the current text files, so an edited level which has not been
+    // compiled again is still loaded as edited.
+    Uri[] source_uris = getSourceUris();
+    Uri binary_uri =
+        Uri.withAppendedPath(mBaseUri, "level_" + mLevelOffset + ".bin");
+    boolean loaded = false;
+    if (Content.exists(binary_uri)) {
+      String binary_path = Content.getFilePath(binary_uri);
+      try {
+        mLevel.readBinary(binary_path);
+        loaded = isCompiledFrom(source_uris);
+        if (!loaded) {
+          Log.d("Map::loadFromUri",
+                "Ignoring stale binary level: " + binary_path);
+        }
+      } catch (IOException ex) {
+        Log.d("Map::loadFromUri",
+              "Ignoring binary level: " + binary_path + ": " + ex.toString());
+      }
+    }
+    if (!loaded) {
+      loadLevelFromText(source_uris);
+    }
+    mTiles = mLevel.tiles;
+    mTilesRunLength = mLevel.run_lengths;
+    mEffects = mLevel.effects;
+    mTriggerTypes = mLevel.trigger_types;
+    mTriggerValues = mLevel.trigger_values;
+    if (mLevel.starting_index >= 0) {
+      mStartingX = (mLevel.starting_index / kMapWidth) * kTileSize;
+      mStartingY = (mLevel.starting_index % kMapWidth) * kTileSize;
+    }
+    mOverview.invalidate();
+
+    // Load tiles and background images.
+    loadTilesFromFile(Content.getFilePath(
+        Uri.withAppendedPath(mBaseUri, mLevel.tiles_image)));
+    loadBackgroundFromFile(Content.getFilePath(
+        Uri.withAppendedPath(mBaseUri, mLevel.background_image)));
 
-    // Load tiles background image.
+    // Pre-cache audio clips.
+    mGameState.preloadSound(kSoundExplosion);
+  }
+
+  /** Return the URIs of the text files of the level, indexed as
+   * LevelFile.source_names: the level layout, and the tiles and effects files
+   * of the level or, when it has none, those of the package. */
+  private Uri[] getSourceUris() {
+    Uri[] source_uris = new Uri[LevelFile.kSourceCount];
+    source_uris[LevelFile.kSourceLevel] =
+        Uri.withAppendedPath(mBaseUri, "level_" + mLevelOffset + ".txt");
     Uri tiles_uri =
         Uri.withAppendedPath(mBaseUri, "tiles_" + mLevelOffset + ".txt");
     if (!Content.exists(tiles_uri))
       tiles_uri = Uri.withAppendedPath(mBaseUri, "tiles_default.txt");
-    String tiles_path = Content.getFilePath(tiles_uri);
-    String[] image_paths = Content.readFileTokens(tiles_path);
-    String tiles_image_path = Content.getFilePath(
-        Uri.withAppendedPath(mBaseUri, image_paths[0]));
-    loadTilesFromFile(tiles_image_path);
-    String background_image_path = Content.getFilePath(
-        Uri.withAppendedPath(mBaseUri, image_paths[1]));
-    loadBackgroundFromFile(background_image_path);
-
-    // Load tile effects.
+    source_uris[LevelFile.kSourceTiles] = tiles_uri;
     Uri effects_uri =
         Uri.withAppendedPath(mBaseUri, "effects_" + mLevelOffset + ".txt");
     if (!Content.exists(effects_uri))
       effects_uri = Uri.withAppendedPath(mBaseUri, "effects_default.txt");
-    String effects_path = Content.getFilePath(effects_uri);
-    loadEffectsFromFile(effects_path);
-
-    // Build the run length level encoding which is used to accelerate the
-    // rendering.
-    computeRunLengthEncoding();
-
-    // Pre-cache audio clips.
-    mGameState.preloadSound(kSoundExplosion);
-  }
-
-  public void loadLevelFromFile(String file_path) {
-    Assert.assertNotNull(
-        "Map::loadLevelFromFile: Invalid null argument.", file_path);
-
-    String[] level_tokens = Content.readFileLines(file_path);
-    Assert.assertTrue("Level file empty.", level_tokens.length > 0);
-    char[] raw_tiles = level_tokens[0].toCharArray();
-    Assert.assertEquals("Invalid level tile count.",
-                        raw_tiles.length, kMapHeight * kMapWidth);
-    loadLevelFromArray(decodeArray(raw_tiles));
-
-    mTriggers = new String[kMapWidth * kMapHeight];
-    Pattern pattern = Pattern.compile("(\\d+),(\\d+),\"([^\"]+)\"");
-    for (int trigger = 1; trigger < level_tokens.length; ++trigger) {
-      Matcher match = pattern.matcher(level_tokens[trigger]);
-      Assert.assertTrue("Invalid level format.", match.matches());
-      int x = Integer.parseInt(match.group(1));
-      int y = Integer.parseInt(match.group(2));
-      String trigger_string = match.group(3);
-      int index = kMapHeight * x + y;
-      mTriggers[index] = trigger_string;
-    }
-  }
-
-  public void loadTilesFromFile(String file_path) {
-    mTilesBitmap = BitmapFactory.decodeFile(file_path);
-    if (mTilesBitmap == null) {
-      Log.e("Map::loadTilesFromFile", "Cannot find/load: " + file_path);
-    }
+    source_uris[LevelFile.kSourceEffects] = effects_uri;
+    return source_uris;
   }
 
-  public void loadBackgroundFromFile(String file_path) {
-    mBackgroundBitmap = BitmapFactory.decodeFile(file_path);
-    if (mBackgroundBitmap == null) {
-      Log.e("Map::loadBackgroundFromFile", "Cannot find/load: " + file_path);
-    }
-  }
-
-  public void loadEffectsFromFile(String file_path) {
-    String[] effects_tokens = Content.readFileTokens(file_path);
-    Assert.assertEquals("Effects file improperly formatted.",
-                        effects_tokens.length % 2, 0);
-
-    mEffectsDeath = new boolean[kMaxTileCount];
-    mEffectsExplode = new boolean[kMaxTileCount];
-    mEffectsSolid = new boolean[kMaxTileCount];
-    for (int effect = 0; effect < effects_tokens.length; effect += 2) {
-      int tile_id = Integer.parseInt(effects_tokens[effect]);
-      String tile_effect = effects_tokens[effect + 1];
-      if (tile_effect.equals("death")) {
-        mEffectsDeath[tile_id] = true;
-      } else if (tile_effect.equals("explode")) {
-        mEffectsExplode[tile_id] = true;
-      } else if (tile_effect.equals("solid")) {
-        mEffectsSolid[tile_id] = true;;
+  /** Return true if the loaded binary level was compiled from exactly the
+   * specified text files, as they are now. */
+  private boolean isCompiledFrom(Uri[] source_uris) {
+    for (int source = 0; source < LevelFile.kSourceCount; ++source) {
+      Uri uri = source_uris[source];
+      if (!uri.getLastPathSegment().equals(mLevel.source_names[source]) ||
+          !mLevel.source_hashes[source].equals(Content.getHash(uri))) {
+        return false;
       }
     }
+    return true;
   }
 
-  static private char[] decodeArray(char[] tiles) {
-    for (int n = 0; n < kMapWidth * kMapHeight; ++n) {
-      tiles[n] -= kBaseValue;
+  /** Load the level from its text files, see getSourceUris(). */
+  private void loadLevelFromText(Uri[] source_uris) {
+    String level_path =
+        Content.getFilePath(source_uris[LevelFile.kSourceLevel]);
+    try {
+      mLevel.readText(
+          level_path,
+          Content.getFilePath(source_uris[LevelFile.kSourceTiles]),
+          Content.getFilePath(source_uris[LevelFile.kSourceEffects]));
+    } catch (IOException ex) {
+      Assert.fail("Could not load level: " + level_path + ": " +
+                  ex.toString());
     }
-    return tiles;
   }
 
-  static private char[] toPrimative(ArrayList<Character> array_list) {
-    char[] result = new char[array_list.size()];
-    for (int index = 0; index < array_list.size(); ++index) {
-      result[index] = array_list.get(index).charValue();
-    }
-    return result;
-  }
-
-  private void loadLevelFromArray(char[] tiles) {
-    mTiles = tiles;
-    for (int n = 0; n < kMapWidth * kMapHeight; ++n) {
-      if (mTiles[n] == kStartingTile) {
-        mStartingX = (n / kMapWidth) * kTileSize;
-        mStartingY = (n % kMapWidth) * kTileSize;
-      }
-    }
+  /** Set the tiles image. The image itself is loaded, through the Graphics
+   * image cache, on the next call to draw(...). Reloading a level which uses
+   * the same image therefore does not decode it again. The overview is
+   * reduced from the image here, as part of loading the level. */
+  public void loadTilesFromFile(String file_path) {
+    mTilesPath = file_path;
+    mOverview.setTilesPath(file_path);
   }
 
-  private void computeRunLengthEncoding() {
-    mTilesRunLength = new char[mTiles.length];
-    for (int y = 0; y < kMapHeight; ++y) {
-      for (int x = 0; x < kMapWidth; ++x) {
-        char run_length = 1;
-        char tile_type = mTiles[kMapWidth * x + y];
-        while (x + run_length < kMapWidth &&
-               mTiles[kMapWidth * (x + run_length) + y] == tile_type &&
-               !mEffectsExplode[mTiles[kMapWidth * (x + run_length) + y]] &&
-               mTriggers[kMapWidth * (x + run_length) + y] == null &&
-               run_length <= 16) {
-          ++run_length;
-        }
-        mTilesRunLength[kMapWidth * x + y] = run_length;
-      }
-    }
+  /** Set the background image. See loadTilesFromFile(...). */
+  public void loadBackgroundFromFile(String file_path) {
+    mBackgroundPath = file_path;
   }
 
   public void setTileAt(float x, float y, char tile_id) {
@@ -204,11 +166,12 @@ public class Map {
     }
     int tile_index = kMapWidth * index_x + index_y;
     mTiles[tile_index] = tile_id;
+    mOverview.tileChanged(mTiles, index_x, index_y);
   }
 
   public int indexAt(float x, float y) {
-    int index_x = (int)(x / kTileSize + 0.5f);
-    int index_y = (int)(y / kTileSize + 0.5f);
+    int index_x = indexAlong(x);
+    int index_y = indexAlong(y);
     if (index_x < 0 || index_y < 0 ||
         index_x >= kMapWidth || index_y >= kMapHeight) {
       return -1;  // Tile out of map range.
@@ -225,6 +188,12 @@ public class Map {
     }
   }
 
+  /** Return true if the tile at the specified world coordinates is solid. */
+  public boolean isSolidAt(float x, float y) {
+    int tile_id = tileAt(x, y);
+    return tile_id >= 0 && (mEffects[tile_id] & LevelFile.kEffectSolid) != 0;
+  }
+
   public static boolean tileIsGoal(int tile_id) {
     return (tile_id == kEndingTile);
   }
@@ -255,9 +224,10 @@ public class Map {
           continue;  // Not a collideable tile.
         }
         int tile_id = mTiles[tile_index];
-        boolean tile_deadly = mEffectsDeath[tile_id];
-        boolean tile_exploadable = mEffectsExplode[tile_id];
-        boolean tile_solid = mEffectsSolid[tile_id];
+        byte effects = mEffects[tile_id];
+        boolean tile_deadly = (effects & LevelFile.kEffectDeath) != 0;
+        boolean tile_exploadable = (effects & LevelFile.kEffectExplode) != 0;
+        boolean tile_solid = (effects & LevelFile.kEffectSolid) != 0;
 
         if (!tile_solid && !tile_exploadable && !tile_deadly) {
           continue;  // Not a collideable tile.
@@ -360,15 +330,21 @@ public class Map {
     // Load the textures required for rending here, in the primary thread, since
     // the OpenGL backend requires that all calls be from the same thread which
     // initialized it.
-    if (mBackgroundBitmap != null) {
-      graphics.freeImage(mBackgroundImage);
-      mBackgroundImage = graphics.loadImageFromBitmap(mBackgroundBitmap);
-      mBackgroundBitmap = null;
+    if (mBackgroundPath != null) {
+      int background_image = graphics.loadImageFromFile(mBackgroundPath);
+      if (background_image != mBackgroundImage) {
+        graphics.freeImage(mBackgroundImage);
+        mBackgroundImage = background_image;
+      }
+      mBackgroundPath = null;
     }
-    if (mTilesBitmap != null) {
-      graphics.freeImage(mTilesImage);
-      mTilesImage = graphics.loadImageFromBitmap(mTilesBitmap);
-      mTilesBitmap = null;
+    if (mTilesPath != null) {
+      int tiles_image = graphics.loadImageFromFile(mTilesPath);
+      if (tiles_image != mTilesImage) {
+        graphics.freeImage(mTilesImage);
+        mTilesImage = tiles_image;
+      }
+      mTilesPath = null;
     }
 
     int canvas_width = graphics.getWidth();
@@ -385,79 +361,133 @@ public class Map {
     graphics.drawImage(
         mBackgroundImage, mRectSource, mRectDest, false, false, 1);
 
-    // Draw the tiles.
+    // When zoomed out far enough, the tiles are drawn from the downscaled
+    // overview instead. The tiles remain visited for the spawning triggers.
+    // The view zooms out towards GameState.kAirZoom (0.6) without ever quite
+    // reaching it, so the threshold sits just above.
+    boolean overview_drawn = (
+        zoom <= kOverviewZoom &&
+        mOverview.draw(graphics, mTiles, center_x, center_y, zoom));
+
+    // Draw the tiles. Fully opaque tiles are drawn in a first pass, which the
+    // graphics system renders with blending disabled, and the remaining tiles
+    // in a second, blended pass. Tiles never overlap one another so the order
+    // between them does not matter. Spawning triggers are only checked in the
+    // first pass.
     mRectSource.top = mRectSource.left = 0;
     mRectSource.right = mRectSource.bottom = kTileSize;
     int half_canvas_width = canvas_width / 2;
     int half_canvas_height = canvas_height / 2;
-    float x_min = center_x - half_canvas_width / zoom;
-    float x_max = center_x + (half_canvas_width + kTileSize) / zoom;
-    float y_min = center_y - half_canvas_height / zoom;
-    float y_max = center_y + (half_canvas_height + kTileSize) / zoom;
-    for (float y = y_min; y <= y_max; y += kTileSize) {
-      for (float x = x_min; x <= x_max; ) {
-        int tile_index = indexAt(x, y);
-        if (tile_index < 0) {
-          x += kTileSize;
-          continue;  // Tile out of bounds.
-        }
-
-        // Check for spawning triggers associated with this tile.
-        String trigger = mTriggers[tile_index];
-        if (trigger != null) {
-          if (trigger.startsWith("enemy=")) {
+    int index_x_min = Math.max(
+        0, indexAlong(center_x - half_canvas_width / zoom));
+    int index_x_max = Math.min(
+        kMapWidth - 1,
+        indexAlong(center_x + (half_canvas_width + kTileSize) / zoom));
+    int index_y_min = Math.max(
+        0, indexAlong(center_y - half_canvas_height / zoom));
+    int index_y_max = Math.min(
+        kMapHeight - 1,
+        indexAlong(center_y + (half_canvas_height + kTileSize) / zoom));
+    int pass_count = overview_drawn ? 1 : 2;
+
+    // With fixed point graphics, tiles are placed by integer math alone from
+    // the tile step and origin computed here, see Graphics.isFixedPoint().
+    // Positions stay well within range: a 100 tile map at the greatest zoom
+    // spans under 11000 pixels.
+    boolean fixed_point = graphics.isFixedPoint();
+    int tile_step_fixed = Fixed.tileStep(zoom, kTileSize);
+    int origin_x_fixed = Fixed.tileOrigin(center_x, zoom, kTileSize,
+                                          half_canvas_width);
+    int origin_y_fixed = Fixed.tileOrigin(center_y, zoom, kTileSize,
+                                          half_canvas_height);
+    for (int pass = 0; pass < pass_count; ++pass) {
+      boolean opaque_pass = (pass == 0);
+      for (int index_y = index_y_min; index_y <= index_y_max; ++index_y) {
+        int top_fixed = Fixed.tileEdge(origin_y_fixed, tile_step_fixed,
+                                       index_y);
+        for (int index_x = index_x_min; index_x <= index_x_max; ) {
+          int tile_index = kMapWidth * index_x + index_y;
+
+          // Check for spawning triggers associated with this tile.
+          if (opaque_pass &&
+              mTriggerTypes[tile_index] == LevelFile.kTriggerEnemy) {
             Uri enemy_uri =
-                Uri.withAppendedPath(mBaseUri, trigger.substring(6));
-            mGameState.createEnemyFromUri(enemy_uri, x, y);
-            mTriggers[tile_index] = null;
+                Uri.withAppendedPath(mBaseUri, mTriggerValues[tile_index]);
+            mGameState.createEnemyFromUri(
+                enemy_uri, kTileSize * index_x, kTileSize * index_y);
+            clearTrigger(tile_index);
           }
-        }
 
-        // Draw the tile.
-        int tile_id = mTiles[tile_index];
-        int run_length = mTilesRunLength[tile_index];
-        if (tile_id != 0) {  // Tile is a visual tile.
-          int index_x = (int)(x / kTileSize + 0.5f);
-          int index_y = (int)(y / kTileSize + 0.5f);
-          mRectSource.top = kTileSize * tile_id;
-          mRectSource.bottom = kTileSize * tile_id + kTileSize;
-          mRectDest.left = kTileSize * index_x * zoom;
-          mRectDest.top = kTileSize * index_y * zoom;
-          mRectDest.right =  (kTileSize * index_x + kTileSize) * zoom;
-          mRectDest.bottom = (kTileSize * index_y + kTileSize) * zoom;
-          mRectDest.offset(
-              -center_x * zoom + half_canvas_width - kTileSize / 2 * zoom,
-              -center_y * zoom + half_canvas_height - kTileSize / 2 * zoom);
-          graphics.drawImage(
-              mTilesImage, mRectSource, mRectDest, false, false, run_length);
+          // Draw the tile.
+          int tile_id = mTiles[tile_index];
+          int run_length = mTilesRunLength[tile_index];
+          if (tile_id != 0 && !overview_drawn) {  // Tile is a visual tile.
+            mRectSource.top = kTileSize * tile_id;
+            mRectSource.bottom = kTileSize * tile_id + kTileSize;
+            if (graphics.isOpaque(mTilesImage, mRectSource) == opaque_pass) {
+              if (fixed_point) {
+                int left_fixed = Fixed.tileEdge(origin_x_fixed,
+                                                tile_step_fixed, index_x);
+                graphics.drawImageFixed(mTilesImage, mRectSource,
+                                        left_fixed, top_fixed,
+                                        left_fixed + tile_step_fixed,
+                                        top_fixed + tile_step_fixed,
+                                        false, false, run_length);
+              } else {
+                mRectDest.left = kTileSize * index_x * zoom;
+                mRectDest.top = kTileSize * index_y * zoom;
+                mRectDest.right =  (kTileSize * index_x + kTileSize) * zoom;
+                mRectDest.bottom = (kTileSize * index_y + kTileSize) * zoom;
+                mRectDest.offset(
+                    -center_x * zoom + half_canvas_width -
+                    kTileSize / 2 * zoom,
+                    -center_y * zoom + half_canvas_height -
+                    kTileSize / 2 * zoom);
+                graphics.drawImage(mTilesImage, mRectSource, mRectDest,
+                                   false, false, run_length);
+              }
+            }
+          }
+          index_x += run_length;
         }
-        x += kTileSize * run_length;
       }
     }
   }
 
+  /** Return the index along either axis of the tile containing the world
+   * coordinate, as indexAt(...) does, without checking the map bounds. */
+  private static int indexAlong(float coordinate) {
+    return (int)(coordinate / kTileSize + 0.5f);
+  }
+
   void processTriggers(Avatar avatar) {
     int tile_index = indexAt(avatar.x, avatar.y);
     if (tile_index < 0) {
       return;  // Tile out of bounds.
     }
 
-    String trigger = mTriggers[tile_index];
-    if (trigger == null) {
-      return;  // No trigger at the avatar's location.
+    switch (mTriggerTypes[tile_index]) {
+      case LevelFile.kTriggerWeapon:
+        Uri weapon_uri =
+            Uri.withAppendedPath(mBaseUri, mTriggerValues[tile_index]);
+        Weapon weapon = mGameState.createWeaponFromUri(weapon_uri);
+        avatar.setWeapon(weapon);
+        break;
+      case LevelFile.kTriggerAlert:
+        mGameState.addNotification(mTriggerValues[tile_index]);
+        break;
+      default:
+        return;  // No trigger at the avatar's location.
     }
+    clearTrigger(tile_index);
+    mTiles[tile_index] = 0;
+    mOverview.tileChanged(
+        mTiles, tile_index / kMapWidth, tile_index % kMapWidth);
+  }
 
-    if (trigger.startsWith("weapon=")) {
-      Uri weapon_uri = Uri.withAppendedPath(mBaseUri, trigger.substring(7));
-      Weapon weapon = mGameState.createWeaponFromUri(weapon_uri);
-      avatar.setWeapon(weapon);
-      mTriggers[tile_index] = null;
-      mTiles[tile_index] = 0;
-    } else if (trigger.startsWith("alert=")) {
-      mGameState.addNotification(trigger.substring(6));
-      mTriggers[tile_index] = null;
-      mTiles[tile_index] = 0;
-    }
+  private void clearTrigger(int tile_index) {
+    mTriggerTypes[tile_index] = LevelFile.kTriggerNone;
+    mTriggerValues[tile_index] = null;
   }
 
   public void loadStateBundle(Bundle saved_instance_state) {
@@ -473,34 +503,34 @@ public class Map {
     return saved_instance_state;
   }
 
-  private Bitmap    mBackgroundBitmap;
-  private int       mBackgroundImage = -1;
-  private Uri       mBaseUri;
-  private boolean[] mEffectsDeath;
-  private boolean[] mEffectsExplode;
-  private boolean[] mEffectsSolid;
-  private GameState mGameState;
-  private int       mLevelOffset     = 0;  // Level within the mBaseUri package.
-  private Random    mRandom          = new Random();
-  private Rect      mRectSource      = new Rect();
-  private RectF     mRectDest        = new RectF();
-  private float     mStartingX;
-  private float     mStartingY;
-  private char[]    mTiles;
-  private Bitmap    mTilesBitmap;
-  private int       mTilesImage      = -1;
-  private char[]    mTilesRunLength;
-  private String[]  mTriggers;
-
-  private static final char  kBaseValue            = 'a';
+  private int         mBackgroundImage = -1;
+  private String      mBackgroundPath;
+  private Uri         mBaseUri;
+  private byte[]      mEffects;  // Of mLevel, as are the tile arrays.
+  private GameState   mGameState;
+  private LevelFile   mLevel           = new LevelFile();
+  private int         mLevelOffset     = 0;  // Level within mBaseUri.
+  private MapOverview mOverview        =
+      new MapOverview(kMapWidth, kMapHeight, kTileSize);
+  private Random      mRandom          = new Random();
+  private Rect        mRectSource      = new Rect();
+  private RectF       mRectDest        = new RectF();
+  private float       mStartingX;
+  private float       mStartingY;
+  private char[]      mTiles;
+  private int         mTilesImage      = -1;
+  private String      mTilesPath;
+  private char[]      mTilesRunLength;
+  private byte[]      mTriggerTypes;
+  private String[]    mTriggerValues;
+
   private static final int   kEndingTile           = 11;
   private static final int   kExplodeVibrateLength = 40;
   private static final int   kExplosionSize        = 15;  // Particle count.
   private static final float kExplosionStrength    = 200.0f;
-  private static final int   kMapHeight            = 100;
-  private static final int   kMapWidth             = 100;
-  private static final int   kMaxTileCount         = 25;
+  private static final int   kMapHeight            = LevelFile.kMapHeight;
+  private static final int   kMapWidth             = LevelFile.kMapWidth;
+  private static final float kOverviewZoom         = 0.65f;
   private static final Uri   kSoundExplosion       = Uri.parse("file:///android_asset/explosion.mp3");
-  private static final int   kStartingTile         = 10;
   private static final int   kTileSize             = 64;
 }
@@ -0,0 +1,258 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+
+/** A MapOverview is a pre-rendered, downscaled copy of the level tiles, drawn
+ * by Map.draw(...) in place of the individual tiles when zoomed out far enough
+ * that the detail would be lost anyway. Each tile is reduced to a block of
+ * kBlockSize texels, and blocks are packed into chunk images of kChunkTiles
+ * tiles square, so a wide view takes a handful of quads instead of a draw per
+ * run of tiles.
+ *
+ * The tiles image is reduced when the level is loaded, see setTilesPath(...),
+ * so drawing never decodes images. Chunks are composited on the CPU, on
+ * demand, the first time they are drawn and chunks without any visible tile
+ * are never given an image. Changes to
+ * single tiles, such as exploded tiles, update the affected rows only, see
+ * Graphics.updateImageRows(...). */
+public class MapOverview {
+  public MapOverview(int map_width, int map_height, int tile_size) {
+    mMapWidth = map_width;
+    mMapHeight = map_height;
+    mTileSize = tile_size;
+    mChunksX = (map_width + kChunkTiles - 1) / kChunkTiles;
+    mChunksY = (map_height + kChunkTiles - 1) / kChunkTiles;
+    mChunks = new Chunk[mChunksX * mChunksY];
+    for (int index = 0; index < mChunks.length; ++index) {
+      mChunks[index] = new Chunk();
+    }
+  }
+
+  /** Set the tiles image the overview is reduced from, to be called when the
+   * level is loaded. The image is decoded and reduced immediately, unless it
+   * is the image already reduced. */
+  public void setTilesPath(String file_path) {
+    if (file_path != null && !file_path.equals(mTilesPath)) {
+      mTilesPath = file_path;
+      mBlocks = null;
+      decodeBlocks();
+      invalidate();
+    }
+  }
+
+  /** Rebuild every chunk the next time it is drawn, to be called when the
+   * level is loaded. */
+  public void invalidate() {
+    for (int index = 0; index < mChunks.length; ++index) {
+      mChunks[index].built = false;
+    }
+  }
+
+  /** Update the block of a single tile, if its chunk has been built. */
+  public void tileChanged(char[] tiles, int index_x, int index_y) {
+    if (index_x < 0 || index_y < 0 ||
+        index_x >= mMapWidth || index_y >= mMapHeight) {
+      return;
+    }
+    Chunk chunk = mChunks[mChunksX * (index_y / kChunkTiles) +
+                          index_x / kChunkTiles];
+    if (chunk.built && chunk.pixels == null) {
+      chunk.built = false;  // Empty so far, built again when next drawn.
+    } else if (chunk.built) {
+      chunk.empty &= copyBlock(chunk, tiles, index_x, index_y);
+      int top = kBlockSize * (index_y % kChunkTiles);
+      chunk.dirty_top = Math.min(chunk.dirty_top, top);
+      chunk.dirty_bottom = Math.max(chunk.dirty_bottom, top + kBlockSize);
+    }
+  }
+
+  /** Draw the overview such that the specified world coordinates are centered,
+   * as Map.draw(...) does. Returns false if the overview could not be drawn,
+   * in which case the tiles must be drawn instead. */
+  public boolean draw(Graphics graphics, char[] tiles,
+                      float center_x, float center_y, float zoom) {
+    if (mBlocks == null) {
+      return false;
+    }
+
+    float half_canvas_width = graphics.getWidth() / 2.0f;
+    float half_canvas_height = graphics.getHeight() / 2.0f;
+    float chunk_world_size = kChunkTiles * mTileSize;
+    float half_tile_size = mTileSize / 2.0f;  // Tiles are centered.
+    int first_chunk_x = Math.max(0, (int)Math.floor(
+        (center_x - half_canvas_width / zoom + half_tile_size) /
+        chunk_world_size));
+    int last_chunk_x = Math.min(mChunksX - 1, (int)Math.floor(
+        (center_x + half_canvas_width / zoom + half_tile_size) /
+        chunk_world_size));
+    int first_chunk_y = Math.max(0, (int)Math.floor(
+        (center_y - half_canvas_height / zoom + half_tile_size) /
+        chunk_world_size));
+    int last_chunk_y = Math.min(mChunksY - 1, (int)Math.floor(
+        (center_y + half_canvas_height / zoom + half_tile_size) /
+        chunk_world_size));
+
+    mRectSource.set(0, 0, kChunkSize, kChunkSize);
+    for (int chunk_y = first_chunk_y; chunk_y <= last_chunk_y; ++chunk_y) {
+      for (int chunk_x = first_chunk_x; chunk_x <= last_chunk_x; ++chunk_x) {
+        Chunk chunk = mChunks[mChunksX * chunk_y + chunk_x];
+        if (!chunk.built) {
+          buildChunk(chunk, tiles, chunk_x, chunk_y);
+        }
+        if (chunk.empty) {
+          continue;
+        }
+        if (chunk.image == -1) {
+          // Images take ownership of their pixels, so a blank array is handed
+          // over and the contents uploaded as a dirty region below.
+          chunk.image = graphics.loadImageFromPixels(
+              new int[kChunkSize * kChunkSize], kChunkSize, kChunkSize,
+              true /*updatable*/);
+        }
+        if (chunk.dirty_top < chunk.dirty_bottom) {
+          graphics.updateImageRows(chunk.image, chunk.pixels,
+                                   chunk.dirty_top, chunk.dirty_bottom);
+          chunk.dirty_top = kChunkSize;
+          chunk.dirty_bottom = 0;
+        }
+
+        mRectDest.left = ((chunk_x * chunk_world_size - half_tile_size -
+                           center_x) * zoom + half_canvas_width);
+        mRectDest.top = ((chunk_y * chunk_world_size - half_tile_size -
+                          center_y) * zoom + half_canvas_height);
+        mRectDest.right = mRectDest.left + chunk_world_size * zoom;
+        mRectDest.bottom = mRectDest.top + chunk_world_size * zoom;
+        graphics.drawImage(chunk.image, mRectSource, mRectDest, false, false,
+                           1 /*block count*/);
+      }
+    }
+    return true;
+  }
+
+  /** Reduce each tile of the tiles image to a block of kBlockSize texels. The
+   * colors are weighted by alpha so transparent texels do not bleed into the
+   * edges of the tiles. */
+  private void decodeBlocks() {
+    Bitmap bitmap = BitmapFactory.decodeFile(mTilesPath);
+    if (bitmap == null) {
+      Log.e("MapOverview::decodeBlocks", "Failed decoding: " + mTilesPath);
+      mTilesPath = null;
+      return;
+    }
+    int tile_count = bitmap.getHeight() / mTileSize;
+    int[] tile_pixels = new int[mTileSize * mTileSize];
+    int scale = mTileSize / kBlockSize;
+    mBlocks = new int[tile_count][];
+    for (int tile_id = 0; tile_id < tile_count; ++tile_id) {
+      bitmap.getPixels(tile_pixels, 0, mTileSize,
+                       0, tile_id * mTileSize, mTileSize, mTileSize);
+      int[] block = new int[kBlockSize * kBlockSize];
+      for (int block_y = 0; block_y < kBlockSize; ++block_y) {
+        for (int block_x = 0; block_x < kBlockSize; ++block_x) {
+          int alpha = 0, red = 0, green = 0, blue = 0;
+          for (int y = block_y * scale; y < (block_y + 1) * scale; ++y) {
+            for (int x = block_x * scale; x < (block_x + 1) * scale; ++x) {
+              int pixel = tile_pixels[mTileSize * y + x];
+              int pixel_alpha = pixel >>> 24;
+              alpha += pixel_alpha;
+              red += pixel_alpha * ((pixel >> 16) & 0xFF);
+              green += pixel_alpha * ((pixel >> 8) & 0xFF);
+              blue += pixel_alpha * (pixel & 0xFF);
+            }
+          }
+          if (alpha > 0) {
+            block[kBlockSize * block_y + block_x] =
+                ((alpha / (scale * scale)) << 24) | ((red / alpha) << 16) |
+                ((green / alpha) << 8) | (blue / alpha);
+          }
+        }
+      }
+      mBlocks[tile_id] = block;
+    }
+    bitmap.recycle();
+    Log.d("MapOverview::decodeBlocks",
+          "Reduced " + tile_count + " tiles from " + mTilesPath);
+  }
+
+  private void buildChunk(Chunk chunk, char[] tiles, int chunk_x,
+                          int chunk_y) {
+    if (chunk.pixels == null) {
+      chunk.pixels = new int[kChunkSize * kChunkSize];
+    }
+    chunk.empty = true;
+    int last_x = Math.min(mMapWidth, (chunk_x + 1) * kChunkTiles);
+    int last_y = Math.min(mMapHeight, (chunk_y + 1) * kChunkTiles);
+    for (int index_y = chunk_y * kChunkTiles; index_y < last_y; ++index_y) {
+      for (int index_x = chunk_x * kChunkTiles; index_x < last_x; ++index_x) {
+        chunk.empty &= copyBlock(chunk, tiles, index_x, index_y);
+      }
+    }
+    chunk.built = true;
+    if (chunk.empty) {
+      chunk.pixels = null;  // See tileChanged(...).
+    }
+    chunk.dirty_top = 0;
+    chunk.dirty_bottom = kChunkSize;
+  }
+
+  /** Copy the block of the specified tile into its chunk. Returns true if the
+   * tile is empty. */
+  private boolean copyBlock(Chunk chunk, char[] tiles, int index_x,
+                            int index_y) {
+    int tile_id = tiles[mMapWidth * index_x + index_y];
+    int[] block = null;
+    if (tile_id != 0 && tile_id < mBlocks.length) {
+      block = mBlocks[tile_id];
+    }
+    int left = kBlockSize * (index_x % kChunkTiles);
+    int top = kBlockSize * (index_y % kChunkTiles);
+    for (int y = 0; y < kBlockSize; ++y) {
+      int offset = kChunkSize * (top + y) + left;
+      for (int x = 0; x < kBlockSize; ++x) {
+        chunk.pixels[offset + x] =
+            block == null ? 0 : block[kBlockSize * y + x];
+      }
+    }
+    return block == null;
+  }
+
+  private class Chunk {
+    public boolean built;
+    public int     dirty_bottom;  // Exclusive.
+    public int     dirty_top = kChunkSize;
+    public boolean empty = true;
+    public int     image = -1;
+    public int[]   pixels;  // ARGB, allocated when first built.
+  }  // class Chunk
+
+  private int[][] mBlocks;  // Indexed by tile id, null if not decoded.
+  private Chunk[] mChunks;
+  private int     mChunksX;
+  private int     mChunksY;
+  private int     mMapHeight;
+  private int     mMapWidth;
+  private Rect    mRectSource = new Rect();
+  private RectF   mRectDest = new RectF();
+  private String  mTilesPath;
+  private int     mTileSize;
+
+  private static final int kBlockSize  = 16;  // Texels per tile side.
+  private static final int kChunkTiles = 8;   // Tiles per chunk side.
+  private static final int kChunkSize  = kBlockSize * kChunkTiles;  // Texels.
+}
@@ -0,0 +1,395 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+
+/** Pure Java rasterizer implementing the Graphics drawing model on an ARGB
+ * integer frame buffer. Images are sampled with nearest filtering and blended
+ * with source alpha, matching the OpenGL back end, and runs of blocks wrap
+ * across the texture as GL_REPEAT does. Since it depends on nothing but the
+ * core Java libraries, the same code backs the SOFTWARE Graphics back end and
+ * the headless benchmark, see tools/RasterizerBenchmark.java.
+ *
+ * Three paths are provided. Axis aligned, unscaled draws are blitted row by
+ * row with no per pixel arithmetic beyond blending. Axis aligned, scaled draws
+ * step through the source in fixed point. All remaining draws are inverse
+ * mapped, with each row clipped to the exact span covered by the image before
+ * any pixels are touched. */
+public class SoftwareRasterizer {
+  /** An image in ARGB pixel format, as returned by Bitmap.getPixels(...). */
+  public static class Texture {
+    public Texture(int[] pixels, int width, int height) {
+      this.pixels = pixels;
+      this.width = width;
+      this.height = height;
+    }
+
+    public int[] pixels;
+    public int   width;
+    public int   height;
+  }  // class Texture
+
+  public SoftwareRasterizer(int width, int height) {
+    resize(width, height);
+  }
+
+  public void resize(int width, int height) {
+    if (width != mWidth || height != mHeight) {
+      mWidth = width;
+      mHeight = height;
+      mPixels = new int[width * height];
+    }
+  }
+
+  public int getWidth() {
+    return mWidth;
+  }
+
+  public int getHeight() {
+    return mHeight;
+  }
+
+  /** Return the frame buffer, mWidth pixels per row, top row first. */
+  public int[] getPixels() {
+    return mPixels;
+  }
+
+  public void clear(int color) {
+    java.util.Arrays.fill(mPixels, 0xFF000000 | color);
+  }
+
+  /** Clear the frame buffer to fully transparent, for rendering images which
+   * are themselves to be drawn later, such as Impostor sprite sheets. */
+  public void clearTransparent() {
+    java.util.Arrays.fill(mPixels, 0);
+  }
+
+  /** Draw the source rectangle of the texture into the destination rectangle,
+   * both in pixels with y increasing downwards. A block count greater than 1
+   * repeats the image along the x axis, each block the size of the
+   * destination rectangle. */
+  public void drawImage(Texture texture,
+                        int source_left, int source_top,
+                        int source_right, int source_bottom,
+                        float dest_left, float dest_top,
+                        float dest_right, float dest_bottom,
+                        boolean flipped_horizontal, boolean flipped_vertical,
+                        int block_count) {
+    int source_width = source_right - source_left;
+    int source_height = source_bottom - source_top;
+    float dest_width = dest_right - dest_left;
+    float dest_height = dest_bottom - dest_top;
+    if (source_width <= 0 || source_height <= 0 ||
+        dest_width <= 0.0f || dest_height <= 0.0f) {
+      return;
+    }
+
+    int left = (int)Math.floor(dest_left + 0.5f);
+    int top = (int)Math.floor(dest_top + 0.5f);
+    if (dest_width == source_width && dest_height == source_height &&
+        left == dest_left && top == dest_top) {
+      blit(texture, source_left, source_top, source_width, source_height,
+           left, top, flipped_horizontal, flipped_vertical, block_count);
+    } else {
+      drawScaled(texture, source_left, source_top, source_width, source_height,
+                 dest_left, dest_top, dest_width, dest_height,
+                 flipped_horizontal, flipped_vertical, block_count);
+    }
+  }
+
+  /** Draw the source rectangle of the texture through an affine
+   * transformation, which maps the unit square onto the destination as
+   * x' = a * x + b * y + tx, y' = c * x + d * y + ty. The layout of the
+   * arguments matches the first two rows of android.graphics.Matrix. */
+  public void drawImage(Texture texture,
+                        int source_left, int source_top,
+                        int source_right, int source_bottom,
+                        float a, float b, float tx,
+                        float c, float d, float ty,
+                        boolean flipped_horizontal, boolean flipped_vertical,
+                        int block_count) {
+    int source_width = source_right - source_left;
+    int source_height = source_bottom - source_top;
+    if (source_width <= 0 || source_height <= 0) {
+      return;
+    }
+    if (b == 0.0f && c == 0.0f && a > 0.0f && d > 0.0f) {
+      drawImage(texture, source_left, source_top, source_right, source_bottom,
+                tx, ty, tx + a, ty + d,
+                flipped_horizontal, flipped_vertical, block_count);
+      return;
+    }
+
+    // Invert the transformation, mapping pixel centers back onto the unit
+    // square, x in [0, block_count) and y in [0, 1).
+    float determinant = a * d - b * c;
+    if (Math.abs(determinant) < 1.0e-6f) {
+      return;  // Degenerate, nothing visible.
+    }
+    float inverse_a = d / determinant;
+    float inverse_b = -b / determinant;
+    float inverse_c = -c / determinant;
+    float inverse_d = a / determinant;
+
+    // Bounding box of the transformed quad, clipped to the frame buffer.
+    float x_extent = block_count;
+    float min_x = Math.min(Math.min(tx, tx + a * x_extent),
+                           Math.min(tx + b, tx + a * x_extent + b));
+    float max_x = Math.max(Math.max(tx, tx + a * x_extent),
+                           Math.max(tx + b, tx + a * x_extent + b));
+    float min_y = Math.min(Math.min(ty, ty + c * x_extent),
+                           Math.min(ty + d, ty + c * x_extent + d));
+    float max_y = Math.max(Math.max(ty, ty + c * x_extent),
+                           Math.max(ty + d, ty + c * x_extent + d));
+    int row_begin = Math.max(0, (int)Math.floor(min_y));
+    int row_end = Math.min(mHeight, (int)Math.ceil(max_y));
+    int column_begin = Math.max(0, (int)Math.floor(min_x));
+    int column_end = Math.min(mWidth, (int)Math.ceil(max_x));
+
+    int[] texture_pixels = texture.pixels;
+    int texture_width = texture.width;
+    int texture_height = texture.height;
+    int limit_x = source_width * block_count - 1;
+    int[] pixels = mPixels;
+    for (int row = row_begin; row < row_end; ++row) {
+      // Local coordinates at the center of the first pixel in the row, along
+      // with the per pixel step.
+      float delta_x = column_begin + 0.5f - tx;
+      float delta_y = row + 0.5f - ty;
+      float local_x = inverse_a * delta_x + inverse_b * delta_y;
+      float local_y = inverse_c * delta_x + inverse_d * delta_y;
+
+      // Clip the row to the span where both local coordinates are in range so
+      // the inner loop need not test each pixel.
+      mSpan[0] = column_begin;
+      mSpan[1] = column_end;
+      clipSpan(local_x, inverse_a, x_extent, column_begin);
+      clipSpan(local_y, inverse_c, 1.0f, column_begin);
+      int span_begin = mSpan[0];
+      int span_end = mSpan[1];
+      if (span_begin >= span_end) {
+        continue;
+      }
+      local_x += inverse_a * (span_begin - column_begin);
+      local_y += inverse_c * (span_begin - column_begin);
+
+      int offset = mWidth * row + span_begin;
+      for (int column = span_begin; column < span_end; ++column) {
+        int texel_x = Math.min((int)(local_x * source_width), limit_x);
+        int texel_y = Math.min((int)(local_y * source_height),
+                               source_height - 1);
+        texel_x = flipped_horizontal ?
+            source_left + source_width - 1 - texel_x : source_left + texel_x;
+        texel_y = flipped_vertical ?
+            source_top + source_height - 1 - texel_y : source_top + texel_y;
+        texel_x = wrap(texel_x, texture_width);
+        texel_y = wrap(texel_y, texture_height);
+        pixels[offset] = blend(
+            pixels[offset], texture_pixels[texture_width * texel_y + texel_x]);
+        ++offset;
+        local_x += inverse_a;
+        local_y += inverse_c;
+      }
+    }
+  }
+
+  /** Narrow mSpan to the columns for which value + step * (column - base) lies
+   * within [0, limit). */
+  private void clipSpan(float value, float step, float limit, int base) {
+    if (step == 0.0f) {
+      if (value < 0.0f || value >= limit) {
+        mSpan[1] = mSpan[0];
+      }
+      return;
+    }
+    float first = (0.0f - value) / step;
+    float last = (limit - value) / step;
+    if (step < 0.0f) {
+      float swap = first;
+      first = last;
+      last = swap;
+    }
+    // The span is conservative by up to a pixel on either end, the inner loop
+    // clamps the coordinates below.
+    int begin = base + (int)Math.ceil(first - kSpanEpsilon);
+    int end = base + (int)Math.ceil(last + kSpanEpsilon);
+    mSpan[0] = Math.max(mSpan[0], begin);
+    mSpan[1] = Math.min(mSpan[1], end);
+    // Drop any end pixels which fall outside after rounding.
+    while (mSpan[0] < mSpan[1] &&
+           !inRange(value + step * (mSpan[0] - base), limit)) {
+      ++mSpan[0];
+    }
+    while (mSpan[0] < mSpan[1] &&
+           !inRange(value + step * (mSpan[1] - 1 - base), limit)) {
+      --mSpan[1];
+    }
+  }
+
+  private static boolean inRange(float value, float limit) {
+    return value >= 0.0f && value < limit;
+  }
+
+  /** Axis aligned, unscaled fast path. */
+  private void blit(Texture texture, int source_left, int source_top,
+                    int source_width, int source_height,
+                    int left, int top,
+                    boolean flipped_horizontal, boolean flipped_vertical,
+                    int block_count) {
+    int width = source_width * block_count;
+    int row_begin = Math.max(0, top);
+    int row_end = Math.min(mHeight, top + source_height);
+    int column_begin = Math.max(0, left);
+    int column_end = Math.min(mWidth, left + width);
+    if (row_begin >= row_end || column_begin >= column_end) {
+      return;
+    }
+
+    int[] texture_pixels = texture.pixels;
+    int texture_width = texture.width;
+    int[] pixels = mPixels;
+    for (int row = row_begin; row < row_end; ++row) {
+      int texel_y = row - top;
+      texel_y = flipped_vertical ?
+          source_top + source_height - 1 - texel_y : source_top + texel_y;
+      int texture_row = texture_width * wrap(texel_y, texture.height);
+      int offset = mWidth * row + column_begin;
+      int local_x = column_begin - left;
+      int texel_x = flipped_horizontal ?
+          source_left + source_width - 1 - local_x : source_left + local_x;
+      int texel_step = flipped_horizontal ? -1 : 1;
+      texel_x = wrap(texel_x, texture_width);
+      for (int column = column_begin; column < column_end; ++column) {
+        int texel = texture_pixels[texture_row + texel_x];
+        int alpha = texel >>> 24;
+        if (alpha == 0xFF) {
+          pixels[offset] = texel;
+        } else if (alpha != 0) {
+          pixels[offset] = blend(pixels[offset], texel);
+        }
+        ++offset;
+        texel_x += texel_step;
+        if (texel_x == texture_width) {
+          texel_x = 0;
+        } else if (texel_x < 0) {
+          texel_x = texture_width - 1;
+        }
+      }
+    }
+  }
+
+  /** Axis aligned, scaled path stepping through the source in 16.16 fixed
+   * point. */
+  private void drawScaled(Texture texture, int source_left, int source_top,
+                          int source_width, int source_height,
+                          float dest_left, float dest_top,
+                          float dest_width, float dest_height,
+                          boolean flipped_horizontal, boolean flipped_vertical,
+                          int block_count) {
+    int row_begin = Math.max(0, (int)Math.ceil(dest_top - 0.5f));
+    int row_end = Math.min(mHeight, (int)Math.ceil(dest_top + dest_height - 0.5f));
+    int column_begin = Math.max(0, (int)Math.ceil(dest_left - 0.5f));
+    int column_end = Math.min(
+        mWidth, (int)Math.ceil(dest_left + dest_width * block_count - 0.5f));
+    if (row_begin >= row_end || column_begin >= column_end) {
+      return;
+    }
+
+    int step_x = (int)(source_width / dest_width * 65536.0f);
+    int step_y = (int)(source_height / dest_height * 65536.0f);
+    int start_x = (int)((column_begin + 0.5f - dest_left) *
+                        source_width / dest_width * 65536.0f);
+    int fixed_y = (int)((row_begin + 0.5f - dest_top) *
+                        source_height / dest_height * 65536.0f);
+    int limit_x = source_width * block_count - 1;
+
+    int[] texture_pixels = texture.pixels;
+    int texture_width = texture.width;
+    int[] pixels = mPixels;
+    for (int row = row_begin; row < row_end; ++row, fixed_y += step_y) {
+      int texel_y = Math.min(fixed_y >> 16, source_height - 1);
+      texel_y = flipped_vertical ?
+          source_top + source_height - 1 - texel_y : source_top + texel_y;
+      int texture_row = texture_width * wrap(texel_y, texture.height);
+      int offset = mWidth * row + column_begin;
+      int fixed_x = start_x;
+      for (int column = column_begin; column < column_end; ++column) {
+        int local_x = Math.min(fixed_x >> 16, limit_x);
+        int texel_x = flipped_horizontal ?
+            source_left + source_width - 1 - local_x : source_left + local_x;
+        int texel = texture_pixels[texture_row + wrap(texel_x, texture_width)];
+        int alpha = texel >>> 24;
+        if (alpha == 0xFF) {
+          pixels[offset] = texel;
+        } else if (alpha != 0) {
+          pixels[offset] = blend(pixels[offset], texel);
+        }
+        ++offset;
+        fixed_x += step_x;
+      }
+    }
+  }
+
+  private static int wrap(int value, int size) {
+    value %= size;
+    return value < 0 ? value + size : value;
+  }
+
+  /** Blend an ARGB source pixel over a destination pixel. Destinations are
+   * opaque but for frame buffers cleared with clearTransparent(...). */
+  private static int blend(int destination, int source) {
+    int alpha = source >>> 24;
+    if (alpha == 0xFF) {
+      return source;
+    } else if (alpha == 0) {
+      return destination;
+    }
+    if ((destination >>> 24) != 0xFF) {
+      return blendTransparent(destination, source);
+    }
+    int source_weight = alpha + (alpha >> 7);  // [0, 256].
+    int destination_weight = 256 - source_weight;
+    int red_blue = (((source & 0xFF00FF) * source_weight +
+                     (destination & 0xFF00FF) * destination_weight) >>> 8) &
+        0xFF00FF;
+    int green = (((source & 0xFF00) * source_weight +
+                  (destination & 0xFF00) * destination_weight) >>> 8) & 0xFF00;
+    return 0xFF000000 | red_blue | green;
+  }
+
+  /** The general form of blend(...), with the result alpha being the union of
+   * the source and destination alpha. */
+  private static int blendTransparent(int destination, int source) {
+    int source_alpha = source >>> 24;
+    int destination_alpha = destination >>> 24;
+    int alpha = source_alpha + destination_alpha * (255 - source_alpha) / 255;
+    if (alpha == 0) {
+      return 0;
+    }
+    int destination_weight = destination_alpha * (255 - source_alpha) / 255;
+    int result = alpha << 24;
+    for (int shift = 0; shift < 24; shift += 8) {
+      int channel = (((source >> shift) & 0xFF) * source_alpha +
+                     ((destination >> shift) & 0xFF) * destination_weight) /
+          alpha;
+      result |= Math.min(channel, 0xFF) << shift;
+    }
+    return result;
+  }
+
+  private int   mHeight;
+  private int[] mPixels;
+  private int[] mSpan = new int[2];
+  private int   mWidth;
+
+  private static final float kSpanEpsilon = 1.0e-3f;
+}
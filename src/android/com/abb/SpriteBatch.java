@@ -0,0 +1,230 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import javax.microedition.khronos.opengles.GL10;
+import junit.framework.Assert;
+
+
+/** A SpriteBatch accumulates textured, tinted quads which share a texture and
+ * draws them all with a single glDrawElements(...) call. Each quad is
+ * transformed on the CPU and written to client side vertex arrays holding a
+ * position, texture coordinate and color per vertex, so no matrix state needs
+ * to change between quads. The owner is responsible for calling flush(...)
+ * whenever the bound texture or any other OpenGL state changes.
+ *
+ * A fixed point batch holds its vertices as 16.16 GL_FIXED values instead of
+ * floats, see Fixed, sparing devices without floating point hardware the
+ * conversion within the driver. Such batches are best filled through
+ * addQuadFixed(...), which involves no float math at all. */
+public class SpriteBatch {
+  public SpriteBatch(int capacity, boolean fixed_point) {
+    Assert.assertTrue("Batch capacity must fit short indices.",
+                      4 * capacity <= 65536);
+    mCapacity = capacity;
+    mFixedPoint = fixed_point;
+    mColorData = new int[4 * capacity];
+
+    // Both vertex formats use four bytes per value.
+    ByteBuffer vertex_byte_buffer =
+        ByteBuffer.allocateDirect(4 * 4 * kValuesPerVertex * capacity);
+    vertex_byte_buffer.order(ByteOrder.nativeOrder());
+    if (fixed_point) {
+      mVertexDataFixed = new int[4 * kValuesPerVertex * capacity];
+      mVertexBufferFixed = vertex_byte_buffer.asIntBuffer();
+    } else {
+      mVertexData = new float[4 * kValuesPerVertex * capacity];
+      mVertexBuffer = vertex_byte_buffer.asFloatBuffer();
+    }
+    vertex_byte_buffer.position(8);  // Texture coordinates follow position.
+    ByteBuffer tex_coord_byte_buffer =
+        vertex_byte_buffer.slice().order(ByteOrder.nativeOrder());
+    if (fixed_point) {
+      mTexCoordBufferFixed = tex_coord_byte_buffer.asIntBuffer();
+    } else {
+      mTexCoordBuffer = tex_coord_byte_buffer.asFloatBuffer();
+    }
+
+    ByteBuffer color_byte_buffer =
+        ByteBuffer.allocateDirect(4 * mColorData.length);
+    color_byte_buffer.order(ByteOrder.nativeOrder());
+    mColorBuffer = color_byte_buffer.asIntBuffer();
+
+    // The index buffer never changes, two triangles per quad.
+    ByteBuffer index_byte_buffer = ByteBuffer.allocateDirect(2 * 6 * capacity);
+    index_byte_buffer.order(ByteOrder.nativeOrder());
+    mIndexBuffer = index_byte_buffer.asShortBuffer();
+    for (int quad = 0; quad < capacity; ++quad) {
+      short vertex = (short)(4 * quad);
+      mIndexBuffer.put(vertex);
+      mIndexBuffer.put((short)(vertex + 1));
+      mIndexBuffer.put((short)(vertex + 2));
+      mIndexBuffer.put((short)(vertex + 2));
+      mIndexBuffer.put((short)(vertex + 1));
+      mIndexBuffer.put((short)(vertex + 3));
+    }
+    mIndexBuffer.position(0);
+  }
+
+  /** Point the OpenGL vertex, texture coordinate and color arrays at the batch
+   * buffers. This need only be done once per context since the buffers
+   * themselves never move. */
+  public void bind(GLStateCache state) {
+    GL10 gl = state.getGl();
+    int stride = 4 * kValuesPerVertex;
+    if (mFixedPoint) {
+      gl.glVertexPointer(2, GL10.GL_FIXED, stride, mVertexBufferFixed);
+    } else {
+      gl.glVertexPointer(2, GL10.GL_FLOAT, stride, mVertexBuffer);
+    }
+    state.setClientStateEnabled(GL10.GL_VERTEX_ARRAY, true);
+    if (mFixedPoint) {
+      gl.glTexCoordPointer(2, GL10.GL_FIXED, stride, mTexCoordBufferFixed);
+    } else {
+      gl.glTexCoordPointer(2, GL10.GL_FLOAT, stride, mTexCoordBuffer);
+    }
+    state.setClientStateEnabled(GL10.GL_TEXTURE_COORD_ARRAY, true);
+    gl.glColorPointer(4, GL10.GL_UNSIGNED_BYTE, 0, mColorBuffer);
+    state.setClientStateEnabled(GL10.GL_COLOR_ARRAY, true);
+  }
+
+  public boolean isEmpty() {
+    return mQuadCount == 0;
+  }
+
+  public boolean isFull() {
+    return mQuadCount == mCapacity;
+  }
+
+  public boolean isFixedPoint() {
+    return mFixedPoint;
+  }
+
+  /** Add a parallelogram to the batch. The quad spans from the origin along
+   * the x and y axis vectors, with the texture coordinates (u0, v0) at the
+   * origin and (u1, v1) at the opposite corner. The color is packed such that
+   * its bytes in memory read R, G, B, A, see
+   * TextureImage.convertArgbToRgba(...). The batch must not be full. */
+  public void addQuad(float origin_x, float origin_y,
+                      float x_axis_x, float x_axis_y,
+                      float y_axis_x, float y_axis_y,
+                      float u0, float v0, float u1, float v1, int color) {
+    if (mFixedPoint) {
+      addQuadFixed((int)(origin_x * Fixed.kOne), (int)(origin_y * Fixed.kOne),
+                   (int)(x_axis_x * Fixed.kOne), (int)(x_axis_y * Fixed.kOne),
+                   (int)(y_axis_x * Fixed.kOne), (int)(y_axis_y * Fixed.kOne),
+                   (int)(u0 * Fixed.kOne), (int)(v0 * Fixed.kOne),
+                   (int)(u1 * Fixed.kOne), (int)(v1 * Fixed.kOne), color);
+      return;
+    }
+    float[] vertex_data = mVertexData;
+    int offset = 4 * kValuesPerVertex * mQuadCount;
+    vertex_data[offset++] = origin_x;
+    vertex_data[offset++] = origin_y;
+    vertex_data[offset++] = u0;
+    vertex_data[offset++] = v0;
+    vertex_data[offset++] = origin_x + x_axis_x;
+    vertex_data[offset++] = origin_y + x_axis_y;
+    vertex_data[offset++] = u1;
+    vertex_data[offset++] = v0;
+    vertex_data[offset++] = origin_x + y_axis_x;
+    vertex_data[offset++] = origin_y + y_axis_y;
+    vertex_data[offset++] = u0;
+    vertex_data[offset++] = v1;
+    vertex_data[offset++] = origin_x + x_axis_x + y_axis_x;
+    vertex_data[offset++] = origin_y + x_axis_y + y_axis_y;
+    vertex_data[offset++] = u1;
+    vertex_data[offset++] = v1;
+
+    int[] color_data = mColorData;
+    offset = 4 * mQuadCount;
+    color_data[offset] = color_data[offset + 1] = color_data[offset + 2] =
+        color_data[offset + 3] = color;
+    ++mQuadCount;
+  }
+
+  /** Add a parallelogram to a fixed point batch, as addQuad(...) with every
+   * coordinate in 16.16 fixed point. */
+  public void addQuadFixed(int origin_x, int origin_y,
+                           int x_axis_x, int x_axis_y,
+                           int y_axis_x, int y_axis_y,
+                           int u0, int v0, int u1, int v1, int color) {
+    int[] vertex_data = mVertexDataFixed;
+    int offset = 4 * kValuesPerVertex * mQuadCount;
+    vertex_data[offset++] = origin_x;
+    vertex_data[offset++] = origin_y;
+    vertex_data[offset++] = u0;
+    vertex_data[offset++] = v0;
+    vertex_data[offset++] = origin_x + x_axis_x;
+    vertex_data[offset++] = origin_y + x_axis_y;
+    vertex_data[offset++] = u1;
+    vertex_data[offset++] = v0;
+    vertex_data[offset++] = origin_x + y_axis_x;
+    vertex_data[offset++] = origin_y + y_axis_y;
+    vertex_data[offset++] = u0;
+    vertex_data[offset++] = v1;
+    vertex_data[offset++] = origin_x + x_axis_x + y_axis_x;
+    vertex_data[offset++] = origin_y + x_axis_y + y_axis_y;
+    vertex_data[offset++] = u1;
+    vertex_data[offset++] = v1;
+
+    int[] color_data = mColorData;
+    offset = 4 * mQuadCount;
+    color_data[offset] = color_data[offset + 1] = color_data[offset + 2] =
+        color_data[offset + 3] = color;
+    ++mQuadCount;
+  }
+
+  /** Draw and empty the batch. Assumes bind(...) has been called on the
+   * context and the appropriate texture is bound. */
+  public void flush(GL10 gl) {
+    if (mQuadCount == 0) {
+      return;
+    }
+    if (mFixedPoint) {
+      mVertexBufferFixed.position(0);
+      mVertexBufferFixed.put(mVertexDataFixed, 0,
+                             4 * kValuesPerVertex * mQuadCount);
+      mVertexBufferFixed.position(0);
+    } else {
+      mVertexBuffer.position(0);
+      mVertexBuffer.put(mVertexData, 0, 4 * kValuesPerVertex * mQuadCount);
+      mVertexBuffer.position(0);
+    }
+    mColorBuffer.position(0);
+    mColorBuffer.put(mColorData, 0, 4 * mQuadCount);
+    mColorBuffer.position(0);
+    gl.glDrawElements(GL10.GL_TRIANGLES, 6 * mQuadCount,
+                      GL10.GL_UNSIGNED_SHORT, mIndexBuffer);
+    mQuadCount = 0;
+  }
+
+  private int         mCapacity;
+  private IntBuffer   mColorBuffer;
+  private int[]       mColorData;
+  private boolean     mFixedPoint;
+  private ShortBuffer mIndexBuffer;
+  private int         mQuadCount;
+  private FloatBuffer mTexCoordBuffer;       // Float batches only.
+  private IntBuffer   mTexCoordBufferFixed;  // Fixed point batches only.
+  private FloatBuffer mVertexBuffer;         // Float batches only.
+  private IntBuffer   mVertexBufferFixed;    // Fixed point batches only.
+  private float[]     mVertexData;           // Float batches only.
+  private int[]       mVertexDataFixed;      // Fixed point batches only.
+
+  private static final int kValuesPerVertex = 4;  // x, y, u, v.
+}
@@ -0,0 +1,109 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+
+/** A TextBuilder formats text into a reusable character buffer, for text which
+ * changes every frame, such as the HUD statistics, see Graphics.drawText(...).
+ * Unlike StringBuilder and String.valueOf(...), nothing is allocated once the
+ * buffer is large enough, so building text every frame generates no garbage.
+ * Text beyond the capacity is dropped. */
+public class TextBuilder {
+  public TextBuilder(int capacity) {
+    mChars = new char[capacity];
+  }
+
+  public TextBuilder clear() {
+    mLength = 0;
+    return this;
+  }
+
+  public char[] getChars() {
+    return mChars;
+  }
+
+  public int length() {
+    return mLength;
+  }
+
+  public TextBuilder append(char c) {
+    if (mLength < mChars.length) {
+      mChars[mLength++] = c;
+    }
+    return this;
+  }
+
+  /** Append a string, intended for constants, since creating the string would
+   * defeat the purpose. */
+  public TextBuilder append(String text) {
+    int count = Math.min(text.length(), mChars.length - mLength);
+    text.getChars(0, count, mChars, mLength);
+    mLength += count;
+    return this;
+  }
+
+  public TextBuilder append(int value) {
+    return appendFixed(value, 0);
+  }
+
+  /** Append a fixed point number with the specified number of decimal digits,
+   * that is value / 10^fraction_digits. For example appendFixed(1234, 2)
+   * appends "12.34" and appendFixed(-5, 2) appends "-0.05". */
+  public TextBuilder appendFixed(int value, int fraction_digits) {
+    // The digits are generated from the least significant and on negative
+    // values, since the negative range is the larger of the two.
+    if (value < 0) {
+      append('-');
+    } else {
+      value = -value;
+    }
+    int digit_count = 0;
+    do {
+      mDigits[digit_count++] = (char)('0' - value % 10);
+      value /= 10;
+    } while (value != 0 || digit_count <= fraction_digits);
+    while (digit_count > 0) {
+      if (digit_count == fraction_digits) {
+        append('.');
+      }
+      append(mDigits[--digit_count]);
+    }
+    return this;
+  }
+
+  /** Append a float rounded to the specified number of decimal digits. Values
+   * are limited to the range of a fixed point int. */
+  public TextBuilder append(float value, int fraction_digits) {
+    float scale = 1.0f;
+    for (int digit = 0; digit < fraction_digits; ++digit) {
+      scale *= 10.0f;
+    }
+    return appendFixed(Math.round(value * scale), fraction_digits);
+  }
+
+  /** Append an integer padded with leading zeros to the specified width, as
+   * for the seconds of a time. */
+  public TextBuilder appendPadded(int value, int width) {
+    for (int limit = 10; width > 1; --width, limit *= 10) {
+      if (value < limit) {
+        append('0');
+      }
+    }
+    return appendFixed(value, 0);
+  }
+
+  private char[] mChars;
+  private char[] mDigits = new char[kMaxDigits];
+  private int    mLength;
+
+  private static final int kMaxDigits = 11;  // Enough for any int.
+}
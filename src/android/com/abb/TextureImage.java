@@ -0,0 +1,460 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import javax.microedition.khronos.opengles.GL10;
+
+
+/** A TextureImage holds decoded pixel data laid out exactly as OpenGL expects
+ * it for a glTexImage2D(...) call, or for ETC1 images, a
+ * glCompressedTexImage2D(...) call. Since none of the methods here touch the
+ * OpenGL context, images may be decoded and converted on any thread and handed
+ * to the rendering thread for upload. */
+public class TextureImage {
+  public int        width;
+  public int        height;
+  public int        format = GL10.GL_RGBA;
+  public int        type   = GL10.GL_UNSIGNED_BYTE;
+  public ByteBuffer pixels;
+  public int        sample_size = 1;  // See TextureQuality.getSampleSize().
+
+  /** Load the image file at the specified path, preferring the raw texture
+   * cache over decoding the image. When the cache is missing or out of date
+   * the image is decoded and the cache is written for the next load. If
+   * allow_etc1 is set and an ETC1 version of the image exists alongside it,
+   * see getPkmPath(...), the compressed image is loaded instead. Otherwise the
+   * image is decoded and converted as the quality tier specifies, with a
+   * separate cache per tier. Null is returned if the file can not be found or
+   * decoded. */
+  public static TextureImage loadFile(String file_path, boolean allow_etc1,
+                                      TextureQuality quality) {
+    if (allow_etc1) {
+      String pkm_path = getPkmPath(file_path);
+      if (Content.fileExists(pkm_path)) {
+        TextureImage image = readPkmFile(pkm_path);
+        if (image != null) {
+          return image;
+        }
+      }
+    }
+
+    String raw_path = Content.getTextureCachePath(file_path);
+    if (raw_path == null) {
+      return decodeFile(file_path, quality);  // Content not initialized.
+    }
+    raw_path += quality.getCacheSuffix();
+
+    File raw_file = new File(raw_path);
+    if (raw_file.exists() &&
+        raw_file.lastModified() >= new File(file_path).lastModified()) {
+      TextureImage image = readRawFile(raw_path);
+      if (image != null) {
+        return image;
+      }
+    }
+
+    TextureImage image = decodeFile(file_path, quality);
+    if (image != null) {
+      image.writeRawFile(raw_path);
+    }
+    return image;
+  }
+
+  /** Decode the image file at the specified path, converted as the quality
+   * tier specifies. Sampling down happens within the decoder so the full
+   * resolution image is never held in memory. Null is returned if the file can
+   * not be found or decoded. */
+  public static TextureImage decodeFile(String file_path,
+                                        TextureQuality quality) {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inSampleSize = quality.getSampleSize();
+    Bitmap bitmap = BitmapFactory.decodeFile(file_path, options);
+    if (bitmap == null) {
+      Log.e("TextureImage::decodeFile", "Cannot find/load: " + file_path);
+      return null;
+    }
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    int[] bitmap_data = new int[width * height];
+    bitmap.getPixels(bitmap_data, 0, width, 0, 0, width, height);
+    bitmap.recycle();
+
+    TextureImage image;
+    if (quality.usesPackedFormats()) {
+      image = fromPixelsPacked(bitmap_data, width, height);
+    } else {
+      image = fromDecodedPixels(bitmap_data, width, height);
+    }
+    image.sample_size = quality.getSampleSize();
+    return image;
+  }
+
+  public static TextureImage fromBitmap(Bitmap bitmap) {
+    int width = bitmap.getWidth();
+    int height = bitmap.getHeight();
+    int[] bitmap_data = new int[width * height];
+    bitmap.getPixels(bitmap_data, 0, width, 0, 0, width, height);
+    return fromDecodedPixels(bitmap_data, width, height);
+  }
+
+  /** Create an image from ARGB pixels, as returned by Bitmap.getPixels(...).
+   * The pixel array is left unchanged, see setRows(...). */
+  public static TextureImage fromPixels(int[] pixels, int width, int height) {
+    TextureImage image = new TextureImage();
+    image.width = width;
+    image.height = height;
+    image.pixels = ByteBuffer.allocateDirect(4 * width * height);
+    image.pixels.order(ByteOrder.nativeOrder());
+    image.setRows(pixels, 0, height);
+    image.pixels.position(0);
+    return image;
+  }
+
+  /** Create an image from ARGB pixels as fromPixels(...), converting the pixel
+   * array in place so that it is copied in bulk. The array is left in an RGBA
+   * byte ordering, so this is only for arrays of no further use, such as those
+   * of decoded bitmaps. */
+  private static TextureImage fromDecodedPixels(int[] pixels, int width,
+                                                int height) {
+    TextureImage image = new TextureImage();
+    image.width = width;
+    image.height = height;
+    convertArgbToRgba(pixels, width * height);
+
+    image.pixels = ByteBuffer.allocateDirect(4 * width * height);
+    image.pixels.order(ByteOrder.nativeOrder());
+    image.pixels.asIntBuffer().put(pixels, 0, width * height);
+    image.pixels.position(0);
+    return image;
+  }
+
+  /** Create a 16 bit image from ARGB pixels, RGB 565 if every pixel is opaque
+   * and RGBA 4444 otherwise. */
+  public static TextureImage fromPixelsPacked(int[] pixels, int width,
+                                              int height) {
+    int count = width * height;
+    boolean opaque = true;
+    for (int n = 0; n < count; ++n) {
+      if ((pixels[n] >>> 24) != 0xFF) {
+        opaque = false;
+        break;
+      }
+    }
+
+    TextureImage image = new TextureImage();
+    image.width = width;
+    image.height = height;
+    image.pixels = ByteBuffer.allocateDirect(2 * count);
+    image.pixels.order(ByteOrder.nativeOrder());
+    ShortBuffer packed = image.pixels.asShortBuffer();
+    if (opaque) {
+      image.format = GL10.GL_RGB;
+      image.type = GL10.GL_UNSIGNED_SHORT_5_6_5;
+      for (int n = 0; n < count; ++n) {
+        int pixel = pixels[n];
+        packed.put((short)(((pixel >> 8) & 0xF800) |  // Red.
+                           ((pixel >> 5) & 0x07E0) |  // Green.
+                           ((pixel >> 3) & 0x001F)));  // Blue.
+      }
+    } else {
+      image.type = GL10.GL_UNSIGNED_SHORT_4_4_4_4;
+      for (int n = 0; n < count; ++n) {
+        int pixel = pixels[n];
+        packed.put((short)(((pixel >> 8) & 0xF000) |  // Red.
+                           ((pixel >> 4) & 0x0F00) |  // Green.
+                           (pixel & 0x00F0) |         // Blue.
+                           (pixel >>> 28)));          // Alpha.
+      }
+    }
+    image.pixels.position(0);
+    return image;
+  }
+
+  /** Replace the rows from top, inclusive, to bottom, exclusive, with those of
+   * the specified ARGB pixels, which cover the whole image, converting them to
+   * the format of the image as fromPixels(...) and fromPixelsPacked(...) do.
+   * Unlike those, the pixels are left unchanged. Only images created by either
+   * method may be updated. */
+  public void setRows(int[] argb_pixels, int top, int bottom) {
+    int start = width * top;
+    int end = width * bottom;
+    if (type == GL10.GL_UNSIGNED_BYTE) {
+      IntBuffer rgba = pixels.asIntBuffer();
+      for (int n = start; n < end; ++n) {
+        int pixel = argb_pixels[n];
+        if (kLittleEndian) {
+          rgba.put(n, ((0xFF000000 & pixel)) |        // Alpha.
+                      ((0x00FF0000 & pixel) >> 16) |  // Red.
+                      ((0x0000FF00 & pixel)) |        // Green.
+                      ((0x000000FF & pixel) << 16));  // Blue.
+        } else {
+          rgba.put(n, (pixel << 8) | (pixel >>> 24));
+        }
+      }
+    } else if (type == GL10.GL_UNSIGNED_SHORT_5_6_5) {
+      ShortBuffer packed = pixels.asShortBuffer();
+      for (int n = start; n < end; ++n) {
+        int pixel = argb_pixels[n];
+        packed.put(n, (short)(((pixel >> 8) & 0xF800) |  // Red.
+                              ((pixel >> 5) & 0x07E0) |  // Green.
+                              ((pixel >> 3) & 0x001F)));  // Blue.
+      }
+    } else if (type == GL10.GL_UNSIGNED_SHORT_4_4_4_4) {
+      ShortBuffer packed = pixels.asShortBuffer();
+      for (int n = start; n < end; ++n) {
+        int pixel = argb_pixels[n];
+        packed.put(n, (short)(((pixel >> 8) & 0xF000) |  // Red.
+                              ((pixel >> 4) & 0x0F00) |  // Green.
+                              (pixel & 0x00F0) |         // Blue.
+                              (pixel >>> 28)));          // Alpha.
+      }
+    } else {
+      Log.e("TextureImage::setRows", "Unsupported image type: " + type);
+    }
+  }
+
+  public int getByteCount() {
+    return pixels.capacity();
+  }
+
+  public boolean isCompressed() {
+    return format == Etc1.kGlFormat;
+  }
+
+  /** Return a table of height + 1 counts where entry n holds the number of rows
+   * above row n containing any pixel which is not fully opaque. A span of rows
+   * from top to bottom is then fully opaque exactly when the entries at top
+   * and bottom are equal. Formats without an alpha channel are opaque. Of the
+   * packed formats with alpha, only RGBA 4444 is scanned, the others are
+   * conservatively treated as translucent. */
+  public int[] computeTranslucentRowCounts() {
+    int[] counts = new int[height + 1];
+    boolean has_alpha = !isCompressed() && format != GL10.GL_RGB &&
+        format != GL10.GL_LUMINANCE;
+    boolean scan_alpha = (format == GL10.GL_RGBA &&
+                          type == GL10.GL_UNSIGNED_BYTE && pixels != null);
+    boolean scan_packed_alpha = (format == GL10.GL_RGBA &&
+                                 type == GL10.GL_UNSIGNED_SHORT_4_4_4_4 &&
+                                 pixels != null);
+    ShortBuffer packed = null;
+    if (scan_packed_alpha) {
+      packed = pixels.duplicate().order(ByteOrder.nativeOrder())
+          .asShortBuffer();
+    }
+    for (int row = 0; row < height; ++row) {
+      boolean opaque = !has_alpha;
+      if (scan_alpha) {
+        opaque = true;
+        int alpha_index = 4 * width * row + 3;  // Bytes read R, G, B, A.
+        for (int column = 0; column < width; ++column, alpha_index += 4) {
+          if (pixels.get(alpha_index) != (byte)0xFF) {
+            opaque = false;
+            break;
+          }
+        }
+      } else if (scan_packed_alpha) {
+        opaque = true;
+        int index = width * row;
+        for (int column = 0; column < width; ++column, ++index) {
+          if ((packed.get(index) & 0x000F) != 0x000F) {
+            opaque = false;
+            break;
+          }
+        }
+      }
+      counts[row + 1] = counts[row] + (opaque ? 0 : 1);
+    }
+    return counts;
+  }
+
+  /** Return the path of the ETC1 version of an image, "tiles.png" ->
+   * "tiles.pkm". These are written offline for opaque images only, see
+   * tools/CompressTextures.java, so the presence of the file is what selects
+   * the compressed format. */
+  public static String getPkmPath(String file_path) {
+    int extension = file_path.lastIndexOf('.');
+    if (extension <= file_path.lastIndexOf('/')) {
+      return file_path + ".pkm";
+    }
+    return file_path.substring(0, extension) + ".pkm";
+  }
+
+  /** Read an ETC1 image stored in a PKM file. As with readRawFile(...) the
+   * compressed data is memory mapped and handed to OpenGL as is. Null is
+   * returned if the file is unreadable or not ETC1. */
+  public static TextureImage readPkmFile(String pkm_path) {
+    try {
+      RandomAccessFile pkm_file = new RandomAccessFile(pkm_path, "r");
+      FileChannel channel = pkm_file.getChannel();
+      MappedByteBuffer data =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      pkm_file.close();  // The mapping remains valid after closing.
+
+      byte[] header = new byte[Etc1.kPkmHeaderSize];
+      if (data.capacity() < Etc1.kPkmHeaderSize) {
+        Log.d("TextureImage::readPkmFile", "Ignoring truncated: " + pkm_path);
+        return null;
+      }
+      data.get(header);
+      if (!Etc1.isValidPkmHeader(header)) {
+        Log.d("TextureImage::readPkmFile", "Ignoring non ETC1: " + pkm_path);
+        return null;
+      }
+      TextureImage image = new TextureImage();
+      image.width = Etc1.getPkmWidth(header);
+      image.height = Etc1.getPkmHeight(header);
+      image.format = Etc1.kGlFormat;
+      image.pixels = data.slice();
+      if (image.getByteCount() !=
+          Etc1.getEncodedSize(image.width, image.height)) {
+        Log.d("TextureImage::readPkmFile", "Ignoring truncated: " + pkm_path);
+        return null;
+      }
+      return image;
+    } catch (IOException ex) {
+      Log.d("TextureImage::readPkmFile",
+            "Could not read: " + pkm_path + ": " + ex.toString());
+      return null;
+    }
+  }
+
+  /** Read a raw texture cache file. The file is laid out as a small header
+   * followed by the pixel data exactly as it is passed to OpenGL:
+   *
+   *   int magic ("ABBT"), int version, int width, int height, int format,
+   *   int type, int sample size, pixels...
+   *
+   * The pixel data is memory mapped rather than read, so loading involves no
+   * decoding, no conversion and no copy onto the Java heap. Null is returned if
+   * the file is unreadable or does not match the expected layout. */
+  public static TextureImage readRawFile(String raw_path) {
+    try {
+      RandomAccessFile raw_file = new RandomAccessFile(raw_path, "r");
+      FileChannel channel = raw_file.getChannel();
+      MappedByteBuffer data =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      raw_file.close();  // The mapping remains valid after closing.
+
+      if (data.capacity() < kRawHeaderSize ||
+          data.getInt(0) != kRawMagic ||
+          data.getInt(4) != kRawVersion) {
+        Log.d("TextureImage::readRawFile", "Ignoring stale cache: " + raw_path);
+        return null;
+      }
+      TextureImage image = new TextureImage();
+      image.width = data.getInt(8);
+      image.height = data.getInt(12);
+      image.format = data.getInt(16);
+      image.type = data.getInt(20);
+      image.sample_size = data.getInt(24);
+      data.position(kRawHeaderSize);
+      image.pixels = data.slice();
+      int bytes_per_pixel = getBytesPerPixel(image.format, image.type);
+      if (image.getByteCount() != image.width * image.height * bytes_per_pixel) {
+        Log.d("TextureImage::readRawFile",
+              "Ignoring truncated cache: " + raw_path);
+        return null;
+      }
+      return image;
+    } catch (IOException ex) {
+      Log.d("TextureImage::readRawFile",
+            "Could not read: " + raw_path + ": " + ex.toString());
+      return null;
+    }
+  }
+
+  /** Write the image to a raw texture cache file. See readRawFile(...). The
+   * file is written to a temporary path and then renamed so that a partially
+   * written file is never mistaken for a valid cache. */
+  public boolean writeRawFile(String raw_path) {
+    File raw_file = new File(raw_path);
+    File temporary_file = new File(raw_path + ".tmp");
+    try {
+      raw_file.getParentFile().mkdirs();
+      FileOutputStream file_stream = new FileOutputStream(temporary_file);
+      DataOutputStream header_stream = new DataOutputStream(file_stream);
+      header_stream.writeInt(kRawMagic);
+      header_stream.writeInt(kRawVersion);
+      header_stream.writeInt(width);
+      header_stream.writeInt(height);
+      header_stream.writeInt(format);
+      header_stream.writeInt(type);
+      header_stream.writeInt(sample_size);
+      header_stream.flush();
+      ByteBuffer pixel_data = pixels.duplicate();
+      pixel_data.position(0);
+      file_stream.getChannel().write(pixel_data);
+      header_stream.close();
+      return temporary_file.renameTo(raw_file);
+    } catch (IOException ex) {
+      Log.d("TextureImage::writeRawFile",
+            "Could not write: " + raw_path + ": " + ex.toString());
+      temporary_file.delete();
+      return false;
+    }
+  }
+
+  public static int getBytesPerPixel(int format, int type) {
+    if (type != GL10.GL_UNSIGNED_BYTE) {
+      return 2;  // All packed 16 bit types.
+    }
+    switch (format) {
+      case GL10.GL_RGBA:
+        return 4;
+      case GL10.GL_RGB:
+        return 3;
+      default:
+        return 1;
+    }
+  }
+
+  /** The Android Bitmap class gives us data in an ARGB pixel format, but we
+   * must convert this to an RGBA byte ordering for OpenGL. The conversion is
+   * done in place such that, once the integers are written to a buffer with
+   * the native byte order, the bytes in memory read R, G, B, A. */
+  public static void convertArgbToRgba(int[] pixels, int count) {
+    if (kLittleEndian) {
+      for (int n = 0; n < count; ++n) {
+        int pixel = pixels[n];
+        pixels[n] = (((0xFF000000 & pixel)) |        // Alpha.
+                     ((0x00FF0000 & pixel) >> 16) |  // Red.
+                     ((0x0000FF00 & pixel)) |        // Green.
+                     ((0x000000FF & pixel) << 16));  // Blue.
+      }
+    } else {
+      for (int n = 0; n < count; ++n) {
+        int pixel = pixels[n];
+        pixels[n] = (pixel << 8) | (pixel >>> 24);
+      }
+    }
+  }
+
+  private static final boolean kLittleEndian =
+      ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+  private static final int     kRawHeaderSize = 28;  // Bytes.
+  private static final int     kRawMagic      = 0x41424254;  // "ABBT".
+  private static final int     kRawVersion    = 2;
+}
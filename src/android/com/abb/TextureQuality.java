@@ -0,0 +1,67 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+
+/** Texture quality tiers, trading image fidelity for texture memory, heap
+ * usage during decoding and fill rate:
+ *
+ *   FULL     32 bit RGBA at full resolution.
+ *   REDUCED  16 bit, RGB 565 for opaque images and RGBA 4444 for the rest.
+ *   LOW      As REDUCED, sampled down to half resolution.
+ *
+ * ETC1 compressed images, see Etc1, are used at every tier where supported
+ * since they are already smaller than any of the above. Images sampled down
+ * keep their full resolution dimensions for the purpose of source rectangles,
+ * so the tier is invisible outside of the graphics system. */
+public enum TextureQuality {
+  FULL, REDUCED, LOW;
+
+  /** Choose a tier for the device from the maximum heap size, which tracks the
+   * memory class of the device on this platform, and whether rendering is
+   * hardware accelerated. Software rasterizers are bound by fill rate, so
+   * they are given the next lower tier. */
+  public static TextureQuality choose(long max_memory,
+                                      boolean has_hardware_acceleration) {
+    TextureQuality quality;
+    if (max_memory >= kFullMemory) {
+      quality = FULL;
+    } else if (max_memory >= kReducedMemory) {
+      quality = REDUCED;
+    } else {
+      quality = LOW;
+    }
+    if (!has_hardware_acceleration && quality != LOW) {
+      quality = values()[quality.ordinal() + 1];
+    }
+    return quality;
+  }
+
+  /** Return the factor by which images are sampled down. */
+  public int getSampleSize() {
+    return this == LOW ? 2 : 1;
+  }
+
+  /** Return true if images are converted to 16 bit pixel formats. */
+  public boolean usesPackedFormats() {
+    return this != FULL;
+  }
+
+  /** Return the suffix distinguishing the raw texture cache files of this
+   * tier, see TextureImage.loadFile(...). */
+  public String getCacheSuffix() {
+    return this == FULL ? "" : "." + name().toLowerCase();
+  }
+
+  private static final long kFullMemory    = 24 * 1024 * 1024;  // Bytes.
+  private static final long kReducedMemory = 16 * 1024 * 1024;  // Bytes.
+}
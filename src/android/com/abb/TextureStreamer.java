@@ -0,0 +1,130 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import android.util.Log;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+
+/** The TextureStreamer decodes and converts images on a background thread so
+ * that the rendering thread is left with only the OpenGL upload. Requests are
+ * queued by image handle and, once decoded, are made available to the
+ * rendering thread through pollDecoded(). All public methods are thread
+ * safe. */
+public class TextureStreamer implements Runnable {
+  /** A single streaming request. The image field is filled in by the worker
+   * thread and remains null if the file could not be decoded. */
+  public class Request {
+    public int            image_handle;
+    public String         file_path;
+    public boolean        allow_etc1;
+    public TextureQuality quality;
+    public TextureImage   image;
+    public long           request_time;  // System.nanoTime() when queued.
+  }
+
+  synchronized public void request(int image_handle, String file_path,
+                                   boolean allow_etc1,
+                                   TextureQuality quality) {
+    Request request = new Request();
+    request.image_handle = image_handle;
+    request.file_path = file_path;
+    request.allow_etc1 = allow_etc1;
+    request.quality = quality;
+    request.request_time = System.nanoTime();
+    mPending.add(request);
+
+    if (mThread == null) {
+      mThread = new Thread(this, "TextureStreamer");
+      mThread.setPriority(Thread.MIN_PRIORITY);
+      mThread.setDaemon(true);
+      mThread.start();
+    }
+    notifyAll();
+  }
+
+  /** Return the next decoded request, or null if none are ready. Must only be
+   * called from the rendering thread. */
+  synchronized public Request pollDecoded() {
+    return mDecoded.poll();
+  }
+
+  /** Drop the requests of an image, whether pending or decoded. A request
+   * being decoded is still handed over, see Graphics.freeImage(...). */
+  synchronized public void cancel(int image_handle) {
+    for (Iterator<Request> it = mPending.iterator(); it.hasNext(); ) {
+      if (it.next().image_handle == image_handle) {
+        it.remove();
+      }
+    }
+    for (Iterator<Request> it = mDecoded.iterator(); it.hasNext(); ) {
+      if (it.next().image_handle == image_handle) {
+        it.remove();
+      }
+    }
+  }
+
+  /** Return the number of requests which have not yet been handed to the
+   * rendering thread, whether or not they have been decoded. */
+  synchronized public int getQueueDepth() {
+    return mPending.size() + mDecoded.size() + (mDecoding ? 1 : 0);
+  }
+
+  synchronized public void shutdown() {
+    mPending.clear();
+    mDecoded.clear();
+    mThread = null;
+    notifyAll();
+  }
+
+  public void run() {
+    // The worker exits as soon as it is no longer the registered thread, which
+    // happens on shutdown().
+    Log.d("TextureStreamer::run", "Starting texture streaming thread...");
+    Thread current_thread = Thread.currentThread();
+    while (true) {
+      Request request;
+      synchronized (this) {
+        while (mThread == current_thread && mPending.isEmpty()) {
+          try {
+            wait();  // Sleep thread until notification.
+          } catch (java.lang.InterruptedException ex) {
+            continue;
+          }
+        }
+        if (mThread != current_thread) {
+          break;
+        }
+        request = mPending.poll();
+        mDecoding = true;
+      }
+
+      request.image = TextureImage.loadFile(request.file_path,
+                                          request.allow_etc1,
+                                          request.quality);
+
+      synchronized (this) {
+        mDecoding = false;
+        if (mThread == current_thread) {
+          mDecoded.add(request);
+        }
+      }
+    }
+    Log.d("TextureStreamer::run", "Finished texture streaming thread.");
+  }
+
+  private LinkedList<Request> mDecoded  = new LinkedList<Request>();
+  private boolean             mDecoding;
+  private LinkedList<Request> mPending  = new LinkedList<Request>();
+  private Thread              mThread;
+}
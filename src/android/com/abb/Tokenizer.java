@@ -0,0 +1,268 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+package android.com.abb;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/** A Tokenizer reads a whole text file into a character buffer with a single
+ * read and walks it as white space separated tokens or as lines. The current
+ * token or line is a range of the buffer, which may be compared and parsed as
+ * a number in place, so nothing is allocated per token unless a String is
+ * asked for. Buffers grow to the largest file read and are reused by
+ * subsequent calls to open(...), so a single Tokenizer should be kept for a
+ * series of files. Files are expected to be ASCII, and bytes are otherwise
+ * read as Latin-1. Not thread-safe, see Content.readFileTokens(...).
+ *
+ * For example:
+ *   tokenizer.open(file_path);
+ *   while (tokenizer.nextToken()) {
+ *     if (tokenizer.tokenEquals("speed")) {
+ *       ...
+ *       speed = tokenizer.nextFloat();
+ */
+public class Tokenizer {
+  /** Read the specified file into the buffer, replacing any previous one, and
+   * position before its first token. */
+  public void open(String file_path) throws IOException {
+    FileInputStream input_stream = new FileInputStream(file_path);
+    try {
+      open(input_stream);
+    } finally {
+      input_stream.close();
+    }
+  }
+
+  /** Read the remainder of the stream into the buffer, as open(String) does
+   * with a file, leaving the stream open. */
+  public void open(InputStream input_stream) throws IOException {
+    int length = 0;
+    int available = Math.max(input_stream.available(), 0);
+    if (mBytes.length < available + 1) {
+      mBytes = new byte[available + 1];
+    }
+    // A file is normally read by the first call, the extra byte detecting a
+    // file which has grown in the meantime. Other streams may take several.
+    int bytes_read;
+    while ((bytes_read = input_stream.read(
+                mBytes, length, mBytes.length - length)) > 0) {
+      length += bytes_read;
+      if (length == mBytes.length) {
+        byte[] bytes = new byte[2 * mBytes.length];
+        System.arraycopy(mBytes, 0, bytes, 0, length);
+        mBytes = bytes;
+      }
+    }
+    if (mChars.length < length) {
+      mChars = new char[mBytes.length];
+    }
+    for (int index = 0; index < length; ++index) {
+      mChars[index] = (char)(mBytes[index] & 0xFF);
+    }
+    mLength = length;
+    mPosition = mStart = mEnd = 0;
+  }
+
+  /** Advance to the next white space separated token. Returns false at the end
+   * of the file. */
+  public boolean nextToken() {
+    char[] chars = mChars;
+    int position = mPosition;
+    while (position < mLength && chars[position] <= ' ') {
+      ++position;
+    }
+    mStart = position;
+    while (position < mLength && chars[position] > ' ') {
+      ++position;
+    }
+    mEnd = mPosition = position;
+    return mStart < mEnd;
+  }
+
+  /** Advance to the next non-empty line, excluding the line terminator.
+   * Returns false at the end of the file. */
+  public boolean nextLine() {
+    char[] chars = mChars;
+    int position = mPosition;
+    while (position < mLength &&
+           (chars[position] == '\n' || chars[position] == '\r')) {
+      ++position;
+    }
+    mStart = position;
+    while (position < mLength &&
+           chars[position] != '\n' && chars[position] != '\r') {
+      ++position;
+    }
+    mEnd = mPosition = position;
+    return mStart < mEnd;
+  }
+
+  /** Return the buffer holding the current token, at getTokenStart(). The
+   * buffer remains valid until the next call to open(...). */
+  public char[] getBuffer() {
+    return mChars;
+  }
+
+  public int getTokenStart() {
+    return mStart;
+  }
+
+  public int getTokenLength() {
+    return mEnd - mStart;
+  }
+
+  public String getToken() {
+    return new String(mChars, mStart, mEnd - mStart);
+  }
+
+  public boolean tokenEquals(String value) {
+    int length = mEnd - mStart;
+    if (value.length() != length) {
+      return false;
+    }
+    for (int index = 0; index < length; ++index) {
+      if (mChars[mStart + index] != value.charAt(index)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Parse the current token as a decimal integer, with an optional sign.
+   * Throws NumberFormatException if the token is not such an integer. */
+  public int parseInt() {
+    char[] chars = mChars;
+    int position = mStart;
+    boolean negative = position < mEnd && chars[position] == '-';
+    if (negative || (position < mEnd && chars[position] == '+')) {
+      ++position;
+    }
+    if (position == mEnd) {
+      throw new NumberFormatException("Expected integer: " + getToken());
+    }
+    // Accumulated negatively, since the negative range is the larger one.
+    int value = 0;
+    for (; position < mEnd; ++position) {
+      int digit = chars[position] - '0';
+      if (digit < 0 || digit > 9 || value < -(Integer.MAX_VALUE / 10)) {
+        throw new NumberFormatException("Expected integer: " + getToken());
+      }
+      value = 10 * value - digit;
+      if (value > 0) {
+        throw new NumberFormatException("Integer overflow: " + getToken());
+      }
+    }
+    if (!negative) {
+      if (value == Integer.MIN_VALUE) {
+        throw new NumberFormatException("Integer overflow: " + getToken());
+      }
+      value = -value;
+    }
+    return value;
+  }
+
+  /** Parse the current token as a decimal number, such as "-12.5" or "1e-3".
+   * Tokens in any other format Float.parseFloat(...) accepts, such as "NaN",
+   * are handed to it, allocating. Throws NumberFormatException if the token is
+   * not a number. */
+  public float parseFloat() {
+    char[] chars = mChars;
+    int position = mStart;
+    boolean negative = position < mEnd && chars[position] == '-';
+    if (negative || (position < mEnd && chars[position] == '+')) {
+      ++position;
+    }
+    long mantissa = 0;
+    int exponent = 0;
+    int digit_count = 0;
+    boolean fraction = false;
+    for (; position < mEnd; ++position) {
+      char c = chars[position];
+      if (c >= '0' && c <= '9') {
+        // Digits beyond the precision of a long only scale the value.
+        if (mantissa < kMaxMantissa) {
+          mantissa = 10 * mantissa + (c - '0');
+          if (fraction) {
+            --exponent;
+          }
+        } else if (!fraction) {
+          ++exponent;
+        }
+        ++digit_count;
+      } else if (c == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    if (position < mEnd && (chars[position] == 'e' || chars[position] == 'E') &&
+        digit_count > 0) {
+      ++position;
+      boolean negative_exponent = position < mEnd && chars[position] == '-';
+      if (negative_exponent || (position < mEnd && chars[position] == '+')) {
+        ++position;
+      }
+      int exponent_value = 0;
+      int exponent_start = position;
+      for (; position < mEnd; ++position) {
+        int digit = chars[position] - '0';
+        if (digit < 0 || digit > 9) {
+          break;
+        }
+        exponent_value = Math.min(10 * exponent_value + digit, kMaxExponent);
+      }
+      if (position == exponent_start) {
+        digit_count = 0;  // Malformed, see below.
+      }
+      exponent += negative_exponent ? -exponent_value : exponent_value;
+    }
+    if (digit_count == 0 || position != mEnd) {
+      return Float.parseFloat(getToken());  // Throws if malformed.
+    }
+
+    double value = mantissa;
+    if (exponent < 0) {
+      value /= exponent >= -kPowersOfTen.length ?
+          kPowersOfTen[-exponent - 1] : Math.pow(10.0, -exponent);
+    } else if (exponent > 0) {
+      value *= exponent <= kPowersOfTen.length ?
+          kPowersOfTen[exponent - 1] : Math.pow(10.0, exponent);
+    }
+    return (float)(negative ? -value : value);
+  }
+
+  public int nextInt() {
+    nextToken();
+    return parseInt();
+  }
+
+  public float nextFloat() {
+    nextToken();
+    return parseFloat();
+  }
+
+  private byte[] mBytes = new byte[kInitialSize];
+  private char[] mChars = new char[kInitialSize];
+  private int    mEnd;  // Exclusive end of the current token.
+  private int    mLength;
+  private int    mPosition;
+  private int    mStart;
+
+  private static final int      kInitialSize = 4 * 1024;
+  private static final int      kMaxExponent = 1000;
+  private static final long     kMaxMantissa = Long.MAX_VALUE / 10 - 10;
+  private static final double[] kPowersOfTen = {
+    1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+}
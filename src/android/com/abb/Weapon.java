@@ -11,13 +11,9 @@
 
 package android.com.abb;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.net.Uri;
 import java.lang.Math;
-import java.util.TreeMap;
 import java.util.Random;
 import junit.framework.Assert;
 
@@ -32,45 +28,12 @@ public class Weapon extends Entity {
   }
 
   public void loadFromUri(Uri uri) {
-    // The following map defines all of the accepted weapon and projectile
-    // parameters. The parameters map is expected to populated with default
-    // values letting the user override only a subset if desired within the text
-    // resource at the specified uri.
-    TreeMap<String, Object> parameters = new TreeMap<String, Object>();
-    parameters.put(kParameterAmmo, new Integer(kDefaultAmmo));
-    parameters.put(kParameterDamage, new Float(kDefaultDamage));
-    parameters.put(kParameterDelay, new Float(kDefaultDelay));
-    parameters.put(kParameterProjectileRectBottom, new Integer(-1));
-    parameters.put(kParameterProjectileRectLeft, new Integer(-1));
-    parameters.put(kParameterProjectileRectRight, new Integer(-1));
-    parameters.put(kParameterProjectileRectTop, new Integer(-1));
-    parameters.put(kParameterProjectileType, kDefaultProjectileType);
-    parameters.put(kParameterSound, "none");
-    parameters.put(kParameterSpread, new Float(kDefaultSpread));
-    parameters.put(kParameterSprite, "none");
-    parameters.put(kParameterTimeout, new Float(kDefaultTimeout));
-    parameters.put(kParameterWeaponRectBottom, new Integer(-1));
-    parameters.put(kParameterWeaponRectLeft, new Integer(-1));
-    parameters.put(kParameterWeaponRectRight, new Integer(-1));
-    parameters.put(kParameterWeaponRectTop, new Integer(-1));
-    parameters.put(kParameterVelocity, new Float(kDefaultVelocity));
-    parameters.put(kParameterVibration, new Integer(kDefaultVibration));
-
-    // Given a fully-specified default weapon parameters map, we can parse and
-    // merge in the user defined values. Note that the following method rejects
-    // all keys provided by the user which were not defined above.
-    String file_path = Content.getFilePath(uri);
-    String[] tokens = Content.readFileTokens(file_path);
-    Content.mergeKeyValueTokensWithMap(tokens, parameters);
-    Content.assertIntegerNotNone(parameters, kParameterProjectileRectBottom);
-    Content.assertIntegerNotNone(parameters, kParameterProjectileRectLeft);
-    Content.assertIntegerNotNone(parameters, kParameterProjectileRectRight);
-    Content.assertIntegerNotNone(parameters, kParameterProjectileRectTop);
-    Content.assertStringNotNone(parameters, kParameterSprite);
-    Content.assertIntegerNotNone(parameters, kParameterWeaponRectBottom);
-    Content.assertIntegerNotNone(parameters, kParameterWeaponRectLeft);
-    Content.assertIntegerNotNone(parameters, kParameterWeaponRectRight);
-    Content.assertIntegerNotNone(parameters, kParameterWeaponRectTop);
+    // The weapon and projectile parameters, any of which not specified within
+    // the definition at the specified uri take the default values below.
+    // Unknown parameters are rejected.
+    DefinitionFile definition =
+        Content.readDefinition(uri, DefinitionFile.kKindParameters);
+    Content.assertParameters(definition, kParameters, kRequiredParameters);
 
     // Path names are expected to be relative to the path specified for the
     // weapon definition file.
@@ -78,34 +41,34 @@ public class Weapon extends Entity {
     String base_uri_string =
         uri_string.substring(0, uri_string.lastIndexOf("/") + 1);
 
-    // Now that the user defined weapon parameters have been parsed and merged,
-    // we can initialize the weapon instance state accordingly.
-    mAmmo = mMaxAmmo = ((Integer)parameters.get(kParameterAmmo)).intValue();
-    mDamage = ((Float)parameters.get(kParameterDamage)).floatValue();
-    mDelay = ((Float)parameters.get(kParameterDelay)).floatValue();
-    mProjectileIsFlame = parameters.get(kParameterProjectileType).equals("flame");
-    String sound = (String)parameters.get(kParameterSound);
+    mAmmo = mMaxAmmo = definition.getInt(kParameterAmmo, kDefaultAmmo);
+    mDamage = definition.getFloat(kParameterDamage, kDefaultDamage);
+    mDelay = definition.getFloat(kParameterDelay, kDefaultDelay);
+    mProjectileIsFlame = definition.getString(
+        kParameterProjectileType, kDefaultProjectileType).equals("flame");
+    String sound = definition.getString(kParameterSound, "none");
     if (!sound.equals("none")) {
       mSoundUri = Uri.parse(base_uri_string + sound);
       mGameState.preloadSound(mSoundUri);
     } else {
       mSoundUri = null;
     }
-    mSpread = ((Float)parameters.get(kParameterSpread)).floatValue();
-    mTimeout = ((Float)parameters.get(kParameterTimeout)).floatValue();
-    mVelocity = ((Float)parameters.get(kParameterVelocity)).floatValue();
-    mVibration = ((Integer)parameters.get(kParameterVibration)).intValue();
-    mSpriteUri = Uri.parse(base_uri_string + (String)parameters.get(kParameterSprite));
+    mSpread = definition.getFloat(kParameterSpread, kDefaultSpread);
+    mTimeout = definition.getFloat(kParameterTimeout, kDefaultTimeout);
+    mVelocity = definition.getFloat(kParameterVelocity, kDefaultVelocity);
+    mVibration = definition.getInt(kParameterVibration, kDefaultVibration);
+    mSpriteUri = Uri.parse(base_uri_string +
+                           definition.getString(kParameterSprite, null));
     sprite_rect = new Rect(
-        ((Integer)parameters.get(kParameterWeaponRectLeft)).intValue(),
-        ((Integer)parameters.get(kParameterWeaponRectTop)).intValue(),
-        ((Integer)parameters.get(kParameterWeaponRectRight)).intValue(),
-        ((Integer)parameters.get(kParameterWeaponRectBottom)).intValue());
+        definition.getInt(kParameterWeaponRectLeft, -1),
+        definition.getInt(kParameterWeaponRectTop, -1),
+        definition.getInt(kParameterWeaponRectRight, -1),
+        definition.getInt(kParameterWeaponRectBottom, -1));
     mProjectileRect = new Rect(
-        ((Integer)parameters.get(kParameterProjectileRectLeft)).intValue(),
-        ((Integer)parameters.get(kParameterProjectileRectTop)).intValue(),
-        ((Integer)parameters.get(kParameterProjectileRectRight)).intValue(),
-        ((Integer)parameters.get(kParameterProjectileRectBottom)).intValue());
+        definition.getInt(kParameterProjectileRectLeft, -1),
+        definition.getInt(kParameterProjectileRectTop, -1),
+        definition.getInt(kParameterProjectileRectRight, -1),
+        definition.getInt(kParameterProjectileRectBottom, -1));
   }
 
   public void setTarget(float target_x, float target_y) {
@@ -175,11 +138,10 @@ public class Weapon extends Entity {
                    float hand_ry) {
     // Load part image if it hasn't yet been loaded. This is necessary since the
     // graphics class must only be interacted with from the main thread. This is
-    // a product of the lack of thread safety in OpenGL.
+    // a product of the lack of thread safety in OpenGL. The image itself is
+    // decoded in the background and streamed in over the following frames.
     if (mSpriteUri != null) {
-      String image_path = Content.getFilePath(mSpriteUri);
-      Bitmap image_bitmap = BitmapFactory.decodeFile(image_path);
-      sprite_image = graphics.loadImageFromBitmap(image_bitmap);
+      sprite_image = graphics.loadImageFromUriAsync(mSpriteUri);
       mSpriteUri = null;
     }
 
@@ -188,13 +150,14 @@ public class Weapon extends Entity {
     if (sprite_image != -1) {
       float x_offset = -sprite_rect.width() / 2.0f * zoom;
       float y_offset = -sprite_rect.height() / 2.0f * zoom;
-      mDrawingMatrix.setTranslate(hand_rx, hand_ry);
-      mDrawingMatrix.preRotate(
-          57.2958f * (float)Math.atan2(hand_ry - hand_ly, hand_rx - hand_lx));
-      mDrawingMatrix.preTranslate(x_offset, y_offset);
-      mDrawingMatrix.preScale(
+      mDrawingTransformation.setTranslateRotateScale(
+          hand_rx, hand_ry,
+          57.2958f * (float)Math.atan2(hand_ry - hand_ly, hand_rx - hand_lx),
+          1.0f, 1.0f);
+      mDrawingTransformation.preTranslateScale(
+          x_offset, y_offset,
           zoom * sprite_rect.width(), zoom * sprite_rect.height());
-      graphics.drawImage(sprite_image, sprite_rect, mDrawingMatrix,
+      graphics.drawImage(sprite_image, sprite_rect, mDrawingTransformation,
                          false, sprite_flipped_horizontal, 1);
     }
   }
@@ -208,7 +171,7 @@ public class Weapon extends Entity {
   private float         mCurrentDelay;
   private float         mDamage;
   private float         mDelay;
-  private static Matrix mDrawingMatrix = new Matrix();
+  private static Affine mDrawingTransformation = new Affine();
   private GameState     mGameState;
   private int           mMaxAmmo;
   private float         mPhase;
@@ -252,4 +215,18 @@ public class Weapon extends Entity {
   private static final String kParameterVerticalSpread       = "vertical_spread";
   private static final String kParameterVelocity             = "velocity";
   private static final String kParameterVibration            = "vibration";
+
+  private static final String[] kParameters = {
+    kParameterAmmo, kParameterDamage, kParameterDelay,
+    kParameterProjectileRectBottom, kParameterProjectileRectLeft,
+    kParameterProjectileRectRight, kParameterProjectileRectTop,
+    kParameterProjectileType, kParameterSound, kParameterSpread,
+    kParameterSprite, kParameterTimeout, kParameterWeaponRectBottom,
+    kParameterWeaponRectLeft, kParameterWeaponRectRight,
+    kParameterWeaponRectTop, kParameterVelocity, kParameterVibration };
+  private static final String[] kRequiredParameters = {
+    kParameterProjectileRectBottom, kParameterProjectileRectLeft,
+    kParameterProjectileRectRight, kParameterProjectileRectTop,
+    kParameterSprite, kParameterWeaponRectBottom, kParameterWeaponRectLeft,
+    kParameterWeaponRectRight, kParameterWeaponRectTop };
 }
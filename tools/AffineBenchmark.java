@@ -0,0 +1,189 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+import android.com.abb.Affine;
+import java.awt.geom.AffineTransform;
+import java.util.Random;
+
+
+/** Check and benchmark of the Affine math against java.awt.geom.AffineTransform
+ * on the development machine, see benchmark_affine.sh. AffineTransform uses the
+ * same pre-multiplying convention for its concatenating operations, so random
+ * sequences of operations applied to both must agree.
+ *
+ *   AffineBenchmark           Time the operations used while drawing.
+ *   AffineBenchmark --check   Compare against AffineTransform.
+ */
+public class AffineBenchmark {
+  public static void main(String[] args) {
+    if (args.length == 1 && args[0].equals("--check")) {
+      System.exit(check() ? 0 : 1);
+    } else if (args.length == 0) {
+      benchmark();
+    } else {
+      System.err.println("Usage: AffineBenchmark [--check]");
+      System.exit(2);
+    }
+  }
+
+  private static boolean check() {
+    Random random = new Random(kSeed);
+    Affine affine = new Affine();
+    Affine other = new Affine();
+    float[] values = new float[6];
+    float[] gl_matrix = new float[16];
+    int failures = 0;
+    for (int test = 0; test < kCheckCount; ++test) {
+      float x = randomFloat(random);
+      float y = randomFloat(random);
+      float degrees = 360.0f * random.nextFloat();
+      float scale_x = randomFloat(random);
+      float scale_y = randomFloat(random);
+      float offset_x = randomFloat(random);
+      float offset_y = randomFloat(random);
+
+      // The sequence Weapon.draw(...) and Grappling.draw(...) use.
+      affine.setTranslateRotateScale(x, y, degrees, 1.0f, 1.0f);
+      affine.preTranslateScale(offset_x, offset_y, scale_x, scale_y);
+      AffineTransform reference = new AffineTransform();
+      reference.translate(x, y);
+      reference.rotate(Math.toRadians(degrees));
+      reference.translate(offset_x, offset_y);
+      reference.scale(scale_x, scale_y);
+      failures += compare("fused", affine, reference);
+
+      // The sequence used while baking articulated animations, through the
+      // static array forms.
+      Affine.setIdentity(values, 0);
+      Affine.preTranslate(values, 0, x, y);
+      Affine.preRotate(values, 0, degrees);
+      Affine.preTranslate(values, 0, offset_x, offset_y);
+      Affine.preScale(values, 0, scale_x, scale_y);
+      other.set(values, 0);
+      failures += compare("static", other, reference);
+
+      // Concatenation with a root transformation, as ArticulatedEntity draws.
+      affine.setTranslate(offset_y, offset_x);
+      affine.preScale(scale_y, -scale_x);
+      affine.setConcat(affine, other);
+      AffineTransform root = new AffineTransform();
+      root.translate(offset_y, offset_x);
+      root.scale(scale_y, -scale_x);
+      root.concatenate(reference);
+      failures += compare("concat", affine, root);
+
+      // The GL matrix must map points to the y-up equivalents.
+      affine.getGlMatrix(gl_matrix, kSurfaceHeight);
+      float gl_x = gl_matrix[0] * x + gl_matrix[4] * y + gl_matrix[12];
+      float gl_y = gl_matrix[1] * x + gl_matrix[5] * y + gl_matrix[13];
+      float magnitude = Math.max(Math.abs(gl_x), Math.abs(gl_y)) + 1.0f;
+      if (!close(gl_x, affine.mapX(x, y), magnitude) ||
+          !close(gl_y, kSurfaceHeight - affine.mapY(x, y), magnitude)) {
+        System.err.println("Mismatch in gl matrix.");
+        ++failures;
+      }
+    }
+    System.out.println((failures == 0 ? "PASS" : "FAIL") + ": " +
+                       failures + " of " + kCheckCount * 4 + " mismatched.");
+    return failures == 0;
+  }
+
+  private static int compare(String name, Affine affine,
+                             AffineTransform reference) {
+    // Elements may be the small difference of large products, so the error is
+    // relative to the magnitude of the whole transformation.
+    double[] elements = new double[6];
+    reference.getMatrix(elements);
+    double magnitude = 1.0;
+    for (double element : elements) {
+      magnitude = Math.max(magnitude, Math.abs(element));
+    }
+    if (close(affine.a, reference.getScaleX(), magnitude) &&
+        close(affine.b, reference.getShearX(), magnitude) &&
+        close(affine.tx, reference.getTranslateX(), magnitude) &&
+        close(affine.c, reference.getShearY(), magnitude) &&
+        close(affine.d, reference.getScaleY(), magnitude) &&
+        close(affine.ty, reference.getTranslateY(), magnitude)) {
+      return 0;
+    }
+    System.err.println("Mismatch in " + name + ": " + affine.a + " " +
+                       affine.b + " " + affine.tx + " " + affine.c + " " +
+                       affine.d + " " + affine.ty + " vs " + reference);
+    return 1;
+  }
+
+  private static boolean close(double value, double expected,
+                               double magnitude) {
+    return Math.abs(value - expected) <= kTolerance * magnitude;
+  }
+
+  private static float randomFloat(Random random) {
+    return kRange * (2.0f * random.nextFloat() - 1.0f);
+  }
+
+  private static void benchmark() {
+    Affine affine = new Affine();
+    Affine root = new Affine();
+    float[] gl_matrix = new float[16];
+    float sink = 0.0f;
+    for (int pass = 0; pass < 2; ++pass) {  // The first pass warms up the JIT.
+      long start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        affine.setTranslateRotateScale(n, -n, n, 1.0f, 1.0f);
+        affine.preTranslateScale(1.0f, 2.0f, 3.0f, 4.0f);
+        sink += affine.tx;
+      }
+      long fused_time = System.nanoTime() - start_time;
+
+      start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        affine.setTranslate(n, -n);
+        affine.preRotate(n);
+        affine.preTranslate(1.0f, 2.0f);
+        affine.preScale(3.0f, 4.0f);
+        sink += affine.tx;
+      }
+      long separate_time = System.nanoTime() - start_time;
+
+      root.setTranslate(10.0f, 20.0f);
+      root.preScale(2.0f, -2.0f);
+      start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        affine.tx = n;
+        affine.setConcat(root, affine);
+        affine.getGlMatrix(gl_matrix, kSurfaceHeight);
+        sink += gl_matrix[13];
+      }
+      long concat_time = System.nanoTime() - start_time;
+
+      if (pass > 0) {
+        report("fused", fused_time);
+        report("separate", separate_time);
+        report("concat+gl", concat_time);
+      }
+    }
+    if (sink == 0.123f) {  // Keep the results live.
+      System.out.println(sink);
+    }
+  }
+
+  private static void report(String name, long nanoseconds) {
+    System.out.println(String.format(
+        "%-10s %6.1f ns/op", name, (double)nanoseconds / kBenchmarkCount));
+  }
+
+  private static final int   kBenchmarkCount = 10000000;
+  private static final int   kCheckCount     = 10000;
+  private static final float kRange          = 100.0f;
+  private static final long  kSeed           = 1;
+  private static final float kSurfaceHeight  = 320.0f;
+  private static final float kTolerance      = 1e-4f;
+}
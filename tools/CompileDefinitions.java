@@ -0,0 +1,339 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+import android.com.abb.DefinitionFile;
+import android.com.abb.LevelFile;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+
+
+/** Offline definition compiler, run on the development machine before
+ * packaging, see compile_definitions.sh. The kind of a definition file is
+ * given by what refers to it, so the definitions are found as the game finds
+ * them: every *.animated file beneath the specified directory is an animated
+ * entity, and the enemy and weapon triggers of every level_N.txt name
+ * parameter files, with each enemy naming its articulated entity and
+ * animation in turn. Each is written alongside its text file, with ".bin"
+ * appended, see DefinitionFile.
+ *
+ *   CompileDefinitions <directory>          Write .bin files.
+ *   CompileDefinitions --check <directory>  Verify .bin files, write nothing.
+ *
+ * The check mode fails if a definition does not load from its text file, or
+ * if its .bin file is older than the text file or loads differently from it.
+ * Definitions without a .bin file are loaded from text by the game, as in a
+ * tree which has not been compiled, and pass. Generated definitions of every
+ * kind are also round tripped, and the time to load them both ways reported,
+ * so that the format itself is exercised even when no definitions exist. */
+public class CompileDefinitions {
+  public static void main(String[] args) throws IOException {
+    boolean check = args.length == 2 && args[0].equals("--check");
+    if (args.length != 1 && !check) {
+      System.err.println("Usage: CompileDefinitions [--check] <directory>");
+      System.exit(2);
+    }
+
+    mFailures = 0;
+    if (check) {
+      checkSynthetic();
+    }
+    findDefinitions(new File(args[args.length - 1]));
+    for (String path : mDefinitions.keySet()) {
+      processDefinition(new File(path), mDefinitions.get(path).byteValue(),
+                        check);
+    }
+    if (mFailures > 0) {
+      System.err.println(mFailures + " definition(s) failed.");
+      System.exit(1);
+    }
+  }
+
+  private static void findDefinitions(File directory) throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (file.isDirectory()) {
+        findDefinitions(file);
+      } else if (name.endsWith(".animated")) {
+        addDefinition(file, DefinitionFile.kKindAnimatedEntity);
+      } else if (name.startsWith("level_") && name.endsWith(".txt")) {
+        findLevelDefinitions(file);
+      }
+    }
+  }
+
+  /** Add the enemies and weapons of the level's triggers, which are relative
+   * to the level, as Map does, and the entities and animations of the
+   * enemies, which are relative to the enemy, as Enemy.loadFromUri(...)
+   * does. */
+  private static void findLevelDefinitions(File level_file)
+      throws IOException {
+    LevelFile level = new LevelFile();
+    try {
+      level.readLayout(level_file.getPath());
+    } catch (IOException ex) {
+      System.err.println("Cannot load: " + level_file + ": " + ex);
+      ++mFailures;
+      return;
+    }
+    File directory = level_file.getParentFile();
+    for (int index = 0; index < level.trigger_types.length; ++index) {
+      if (level.trigger_types[index] == LevelFile.kTriggerWeapon) {
+        addDefinition(new File(directory, level.trigger_values[index]),
+                      DefinitionFile.kKindParameters);
+      } else if (level.trigger_types[index] == LevelFile.kTriggerEnemy) {
+        File enemy_file = new File(directory, level.trigger_values[index]);
+        if (!addDefinition(enemy_file, DefinitionFile.kKindParameters)) {
+          continue;
+        }
+        try {
+          DefinitionFile enemy = DefinitionFile.readText(
+              enemy_file.getPath(), DefinitionFile.kKindParameters);
+          File enemy_directory = enemy_file.getParentFile();
+          addDefinition(new File(enemy_directory,
+                                 enemy.getString("entity", "none")),
+                        DefinitionFile.kKindArticulatedEntity);
+          addDefinition(new File(enemy_directory,
+                                 enemy.getString("animation", "none")),
+                        DefinitionFile.kKindAnimation);
+        } catch (Exception ex) {
+          System.err.println("Cannot load: " + enemy_file + ": " + ex);
+          ++mFailures;
+        }
+      }
+    }
+  }
+
+  /** Record the kind of the definition. Returns false if it was already
+   * recorded or can not be compiled. */
+  private static boolean addDefinition(File file, byte kind) {
+    String path = file.getPath();
+    Byte recorded_kind = mDefinitions.get(path);
+    if (recorded_kind != null) {
+      if (recorded_kind.byteValue() != kind) {
+        System.err.println("Used as two kinds of definition: " + file);
+        ++mFailures;
+      }
+      return false;
+    }
+    if (!file.exists()) {
+      System.err.println("Missing: " + file);
+      ++mFailures;
+      return false;
+    }
+    mDefinitions.put(path, Byte.valueOf(kind));
+    return true;
+  }
+
+  private static void processDefinition(File file, byte kind, boolean check)
+      throws IOException {
+    DefinitionFile source;
+    try {
+      source = DefinitionFile.readText(file.getPath(), kind);
+    } catch (IOException ex) {
+      System.err.println("Cannot load: " + file + ": " + ex);
+      ++mFailures;
+      return;
+    }
+    File binary_file = new File(file.getPath() + ".bin");
+
+    if (check) {
+      if (!binary_file.exists()) {
+        // The game reads the text file, already checked to load above.
+        System.out.println("Not compiled: " + file);
+        return;
+      }
+      if (binary_file.lastModified() < file.lastModified()) {
+        System.err.println("Stale: " + binary_file);
+        ++mFailures;
+        return;
+      }
+      try {
+        compare(binary_file.toString(), source,
+                DefinitionFile.readBinary(binary_file.getPath(), kind));
+      } catch (IOException ex) {
+        System.err.println("Invalid: " + binary_file + ": " + ex);
+        ++mFailures;
+      }
+    } else {
+      source.writeBinary(binary_file.getPath());
+      System.out.println("Wrote: " + binary_file + " (" +
+                         binary_file.length() + " bytes)");
+    }
+  }
+
+  private static void compare(String name, DefinitionFile expected,
+                              DefinitionFile actual) {
+    if (expected.kind != actual.kind ||
+        !equal(expected.image, actual.image) ||
+        !Arrays.equals(expected.part_names, actual.part_names) ||
+        !Arrays.equals(expected.part_parents, actual.part_parents) ||
+        !Arrays.equals(expected.part_rects, actual.part_rects) ||
+        expected.center_x != actual.center_x ||
+        expected.center_y != actual.center_y ||
+        expected.length != actual.length ||
+        !Arrays.equals(expected.track_names, actual.track_names) ||
+        !Arrays.equals(expected.track_starts, actual.track_starts) ||
+        !Arrays.equals(expected.key_times, actual.key_times) ||
+        !Arrays.equals(expected.key_angles, actual.key_angles) ||
+        !Arrays.equals(expected.sequence_names, actual.sequence_names) ||
+        !Arrays.equals(expected.sequence_frames, actual.sequence_frames) ||
+        !Arrays.equals(expected.sequence_rates, actual.sequence_rates) ||
+        !Arrays.equals(expected.keys, actual.keys) ||
+        !Arrays.equals(expected.types, actual.types) ||
+        !Arrays.equals(expected.int_values, actual.int_values) ||
+        !Arrays.equals(expected.float_values, actual.float_values) ||
+        !Arrays.equals(expected.string_values, actual.string_values)) {
+      System.err.println("Mismatch: " + name);
+      ++mFailures;
+    }
+  }
+
+  private static boolean equal(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  /** Round trip a generated definition of every kind through the binary
+   * format, check the contents of the text parse, and time loading them both
+   * ways. */
+  private static void checkSynthetic() throws IOException {
+    Random random = new Random(kSeed);
+    String[] parts = { "torso", "head", "thigh", "leg", "arm", "forearm" };
+    String[] parents = { "root", "torso", "torso", "thigh", "torso", "arm" };
+
+    StringBuilder entity = new StringBuilder("entity.png\n");
+    for (int part = 0; part < parts.length; ++part) {
+      entity.append(parts[part] + " " + parents[part] + " " +
+                    random.nextInt(64) + " " + random.nextInt(64) + " " +
+                    (64 + random.nextInt(64)) + " " +
+                    (64 + random.nextInt(64)) + "\n");
+    }
+
+    // Tracks are interleaved and, within a track, given in reverse.
+    StringBuilder animation = new StringBuilder("center_x 10\ncenter_y -4.5\n");
+    for (int frame = kKeyFrameCount - 1; frame >= 0; --frame) {
+      animation.append(parts[frame % parts.length] + " " +
+                       (frame / parts.length) * 0.1f + " " +
+                       (random.nextInt(3600) / 10.0f - 180.0f) + "\n");
+    }
+
+    String animated = "avatar.png\nstanding 0 0 48 48 1 1\n" +
+        "running 0 48 48 48 3 10\njumping 0 240 48 48 4 12.5\n";
+    String parameters = "ammo 30\ndamage 0.5\ndelay 1\nsprite weapon.png\n" +
+        "projectile_type flame\n";
+
+    File[] files = {
+      writeTemporary(entity.toString()), writeTemporary(animation.toString()),
+      writeTemporary(animated), writeTemporary(parameters) };
+    byte[] kinds = {
+      DefinitionFile.kKindArticulatedEntity, DefinitionFile.kKindAnimation,
+      DefinitionFile.kKindAnimatedEntity, DefinitionFile.kKindParameters };
+    DefinitionFile[] sources = new DefinitionFile[files.length];
+    for (int index = 0; index < files.length; ++index) {
+      sources[index] = DefinitionFile.readText(files[index].getPath(),
+                                               kinds[index]);
+      File binary_file = new File(files[index].getPath() + ".bin");
+      binary_file.deleteOnExit();
+      sources[index].writeBinary(binary_file.getPath());
+      compare("synthetic definition of kind " + kinds[index], sources[index],
+              DefinitionFile.readBinary(binary_file.getPath(), kinds[index]));
+    }
+    checkParse(sources[0], sources[1], sources[3]);
+
+    for (int pass = 0; pass < 2; ++pass) {  // The first pass warms up the JIT.
+      long text_time = 0;
+      long binary_time = 0;
+      for (int index = 0; index < files.length; ++index) {
+        String path = files[index].getPath();
+        long start_time = System.nanoTime();
+        for (int n = 0; n < kBenchmarkCount; ++n) {
+          DefinitionFile.readText(path, kinds[index]);
+        }
+        text_time += System.nanoTime() - start_time;
+        start_time = System.nanoTime();
+        for (int n = 0; n < kBenchmarkCount; ++n) {
+          DefinitionFile.readBinary(path + ".bin", kinds[index]);
+        }
+        binary_time += System.nanoTime() - start_time;
+      }
+      if (pass > 0) {
+        report("text", text_time);
+        report("binary", binary_time);
+      }
+    }
+  }
+
+  /** Check the parts are flattened with parents first, the key frames sorted
+   * within their tracks, and the parameters typed. */
+  private static void checkParse(DefinitionFile entity,
+                                 DefinitionFile animation,
+                                 DefinitionFile parameters) {
+    boolean valid = entity.part_names[0].equals("root") &&
+        entity.part_parents[0] == -1;
+    for (int part = 1; part < entity.part_names.length; ++part) {
+      valid &= entity.part_parents[part] >= 0 &&
+          entity.part_parents[part] < part;
+    }
+    for (int track = 0; track < animation.track_names.length; ++track) {
+      for (int key = animation.track_starts[track] + 1;
+           key < animation.track_starts[track + 1]; ++key) {
+        valid &= animation.key_times[key - 1] <= animation.key_times[key];
+      }
+    }
+    valid &= animation.track_starts[animation.track_names.length] ==
+        kKeyFrameCount;
+    valid &= parameters.getInt("ammo", 0) == 30 &&
+        parameters.getFloat("damage", 0.0f) == 0.5f &&
+        parameters.getFloat("delay", 0.0f) == 1.0f &&
+        parameters.getString("sprite", "none").equals("weapon.png") &&
+        parameters.getFloat("spread", 0.25f) == 0.25f;
+    try {
+      parameters.getInt("damage", 0);
+      valid = false;  // A float may not be read as an int.
+    } catch (IllegalArgumentException ex) {
+      // Expected.
+    }
+    if (!valid) {
+      System.err.println("Mismatch: synthetic definition contents");
+      ++mFailures;
+    }
+  }
+
+  private static File writeTemporary(String contents) throws IOException {
+    File file = File.createTempFile("definition_", ".txt");
+    file.deleteOnExit();
+    FileWriter writer = new FileWriter(file);
+    writer.write(contents);
+    writer.close();
+    return file;
+  }
+
+  private static void report(String name, long nanoseconds) {
+    System.out.println(String.format(
+        "%-10s %8.1f us/load", name,
+        (double)nanoseconds / kBenchmarkCount / 4 / 1000.0));
+  }
+
+  private static TreeMap<String, Byte> mDefinitions =
+      new TreeMap<String, Byte>();
+  private static int mFailures;
+
+  private static final int  kBenchmarkCount = 2000;
+  private static final int  kKeyFrameCount  = 600;
+  private static final long kSeed           = 1;
+}
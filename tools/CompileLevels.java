@@ -0,0 +1,230 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+import android.com.abb.LevelFile;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/** Offline level compiler, run on the development machine before packaging,
+ * see compile_levels.sh. Every level_N.txt found beneath the specified
+ * directory is loaded together with its tiles and effects files, as Map does,
+ * and written alongside as level_N.bin, see LevelFile.
+ *
+ *   CompileLevels <directory>          Write .bin files.
+ *   CompileLevels --check <directory>  Verify .bin files, write nothing.
+ *
+ * The check mode fails if a .bin file is missing, older than its sources or
+ * loads differently from them, including the source hashes the game checks
+ * before preferring it to the text files. A generated level is also round
+ * tripped, and the time to load it both ways reported, so that the format
+ * itself is exercised even when no levels exist. */
+public class CompileLevels {
+  public static void main(String[] args) throws IOException {
+    boolean check = args.length == 2 && args[0].equals("--check");
+    if (args.length != 1 && !check) {
+      System.err.println("Usage: CompileLevels [--check] <directory>");
+      System.exit(2);
+    }
+
+    mFailures = 0;
+    if (check) {
+      checkSynthetic();
+    }
+    processDirectory(new File(args[args.length - 1]), check);
+    if (mFailures > 0) {
+      System.err.println(mFailures + " level(s) failed.");
+      System.exit(1);
+    }
+  }
+
+  private static void processDirectory(File directory, boolean check)
+      throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      if (file.isDirectory()) {
+        processDirectory(file, check);
+      } else if (name.startsWith("level_") && name.endsWith(".txt")) {
+        processLevel(directory, name.substring(
+            "level_".length(), name.length() - ".txt".length()), check);
+      }
+    }
+  }
+
+  /** Compile or check a level, falling back to the default tiles and effects
+   * files of the directory as Map.loadFromUri(...) does. */
+  private static void processLevel(File directory, String level, boolean check)
+      throws IOException {
+    File level_file = new File(directory, "level_" + level + ".txt");
+    File tiles_file = new File(directory, "tiles_" + level + ".txt");
+    if (!tiles_file.exists()) {
+      tiles_file = new File(directory, "tiles_default.txt");
+    }
+    File effects_file = new File(directory, "effects_" + level + ".txt");
+    if (!effects_file.exists()) {
+      effects_file = new File(directory, "effects_default.txt");
+    }
+    File binary_file = new File(directory, "level_" + level + ".bin");
+
+    LevelFile source = new LevelFile();
+    try {
+      readSources(source, level_file, tiles_file, effects_file);
+    } catch (IOException ex) {
+      System.err.println("Cannot load: " + level_file + ": " + ex);
+      ++mFailures;
+      return;
+    }
+
+    if (check) {
+      long sources_modified = Math.max(
+          level_file.lastModified(),
+          Math.max(tiles_file.lastModified(), effects_file.lastModified()));
+      if (!binary_file.exists() ||
+          binary_file.lastModified() < sources_modified) {
+        System.err.println("Missing or stale: " + binary_file);
+        ++mFailures;
+        return;
+      }
+      LevelFile binary = new LevelFile();
+      try {
+        binary.readBinary(binary_file.getPath());
+      } catch (IOException ex) {
+        System.err.println("Invalid: " + binary_file + ": " + ex);
+        ++mFailures;
+        return;
+      }
+      compare(binary_file.toString(), source, binary);
+    } else {
+      source.writeBinary(binary_file.getPath());
+      System.out.println("Wrote: " + binary_file + " (" +
+                         binary_file.length() + " bytes)");
+    }
+  }
+
+  /** Load the level from its text files, recording their hashes as Map
+   * expects of a current binary level. */
+  private static void readSources(LevelFile level, File level_file,
+                                  File tiles_file, File effects_file)
+      throws IOException {
+    level.readText(level_file.getPath(), tiles_file.getPath(),
+                   effects_file.getPath());
+    level.source_hashes[LevelFile.kSourceLevel] =
+        LevelFile.hashFile(level_file.getPath());
+    level.source_hashes[LevelFile.kSourceTiles] =
+        LevelFile.hashFile(tiles_file.getPath());
+    level.source_hashes[LevelFile.kSourceEffects] =
+        LevelFile.hashFile(effects_file.getPath());
+  }
+
+  private static void compare(String name, LevelFile expected,
+                              LevelFile actual) {
+    if (!Arrays.equals(expected.tiles, actual.tiles) ||
+        !Arrays.equals(expected.run_lengths, actual.run_lengths) ||
+        !Arrays.equals(expected.effects, actual.effects) ||
+        !Arrays.equals(expected.trigger_types, actual.trigger_types) ||
+        !Arrays.equals(expected.trigger_values, actual.trigger_values) ||
+        !Arrays.equals(expected.source_names, actual.source_names) ||
+        !Arrays.equals(expected.source_hashes, actual.source_hashes) ||
+        expected.starting_index != actual.starting_index ||
+        !expected.tiles_image.equals(actual.tiles_image) ||
+        !expected.background_image.equals(actual.background_image)) {
+      System.err.println("Mismatch: " + name);
+      ++mFailures;
+    }
+  }
+
+  /** Round trip a generated level with every kind of trigger and effect
+   * through the binary format, and time loading it both ways. */
+  private static void checkSynthetic() throws IOException {
+    File directory = File.createTempFile("levels_", "");
+    directory.delete();
+    directory.mkdir();
+    File level_file = new File(directory, "level_0.txt");
+    File tiles_file = new File(directory, "tiles_default.txt");
+    File effects_file = new File(directory, "effects_default.txt");
+    File binary_file = new File(directory, "level_0.bin");
+    for (File file : new File[] {
+             level_file, tiles_file, effects_file, binary_file }) {
+      file.deleteOnExit();
+    }
+    directory.deleteOnExit();
+
+    Random random = new Random(kSeed);
+    StringBuilder level = new StringBuilder();
+    for (int tile = 0; tile < kMapTiles * kMapTiles; ++tile) {
+      level.append((char)('a' + (random.nextInt(4) == 0 ?
+                                 random.nextInt(kTileCount) : 0)));
+    }
+    String[] triggers = {
+      "enemy=enemy_0.txt", "weapon=shotgun.txt", "alert=Jump!", "unknown" };
+    for (int trigger = 0; trigger < kTriggerCount; ++trigger) {
+      level.append("\n" + random.nextInt(kMapTiles) + "," +
+                   random.nextInt(kMapTiles) + ",\"" +
+                   triggers[trigger % triggers.length] + "\"");
+    }
+    FileWriter writer = new FileWriter(level_file);
+    writer.write(level.toString());
+    writer.close();
+    writer = new FileWriter(tiles_file);
+    writer.write("tiles.png background.png\n");
+    writer.close();
+    writer = new FileWriter(effects_file);
+    writer.write("1 solid\n2 solid\n3 death\n4 explode\n5 solid\n" +
+                 "5 explode\n");
+    writer.close();
+
+    LevelFile source = new LevelFile();
+    readSources(source, level_file, tiles_file, effects_file);
+    source.writeBinary(binary_file.getPath());
+    LevelFile binary = new LevelFile();
+    binary.readBinary(binary_file.getPath());
+    compare("synthetic level", source, binary);
+
+    for (int pass = 0; pass < 2; ++pass) {  // The first pass warms up the JIT.
+      long start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        source.readText(level_file.getPath(), tiles_file.getPath(),
+                        effects_file.getPath());
+      }
+      long text_time = System.nanoTime() - start_time;
+      start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        binary.readBinary(binary_file.getPath());
+      }
+      long binary_time = System.nanoTime() - start_time;
+      if (pass > 0) {
+        report("text", text_time);
+        report("binary", binary_time);
+      }
+    }
+  }
+
+  private static void report(String name, long nanoseconds) {
+    System.out.println(String.format(
+        "%-10s %8.1f us/load", name,
+        (double)nanoseconds / kBenchmarkCount / 1000.0));
+  }
+
+  private static int mFailures;
+
+  private static final int  kBenchmarkCount = 200;
+  private static final int  kMapTiles       = LevelFile.kMapWidth;
+  private static final long kSeed           = 1;
+  private static final int  kTileCount      = 12;
+  private static final int  kTriggerCount   = 50;
+}
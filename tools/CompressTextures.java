@@ -0,0 +1,200 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+import android.com.abb.Etc1;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+
+/** Offline texture compressor, run on the development machine before
+ * packaging, see compress_textures.sh. Every fully opaque PNG found beneath the
+ * specified directory is encoded as ETC1 and written alongside the source as a
+ * .pkm file. Images with any transparency are left alone and continue to load
+ * through the uncompressed RGBA path at runtime.
+ *
+ *   CompressTextures <directory>          Write .pkm files.
+ *   CompressTextures --check <directory>  Verify .pkm files, write nothing.
+ *
+ * The check mode decodes every .pkm file, compares it against its source image
+ * and fails if the error exceeds the tolerance below, or if a .pkm file is
+ * missing or stale. A synthetic image is also round tripped so that the codec
+ * itself is exercised even when no opaque textures exist. */
+public class CompressTextures {
+  public static void main(String[] args) throws IOException {
+    boolean check = args.length == 2 && args[0].equals("--check");
+    if (args.length != 1 && !check) {
+      System.err.println("Usage: CompressTextures [--check] <directory>");
+      System.exit(2);
+    }
+
+    mFailures = 0;
+    if (check) {
+      checkSynthetic();
+    }
+    processDirectory(new File(args[args.length - 1]), check);
+    if (mFailures > 0) {
+      System.err.println(mFailures + " texture(s) failed.");
+      System.exit(1);
+    }
+  }
+
+  private static void processDirectory(File directory, boolean check)
+      throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.isDirectory()) {
+        processDirectory(file, check);
+      } else if (file.getName().endsWith(".png")) {
+        processImage(file, check);
+      }
+    }
+  }
+
+  private static void processImage(File file, boolean check)
+      throws IOException {
+    BufferedImage image = ImageIO.read(file);
+    if (image == null) {
+      System.err.println("Cannot decode: " + file);
+      ++mFailures;
+      return;
+    }
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+    File pkm_file = getPkmFile(file);
+
+    if (!isOpaque(pixels)) {
+      if (pkm_file.exists()) {
+        System.err.println("Transparent image has a .pkm file: " + file);
+        ++mFailures;
+      }
+      return;  // Keeps the uncompressed RGBA path.
+    }
+
+    if (check) {
+      if (!pkm_file.exists() || pkm_file.lastModified() < file.lastModified()) {
+        System.err.println("Missing or stale: " + pkm_file);
+        ++mFailures;
+        return;
+      }
+      byte[] data = readFile(pkm_file);
+      if (data.length < Etc1.kPkmHeaderSize || !Etc1.isValidPkmHeader(data) ||
+          Etc1.getPkmWidth(data) != width ||
+          Etc1.getPkmHeight(data) != height ||
+          data.length != (Etc1.kPkmHeaderSize +
+                          Etc1.getEncodedSize(width, height))) {
+        System.err.println("Invalid: " + pkm_file);
+        ++mFailures;
+        return;
+      }
+      int[] decoded = Etc1.decodeImage(data, Etc1.kPkmHeaderSize,
+                                       width, height);
+      compare(pkm_file.toString(), pixels, decoded);
+    } else {
+      byte[] header = new byte[Etc1.kPkmHeaderSize];
+      Etc1.writePkmHeader(header, width, height);
+      FileOutputStream output = new FileOutputStream(pkm_file);
+      output.write(header);
+      output.write(Etc1.encodeImage(pixels, width, height));
+      output.close();
+      System.out.println("Wrote: " + pkm_file + " (" + pkm_file.length() +
+                         " bytes, " + file.length() + " png)");
+    }
+  }
+
+  /** Round trip a gradient with some noise and hard edges, exercising both
+   * sub-block orientations and both base color modes. */
+  private static void checkSynthetic() {
+    int width = 64;
+    int height = 64;
+    int[] pixels = new int[width * height];
+    java.util.Random random = new java.util.Random(1);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        int red = 4 * x;
+        int green = 4 * y;
+        int blue = ((x / 8 + y / 8) % 2 == 0) ? 40 : 200;
+        int noise = random.nextInt(9) - 4;
+        pixels[width * y + x] = (0xFF000000 |
+                                 clamp(red + noise) << 16 |
+                                 clamp(green + noise) << 8 |
+                                 clamp(blue + noise));
+      }
+    }
+    byte[] encoded = Etc1.encodeImage(pixels, width, height);
+    compare("<synthetic>", pixels, Etc1.decodeImage(encoded, 0, width, height));
+  }
+
+  private static void compare(String name, int[] expected, int[] actual) {
+    double squared_error = 0.0;
+    for (int n = 0; n < expected.length; ++n) {
+      for (int shift = 0; shift < 24; shift += 8) {
+        int delta = ((expected[n] >> shift) & 0xFF) - ((actual[n] >> shift) & 0xFF);
+        squared_error += delta * delta;
+      }
+    }
+    double mean_squared_error = squared_error / (3.0 * expected.length);
+    double psnr = mean_squared_error == 0.0 ? Double.POSITIVE_INFINITY :
+        10.0 * Math.log10(255.0 * 255.0 / mean_squared_error);
+    boolean passed = psnr >= kMinimumPsnr;
+    System.out.println((passed ? "OK   " : "FAIL ") + name +
+                       String.format(" (%.1f dB)", psnr));
+    if (!passed) {
+      ++mFailures;
+    }
+  }
+
+  private static boolean isOpaque(int[] pixels) {
+    for (int pixel : pixels) {
+      if ((pixel >>> 24) != 0xFF) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Return the .pkm file for an image, "tiles.png" -> "tiles.pkm". This must
+   * match TextureImage.getPkmPath(...). */
+  private static File getPkmFile(File file) {
+    String path = file.getPath();
+    return new File(path.substring(0, path.length() - ".png".length()) + ".pkm");
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    byte[] data = new byte[(int)file.length()];
+    FileInputStream input = new FileInputStream(file);
+    int offset = 0;
+    while (offset < data.length) {
+      int count = input.read(data, offset, data.length - offset);
+      if (count < 0) {
+        break;
+      }
+      offset += count;
+    }
+    input.close();
+    return data;
+  }
+
+  private static int clamp(int value) {
+    return value < 0 ? 0 : (value > 255 ? 255 : value);
+  }
+
+  private static int mFailures;
+
+  private static final double kMinimumPsnr = 30.0;  // Decibels.
+}
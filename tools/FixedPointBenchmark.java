@@ -0,0 +1,195 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+import android.com.abb.Fixed;
+import java.util.Random;
+
+
+/** Check and benchmark of the fixed point drawing math against the float path
+ * on the development machine, see benchmark_fixed_point.sh. The tile and
+ * sprite placements of Map.draw(...) and Entity.draw(...), through the Fixed
+ * helpers they share, and the texture coordinates of
+ * Graphics.addQuadFixedOpenGL(...) are compared to the float path, and must
+ * agree to well within a pixel over the whole map at every zoom the game
+ * uses.
+ *
+ *   FixedPointBenchmark           Time the tile placement both ways.
+ *   FixedPointBenchmark --check   Compare the fixed point path to floats.
+ */
+public class FixedPointBenchmark {
+  public static void main(String[] args) {
+    if (args.length == 1 && args[0].equals("--check")) {
+      System.exit(check() ? 0 : 1);
+    } else if (args.length == 0) {
+      benchmark();
+    } else {
+      System.err.println("Usage: FixedPointBenchmark [--check]");
+      System.exit(2);
+    }
+  }
+
+  private static boolean check() {
+    Random random = new Random(kSeed);
+    int failures = 0;
+    for (int test = 0; test < kCheckCount; ++test) {
+      float a = randomFloat(random, kRange);
+      float b = randomFloat(random, kRange);
+      int a_fixed = Fixed.fromFloat(a);
+      int b_fixed = Fixed.fromFloat(b);
+
+      // Arithmetic, within a few units of the last place of the operands.
+      float unit = 1.0f / Fixed.kOne;
+      failures += compare("conversion", Fixed.toFloat(a_fixed), a, unit);
+      failures += compare("mul", Fixed.toFloat(Fixed.mul(a_fixed, b_fixed)),
+                          a * b, (Math.abs(a) + Math.abs(b) + 1.0f) * unit);
+      if (Math.abs(b) >= 1.0f) {
+        failures += compare("div", Fixed.toFloat(Fixed.div(a_fixed, b_fixed)),
+                            a / b, (Math.abs(a / b) + 1.0f) * unit);
+      }
+      failures += compare("round", Fixed.round(a_fixed),
+                          (float)Math.floor(Fixed.toFloat(a_fixed) + 0.5f),
+                          0.0f);
+
+      float center_x = kMapSize * random.nextFloat();
+      float center_y = kMapSize * random.nextFloat();
+      float zoom = kMinZoom + (kMaxZoom - kMinZoom) * random.nextFloat();
+      int half_canvas_width = (int)kCanvasWidth / 2;
+      int half_canvas_height = (int)kCanvasHeight / 2;
+
+      // Tile placement, as Map.draw(...), at both extremes of the map.
+      int tile_step_fixed = Fixed.tileStep(zoom, kTileSize);
+      int origin_x_fixed = Fixed.tileOrigin(center_x, zoom, kTileSize,
+                                            half_canvas_width);
+      int origin_y_fixed = Fixed.tileOrigin(center_y, zoom, kTileSize,
+                                            half_canvas_height);
+      int index_x = random.nextInt(kMapTiles);
+      int index_y = (test & 1) == 0 ? 0 : kMapTiles - 1;
+      float left = kTileSize * index_x * zoom -
+          center_x * zoom + half_canvas_width - kTileSize / 2 * zoom;
+      float top = kTileSize * index_y * zoom -
+          center_y * zoom + half_canvas_height - kTileSize / 2 * zoom;
+      float right = (kTileSize * index_x + kTileSize) * zoom -
+          center_x * zoom + half_canvas_width - kTileSize / 2 * zoom;
+      int left_fixed = Fixed.tileEdge(origin_x_fixed, tile_step_fixed,
+                                      index_x);
+      int top_fixed = Fixed.tileEdge(origin_y_fixed, tile_step_fixed,
+                                     index_y);
+      failures += compare("tile left", Fixed.toFloat(left_fixed), left,
+                          kTolerance);
+      failures += compare("tile top", Fixed.toFloat(top_fixed), top,
+                          kTolerance);
+      failures += compare("tile right",
+                          Fixed.toFloat(left_fixed + tile_step_fixed), right,
+                          kTolerance);
+
+      // Sprite placement, as Entity.draw(...), for sprites on the screen.
+      // Those further away are placed less precisely, the zoom being rounded
+      // to fixed point, but are clipped anyway.
+      float x = center_x + randomFloat(random, half_canvas_width / zoom);
+      int sprite_width = 1 + random.nextInt(kTileSize * 2);
+      float sprite_left = (x - center_x) * zoom +
+          (kCanvasWidth - sprite_width * zoom) / 2.0f;
+      int zoom_fixed = Fixed.fromFloat(zoom);
+      int width_fixed = Fixed.spriteSize(sprite_width, zoom_fixed);
+      int sprite_left_fixed = Fixed.spriteEdge(
+          Fixed.fromFloat(x - center_x), zoom_fixed, width_fixed,
+          (int)kCanvasWidth);
+      failures += compare("sprite left", Fixed.toFloat(sprite_left_fixed),
+                          sprite_left, kTolerance);
+      failures += compare("sprite width", Fixed.toFloat(width_fixed),
+                          sprite_width * zoom, kTolerance);
+
+      // Texture coordinates, as Graphics.addQuadFixedOpenGL(...).
+      int texture_size = 1 << (6 + random.nextInt(5));
+      int texel = random.nextInt(texture_size + 1);
+      failures += compare("texture coordinate",
+                          Fixed.toFloat(Fixed.ratio(texel, texture_size)),
+                          (float)texel / texture_size, 1.0f / Fixed.kOne);
+    }
+    System.out.println((failures == 0 ? "PASS" : "FAIL") + ": " +
+                       failures + " of " + kCheckCount * 11 + " mismatched.");
+    return failures == 0;
+  }
+
+  private static int compare(String name, float value, float expected,
+                             float tolerance) {
+    if (Math.abs(value - expected) <= tolerance) {
+      return 0;
+    }
+    System.err.println("Mismatch in " + name + ": " + value + " vs " +
+                       expected);
+    return 1;
+  }
+
+  private static float randomFloat(Random random, float range) {
+    return range * (2.0f * random.nextFloat() - 1.0f);
+  }
+
+  private static void benchmark() {
+    float sink = 0.0f;
+    int sink_fixed = 0;
+    float zoom = 0.85f;
+    for (int pass = 0; pass < 2; ++pass) {  // The first pass warms up the JIT.
+      long start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        float center_x = n & 4095;
+        float origin_x = -center_x * zoom + kCanvasWidth / 2 -
+            kTileSize / 2 * zoom;
+        for (int index_x = 0; index_x < kRowTiles; ++index_x) {
+          float left = kTileSize * index_x * zoom + origin_x;
+          float right = (kTileSize * index_x + kTileSize) * zoom + origin_x;
+          sink += left + right;
+        }
+      }
+      long float_time = System.nanoTime() - start_time;
+
+      start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        float center_x = n & 4095;
+        int tile_step_fixed = Fixed.tileStep(zoom, kTileSize);
+        int origin_x_fixed = Fixed.tileOrigin(center_x, zoom, kTileSize,
+                                              (int)kCanvasWidth / 2);
+        for (int index_x = 0; index_x < kRowTiles; ++index_x) {
+          int left = Fixed.tileEdge(origin_x_fixed, tile_step_fixed, index_x);
+          sink_fixed += left + left + tile_step_fixed;
+        }
+      }
+      long fixed_time = System.nanoTime() - start_time;
+
+      if (pass > 0) {
+        report("float", float_time);
+        report("fixed", fixed_time);
+      }
+    }
+    if (sink == 0.123f || sink_fixed == 123) {  // Keep the results live.
+      System.out.println(sink + " " + sink_fixed);
+    }
+  }
+
+  private static void report(String name, long nanoseconds) {
+    System.out.println(String.format(
+        "%-10s %6.1f ns/row", name, (double)nanoseconds / kBenchmarkCount));
+  }
+
+  private static final int   kBenchmarkCount = 2000000;
+  private static final float kCanvasHeight   = 320.0f;
+  private static final float kCanvasWidth    = 480.0f;
+  private static final int   kCheckCount     = 10000;
+  private static final int   kMapTiles       = 100;
+  private static final float kMapSize        = kMapTiles * 64.0f;
+  private static final float kMaxZoom        = 1.7f;  // See GameState.
+  private static final float kMinZoom        = 0.3f;
+  private static final float kRange          = 100.0f;
+  private static final int   kRowTiles       = 10;  // Visible across a row.
+  private static final long  kSeed           = 1;
+  private static final int   kTileSize       = 64;
+  private static final float kTolerance      = 1.0f / 16.0f;  // Pixels.
+}
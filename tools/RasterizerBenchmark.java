@@ -0,0 +1,190 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+import android.com.abb.SoftwareRasterizer;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+
+/** Headless benchmark and regression check for the software rasterizer, see
+ * benchmark_rasterizer.sh. A fixed scene built from the game sprites exercises
+ * every drawing path: tile runs through the unscaled blit, zoomed sprites
+ * through the scaled path and rotated articulated parts through the affine
+ * path, each with all combinations of flipping.
+ *
+ *   RasterizerBenchmark                        Time each path and the scene.
+ *   RasterizerBenchmark --write-golden <png>  Render the scene to an image.
+ *   RasterizerBenchmark --check <png>         Compare the scene to an image.
+ */
+public class RasterizerBenchmark {
+  public static void main(String[] args) throws IOException {
+    mTiles = loadTexture("assets/misc.png");
+    mSprites = loadTexture("assets/avatar.png");
+    SoftwareRasterizer rasterizer =
+        new SoftwareRasterizer(kScreenWidth, kScreenHeight);
+
+    if (args.length == 2 && args[0].equals("--write-golden")) {
+      drawScene(rasterizer, kAllPaths);
+      writeImage(rasterizer, new File(args[1]));
+      System.out.println("Wrote: " + args[1]);
+    } else if (args.length == 2 && args[0].equals("--check")) {
+      drawScene(rasterizer, kAllPaths);
+      System.exit(compareImage(rasterizer, new File(args[1])) ? 0 : 1);
+    } else if (args.length == 0) {
+      benchmark(rasterizer, "blit", kBlitPath);
+      benchmark(rasterizer, "scaled", kScaledPath);
+      benchmark(rasterizer, "affine", kAffinePath);
+      benchmark(rasterizer, "scene", kAllPaths);
+    } else {
+      System.err.println(
+          "Usage: RasterizerBenchmark [--write-golden|--check <png>]");
+      System.exit(2);
+    }
+  }
+
+  private static void benchmark(SoftwareRasterizer rasterizer, String name,
+                                int paths) {
+    for (int frame = 0; frame < kWarmupFrames; ++frame) {
+      drawScene(rasterizer, paths);
+    }
+    long start_time = System.nanoTime();
+    for (int frame = 0; frame < kBenchmarkFrames; ++frame) {
+      drawScene(rasterizer, paths);
+    }
+    double frame_time =
+        (System.nanoTime() - start_time) * 1.0e-6 / kBenchmarkFrames;
+    System.out.println(String.format("%-8s %8.3f ms/frame", name, frame_time));
+  }
+
+  /** Draw the test scene, limited to the specified paths. The scene is
+   * entirely deterministic so that it may be compared against a golden
+   * image. */
+  private static void drawScene(SoftwareRasterizer rasterizer, int paths) {
+    rasterizer.clear(0x333333);
+
+    if ((paths & kBlitPath) != 0) {
+      // A screen full of map tiles, drawn as runs as the Map does, offset by a
+      // fraction of a tile as when scrolling.
+      for (int row = 0; row < kScreenHeight / kTileSize + 1; ++row) {
+        for (int run = 0; run < kScreenWidth / (4 * kTileSize) + 1; ++run) {
+          int tile = (row + run) % 8;
+          boolean flipped = (row & 1) != 0;
+          rasterizer.drawImage(mTiles, 0, tile * kTileSize,
+                               kTileSize, (tile + 1) * kTileSize,
+                               run * 4 * kTileSize - 17, row * kTileSize - 9,
+                               run * 4 * kTileSize - 17 + kTileSize,
+                               row * kTileSize - 9 + kTileSize,
+                               flipped, (row & 2) != 0, 4);
+        }
+      }
+    }
+
+    if ((paths & kScaledPath) != 0) {
+      // Sprites at the zoomed out scale used while airborne.
+      float size = kTileSize * 0.6f;
+      for (int sprite = 0; sprite < 32; ++sprite) {
+        float x = (sprite * 57) % kScreenWidth - size / 2.0f;
+        float y = (sprite * 37) % kScreenHeight - size / 2.0f;
+        int frame = sprite % 8;
+        rasterizer.drawImage(mSprites, 0, frame * kTileSize,
+                             kTileSize, (frame + 1) * kTileSize,
+                             x, y, x + size, y + size,
+                             (sprite & 1) != 0, (sprite & 2) != 0, 1);
+      }
+    }
+
+    if ((paths & kAffinePath) != 0) {
+      // Rotated and scaled parts, as drawn by articulated entities.
+      for (int part = 0; part < 32; ++part) {
+        double angle = part * 0.37;
+        float scale = 24.0f + (part % 5) * 8.0f;
+        float cos = (float)Math.cos(angle) * scale;
+        float sin = (float)Math.sin(angle) * scale;
+        float x = (part * 83) % kScreenWidth;
+        float y = (part * 29) % kScreenHeight;
+        int frame = part % 8;
+        rasterizer.drawImage(mSprites, 0, frame * kTileSize,
+                             kTileSize, (frame + 1) * kTileSize,
+                             cos, -sin, x, sin, cos, y,
+                             (part & 1) != 0, (part & 2) != 0, 1 + part % 2);
+      }
+    }
+  }
+
+  private static SoftwareRasterizer.Texture loadTexture(String path)
+      throws IOException {
+    BufferedImage image = ImageIO.read(new File(path));
+    int width = image.getWidth();
+    int height = image.getHeight();
+    return new SoftwareRasterizer.Texture(
+        image.getRGB(0, 0, width, height, null, 0, width), width, height);
+  }
+
+  private static void writeImage(SoftwareRasterizer rasterizer, File file)
+      throws IOException {
+    BufferedImage image = new BufferedImage(
+        rasterizer.getWidth(), rasterizer.getHeight(),
+        BufferedImage.TYPE_INT_RGB);
+    image.setRGB(0, 0, rasterizer.getWidth(), rasterizer.getHeight(),
+                 rasterizer.getPixels(), 0, rasterizer.getWidth());
+    file.getParentFile().mkdirs();
+    ImageIO.write(image, "png", file);
+  }
+
+  /** Compare the frame buffer against the golden image, exactly. The
+   * rasterizer involves no platform dependent arithmetic so any difference is
+   * a change in behavior. */
+  private static boolean compareImage(SoftwareRasterizer rasterizer, File file)
+      throws IOException {
+    BufferedImage golden = ImageIO.read(file);
+    if (golden == null || golden.getWidth() != rasterizer.getWidth() ||
+        golden.getHeight() != rasterizer.getHeight()) {
+      System.err.println("Missing or mismatched golden image: " + file);
+      return false;
+    }
+    int[] expected = golden.getRGB(0, 0, golden.getWidth(), golden.getHeight(),
+                                   null, 0, golden.getWidth());
+    int[] actual = rasterizer.getPixels();
+    int differences = 0;
+    int first_difference = -1;
+    for (int n = 0; n < expected.length; ++n) {
+      if ((expected[n] | 0xFF000000) != (actual[n] | 0xFF000000)) {
+        if (differences++ == 0) {
+          first_difference = n;
+        }
+      }
+    }
+    if (differences == 0) {
+      System.out.println("OK   " + file);
+      return true;
+    }
+    System.out.println("FAIL " + file + ": " + differences +
+                       " pixels differ, first at (" +
+                       first_difference % rasterizer.getWidth() + ", " +
+                       first_difference / rasterizer.getWidth() + ")");
+    return false;
+  }
+
+  private static SoftwareRasterizer.Texture mSprites;
+  private static SoftwareRasterizer.Texture mTiles;
+
+  private static final int kAffinePath      = 4;
+  private static final int kBlitPath        = 1;
+  private static final int kScaledPath      = 2;
+  private static final int kAllPaths        = kBlitPath | kScaledPath | kAffinePath;
+  private static final int kBenchmarkFrames = 500;
+  private static final int kScreenHeight    = 320;
+  private static final int kScreenWidth     = 480;
+  private static final int kTileSize        = 64;
+  private static final int kWarmupFrames    = 50;
+}
@@ -0,0 +1,281 @@
+// Copyright 2008 and onwards Matthew Burkhart.
+//
+// This program is free software; you can redistribute it and/or modify it under
+// the terms of the GNU General Public License as published by the Free Software
+// Foundation; version 3 of the License.
+//
+// This program is distributed in the hope that it will be useful, but WITHOUT
+// ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+// FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+// details.
+
+import android.com.abb.Tokenizer;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+
+/** Check and benchmark of the Tokenizer against the reader it replaced in
+ * Content, reproduced below, on the development machine, see
+ * benchmark_tokenizer.sh. The files are generated in the layout of the game
+ * content: a level of 100x100 tiles followed by its triggers, as written by
+ * editor/editor.py, and an animation of key frames.
+ *
+ *   TokenizerBenchmark           Time loading the files both ways.
+ *   TokenizerBenchmark --check   Compare the tokens and parsed numbers.
+ */
+public class TokenizerBenchmark {
+  public static void main(String[] args) throws IOException {
+    File level_file = File.createTempFile("level_", ".txt");
+    File animation_file = File.createTempFile("animation_", ".txt");
+    level_file.deleteOnExit();
+    animation_file.deleteOnExit();
+    writeLevel(level_file);
+    writeAnimation(animation_file);
+
+    if (args.length == 1 && args[0].equals("--check")) {
+      System.exit(check(level_file.getPath(), animation_file.getPath()) ?
+                  0 : 1);
+    } else if (args.length == 0) {
+      benchmark(level_file.getPath(), animation_file.getPath());
+    } else {
+      System.err.println("Usage: TokenizerBenchmark [--check]");
+      System.exit(2);
+    }
+  }
+
+  private static boolean check(String level_path, String animation_path)
+      throws IOException {
+    int failures = 0;
+    Tokenizer tokenizer = new Tokenizer();
+    for (int pass = 0; pass < 2; ++pass) {  // The second reuses the buffers.
+      tokenizer.open(level_path);
+      failures += compare("level lines", tokenizer, true,
+                          legacyReadFileAndSplit(level_path, "\\n"));
+      tokenizer.open(animation_path);
+      failures += compare("animation tokens", tokenizer, false,
+                          legacyReadFileAndSplit(animation_path, "\\s"));
+    }
+
+    // Numbers, in the formats of the content files and beyond.
+    Random random = new Random(kSeed);
+    File number_file = File.createTempFile("numbers_", ".txt");
+    number_file.deleteOnExit();
+    FileWriter writer = new FileWriter(number_file);
+    String[] fixed_cases = {
+      "0", "-0", "+7", "2147483647", "-2147483648", "0.5", "-.25", "3.",
+      "1e3", "1.5E-3", "-2.5e+2", "123456789012345678901234", "1e-50",
+      "0.000001", "NaN", "-Infinity", "1.0f" };
+    for (String value : fixed_cases) {
+      writer.write(value + "\n");
+    }
+    for (int value = 0; value < kCheckCount; ++value) {
+      writer.write(random.nextInt() + " " +
+                   (random.nextFloat() - 0.5f) * 1000.0f + " " +
+                   String.format("%.3f", random.nextFloat() * 100.0f) + "\n");
+    }
+    writer.close();
+    tokenizer.open(number_file.getPath());
+    while (tokenizer.nextToken()) {
+      String token = tokenizer.getToken();
+      float expected = Float.parseFloat(token);
+      float value = tokenizer.parseFloat();
+      if (!(value == expected || (value != value && expected != expected) ||
+            Math.abs(value - expected) <= Math.ulp(expected))) {
+        System.err.println("Mismatch parsing float: " + token + " as " +
+                           value);
+        ++failures;
+      }
+      int expected_int = 0;
+      boolean is_int = true;
+      try {
+        expected_int = Integer.parseInt(token);
+      } catch (NumberFormatException ex) {
+        is_int = false;
+      }
+      try {
+        int value_int = tokenizer.parseInt();
+        if (!is_int || value_int != expected_int) {
+          System.err.println("Mismatch parsing int: " + token + " as " +
+                             value_int);
+          ++failures;
+        }
+      } catch (NumberFormatException ex) {
+        if (is_int) {
+          System.err.println("Failed parsing int: " + token);
+          ++failures;
+        }
+      }
+    }
+    String[] bad_cases = { "-", ".", "1.2.3", "1e", "x", "99999999999" };
+    for (String value : bad_cases) {
+      writer = new FileWriter(number_file);
+      writer.write(value);
+      writer.close();
+      tokenizer.open(number_file.getPath());
+      tokenizer.nextToken();
+      boolean float_thrown = false, int_thrown = false;
+      try {
+        tokenizer.parseFloat();
+      } catch (NumberFormatException ex) {
+        float_thrown = true;
+      }
+      try {
+        tokenizer.parseInt();
+      } catch (NumberFormatException ex) {
+        int_thrown = true;
+      }
+      if (!int_thrown || (!float_thrown && !value.equals("99999999999"))) {
+        System.err.println("Accepted malformed number: " + value);
+        ++failures;
+      }
+    }
+
+    System.out.println((failures == 0 ? "PASS" : "FAIL") + ": " +
+                       failures + " mismatched.");
+    return failures == 0;
+  }
+
+  private static int compare(String name, Tokenizer tokenizer, boolean lines,
+                             String[] expected) {
+    int index = 0;
+    while (lines ? tokenizer.nextLine() : tokenizer.nextToken()) {
+      if (index >= expected.length ||
+          !tokenizer.tokenEquals(expected[index])) {
+        System.err.println("Mismatch in " + name + " at " + index + ": " +
+                           tokenizer.getToken());
+        return 1;
+      }
+      ++index;
+    }
+    if (index != expected.length) {
+      System.err.println("Mismatch in " + name + ": " + index + " of " +
+                         expected.length + " read.");
+      return 1;
+    }
+    return 0;
+  }
+
+  private static void benchmark(String level_path, String animation_path)
+      throws IOException {
+    Tokenizer tokenizer = new Tokenizer();
+    float sink = 0.0f;
+    for (int pass = 0; pass < 2; ++pass) {  // The first pass warms up the JIT.
+      long start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        // As Map.loadLevelFromFile(...) and the animation loader did.
+        String[] lines = legacyReadFileAndSplit(level_path, "\\n");
+        char[] tiles = lines[0].toCharArray();
+        sink += tiles[n % tiles.length] + lines.length;
+        String[] tokens = legacyReadFileAndSplit(animation_path, "\\s");
+        for (int index = 4; index < tokens.length; index += 3) {
+          sink += Float.parseFloat(tokens[index + 1]) +
+              Float.parseFloat(tokens[index + 2]);
+        }
+      }
+      long legacy_time = System.nanoTime() - start_time;
+
+      start_time = System.nanoTime();
+      for (int n = 0; n < kBenchmarkCount; ++n) {
+        // As Map.loadLevelFromFile(...) and the animation loader do now.
+        tokenizer.open(level_path);
+        tokenizer.nextLine();
+        char[] tiles = new char[tokenizer.getTokenLength()];
+        System.arraycopy(tokenizer.getBuffer(), tokenizer.getTokenStart(),
+                         tiles, 0, tiles.length);
+        sink += tiles[n % tiles.length];
+        while (tokenizer.nextLine()) {
+          sink += tokenizer.getToken().length();
+        }
+        tokenizer.open(animation_path);
+        for (int index = 0; index < 4; ++index) {
+          tokenizer.nextToken();
+        }
+        while (tokenizer.nextToken()) {
+          sink += tokenizer.getToken().length() + tokenizer.nextFloat() +
+              tokenizer.nextFloat();
+        }
+      }
+      long tokenizer_time = System.nanoTime() - start_time;
+
+      if (pass > 0) {
+        report("legacy", legacy_time);
+        report("tokenizer", tokenizer_time);
+      }
+    }
+    if (sink == 0.123f) {  // Keep the results live.
+      System.out.println(sink);
+    }
+  }
+
+  private static void report(String name, long nanoseconds) {
+    System.out.println(String.format(
+        "%-10s %8.1f us/load", name,
+        (double)nanoseconds / kBenchmarkCount / 1000.0));
+  }
+
+  /** The reader Content used before the Tokenizer. */
+  private static String[] legacyReadFileAndSplit(String file_path,
+                                                 String split)
+      throws IOException {
+    FileReader file_reader = new FileReader(new File(file_path));
+    ArrayList<Character> data_array = new ArrayList<Character>();
+    while (file_reader.ready()) {
+      data_array.add(Character.valueOf((char)file_reader.read()));
+    }
+    file_reader.close();
+    char[] data = new char[data_array.size()];
+    for (int index = 0; index < data_array.size(); ++index) {
+      data[index] = data_array.get(index).charValue();
+    }
+    String[] raw_tokens = (new String(data)).split(split);
+    ArrayList<String> tokens = new ArrayList<String>();
+    for (String token : raw_tokens) {
+      if (token.length() > 0) {
+        tokens.add(token);
+      }
+    }
+    return tokens.toArray(new String[0]);
+  }
+
+  private static void writeLevel(File file) throws IOException {
+    Random random = new Random(kSeed);
+    StringBuilder level = new StringBuilder();
+    for (int tile = 0; tile < kMapTiles * kMapTiles; ++tile) {
+      level.append((char)('a' + (random.nextInt(4) == 0 ?
+                                 random.nextInt(kTileCount) : 0)));
+    }
+    for (int trigger = 0; trigger < kTriggerCount; ++trigger) {
+      level.append("\n" + random.nextInt(kMapTiles) + "," +
+                   random.nextInt(kMapTiles) + ",\"enemy=enemy_" +
+                   random.nextInt(4) + ".txt\"");
+    }
+    FileWriter writer = new FileWriter(file);
+    writer.write(level.toString());
+    writer.close();
+  }
+
+  private static void writeAnimation(File file) throws IOException {
+    Random random = new Random(kSeed);
+    String[] parts = { "torso", "head", "thigh", "leg", "arm", "forearm" };
+    FileWriter writer = new FileWriter(file);
+    writer.write("center_x  10\ncenter_y  -4.5\n");
+    for (int frame = 0; frame < kKeyFrameCount; ++frame) {
+      writer.write(parts[frame % parts.length] + "  " +
+                   (frame / parts.length) * 0.1f + "  " +
+                   (random.nextInt(3600) / 10.0f - 180.0f) + "\n");
+    }
+    writer.close();
+  }
+
+  private static final int  kBenchmarkCount = 200;
+  private static final int  kCheckCount     = 10000;
+  private static final int  kKeyFrameCount  = 600;
+  private static final int  kMapTiles       = 100;
+  private static final long kSeed           = 1;
+  private static final int  kTileCount      = 26;
+  private static final int  kTriggerCount   = 50;
+}